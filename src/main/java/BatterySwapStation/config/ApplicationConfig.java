@@ -1,6 +1,5 @@
 package BatterySwapStation.config;
 
-import BatterySwapStation.repository.UserRepository;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -15,16 +14,20 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 @Configuration
 public class ApplicationConfig {
 
-    private final UserRepository userRepository;
+    private final UserPrincipalCache userPrincipalCache;
 
-    public ApplicationConfig(UserRepository userRepository) {
-        this.userRepository = userRepository;
+    public ApplicationConfig(UserPrincipalCache userPrincipalCache) {
+        this.userPrincipalCache = userPrincipalCache;
     }
 
+    // Tra user theo userId qua cache "users" (tự bị xóa khi User thay đổi)
     @Bean
     public UserDetailsService userDetailsService() {
-        return username -> userRepository.findById(username)
-                .orElseThrow(() -> new UsernameNotFoundException("Không tìm thấy người dùng."));
+        return username -> {
+            var user = userPrincipalCache.get(username);
+            if (user == null) throw new UsernameNotFoundException("Không tìm thấy người dùng.");
+            return user;
+        };
     }
 
     @Bean
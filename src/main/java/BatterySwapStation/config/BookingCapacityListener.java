@@ -0,0 +1,49 @@
+package BatterySwapStation.config;
+
+import BatterySwapStation.entity.Booking;
+import BatterySwapStation.service.BookingCapacityLedger;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cập nhật BookingCapacityLedger mỗi khi trạng thái Booking được ghi xuống DB, bất kể service nào đổi,
+ * để không phải gọi ledger ở từng chỗ setBookingStatus.
+ * So sánh với trạng thái lúc nạp / ghi gần nhất (Booking.persistedStatus); ledger tự áp sau commit.
+ * UPDATE hàng loạt không qua entity (quét hết hạn) vẫn báo riêng qua onBulkReleased.
+ * Ledger lấy lười vì listener được tạo cùng EntityManagerFactory.
+ */
+@Component
+public class BookingCapacityListener {
+
+    private final ObjectProvider<BookingCapacityLedger> capacityLedger;
+
+    public BookingCapacityListener(ObjectProvider<BookingCapacityLedger> capacityLedger) {
+        this.capacityLedger = capacityLedger;
+    }
+
+    @PostLoad
+    @PostPersist
+    public void remember(Booking booking) {
+        booking.setPersistedStatus(booking.getBookingStatus());
+    }
+
+    @PostUpdate
+    public void onUpdate(Booking booking) {
+        Booking.BookingStatus previousStatus = booking.getPersistedStatus();
+        booking.setPersistedStatus(booking.getBookingStatus());
+        if (previousStatus == booking.getBookingStatus()) return;
+
+        BookingCapacityLedger ledger = capacityLedger.getIfAvailable();
+        if (ledger != null) ledger.onStatusChange(booking, previousStatus);
+    }
+
+    @PostRemove
+    public void onRemove(Booking booking) {
+        BookingCapacityLedger ledger = capacityLedger.getIfAvailable();
+        if (ledger != null) ledger.onDeleted(booking, booking.getPersistedStatus());
+    }
+}
@@ -1,18 +1,78 @@
 package BatterySwapStation.config;
 
+import BatterySwapStation.entity.SystemPrice;
+import BatterySwapStation.repository.SubscriptionPlanRepository;
+import BatterySwapStation.repository.SystemPriceRepository;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
-import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Các vùng cache của ứng dụng (Caffeine): mỗi vùng có TTL, giới hạn số phần tử (loại bỏ theo
+ * W-TinyLFU) và recordStats để actuator xuất metric cache.gets{result=hit|miss},
+ * cache.evictions, cache.size theo tên cache.
+ *
+ * Vùng có loader được làm mới trước (refresh-ahead): sau refreshAfterWrite, lần đọc kế tiếp
+ * vẫn trả giá trị cũ ngay và nạp lại ở nền.
+ *
+ * Số pin theo trạm không nằm ở đây mà trong StationAvailabilityCache (view cập nhật theo sự kiện).
+ */
 @Configuration
 @EnableCaching
 public class CacheConfig {
 
+    public static final String SYSTEM_PRICES = "systemPrices";
+    public static final String SUBSCRIPTION_PLANS = "subscriptionPlans";
+    public static final String USERS = "users";
+    public static final String JWT_CLAIMS = "jwtClaims";
+
+    // Key duy nhất của vùng subscriptionPlans
+    public static final String ALL_PLANS_KEY = "all";
+
     @Bean
-    public CacheManager cacheManager() {
-        // Dùng ConcurrentMapCache (nhẹ, không phụ thuộc lib ngoài)
-        return new ConcurrentMapCacheManager("stations");
+    public CacheManager cacheManager(SystemPriceRepository systemPriceRepository,
+                                     SubscriptionPlanRepository subscriptionPlanRepository) {
+        CaffeineCacheManager manager = new CaffeineCacheManager();
+        manager.setAllowNullValues(false);
+
+        // Bảng giá: vài dòng, đọc ở mọi booking/payment
+        manager.registerCustomCache(SYSTEM_PRICES, Caffeine.newBuilder()
+                .maximumSize(100)
+                .expireAfterWrite(Duration.ofHours(1))
+                .refreshAfterWrite(Duration.ofMinutes(10))
+                .recordStats()
+                .build(key -> systemPriceRepository
+                        .findPriceByPriceType((SystemPrice.PriceType) key)
+                        .orElse(null)));
+
+        // Danh sách gói thuê bao (dạng map phẳng)
+        manager.registerCustomCache(SUBSCRIPTION_PLANS, Caffeine.newBuilder()
+                .maximumSize(1)
+                .expireAfterWrite(Duration.ofHours(1))
+                .refreshAfterWrite(Duration.ofMinutes(10))
+                .recordStats()
+                .build(key -> List.copyOf(subscriptionPlanRepository.findAllSimplePlans())));
+
+        // User theo userId (principal của request); bị xóa khỏi cache mỗi khi entity User được update/delete
+        manager.registerCustomCache(USERS, Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(Duration.ofMinutes(2))
+                .recordStats()
+                .build());
+
+        // Claims đã parse của JWT theo SHA-256 của token (JwtService.resolveUserId)
+        manager.registerCustomCache(JWT_CLAIMS, Caffeine.newBuilder()
+                .maximumSize(50_000)
+                .expireAfterWrite(Duration.ofMinutes(10))
+                .recordStats()
+                .build());
+
+        return manager;
     }
 }
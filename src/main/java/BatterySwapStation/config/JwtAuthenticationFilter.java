@@ -1,7 +1,6 @@
 package BatterySwapStation.config;
 
 import BatterySwapStation.entity.User;
-import BatterySwapStation.repository.UserRepository;
 import BatterySwapStation.service.JwtService;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -23,16 +22,16 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtService jwtService;
     private final UserDetailsService userDetailsService;
-    private final UserRepository userRepository;
+    private final UserPrincipalCache userPrincipalCache;
 
     public JwtAuthenticationFilter(
             JwtService jwtService,
             UserDetailsService userDetailsService,
-            UserRepository userRepository
+            UserPrincipalCache userPrincipalCache
     ) {
         this.jwtService = jwtService;
         this.userDetailsService = userDetailsService;
-        this.userRepository = userRepository;
+        this.userPrincipalCache = userPrincipalCache;
     }
 
     @Override
@@ -59,7 +58,8 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         String userId;
 
         try {
-            userId = jwtService.extractUserId(jwt);
+            // Claims lấy từ cache theo hash token, chỉ parse lần đầu
+            userId = jwtService.resolveUserId(jwt);
         } catch (Exception e) {
             filterChain.doFilter(request, response);
             return;
@@ -67,7 +67,8 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
         if (userId != null && SecurityContextHolder.getContext().getAuthentication() == null) {
 
-            User userEntity = userRepository.findById(userId).orElse(null);
+            // Principal lấy từ cache "users", không query DB mỗi request
+            User userEntity = userPrincipalCache.get(userId);
 
             if (userEntity != null) {
                 UsernamePasswordAuthenticationToken authToken =
@@ -0,0 +1,62 @@
+package BatterySwapStation.config;
+
+import BatterySwapStation.entity.Invoice;
+import BatterySwapStation.entity.Payment;
+import BatterySwapStation.entity.Swap;
+import BatterySwapStation.service.ReportRollupService;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Đánh dấu bucket rollup cần tính lại khi Swap / Payment / Invoice được ghi, bất kể ghi từ service nào.
+ * Đánh dấu sau commit: nếu tính lại trước commit sẽ đọc dữ liệu cũ và mất đánh dấu.
+ * Payment chỉ lấy invoiceId (không chạm proxy lazy trong lúc flush); giờ tạo hóa đơn được tra lúc tính lại.
+ */
+@Component
+public class ReportRollupListener {
+
+    private final ObjectProvider<ReportRollupService> rollupService;
+
+    public ReportRollupListener(ObjectProvider<ReportRollupService> rollupService) {
+        this.rollupService = rollupService;
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void onChange(Object entity) {
+        ReportRollupService service = rollupService.getIfAvailable();
+        if (service == null) return;
+
+        Runnable mark;
+        if (entity instanceof Swap swap) {
+            var completedTime = swap.getCompletedTime();
+            mark = () -> service.markHour(completedTime);
+        } else if (entity instanceof Payment payment) {
+            if (payment.getInvoice() == null) return;
+            Long invoiceId = payment.getInvoice().getInvoiceId();
+            mark = () -> service.markInvoice(invoiceId);
+        } else if (entity instanceof Invoice invoice) {
+            var createdDate = invoice.getCreatedDate();
+            mark = () -> service.markHour(createdDate);
+        } else {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    mark.run();
+                }
+            });
+        } else {
+            mark.run();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package BatterySwapStation.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Đẩy các sequence pooled lên trên id lớn nhất đang có trong bảng.
+ *
+ * Booking, Swap, Payment, Vehicle, VehicleBattery, Report trước đây dùng cột IDENTITY; ddl-auto tạo sequence mới bắt đầu từ 1,
+ * nên lần khởi động đầu tiên sau khi đổi (hoặc khi có dữ liệu được chèn thẳng vào cột IDENTITY)
+ * sequence sẽ nằm dưới dữ liệu cũ. Chạy sau khi EntityManagerFactory đã cập nhật schema, trước khi nhận request.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class SequenceAligner {
+
+    // sequence, bảng, cột id – khớp với @SequenceGenerator của entity
+    private static final String[][] SEQUENCES = {
+            {"booking_sequence", "booking", "bookingid"},
+            {"swap_sequence", "swap", "swapid"},
+            {"payment_sequence", "payment", "paymentid"},
+            {"vehicle_sequence", "vehicle", "vehicleid"},
+            {"vehiclebattery_sequence", "vehiclebattery", "vehiclebatteryid"},
+            {"report_sequence", "report", "id"},
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    // Chỉ để bảo đảm schema (và sequence) đã được tạo trước khi chạy
+    private final EntityManagerFactory entityManagerFactory;
+
+    @PostConstruct
+    void align() {
+        for (String[] s : SEQUENCES) {
+            try {
+                // setval(max) → khối id kế tiếp bắt đầu từ max + 1
+                Long value = jdbcTemplate.queryForObject(
+                        "SELECT CASE WHEN m > (SELECT last_value FROM " + s[0] + ") THEN setval('" + s[0] + "', m) END "
+                                + "FROM (SELECT COALESCE(MAX(" + s[2] + "), 0) AS m FROM " + s[1] + ") t",
+                        Long.class);
+                if (value != null) {
+                    log.info("SequenceAligner: {} → {}", s[0], value);
+                }
+            } catch (Exception e) {
+                log.warn("SequenceAligner: không căn được {}: {}", s[0], e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package BatterySwapStation.config;
+
+import BatterySwapStation.entity.User;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Xóa User khỏi cache "users" mỗi khi entity được update/delete (đổi mật khẩu, SĐT, role,
+ * ví, trạng thái...), để không phải rải @CacheEvict ở từng chỗ sửa User.
+ * Xóa ngay lúc flush và xóa lại sau commit, để request đọc bản cũ trong lúc transaction
+ * chưa commit không giữ nó trong cache tới hết TTL.
+ * UserPrincipalCache lấy lười vì listener được tạo cùng EntityManagerFactory.
+ */
+@Component
+public class UserCacheEvictionListener {
+
+    private final ObjectProvider<UserPrincipalCache> principalCache;
+
+    public UserCacheEvictionListener(ObjectProvider<UserPrincipalCache> principalCache) {
+        this.principalCache = principalCache;
+    }
+
+    @PostUpdate
+    @PostRemove
+    public void evict(User user) {
+        UserPrincipalCache cache = principalCache.getIfAvailable();
+        String userId = user.getUserId();
+        if (cache == null || userId == null) return;
+
+        cache.evict(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cache.evict(userId);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package BatterySwapStation.config;
+
+import BatterySwapStation.entity.User;
+import BatterySwapStation.repository.UserRepository;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+/**
+ * Principal của request đã xác thực: User theo userId, đọc qua cache "users"
+ * (TTL ngắn, giới hạn kích thước – xem CacheConfig). Entry bị xóa mỗi khi User
+ * được update/delete (UserCacheEvictionListener), nên đổi mật khẩu, SĐT hay role
+ * có hiệu lực ngay ở request kế tiếp.
+ */
+@Component
+public class UserPrincipalCache {
+
+    private final UserRepository userRepository;
+    private final CacheManager cacheManager;
+
+    public UserPrincipalCache(UserRepository userRepository, CacheManager cacheManager) {
+        this.userRepository = userRepository;
+        this.cacheManager = cacheManager;
+    }
+
+    /**
+     * @return User hoặc null nếu không tồn tại
+     */
+    public User get(String userId) {
+        if (userId == null) return null;
+        Cache users = users();
+        User cached = users.get(userId, User.class);
+        if (cached != null) return cached;
+
+        User user = userRepository.findById(userId).orElse(null);
+        if (user != null) users.put(userId, user);
+        return user;
+    }
+
+    public void evict(String userId) {
+        if (userId != null) users().evict(userId);
+    }
+
+    private Cache users() {
+        return cacheManager.getCache(CacheConfig.USERS);
+    }
+}
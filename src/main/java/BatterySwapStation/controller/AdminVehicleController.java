@@ -1,6 +1,8 @@
 package BatterySwapStation.controller;
 
+import BatterySwapStation.dto.VehicleImportJobDTO;
 import BatterySwapStation.dto.VehicleImportResultDTO;
+import BatterySwapStation.service.VehicleImportJobService;
 import BatterySwapStation.service.VehicleImportService;
 import BatterySwapStation.service.VehicleService;
 import lombok.RequiredArgsConstructor;
@@ -10,8 +12,10 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/admin/vehicles")
@@ -19,21 +23,51 @@ import java.util.Map;
 public class AdminVehicleController {
 
     private final VehicleImportService vehicleImportService;
+    private final VehicleImportJobService vehicleImportJobService;
     private final VehicleService vehicleService;
 
     @PostMapping(value = "/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<Map<String, Object>> importVehicles(
-            @RequestPart("file") MultipartFile file) {
+            @RequestPart("file") MultipartFile file,
+            @RequestParam(defaultValue = "0") int startRow) {
 
         try {
-            VehicleImportResultDTO result = vehicleImportService.importVehiclesFromCSV(file);
+            VehicleImportResultDTO result = vehicleImportService.importVehiclesFromCSV(file, startRow);
 
-            return ResponseEntity.ok(Map.of(
+            // LinkedHashMap: resumeFromRow có thể null (Map.of không nhận null)
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("success", true);
+            body.put("totalRows", result.getTotalRows());
+            body.put("successCount", result.getSuccessCount());
+            body.put("failureCount", result.getFailureCount());
+            body.put("errors", result.getErrors());
+            body.put("resumeFromRow", result.getResumeFromRow());
+            return ResponseEntity.ok(body);
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of(
+                "success", false,
+                "error", e.getMessage()
+            ));
+        }
+    }
+
+    // Import chạy nền: trả jobId ngay (202), theo dõi qua GET /import/jobs/{jobId}
+    @PostMapping(value = "/import/jobs", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<Map<String, Object>> submitImportJob(
+            @RequestPart("file") MultipartFile file,
+            @RequestParam(defaultValue = "0") int startRow) {
+
+        try {
+            VehicleImportJobDTO job = vehicleImportJobService.submit(file, startRow);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of(
                 "success", true,
-                "totalRows", result.getTotalRows(),
-                "successCount", result.getSuccessCount(),
-                "failureCount", result.getFailureCount(),
-                "errors", result.getErrors()
+                "jobId", job.getJobId(),
+                "job", job
+            ));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of(
+                "success", false,
+                "error", e.getMessage()
             ));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of(
@@ -43,6 +77,21 @@ public class AdminVehicleController {
         }
     }
 
+    @GetMapping("/import/jobs/{jobId}")
+    public ResponseEntity<Map<String, Object>> getImportJob(@PathVariable String jobId) {
+        VehicleImportJobDTO job = vehicleImportJobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of(
+                "success", false,
+                "error", "Không tìm thấy job import: " + jobId
+            ));
+        }
+        return ResponseEntity.ok(Map.of(
+            "success", true,
+            "job", job
+        ));
+    }
+
     @GetMapping
     public ResponseEntity<Map<String, Object>> getAllVehicles() {
         List<?> list = vehicleService.getAllVehiclesAdminUnpaged();
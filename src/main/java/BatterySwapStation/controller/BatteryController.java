@@ -2,6 +2,7 @@ package BatterySwapStation.controller;
 
 import BatterySwapStation.dto.ApiResponse;
 import BatterySwapStation.repository.BatteryRepository;
+import BatterySwapStation.service.BatteryAnalyticsService;
 import BatterySwapStation.service.BatteryService;
 import io.swagger.v3.oas.annotations.Operation;
 import lombok.RequiredArgsConstructor;
@@ -17,6 +18,7 @@ import java.util.Map;
 public class BatteryController {
 
     private final BatteryService batteryService;
+    private final BatteryAnalyticsService batteryAnalyticsService;
 
 
     @Operation (summary = "Cập nhật trạng thái pin")
@@ -59,10 +61,10 @@ public class BatteryController {
         return ResponseEntity.ok(batteryService.getBatteryDetail(batteryId));
     }
 
-    @Operation(summary = "[TEST]Thống kê pin trong hệ thống")
+    @Operation(summary = "Thống kê pin trong hệ thống (theo loại / trạm, histogram SoH và số chu kỳ)")
     @GetMapping("/analytics")
     public ResponseEntity<?> getBatteryAnalytics() {
-        return ResponseEntity.ok(batteryService.getBatteryStatistics());
+        return ResponseEntity.ok(batteryAnalyticsService.getBatteryStatistics());
     }
 
     @Operation(summary = "Liệt kê toàn bộ pin rời theo từng trạm (không nằm trong DockSlot)")
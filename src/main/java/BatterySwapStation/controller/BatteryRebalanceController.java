@@ -50,6 +50,12 @@ public class BatteryRebalanceController {
         return ResponseEntity.ok(rebalanceService.getAiSuggestions());
     }
 
+    @Operation(summary = "Admin - Tạo lệnh điều phối theo dự báo nhu cầu (tách theo loại pin)")
+    @PostMapping("/forecast-orders")
+    public ResponseEntity<?> createForecastOrders() {
+        return ResponseEntity.ok(rebalanceService.createForecastOrders());
+    }
+
     @Operation(summary = "Admin - Áp dụng gợi ý AI → tạo lệnh điều phối thực tế")
     @PostMapping("/apply-ai")
     public ResponseEntity<?> applyAiSuggestion(@RequestBody RebalanceSuggestion suggestion) {
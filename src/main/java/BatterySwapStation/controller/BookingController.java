@@ -10,22 +10,28 @@ import BatterySwapStation.entity.Battery;
 import BatterySwapStation.repository.BookingRepository;
 import BatterySwapStation.dto.BookingRequest;
 import BatterySwapStation.utils.QrTokenUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 
 
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
@@ -43,6 +49,9 @@ public class BookingController {
     private final InvoiceService invoiceService;
     private final BookingRepository bookingRepository;
     private final SystemPriceService systemPriceService; // Thêm SystemPriceService
+    private final ObjectMapper objectMapper;
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
 
     @PostMapping
     @Operation(summary = "Tạo booking mới", description = "Tạo một booking mới cho việc thay pin")
@@ -129,7 +138,9 @@ public class BookingController {
     @Operation(summary = "Lấy booking theo trạng thái", description = "Lấy danh sách booking theo trạng thái cụ thể (PENDINGPAYMENT, PENDINGSWAPPING, CANCELLED, COMPLETED)")
     public ResponseEntity<ApiResponse> getBookingsByStatus(
             @PathVariable @Parameter(description = "Trạng thái booking (PENDINGPAYMENT, PENDINGSWAPPING, CANCELLED, COMPLETED)")
-            String status) {
+            String status,
+            @RequestParam(required = false) @Parameter(description = "nextCursor của trang trước") String cursor,
+            @RequestParam(required = false) @Parameter(description = "Số booking mỗi trang (tối đa 200); bỏ trống = trả toàn bộ") Integer limit) {
         try {
             // Validate status trước khi gọi service
             String normalizedStatus = status.toUpperCase();
@@ -138,6 +149,11 @@ public class BookingController {
                         .body(new ApiResponse(false, "Trạng thái không hợp lệ. Chỉ chấp nhận: PENDINGPAYMENT, PENDINGSWAPPING, CANCELLED, COMPLETED"));
             }
 
+            if (limit != null) {
+                BookingPage page = bookingService.getBookingPage(normalizedStatus, null, null, cursor, limit);
+                return ResponseEntity.ok(new ApiResponse(true, "Lấy danh sách booking thành công!", page));
+            }
+
             List<BookingResponse> bookings = bookingService.getBookingsByStatus(normalizedStatus);
             return ResponseEntity.ok(new ApiResponse(true, "Lấy danh sách booking thành công!", bookings));
         } catch (Exception e) {
@@ -149,8 +165,15 @@ public class BookingController {
     @GetMapping("/station/{stationId}")
     @Operation(summary = "Lấy booking của station", description = "Lấy tất cả booking của một station cụ thể")
     public ResponseEntity<ApiResponse> getStationBookings(
-            @PathVariable @Parameter(description = "ID của station") Integer stationId) {
+            @PathVariable @Parameter(description = "ID của station") Integer stationId,
+            @RequestParam(required = false) @Parameter(description = "nextCursor của trang trước") String cursor,
+            @RequestParam(required = false) @Parameter(description = "Số booking mỗi trang (tối đa 200); bỏ trống = trả toàn bộ") Integer limit) {
         try {
+            if (limit != null) {
+                BookingPage page = bookingService.getBookingPage(null, stationId, null, cursor, limit);
+                return ResponseEntity.ok(new ApiResponse(true, "Lấy danh sách booking thành công!", page));
+            }
+
             List<BookingResponse> bookings = bookingService.getStationBookings(stationId);
             return ResponseEntity.ok(new ApiResponse(true, "Lấy danh sách booking thành công!", bookings));
         } catch (Exception e) {
@@ -195,8 +218,15 @@ public class BookingController {
 
     @GetMapping
     @Operation(summary = "Lấy tất cả booking", description = "Lấy danh sách tất cả booking (dành cho admin)")
-    public ResponseEntity<ApiResponse> getAllBookings() {
+    public ResponseEntity<ApiResponse> getAllBookings(
+            @RequestParam(required = false) @Parameter(description = "nextCursor của trang trước") String cursor,
+            @RequestParam(required = false) @Parameter(description = "Số booking mỗi trang (tối đa 200); bỏ trống = trả toàn bộ") Integer limit) {
         try {
+            if (limit != null) {
+                BookingPage page = bookingService.getBookingPage(null, null, null, cursor, limit);
+                return ResponseEntity.ok(new ApiResponse(true, "Lấy tất cả booking thành công!", page));
+            }
+
             List<BookingResponse> bookings = bookingService.getAllBookings();
             return ResponseEntity.ok(new ApiResponse(true, "Lấy tất cả booking thành công!", bookings));
         } catch (Exception e) {
@@ -205,6 +235,32 @@ public class BookingController {
         }
     }
 
+    @GetMapping("/export")
+    @Operation(summary = "Xuất booking dạng NDJSON",
+            description = "Stream toàn bộ booking khớp bộ lọc, mỗi dòng 1 JSON (mới nhất trước). Dữ liệu được đọc theo lô nên không giới hạn số dòng")
+    public ResponseEntity<StreamingResponseBody> exportBookings(
+            @RequestParam(required = false) @Parameter(description = "Trạng thái booking") String status,
+            @RequestParam(required = false) @Parameter(description = "ID của station") Integer stationId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        // Kiểm tra trước khi bắt đầu stream – lỗi giữa chừng không trả được mã 400 nữa
+        if (status != null && !status.toUpperCase().matches("PENDINGPAYMENT|PENDINGSWAPPING|CANCELLED|COMPLETED|FAILED")) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        StreamingResponseBody body = out -> bookingService.exportBookings(status, stationId, date, booking -> {
+            try {
+                out.write(objectMapper.writeValueAsBytes(booking));
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok()
+                .contentType(NDJSON)
+                .header("Content-Disposition", "attachment; filename=\"bookings.ndjson\"")
+                .body(body);
+    }
+
     @PostMapping("/createinvoice")
     @Operation(summary = "Tạo invoice và bookings từ danh sách xe", description = "Tạo invoice và bookings cho từng xe được chọn, tự động lấy userId từ xe")
     public ResponseEntity<Map<String, Object>> createInvoiceFromVehicles(
@@ -13,10 +13,10 @@ import BatterySwapStation.service.StationService;
 import BatterySwapStation.service.BookingService;
 import BatterySwapStation.service.SubscriptionService;
 import BatterySwapStation.repository.UserRepository;
-import BatterySwapStation.repository.SwapRepository;
-import BatterySwapStation.repository.InvoiceRepository;
+import BatterySwapStation.repository.ReportRepository;
 
 import java.time.LocalDate;
+import java.util.Map;
 
 @RestController
 @RequiredArgsConstructor
@@ -38,10 +38,7 @@ public class DashboardController {
     private UserRepository userRepository;
 
     @Autowired
-    private SwapRepository swapRepository;
-
-    @Autowired
-    private InvoiceRepository invoiceRepository;
+    private ReportRepository reportRepository;
 
     /**
      * GET /api/dashboard
@@ -136,13 +133,10 @@ public class DashboardController {
         // 3) active users (count all users for now)
         long activeUsers = userRepository.count();
 
-        // 4) swaps today (all stations)
-        int swapsToday = swapRepository.fetchDailySwapByAllStations(d, d)
-                .stream().mapToInt(r -> ((Number) r.get("swapCount")).intValue()).sum();
-
-        // 5) revenue today (all stations)
-        double revenueToday = invoiceRepository.fetchDailyRevenueByAllStations(d, d)
-                .stream().mapToDouble(r -> ((Number) r.get("totalRevenue")).doubleValue()).sum();
+        // 4) + 5) swaps / revenue today (all stations) – 1 dòng tổng từ ReportDailyRollup
+        Map<String, Object> totals = reportRepository.fetchDayTotals(d).get(0);
+        int swapsToday = ((Number) totals.get("swapCount")).intValue();
+        double revenueToday = ((Number) totals.get("totalRevenue")).doubleValue();
 
         DashboardResponse resp = new DashboardResponse();
         resp.setTotalStation(totalStation);
@@ -174,13 +168,13 @@ public class DashboardController {
             System.err.println("Warning: failed to get vehicles at station: " + e.getMessage());
         }
 
-        // swaps today for this station
-        int swapsToday = swapRepository.fetchDailySwapByStation(stationId, d, d)
-                .stream().mapToInt(r -> ((Number) r.get("swapCount")).intValue()).sum();
-
-        // revenue today for station
-        double revenueToday = invoiceRepository.fetchDailyRevenueByStation(stationId, d, d)
-                .stream().mapToDouble(r -> ((Number) r.get("totalRevenue")).doubleValue()).sum();
+        // swaps / revenue today for this station – bucket ngày của trạm trong ReportDailyRollup (0 hoặc 1 dòng)
+        int swapsToday = 0;
+        double revenueToday = 0;
+        for (Map<String, Object> r : reportRepository.fetchDailyByStation(stationId, d, d)) {
+            swapsToday += ((Number) r.get("swapCount")).intValue();
+            revenueToday += ((Number) r.get("totalRevenue")).doubleValue();
+        }
 
         DashboardResponse resp = new DashboardResponse();
         resp.setTotalStation(totalStation);
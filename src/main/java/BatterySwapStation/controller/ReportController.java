@@ -1,32 +1,48 @@
 package BatterySwapStation.controller;
 
 import BatterySwapStation.dto.ApiResponse;
+import BatterySwapStation.dto.ReportExportJobDTO;
+import BatterySwapStation.entity.Report;
+import BatterySwapStation.service.ReportExportJobService;
+import BatterySwapStation.service.ReportExportJobService.Artifact;
 import BatterySwapStation.service.ReportExportService;
+import BatterySwapStation.service.ReportExportService.ExportFormat;
+import BatterySwapStation.service.ReportRollupService;
 import BatterySwapStation.service.ReportService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.Hidden;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 
 // thêm import cho thao tác file
 
@@ -38,6 +54,12 @@ public class ReportController {
 
     private final ReportService reportService;
     private final ReportExportService reportExportService;
+    private final ReportRollupService reportRollupService;
+    private final ReportExportJobService reportExportJobService;
+
+    // /export/download chờ job tạo file tối đa bấy nhiêu giây, quá thì trả 202 + jobId
+    @Value("${report-export.download-wait-seconds:120}")
+    private long downloadWaitSeconds;
 
     @Operation (summary = "Báo cáo hiệu suất trạm trong ngày hôm nay")
     @GetMapping("/station/performance")
@@ -86,6 +108,20 @@ public class ReportController {
                 reportService.getSwapReport(startDate, endDate, false)));
     }
 
+    @Operation (summary = "Tính lại bảng tổng hợp báo cáo (rollup) cho khoảng ngày – dùng khi sửa dữ liệu cũ")
+    @PostMapping("/rollup/backfill")
+    public ResponseEntity<ApiResponse> backfillRollup(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate
+    ) {
+        try {
+            int days = reportRollupService.backfill(startDate, endDate);
+            return ResponseEntity.ok(new ApiResponse(true, "Đã tính lại " + days + " ngày", Map.of("days", days)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new ApiResponse(false, e.getMessage()));
+        }
+    }
+
     @Operation (summary = "Báo cáo tổng hợp hiệu suất hoạt động của hệ thống")
     @GetMapping("/summary")
     public ResponseEntity<ApiResponse> getSummary() {
@@ -114,31 +150,44 @@ public class ReportController {
                     )
             } // don't rely solely on Operation.hidden here
     )
-    @GetMapping(value = "/{id}/export", produces = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet")
-    public ResponseEntity<byte[]> exportReport(@PathVariable Long id) {
+    @GetMapping(value = "/{id}/export")
+    public ResponseEntity<?> exportReport(
+            @PathVariable Long id,
+            @RequestParam(required = false) String format
+    ) {
         try {
+            ExportFormat exportFormat = ExportFormat.from(format);
+            String env = System.getenv("EXPORT_BASE_DIR");
+
+            // Không cần lưu file lên server → stream thẳng (xlsx / csv / ndjson)
+            if (exportFormat != ExportFormat.XLSX || env == null || env.isBlank()) {
+                Report report = reportExportService.getReport(id);
+                StreamingResponseBody body = out -> reportExportService.writeReport(report, exportFormat, out);
+                return ResponseEntity.ok()
+                        .header("Content-Disposition", "attachment; filename=report-" + id + "." + exportFormat.extension())
+                        .contentType(MediaType.parseMediaType(exportFormat.contentType()))
+                        .body(body);
+            }
+
             byte[] excelBytes = reportExportService.exportReportToExcel(id);
 
             // Lưu file vào ổ D: (thư mục D:\\batteryswap-exports) nếu environment chỉ định
             String filename = "report-" + id + ".xlsx";
             try {
-                String env = System.getenv("EXPORT_BASE_DIR");
-                if (env != null && !env.isBlank()) {
-                    Path dir = Paths.get(env);
-                    if (!Files.exists(dir)) Files.createDirectories(dir);
-                    Path filePath = dir.resolve(filename);
-                    Files.write(filePath, excelBytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-                    return ResponseEntity.ok()
-                            .header("Content-Disposition", "attachment; filename=" + filename)
-                            .header("X-Saved-Path", filePath.toAbsolutePath().toString())
-                            .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
-                            .body(excelBytes);
-                }
+                Path dir = Paths.get(env);
+                if (!Files.exists(dir)) Files.createDirectories(dir);
+                Path filePath = dir.resolve(filename);
+                Files.write(filePath, excelBytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                return ResponseEntity.ok()
+                        .header("Content-Disposition", "attachment; filename=" + filename)
+                        .header("X-Saved-Path", filePath.toAbsolutePath().toString())
+                        .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
+                        .body(excelBytes);
             } catch (Exception ex) {
                 log.warn("Could not save single report to configured dir: {}", ex.getMessage());
             }
 
-            // fallback: stream trực tiếp
+            // fallback: trả file đã tạo
             return ResponseEntity.ok()
                     .header("Content-Disposition", "attachment; filename=report-" + id + ".xlsx")
                     .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
@@ -179,17 +228,13 @@ public class ReportController {
     public ResponseEntity<?> exportAllReportsUnified(
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
-            @RequestParam(required = false, defaultValue = "json") String mode
+            @RequestParam(required = false, defaultValue = "json") String mode,
+            HttpServletRequest request
     ) {
         try {
             // mode=download -> trả về file nhị phân trực tiếp
             if ("download".equalsIgnoreCase(mode)) {
-                byte[] excelBytes = reportExportService.exportAllReportsToExcel(startDate, endDate);
-                String filename = String.format("reports_%s_to_%s.xlsx", startDate, endDate);
-                return ResponseEntity.ok()
-                        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                        .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
-                        .body(excelBytes);
+                return serveAllReports(startDate, endDate, ExportFormat.XLSX, request);
             }
 
             // mode=link -> trả về đường dẫn để client gọi /export/download
@@ -217,52 +262,17 @@ public class ReportController {
                 payload.put("sheets", sheets);
                 payload.put("downloadUrl", downloadEndpoint);
 
-                // Nếu ENV chỉ định thư mục lưu file, kèm savedPath
-                try {
-                    String env = System.getenv("EXPORT_BASE_DIR");
-                    if (env != null && !env.isBlank()) {
-                        byte[] excelBytes = reportExportService.exportAllReportsToExcel(startDate, endDate);
-                        Path dir = Paths.get(env);
-                        if (!Files.exists(dir)) Files.createDirectories(dir);
-                        String filename = String.format("reports_%s_to_%s.xlsx", startDate, endDate);
-                        Path filePath = dir.resolve(filename);
-                        Files.write(filePath, excelBytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-                        payload.put("savedPath", filePath.toAbsolutePath().toString());
-                    }
-                } catch (Exception ex) {
-                    log.debug("Skipping saving exported file to disk: {}", ex.getMessage());
-                }
+                // Nếu ENV chỉ định thư mục lưu file, chuẩn bị sẵn file (kèm savedPath khi đã có)
+                prepareExport(startDate, endDate, payload);
 
                 return ResponseEntity.ok(payload);
             }
 
             // default: trả về link (mode=link)
-            String savedPath = null;
-            try {
-                String env = System.getenv("EXPORT_BASE_DIR");
-                if (env != null && !env.isBlank()) {
-                    byte[] excelBytes = reportExportService.exportAllReportsToExcel(startDate, endDate);
-                    Path dir = Paths.get(env);
-                    if (!Files.exists(dir)) Files.createDirectories(dir);
-                    String filename = String.format("reports_%s_to_%s.xlsx", startDate, endDate);
-                    Path filePath = dir.resolve(filename);
-                    Files.write(filePath, excelBytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-                    savedPath = filePath.toAbsolutePath().toString();
-                }
-            } catch (Exception ex) {
-                log.debug("Skipping saving exported file to disk: {}", ex.getMessage());
-            }
-
-            if (savedPath != null) {
-                return ResponseEntity.ok(Map.of(
-                        "downloadUrl", downloadEndpoint,
-                        "savedPath", savedPath
-                ));
-            }
-
-            return ResponseEntity.ok(Map.of(
-                    "downloadUrl", downloadEndpoint
-            ));
+            Map<String, Object> payload = new LinkedHashMap<>();
+            payload.put("downloadUrl", downloadEndpoint);
+            prepareExport(startDate, endDate, payload);
+            return ResponseEntity.ok(payload);
 
         } catch (Exception e) {
             log.error("Export all reports (unified) failed: {}", e.getMessage(), e);
@@ -273,23 +283,189 @@ public class ReportController {
 
     // New: hidden streaming endpoint, separate path to avoid conflicts with static-resource handlers
     @Hidden
-    @Operation(summary = "(Internal) Stream combined reports as an XLSX file")
-    @GetMapping(value = "/export/download", produces = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet")
-    public ResponseEntity<byte[]> exportAllReportsDownload(
+    @Operation(summary = "(Internal) Stream combined reports as XLSX / CSV / NDJSON")
+    @GetMapping(value = "/export/download")
+    public ResponseEntity<?> exportAllReportsDownload(
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
-            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(required = false) String format,
+            HttpServletRequest request
     ) {
+        ExportFormat exportFormat;
         try {
-            byte[] excelBytes = reportExportService.exportAllReportsToExcel(startDate, endDate);
-            String filename = String.format("reports_%s_to_%s.xlsx", startDate, endDate);
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                    .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
-                    .body(excelBytes);
-        } catch (Exception e) {
-            log.error("Export all reports (download) failed: {}", e.getMessage(), e);
-            return ResponseEntity.status(500).body(("Error exporting reports: " + e.getMessage()).getBytes());
+            exportFormat = ExportFormat.from(format);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+        return serveAllReports(startDate, endDate, exportFormat, request);
+    }
+
+    @Operation(summary = "Tạo job xuất báo cáo tổng hợp chạy nền; file được cache, tải qua /export/jobs/{jobId}/file")
+    @PostMapping("/export/jobs")
+    public ResponseEntity<Map<String, Object>> submitExportJob(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(required = false) String format
+    ) {
+        try {
+            ReportExportJobDTO job = reportExportJobService.submit(startDate, endDate, ExportFormat.from(format));
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of(
+                    "success", true,
+                    "jobId", job.getJobId(),
+                    "job", job,
+                    "downloadUrl", jobFileUrl(job.getJobId())
+            ));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of(
+                    "success", false,
+                    "error", e.getMessage()
+            ));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "error", e.getMessage()
+            ));
+        }
+    }
+
+    @Operation(summary = "Trạng thái job xuất báo cáo")
+    @GetMapping("/export/jobs/{jobId}")
+    public ResponseEntity<Map<String, Object>> getExportJob(@PathVariable String jobId) {
+        ReportExportJobDTO job = reportExportJobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of(
+                    "success", false,
+                    "error", "Không tìm thấy job xuất báo cáo: " + jobId
+            ));
+        }
+        return ResponseEntity.ok(Map.of(
+                "success", true,
+                "job", job,
+                "downloadUrl", jobFileUrl(jobId)
+        ));
+    }
+
+    @Hidden
+    @Operation(summary = "(Internal) Tải file của job xuất báo cáo (hỗ trợ If-None-Match)")
+    @GetMapping("/export/jobs/{jobId}/file")
+    public ResponseEntity<?> downloadExportJob(@PathVariable String jobId, HttpServletRequest request) {
+        ReportExportJobDTO job = reportExportJobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of(
+                    "success", false,
+                    "error", "Không tìm thấy job xuất báo cáo: " + jobId
+            ));
+        }
+        Artifact artifact = reportExportJobService.getArtifact(jobId);
+        if (artifact == null) {
+            // Chưa xong / lỗi / file đã hết hạn trong cache
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of(
+                    "success", false,
+                    "error", "File chưa sẵn sàng (trạng thái " + job.getStatus() + ")",
+                    "job", job
+            ));
         }
+        return serveArtifact(artifact, request);
+    }
+
+    private String jobFileUrl(String jobId) {
+        return ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path("/api/reports/export/jobs/{jobId}/file")
+                .buildAndExpand(jobId)
+                .toUriString();
+    }
+
+    // EXPORT_BASE_DIR được đặt → tạo sẵn file XLSX trong cache (chạy nền) để /export/download trả ngay
+    private void prepareExport(LocalDate startDate, LocalDate endDate, Map<String, Object> payload) {
+        String env = System.getenv("EXPORT_BASE_DIR");
+        if (env == null || env.isBlank()) return;
+        try {
+            ReportExportJobDTO job = reportExportJobService.submit(startDate, endDate, ExportFormat.XLSX);
+            payload.put("exportJobId", job.getJobId());
+            Artifact artifact = reportExportJobService.getArtifact(job.getJobId());
+            if (artifact != null) {
+                payload.put("savedPath", artifact.file().toAbsolutePath().toString());
+            }
+        } catch (RuntimeException ex) {
+            log.debug("Skipping export pre-build: {}", ex.getMessage());
+        }
+    }
+
+    // File lấy từ cache job (tạo 1 lần cho mỗi khoảng ngày + định dạng); hàng đợi đầy → stream trực tiếp như cũ
+    private ResponseEntity<?> serveAllReports(LocalDate startDate, LocalDate endDate, ExportFormat format,
+                                              HttpServletRequest request) {
+        ReportExportJobDTO job;
+        Artifact artifact;
+        try {
+            job = reportExportJobService.submit(startDate, endDate, format);
+            artifact = reportExportJobService.awaitArtifact(job.getJobId(), Duration.ofSeconds(downloadWaitSeconds));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (RejectedExecutionException e) {
+            log.warn("Export queue full, streaming reports directly: {}", e.getMessage());
+            return streamAllReports(startDate, endDate, format);
+        } catch (ExecutionException e) {
+            log.error("Export all reports failed: {}", e.getCause().getMessage(), e.getCause());
+            return ResponseEntity.status(500).body(Map.of("error", "Error exporting reports: " + e.getCause().getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+
+        if (artifact == null) {
+            // Job vẫn chạy tiếp: client hỏi trạng thái theo jobId rồi tải qua downloadUrl
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .header(HttpHeaders.RETRY_AFTER, "10")
+                    .body(Map.of(
+                            "success", true,
+                            "jobId", job.getJobId(),
+                            "job", job,
+                            "downloadUrl", jobFileUrl(job.getJobId())
+                    ));
+        }
+        return serveArtifact(artifact, request);
+    }
+
+    /**
+     * Trả file trong cache: ETag = SHA-256 nội dung, If-None-Match khớp → 304 không gửi body.
+     */
+    private ResponseEntity<?> serveArtifact(Artifact artifact, HttpServletRequest request) {
+        String etag = "\"" + artifact.etag() + "\"";
+        CacheControl cacheControl = CacheControl.noCache().cachePrivate();
+
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null && Arrays.stream(ifNoneMatch.split(","))
+                .map(String::trim)
+                .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                .anyMatch(tag -> tag.equals(etag) || tag.equals("*"))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl).build();
+        }
+
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(cacheControl)
+                .contentType(MediaType.parseMediaType(artifact.format().contentType()))
+                .contentLength(artifact.size())
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + artifact.fileName() + "\"")
+                .body(new FileSystemResource(artifact.file()));
+    }
+
+    // Ghi thẳng vào response: bộ nhớ chỉ giữ cửa sổ dòng của SXSSF, CSV/NDJSON bắt đầu trả về ngay sheet đầu tiên
+    private ResponseEntity<StreamingResponseBody> streamAllReports(LocalDate startDate, LocalDate endDate, ExportFormat format) {
+        String filename = String.format("reports_%s_to_%s.%s", startDate, endDate, format.extension());
+        StreamingResponseBody body = out -> {
+            try {
+                reportExportService.writeAllReports(startDate, endDate, format, out);
+            } catch (IOException | RuntimeException e) {
+                // Header đã gửi đi – chỉ còn cách ghi log và cắt kết nối
+                log.error("Export all reports (stream) failed: {}", e.getMessage(), e);
+                throw e;
+            }
+        };
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .contentType(MediaType.parseMediaType(format.contentType()))
+                .body(body);
     }
 
     /**
@@ -39,6 +39,15 @@ public class StationController {
         return stationService.getNearbyStations(lat, lng, radiusKm);
     }
 
+    @GetMapping("/nearest")
+    public List<StationResponseDTO> getNearestStations(
+            @RequestParam double lat,
+            @RequestParam double lng,
+            @RequestParam(required = false, defaultValue = "5") int k,
+            @RequestParam(required = false, defaultValue = "50") double maxRadiusKm) {
+        return stationService.getNearestStations(lat, lng, k, maxRadiusKm);
+    }
+
 
     @GetMapping("/{stationId}/batteries/grouped")
     public List<DockBatteryGroupDTO> getGroupedBatteriesByDock(@PathVariable Integer stationId) {
@@ -0,0 +1,20 @@
+package BatterySwapStation.dto;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Gom nhiều BatteryRealtimeEvent của cùng một trạm vào một frame STOMP.
+ * seq tăng dần theo trạm; client bỏ qua frame có seq <= version đang giữ.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BatteryRealtimeBatch {
+    private Integer stationId;
+    private Long seq;
+    private List<BatteryRealtimeEvent> events;
+    private String timestamp;
+}
@@ -0,0 +1,19 @@
+package BatterySwapStation.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 1 trang booking phân trang keyset.
+ * {@code nextCursor} = null khi đã hết dữ liệu; truyền lại nguyên giá trị để lấy trang kế tiếp.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BookingPage {
+    private List<BookingResponse> items;
+    private String nextCursor;
+}
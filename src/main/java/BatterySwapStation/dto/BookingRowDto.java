@@ -0,0 +1,156 @@
+package BatterySwapStation.dto;
+
+import BatterySwapStation.entity.Booking;
+import BatterySwapStation.entity.Payment;
+import BatterySwapStation.entity.Vehicle;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Read model phẳng của 1 booking: booking + user + trạm + xe + hóa đơn + payment hiển thị,
+ * lấy bằng đúng 1 query (xem BookingRepository.findRowsByUserId / findRowsPage),
+ * hoặc dựng từ entity đã có trong bộ nhớ bằng {@link #of(Booking, Payment)}.
+ * Các cột của bảng nối ngoài (trạm, xe, hóa đơn, payment) có thể null.
+ */
+@Data
+@NoArgsConstructor
+public class BookingRowDto {
+    private Long bookingId;
+    private Booking.BookingStatus bookingStatus;
+    private Double amount;
+    private Double totalPrice;
+    private LocalDate bookingDate;
+    private LocalTime timeSlot;
+
+    private String userId;
+    private String userName;
+
+    private Integer stationId;
+    private String stationName;
+    private String stationAddress;
+
+    private Integer vehicleId;
+    private String vehicleVin;
+    private Vehicle.VehicleType vehicleType;
+
+    private Integer batteryCount;
+    private String batteryType;
+    private String notes;
+    private String cancellationReason;
+    private LocalDate completedTime;
+
+    private Long invoiceId;
+    private LocalDateTime invoiceCreatedDate;
+
+    private Long paymentId;
+    private Payment.PaymentMethod paymentMethod;
+    private Double paymentAmount;
+    private Payment.PaymentStatus paymentStatus;
+    private LocalDateTime paymentCreatedAt;
+
+    // THỨ TỰ THAM SỐ PHẢI KHỚP VỚI SELECT new ... TRONG BookingRepository
+    public BookingRowDto(
+            Long bookingId,
+            Booking.BookingStatus bookingStatus,
+            Double amount,
+            Double totalPrice,
+            LocalDate bookingDate,
+            LocalTime timeSlot,
+            String userId,
+            String userName,
+            Integer stationId,
+            String stationName,
+            String stationAddress,
+            Integer vehicleId,
+            String vehicleVin,
+            Vehicle.VehicleType vehicleType,
+            Integer batteryCount,
+            String batteryType,
+            String notes,
+            String cancellationReason,
+            LocalDate completedTime,
+            Long invoiceId,
+            LocalDateTime invoiceCreatedDate,
+            Long paymentId,
+            Payment.PaymentMethod paymentMethod,
+            Double paymentAmount,
+            Payment.PaymentStatus paymentStatus,
+            LocalDateTime paymentCreatedAt
+    ) {
+        this.bookingId = bookingId;
+        this.bookingStatus = bookingStatus;
+        this.amount = amount;
+        this.totalPrice = totalPrice;
+        this.bookingDate = bookingDate;
+        this.timeSlot = timeSlot;
+        this.userId = userId;
+        this.userName = userName;
+        this.stationId = stationId;
+        this.stationName = stationName;
+        this.stationAddress = stationAddress;
+        this.vehicleId = vehicleId;
+        this.vehicleVin = vehicleVin;
+        this.vehicleType = vehicleType;
+        this.batteryCount = batteryCount;
+        this.batteryType = batteryType;
+        this.notes = notes;
+        this.cancellationReason = cancellationReason;
+        this.completedTime = completedTime;
+        this.invoiceId = invoiceId;
+        this.invoiceCreatedDate = invoiceCreatedDate;
+        this.paymentId = paymentId;
+        this.paymentMethod = paymentMethod;
+        this.paymentAmount = paymentAmount;
+        this.paymentStatus = paymentStatus;
+        this.paymentCreatedAt = paymentCreatedAt;
+    }
+
+    /**
+     * Dựng read model từ entity đang có (trạm/xe/user/hóa đơn đọc qua getter của booking).
+     * {@code payment} là payment hiển thị, do nơi gọi chọn; có thể null.
+     */
+    public static BookingRowDto of(Booking booking, Payment payment) {
+        BookingRowDto row = new BookingRowDto();
+        row.bookingId = booking.getBookingId();
+        row.bookingStatus = booking.getBookingStatus();
+        row.amount = booking.getAmount();
+        row.totalPrice = booking.getTotalPrice();
+        row.bookingDate = booking.getBookingDate();
+        row.timeSlot = booking.getTimeSlot();
+        if (booking.getUser() != null) {
+            row.userId = booking.getUser().getUserId();
+            row.userName = booking.getUser().getFullName();
+        }
+        if (booking.getStation() != null) {
+            row.stationId = booking.getStation().getStationId();
+            row.stationName = booking.getStation().getStationName();
+            row.stationAddress = booking.getStation().getAddress();
+        }
+        if (booking.getVehicle() != null) {
+            row.vehicleId = booking.getVehicle().getVehicleId();
+            row.vehicleVin = booking.getVehicle().getVIN();
+            row.vehicleType = booking.getVehicle().getVehicleType();
+        }
+        row.batteryCount = booking.getBatteryCount();
+        row.batteryType = booking.getBatteryType();
+        row.notes = booking.getNotes();
+        row.cancellationReason = booking.getCancellationReason();
+        row.completedTime = booking.getCompletedTime();
+        if (booking.getInvoice() != null) {
+            row.invoiceId = booking.getInvoice().getInvoiceId();
+            row.invoiceCreatedDate = booking.getInvoice().getCreatedDate();
+        }
+        if (payment != null) {
+            row.paymentId = payment.getPaymentId();
+            row.paymentMethod = payment.getPaymentMethod();
+            row.paymentAmount = payment.getAmount();
+            row.paymentStatus = payment.getPaymentStatus();
+            row.paymentCreatedAt = payment.getCreatedAt();
+        }
+        return row;
+    }
+}
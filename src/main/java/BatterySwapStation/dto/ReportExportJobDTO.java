@@ -0,0 +1,37 @@
+package BatterySwapStation.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Trạng thái 1 job xuất báo cáo tổng hợp (ảnh chụp tại thời điểm hỏi).
+ */
+@Data
+@Builder
+public class ReportExportJobDTO {
+
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED }
+
+    private String jobId;
+    private Status status;
+    private LocalDate startDate;
+    private LocalDate endDate;
+    private String format;
+
+    // true nếu file lấy từ cache, không phải tạo lại
+    private boolean cacheHit;
+    // SHA-256 nội dung file, dùng làm ETag khi tải
+    private String etag;
+    private Long sizeBytes;
+    private String fileName;
+    private String message;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    // Sau thời điểm này file bị xóa khỏi cache, tải lại sẽ tạo job mới
+    private LocalDateTime expiresAt;
+}
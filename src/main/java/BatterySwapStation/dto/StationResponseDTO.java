@@ -1,5 +1,6 @@
 package BatterySwapStation.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.*;
 import java.math.BigDecimal;
 import java.util.List;
@@ -8,7 +9,7 @@ import java.util.List;
 @Setter
 @NoArgsConstructor
 @AllArgsConstructor
-@Builder
+@Builder(toBuilder = true)
 public class StationResponseDTO {
 
     private Integer stationId;
@@ -27,6 +28,10 @@ public class StationResponseDTO {
     // Chi tiết từng loại pin
     private List<BatteryTypeRow> batteries;
 
+    // Chỉ có ở API nearby / nearest
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Double distanceKm;
+
     @Getter
     @Setter
     @NoArgsConstructor
@@ -0,0 +1,25 @@
+package BatterySwapStation.dto;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Phản hồi riêng cho từng client khi join/resync trạm (/user/queue/station-sync).
+ *
+ * - SNAPSHOT: toàn bộ dock/slot tại version, client thay thế state rồi áp các delta có seq > version.
+ * - DELTAS: các frame bị lỡ từ version client gửi lên tới version hiện tại.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class StationSyncDTO {
+    public enum SyncType { SNAPSHOT, DELTAS }
+
+    private Integer stationId;
+    private SyncType type;
+    private Long version;
+    private List<DockBatteryGroupDTO> docks;
+    private List<BatteryRealtimeBatch> deltas;
+}
@@ -0,0 +1,38 @@
+package BatterySwapStation.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Trạng thái 1 job import xe chạy nền (ảnh chụp tại thời điểm hỏi).
+ */
+@Data
+@Builder
+public class VehicleImportJobDTO {
+
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED }
+
+    private String jobId;
+    private Status status;
+    private String fileName;
+    private int startRow;
+
+    private int rowsParsed;
+    private int rowsInserted;
+    private int failureCount;
+    // Dòng/giây tính từ lúc bắt đầu chạy
+    private double rowsPerSecond;
+    private List<VehicleImportErrorDTO> errors;
+
+    // Có giá trị khi import dừng giữa chừng: gửi lại file với startRow = giá trị này
+    private Integer resumeFromRow;
+    // Lỗi làm job dừng hẳn (file hỏng, ...)
+    private String message;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+}
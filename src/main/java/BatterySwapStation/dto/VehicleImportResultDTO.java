@@ -13,4 +13,7 @@ public class VehicleImportResultDTO {
     private int successCount;
     private int failureCount;
     private List<VehicleImportErrorDTO> errors;
+    // Dòng bắt đầu của chunk ghi lỗi (import dừng tại đó); gửi lại file với startRow = giá trị này để chạy tiếp.
+    // null = đã import hết file
+    private Integer resumeFromRow;
 }
\ No newline at end of file
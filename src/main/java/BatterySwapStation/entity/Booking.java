@@ -1,5 +1,6 @@
 package BatterySwapStation.entity;
 
+import BatterySwapStation.config.BookingCapacityListener;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
@@ -9,17 +10,26 @@ import java.time.LocalTime;
 import java.util.List;
 
 @Entity
-@Table(name = "Booking")
+@Table(name = "Booking",
+        indexes = {
+                // Quét hết hạn theo (trạng thái, ngày, khung giờ) – xem BookingScheduledService
+                @Index(name = "idx_booking_status_date_slot", columnList = "bookingstatus, bookingdate, timeslot"),
+                // Phân trang keyset danh sách booking của trạm (bookingid giảm dần)
+                @Index(name = "idx_booking_station_id", columnList = "stationid, bookingid")
+        })
 @Getter
 @Setter
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
 @JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
+@EntityListeners(BookingCapacityListener.class)
 public class Booking {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // Sequence pooled (mỗi lần gọi nextval cấp 50 id) để Hibernate gộp được INSERT thành JDBC batch
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "booking_seq")
+    @SequenceGenerator(name = "booking_seq", sequenceName = "booking_sequence", allocationSize = 50)
     @Column(name = "BookingId")
     private Long bookingId;
 
@@ -65,6 +75,11 @@ public class Booking {
     @Column(name = "bookingstatus", nullable = false, length = 20)
     private BookingStatus bookingStatus = BookingStatus.PENDINGPAYMENT;
 
+    // Trạng thái lúc nạp / ghi gần nhất – BookingCapacityListener so với bookingStatus khi flush
+    @Transient
+    @JsonIgnore
+    private BookingStatus persistedStatus;
+
 
     @Column(name = "CompletedTime")
     private LocalDate completedTime;
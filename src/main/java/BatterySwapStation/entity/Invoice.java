@@ -1,5 +1,6 @@
 package BatterySwapStation.entity;
 
+import BatterySwapStation.config.ReportRollupListener;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.Data;
@@ -10,6 +11,7 @@ import java.util.List;
 @Data
 @Entity
 @Table(name = "Invoice")
+@EntityListeners(ReportRollupListener.class)
 public class Invoice {
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "invoice_seq")
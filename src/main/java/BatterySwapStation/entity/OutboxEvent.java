@@ -0,0 +1,71 @@
+package BatterySwapStation.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Outbox: tác vụ phụ (email xác nhận...) được ghi cùng transaction nghiệp vụ,
+ * sau đó OutboxDispatcher xử lý bất đồng bộ, có retry.
+ * Mỗi tác vụ có IdempotencyKey duy nhất (vd. INVOICE_PAID_EMAIL:123) để không ghi/chạy trùng.
+ */
+@Entity
+@Table(name = "OutboxEvent",
+        indexes = @Index(name = "idx_outbox_status_next", columnList = "Status, NextAttemptAt"))
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class OutboxEvent {
+
+    public enum EventType {
+        INVOICE_PAID_EMAIL      // Gửi email xác nhận thanh toán
+    }
+
+    public enum OutboxStatus {
+        PENDING,     // Chờ xử lý (hoặc chờ retry)
+        PROCESSING,  // Đã được 1 worker nhận
+        DONE,        // Hoàn thành
+        FAILED       // Hết số lần retry, cần xử lý thủ công
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "OutboxEventId")
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "EventType", nullable = false, length = 50)
+    private EventType eventType;
+
+    // Id đối tượng nghiệp vụ (vd. InvoiceId)
+    @Column(name = "AggregateId", nullable = false)
+    private Long aggregateId;
+
+    @Column(name = "IdempotencyKey", nullable = false, unique = true, length = 100)
+    private String idempotencyKey;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "Status", nullable = false, length = 20)
+    private OutboxStatus status;
+
+    @Column(name = "Attempts", nullable = false)
+    private int attempts;
+
+    @Column(name = "NextAttemptAt", nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    @Column(name = "LockedAt")
+    private LocalDateTime lockedAt;
+
+    @Column(name = "LastError", length = 1000)
+    private String lastError;
+
+    @Column(name = "CreatedAt", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "ProcessedAt")
+    private LocalDateTime processedAt;
+}
@@ -1,11 +1,13 @@
 package BatterySwapStation.entity;
 
+import BatterySwapStation.config.ReportRollupListener;
 import jakarta.persistence.*;
 import lombok.*;
 import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "Payment")
+@EntityListeners(ReportRollupListener.class)
 @Getter
 @Setter
 @NoArgsConstructor
@@ -14,7 +16,8 @@ import java.time.LocalDateTime;
 public class Payment {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "payment_seq")
+    @SequenceGenerator(name = "payment_seq", sequenceName = "payment_sequence", allocationSize = 50)
     @Column(name = "PaymentId")
     private Long paymentId;
 
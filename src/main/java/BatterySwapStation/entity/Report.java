@@ -25,7 +25,9 @@ public class Report {
     }
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // Sequence pooled để saveAll của ReportWriteService (lô tới 50 snapshot) gộp INSERT thành JDBC batch
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "report_seq")
+    @SequenceGenerator(name = "report_seq", sequenceName = "report_sequence", allocationSize = 50)
     private Long id;
 
     @Enumerated(EnumType.STRING)
@@ -52,6 +54,11 @@ public class Report {
     @Column(name = "DetailedData", columnDefinition = "TEXT")
     private String detailedData;
 
+    // JSON chi tiết nén gzip (report-snapshot.compress=true) – khi đó DetailedData để null.
+    // Đọc qua ReportWriteService.readDetailedData để không phải phân biệt 2 dạng.
+    @Column(name = "DetailedDataGzip", columnDefinition = "bytea")
+    private byte[] detailedDataGzip;
+
     // ✅ (tuỳ chọn) thêm hash để đảm bảo toàn vẹn
     @Column(name = "DataHash", length = 128)
     private String dataHash;
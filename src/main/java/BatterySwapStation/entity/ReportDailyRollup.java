@@ -0,0 +1,45 @@
+package BatterySwapStation.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Bucket tổng hợp theo (trạm, ngày) – cộng từ ReportHourlyRollup, cùng quy ước trạm / chỉ số.
+ */
+@Entity
+@Table(name = "ReportDailyRollup",
+        uniqueConstraints = @UniqueConstraint(name = "uk_rollup_daily_station_bucket", columnNames = {"StationId", "BucketDate"}),
+        indexes = @Index(name = "idx_rollup_daily_bucket", columnList = "BucketDate"))
+@Getter
+@Setter
+@NoArgsConstructor
+public class ReportDailyRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "RollupId")
+    private Long id;
+
+    @Column(name = "StationId", nullable = false)
+    private Integer stationId;
+
+    @Column(name = "BucketDate", nullable = false)
+    private LocalDate bucketDate;
+
+    @Column(name = "Revenue", nullable = false)
+    private double revenue;
+
+    @Column(name = "RevenueTransactions", nullable = false)
+    private int revenueTransactions;
+
+    @Column(name = "SwapCount", nullable = false)
+    private int swapCount;
+
+    @Column(name = "UpdatedAt", nullable = false)
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,51 @@
+package BatterySwapStation.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Bucket tổng hợp theo (trạm, giờ) cho báo cáo doanh thu / lượt swap.
+ * Chỉ được ghi bởi ReportRollupService (xóa + tính lại từ bảng gốc), không sửa tay.
+ *
+ * - Revenue / RevenueTransactions: hóa đơn có payment SUCCESS, theo giờ tạo hóa đơn. Hóa đơn nhiều trạm được chia
+ *   cho từng trạm theo tiền booking tại trạm đó (RevenueTransactions đếm hóa đơn ở mỗi trạm nó chạm tới);
+ *   hóa đơn không gắn booking (vd. mua gói) không thuộc trạm nào nên không có trong rollup.
+ * - SwapCount: lượt swap theo giờ hoàn thành, trạm của trụ (dock) thực hiện.
+ */
+@Entity
+@Table(name = "ReportHourlyRollup",
+        uniqueConstraints = @UniqueConstraint(name = "uk_rollup_hourly_station_bucket", columnNames = {"StationId", "BucketHour"}),
+        indexes = @Index(name = "idx_rollup_hourly_bucket", columnList = "BucketHour"))
+@Getter
+@Setter
+@NoArgsConstructor
+public class ReportHourlyRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "RollupId")
+    private Long id;
+
+    @Column(name = "StationId", nullable = false)
+    private Integer stationId;
+
+    // Đầu giờ (phút, giây = 0)
+    @Column(name = "BucketHour", nullable = false)
+    private LocalDateTime bucketHour;
+
+    @Column(name = "Revenue", nullable = false)
+    private double revenue;
+
+    @Column(name = "RevenueTransactions", nullable = false)
+    private int revenueTransactions;
+
+    @Column(name = "SwapCount", nullable = false)
+    private int swapCount;
+
+    @Column(name = "UpdatedAt", nullable = false)
+    private LocalDateTime updatedAt;
+}
@@ -1,5 +1,6 @@
 package BatterySwapStation.entity;
 
+import BatterySwapStation.config.ReportRollupListener;
 import jakarta.persistence.*;
 import lombok.*;
 import java.time.LocalDateTime;
@@ -7,12 +8,14 @@ import java.time.LocalDateTime;
 @Data
 @Entity
 @Table(name = "Swap")
+@EntityListeners(ReportRollupListener.class)
 @Getter @Setter
 @NoArgsConstructor @AllArgsConstructor @Builder
 public class Swap {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "swap_seq")
+    @SequenceGenerator(name = "swap_seq", sequenceName = "swap_sequence", allocationSize = 50)
     @Column(name = "SwapId")
     private Long swapId;
 
@@ -1,5 +1,6 @@
 package BatterySwapStation.entity;
 
+import BatterySwapStation.config.UserCacheEvictionListener;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
@@ -19,6 +20,7 @@ import java.util.List;
 
 @Entity
 @Table(name = "Users")
+@EntityListeners(UserCacheEvictionListener.class)
 @JsonIgnoreProperties({"hibernateLazyInitializer", "handler"}) //dòng này để test, tránh lỗi liên quan đến lazy loading, sau này sẽ xóa
 @Data
 @AllArgsConstructor
@@ -15,7 +15,8 @@ import java.time.LocalDateTime;
 public class VehicleBattery {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "vehiclebattery_seq")
+    @SequenceGenerator(name = "vehiclebattery_seq", sequenceName = "vehiclebattery_sequence", allocationSize = 50)
     @Column(name = "VehicleBatteryId")
     private Long id;
 
@@ -27,6 +27,17 @@ public interface BatteryRepository extends JpaRepository<Battery, String> {
 //            "b.stateOfHealth > 70.0")
 //    //List<Battery> findAvailableBatteriesAtStation(@Param("stationId") Integer stationId);
 
+    // 🔹 Native query: trạng thái tối thiểu của pin đang sạc (dùng cho BatteryChargingEngine)
+    @Query(value = """
+    SELECT b.BatteryId, b.CurrentCapacity, COALESCE(b.CycleCount, 0), b.BatteryType, b.StateOfHealth,
+           ds.DockSlotId, ds.SlotNumber, d.DockName, d.StationId
+    FROM Battery b
+    LEFT JOIN DockSlot ds ON ds.BatteryId = b.BatteryId
+    LEFT JOIN Dock d ON d.DockId = ds.DockId
+    WHERE b.BatteryStatus = 'CHARGING'
+""", nativeQuery = true)
+    List<Object[]> findChargingBatteryStates();
+
     // Tìm pin theo loại
     List<Battery> findByBatteryType(Battery.BatteryType batteryType);
 
@@ -81,6 +92,15 @@ public interface BatteryRepository extends JpaRepository<Battery, String> {
             """)
     List<Object[]> countBatteriesForAllStations();
 
+    // Số pin active theo trạm (dùng cho điều phối, thay cho findAll + đếm trong Java)
+    @Query("""
+                SELECT b.stationId, b.batteryType, COUNT(b)
+                FROM Battery b
+                WHERE b.isActive = true AND b.stationId IS NOT NULL
+                GROUP BY b.stationId, b.batteryType
+            """)
+    List<Object[]> countActiveBatteriesByStationAndType();
+
     @Query("""
                 SELECT b.batteryType
                 FROM Battery b
@@ -124,4 +144,38 @@ public interface BatteryRepository extends JpaRepository<Battery, String> {
 """)
     List<Battery> findBatteriesByVehicleId(@Param("vehicleId") Integer vehicleId);
 
+    // ==================== THỐNG KÊ (BatteryAnalyticsService) ====================
+    // Chỉ trả số đã gộp: số dòng = loại × trạm (× bucket), không phụ thuộc số pin
+
+    @Query("""
+    SELECT b.batteryType, b.stationId, COUNT(b),
+           SUM(b.stateOfHealth), COUNT(b.stateOfHealth), SUM(b.cycleCount), COUNT(b.cycleCount)
+    FROM Battery b
+    GROUP BY b.batteryType, b.stationId
+""")
+    List<Object[]> aggregateByTypeAndStation();
+
+    // Bucket SoH theo cận dưới (0, 10, ..., 90 với width=10); SoH = 100 rơi vào bucket cuối.
+    // Bucket cuối = CEIL(100 / width) - 1 để width không chia hết 100 (vd. 30 → 0, 30, 60, 90) vẫn có bucket chứa 90..100
+    @Query(value = """
+    SELECT b.BatteryType, b.StationId,
+           CAST(LEAST(FLOOR(GREATEST(b.StateOfHealth, 0) / :width), CEIL(100.0 / :width) - 1) * :width AS integer) AS bucket,
+           COUNT(*)
+    FROM Battery b
+    WHERE b.StateOfHealth IS NOT NULL
+    GROUP BY b.BatteryType, b.StationId, bucket
+""", nativeQuery = true)
+    List<Object[]> histogramStateOfHealth(@Param("width") int width);
+
+    // Bucket số chu kỳ theo cận dưới; từ :maxBucket trở lên gộp vào bucket cuối
+    @Query(value = """
+    SELECT b.BatteryType, b.StationId,
+           LEAST((GREATEST(b.CycleCount, 0) / :width) * :width, :maxBucket) AS bucket,
+           COUNT(*)
+    FROM Battery b
+    WHERE b.CycleCount IS NOT NULL
+    GROUP BY b.BatteryType, b.StationId, bucket
+""", nativeQuery = true)
+    List<Object[]> histogramCycleCount(@Param("width") int width, @Param("maxBucket") int maxBucket);
+
 }
@@ -1,63 +1,59 @@
 package BatterySwapStation.repository;
 
-import BatterySwapStation.dto.BookingSimpleDto;
+import BatterySwapStation.dto.BookingRowDto;
 import BatterySwapStation.entity.Booking;
 import BatterySwapStation.entity.Invoice;
 import BatterySwapStation.entity.User;
 import BatterySwapStation.entity.Station;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface BookingRepository extends JpaRepository<Booking, Long> {
+public interface BookingRepository extends JpaRepository<Booking, Long>, BookingRowQueries {
 
     // Tìm tất cả booking của user
     List<Booking> findByUser(User user);
 
     /**
-     * SỬA LỖI HIỆU NĂNG (N+1)
-     * ĐÃ ĐƯỢC XÁC NHẬN ĐỦ 21 TRƯỜNG VÀ KHỚP VỚI DTO
+     * Read model booking (xem BookingRowDto) – 1 query cho cả danh sách, không N+1.
+     * Payment hiển thị: payment SUCCESS đầu tiên của hóa đơn, nếu không có thì payment mới nhất.
      */
-    @Query("""
-    SELECT new BatterySwapStation.dto.BookingSimpleDto(
-        b.bookingId,
-        b.bookingDate,
-        b.timeSlot,
-        b.bookingStatus,
-        b.amount,
-        b.totalPrice,
-        s.stationId,
-        s.stationName,
-        s.address,
-        v.vehicleId,
-        v.VIN,
-        v.vehicleType,
-        v.licensePlate,
-        b.batteryCount,
-        b.batteryType,
-        b.notes,
-        b.cancellationReason,
-        b.completedTime,
-        i.invoiceId,
-        i.totalAmount,
-        i.invoiceStatus,
-        i.createdDate
+    String BOOKING_ROW_SELECT = """
+    SELECT new BatterySwapStation.dto.BookingRowDto(
+        b.bookingId, b.bookingStatus, b.amount, b.totalPrice, b.bookingDate, b.timeSlot,
+        u.userId, u.fullName,
+        s.stationId, s.stationName, s.address,
+        v.vehicleId, v.VIN, v.vehicleType,
+        b.batteryCount, b.batteryType, b.notes, b.cancellationReason, b.completedTime,
+        i.invoiceId, i.createdDate,
+        p.paymentId, p.paymentMethod, p.amount, p.paymentStatus, p.createdAt
     )
     FROM Booking b
-    JOIN b.station s
-    JOIN b.vehicle v
+    JOIN b.user u
+    LEFT JOIN b.station s
+    LEFT JOIN b.vehicle v
     LEFT JOIN b.invoice i
-    WHERE b.user.userId = :userId
+    LEFT JOIN Payment p ON p.paymentId = COALESCE(
+        (SELECT MIN(ps.paymentId) FROM Payment ps
+            WHERE ps.invoice = i AND ps.paymentStatus = BatterySwapStation.entity.Payment.PaymentStatus.SUCCESS),
+        (SELECT MAX(pl.paymentId) FROM Payment pl WHERE pl.invoice = i))
+    """;
+
+    @Query(BOOKING_ROW_SELECT + """
+    WHERE u.userId = :userId
     ORDER BY b.bookingDate DESC, b.timeSlot DESC
-""")
-    List<BookingSimpleDto> findSimpleBookingsByUserId(@Param("userId") String userId);
+    """)
+    List<BookingRowDto> findRowsByUserId(@Param("userId") String userId);
 
 
     // Tìm booking theo ID và User (để đảm bảo user chỉ thao tác với booking của mình)
@@ -124,6 +120,11 @@ public interface BookingRepository extends JpaRepository<Booking, Long> {
             "AND b.bookingStatus NOT IN ('COMPLETED', 'CANCELLED', 'FAILED')")
     boolean hasIncompleteBookingForVehicle(@Param("vehicleId") Integer vehicleId);
 
+    // Như trên cho nhiều xe cùng lúc: trả về id các xe đang có booking chưa hoàn thành
+    @Query("SELECT DISTINCT b.vehicle.vehicleId FROM Booking b WHERE b.vehicle.vehicleId IN :vehicleIds " +
+            "AND b.bookingStatus NOT IN ('COMPLETED', 'CANCELLED', 'FAILED')")
+    List<Integer> findVehicleIdsWithIncompleteBooking(@Param("vehicleIds") Collection<Integer> vehicleIds);
+
     /**
      * Lấy danh sách booking chưa hoàn thành của xe (để hiển thị thông tin chi tiết)
      */
@@ -175,6 +176,67 @@ public interface BookingRepository extends JpaRepository<Booking, Long> {
                                             @Param("date") LocalDate date,
                                             @Param("timeSlot") LocalTime timeSlot);
 
+    /**
+     * Tổng số pin đang được giữ chỗ theo (trạm, ngày, khung giờ) từ ngày chỉ định trở đi.
+     * Dùng để nạp/đối soát BookingCapacityLedger.
+     */
+    @Query("SELECT b.station.stationId, b.bookingDate, b.timeSlot, SUM(b.batteryCount) FROM Booking b " +
+            "WHERE b.bookingDate >= :fromDate " +
+            "AND b.bookingStatus NOT IN (BatterySwapStation.entity.Booking.BookingStatus.COMPLETED, " +
+            "BatterySwapStation.entity.Booking.BookingStatus.CANCELLED, " +
+            "BatterySwapStation.entity.Booking.BookingStatus.FAILED) " +
+            "GROUP BY b.station.stationId, b.bookingDate, b.timeSlot")
+    List<Object[]> sumBookedBatteriesFromDate(@Param("fromDate") LocalDate fromDate);
+
+    /**
+     * Tổng số pin đang giữ chỗ theo (trạm, loại pin, ngày, khung giờ) trong khoảng ngày.
+     * Dùng làm nhu cầu chắc chắn khi dự báo điều phối pin.
+     */
+    @Query("SELECT b.station.stationId, b.batteryType, b.bookingDate, b.timeSlot, SUM(b.batteryCount) FROM Booking b " +
+            "WHERE b.bookingDate BETWEEN :fromDate AND :toDate " +
+            "AND b.bookingStatus IN (BatterySwapStation.entity.Booking.BookingStatus.PENDINGPAYMENT, " +
+            "BatterySwapStation.entity.Booking.BookingStatus.PENDINGSWAPPING) " +
+            "GROUP BY b.station.stationId, b.batteryType, b.bookingDate, b.timeSlot")
+    List<Object[]> sumOpenBookedBatteriesByType(@Param("fromDate") LocalDate fromDate,
+                                               @Param("toDate") LocalDate toDate);
+
+    /**
+     * Khóa (FOR UPDATE SKIP LOCKED) các booking ở trạng thái {@code fromStatus} có (ngày, khung giờ) trước mốc
+     * chỉ định. Dùng index (bookingstatus, bookingdate, timeslot). Gọi trong transaction, sau đó {@link #expireBookings}.
+     *
+     * Với PENDINGPAYMENT, bỏ qua booking mà hóa đơn đã có Payment SUCCESS: tiền đã trả, chỉ chưa kịp kích hoạt.
+     *
+     * @return bookingId, stationId, bookingDate, timeSlot, batteryCount
+     */
+    @Query(value = """
+        SELECT b.bookingid, b.stationid, b.bookingdate, b.timeslot, b.batterycount
+        FROM booking b
+        WHERE b.bookingstatus = :fromStatus
+          AND (b.bookingdate, b.timeslot) < (:cutoffDate, :cutoffTime)
+          AND (:fromStatus <> 'PENDINGPAYMENT' OR b.invoiceid IS NULL
+               OR NOT EXISTS (SELECT 1 FROM payment p
+                              WHERE p.invoiceid = b.invoiceid AND p.paymentstatus = 'SUCCESS'))
+        FOR UPDATE OF b SKIP LOCKED
+    """, nativeQuery = true)
+    List<Object[]> lockExpiredBookings(@Param("fromStatus") String fromStatus,
+                                       @Param("cutoffDate") LocalDate cutoffDate,
+                                       @Param("cutoffTime") LocalTime cutoffTime);
+
+    /**
+     * Chuyển các booking đã khóa bởi {@link #lockExpiredBookings} sang {@code toStatus} trong 1 câu UPDATE.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query(value = """
+        UPDATE booking
+        SET bookingstatus = :toStatus, cancellationreason = :reason
+        WHERE bookingid IN (:ids) AND bookingstatus = :fromStatus
+    """, nativeQuery = true)
+    int expireBookings(@Param("ids") Collection<Long> ids,
+                       @Param("fromStatus") String fromStatus,
+                       @Param("toStatus") String toStatus,
+                       @Param("reason") String reason);
+
     @Query("SELECT COUNT(b) FROM Booking b WHERE b.bookingStatus = :status")
     Long countByStatus(@Param("status") BatterySwapStation.entity.Booking.BookingStatus status);
 
@@ -0,0 +1,20 @@
+package BatterySwapStation.repository;
+
+import BatterySwapStation.dto.BookingRowDto;
+import BatterySwapStation.entity.Booking;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Truy vấn read model booking có bộ lọc tùy chọn (fragment của BookingRepository).
+ */
+public interface BookingRowQueries {
+
+    /**
+     * 1 trang read model theo keyset (bookingId giảm dần); bộ lọc nào null thì không có mặt trong WHERE.
+     * Trang sau truyền {@code beforeId} = bookingId cuối của trang trước.
+     */
+    List<BookingRowDto> findRowsPage(String userId, Booking.BookingStatus status, Integer stationId,
+                                     LocalDate bookingDate, Long beforeId, int limit);
+}
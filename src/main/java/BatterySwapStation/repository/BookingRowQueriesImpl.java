@@ -0,0 +1,59 @@
+package BatterySwapStation.repository;
+
+import BatterySwapStation.dto.BookingRowDto;
+import BatterySwapStation.entity.Booking;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ghép WHERE chỉ từ các bộ lọc được truyền vào, thay vì {@code (:x IS NULL OR col = :x)}:
+ * với dạng catch-all, plan được chuẩn bị chung cho mọi tổ hợp tham số nên Postgres không dùng được
+ * index keyset (stationid, bookingid) khi lọc theo trạm.
+ * Lọc trạm/user đi qua khóa ngoại của booking (b.station.stationId) để điều kiện nằm trên chính cột được index.
+ */
+class BookingRowQueriesImpl implements BookingRowQueries {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<BookingRowDto> findRowsPage(String userId, Booking.BookingStatus status, Integer stationId,
+                                            LocalDate bookingDate, Long beforeId, int limit) {
+        List<String> where = new ArrayList<>();
+        Map<String, Object> params = new LinkedHashMap<>();
+        if (userId != null) {
+            where.add("b.user.userId = :userId");
+            params.put("userId", userId);
+        }
+        if (status != null) {
+            where.add("b.bookingStatus = :status");
+            params.put("status", status);
+        }
+        if (stationId != null) {
+            where.add("b.station.stationId = :stationId");
+            params.put("stationId", stationId);
+        }
+        if (bookingDate != null) {
+            where.add("b.bookingDate = :bookingDate");
+            params.put("bookingDate", bookingDate);
+        }
+        if (beforeId != null) {
+            where.add("b.bookingId < :beforeId");
+            params.put("beforeId", beforeId);
+        }
+
+        String jpql = BookingRepository.BOOKING_ROW_SELECT
+                + (where.isEmpty() ? "" : "WHERE " + String.join(" AND ", where) + "\n")
+                + "ORDER BY b.bookingId DESC";
+        TypedQuery<BookingRowDto> query = entityManager.createQuery(jpql, BookingRowDto.class);
+        params.forEach(query::setParameter);
+        return query.setMaxResults(limit).getResultList();
+    }
+}
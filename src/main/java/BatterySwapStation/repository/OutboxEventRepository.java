@@ -0,0 +1,73 @@
+package BatterySwapStation.repository;
+
+import BatterySwapStation.entity.OutboxEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    /**
+     * Ghi tác vụ PENDING nếu IdempotencyKey chưa tồn tại. Trả về 0 nếu đã có (không ném lỗi unique).
+     */
+    @Modifying
+    @Transactional
+    @Query(value = """
+            INSERT INTO OutboxEvent (EventType, AggregateId, IdempotencyKey, Status, Attempts, NextAttemptAt, CreatedAt)
+            VALUES (:eventType, :aggregateId, :idempotencyKey, 'PENDING', 0, :now, :now)
+            ON CONFLICT (IdempotencyKey) DO NOTHING
+            """, nativeQuery = true)
+    int insertIfAbsent(@Param("eventType") String eventType,
+                       @Param("aggregateId") Long aggregateId,
+                       @Param("idempotencyKey") String idempotencyKey,
+                       @Param("now") LocalDateTime now);
+
+    // Các tác vụ đến hạn, cũ nhất trước
+    @Query("SELECT e.id FROM OutboxEvent e " +
+            "WHERE e.status = BatterySwapStation.entity.OutboxEvent.OutboxStatus.PENDING " +
+            "AND e.nextAttemptAt <= :now ORDER BY e.id")
+    List<Long> findDueIds(@Param("now") LocalDateTime now, Pageable pageable);
+
+    /**
+     * Nhận 1 tác vụ (PENDING → PROCESSING). Trả về 0 nếu worker/instance khác đã nhận trước.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE OutboxEvent e SET e.status = BatterySwapStation.entity.OutboxEvent.OutboxStatus.PROCESSING, " +
+            "e.lockedAt = :now " +
+            "WHERE e.id = :id AND e.status = BatterySwapStation.entity.OutboxEvent.OutboxStatus.PENDING")
+    int claim(@Param("id") Long id, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE OutboxEvent e SET e.status = BatterySwapStation.entity.OutboxEvent.OutboxStatus.DONE, " +
+            "e.processedAt = :now, e.lastError = NULL " +
+            "WHERE e.id = :id")
+    int markDone(@Param("id") Long id, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE OutboxEvent e SET e.status = :status, e.attempts = e.attempts + 1, " +
+            "e.nextAttemptAt = :nextAttemptAt, e.lastError = :error " +
+            "WHERE e.id = :id")
+    int markFailed(@Param("id") Long id,
+                   @Param("status") OutboxEvent.OutboxStatus status,
+                   @Param("nextAttemptAt") LocalDateTime nextAttemptAt,
+                   @Param("error") String error);
+
+    // Worker chết giữa chừng (vd. restart): trả tác vụ PROCESSING quá lâu về PENDING
+    @Modifying
+    @Transactional
+    @Query("UPDATE OutboxEvent e SET e.status = BatterySwapStation.entity.OutboxEvent.OutboxStatus.PENDING " +
+            "WHERE e.status = BatterySwapStation.entity.OutboxEvent.OutboxStatus.PROCESSING " +
+            "AND e.lockedAt < :cutoff")
+    int releaseStale(@Param("cutoff") LocalDateTime cutoff);
+}
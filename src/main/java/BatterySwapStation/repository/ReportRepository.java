@@ -1,103 +1,203 @@
 package BatterySwapStation.repository;
 
 import BatterySwapStation.entity.Report;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 @Repository
 public interface ReportRepository extends JpaRepository<Report, Long> {
 
-    // ✅ Doanh thu theo giờ
-    @Query(value = """
+    // Các báo cáo doanh thu / swap đọc bucket ReportHourlyRollup / ReportDailyRollup (xem ReportRollupService),
+    // khoảng ngày tính cả startDate và endDate.
+
+    String HOURLY_REVENUE_SQL = """
         SELECT 
-            DATE(i.createddate) AS "date",
-            EXTRACT(HOUR FROM i.createddate) AS "hour",
-            COALESCE(SUM(i.totalamount), 0) AS "totalRevenue",
-            COUNT(i.invoiceid) AS "transactions"
-        FROM invoice i
-        JOIN payment p ON p.invoiceid = i.invoiceid
-        WHERE p.paymentstatus = 'SUCCESS'
-          AND i.createddate BETWEEN :startDate AND :endDate
-        GROUP BY DATE(i.createddate), EXTRACT(HOUR FROM i.createddate)
-        ORDER BY DATE(i.createddate), "hour"
-    """, nativeQuery = true)
+            CAST(r.buckethour AS date) AS "date",
+            EXTRACT(HOUR FROM r.buckethour) AS "hour",
+            SUM(r.revenue) AS "totalRevenue",
+            SUM(r.revenuetransactions) AS "transactions"
+        FROM reporthourlyrollup r
+        WHERE r.buckethour >= :startDate AND r.buckethour < CAST(:endDate AS date) + 1
+        GROUP BY r.buckethour
+        HAVING SUM(r.revenuetransactions) > 0
+        ORDER BY r.buckethour
+    """;
+
+    String DAILY_REVENUE_SQL = """
+        SELECT 
+            r.bucketdate AS "date",
+            SUM(r.revenue) AS "totalRevenue",
+            SUM(r.revenuetransactions) AS "transactions"
+        FROM reportdailyrollup r
+        WHERE r.bucketdate BETWEEN :startDate AND :endDate
+        GROUP BY r.bucketdate
+        HAVING SUM(r.revenuetransactions) > 0
+        ORDER BY r.bucketdate
+    """;
+
+    String HOURLY_SWAP_SQL = """
+        SELECT 
+            CAST(r.buckethour AS date) AS "date",
+            EXTRACT(HOUR FROM r.buckethour) AS "hour",
+            SUM(r.swapcount) AS "swapCount"
+        FROM reporthourlyrollup r
+        WHERE r.buckethour >= :startDate AND r.buckethour < CAST(:endDate AS date) + 1
+        GROUP BY r.buckethour
+        HAVING SUM(r.swapcount) > 0
+        ORDER BY r.buckethour
+    """;
+
+    String DAILY_SWAP_SQL = """
+        SELECT 
+            r.bucketdate AS "date",
+            SUM(r.swapcount) AS "swapCount"
+        FROM reportdailyrollup r
+        WHERE r.bucketdate BETWEEN :startDate AND :endDate
+        GROUP BY r.bucketdate
+        HAVING SUM(r.swapcount) > 0
+        ORDER BY r.bucketdate
+    """;
+
+    // ✅ Doanh thu theo giờ
+    @Query(value = HOURLY_REVENUE_SQL, nativeQuery = true)
     List<Map<String, Object>> fetchHourlyRevenue(@Param("startDate") LocalDate startDate,
                                                  @Param("endDate") LocalDate endDate);
 
     // ✅ Doanh thu theo ngày
-    @Query(value = """
-        SELECT 
-            DATE(i.createddate) AS "date",
-            COALESCE(SUM(i.totalamount), 0) AS "totalRevenue",
-            COUNT(i.invoiceid) AS "transactions"
-        FROM invoice i
-        JOIN payment p ON p.invoiceid = i.invoiceid
-        WHERE p.paymentstatus = 'SUCCESS'
-          AND i.createddate BETWEEN :startDate AND :endDate
-        GROUP BY DATE(i.createddate)
-        ORDER BY DATE(i.createddate)
-    """, nativeQuery = true)
+    @Query(value = DAILY_REVENUE_SQL, nativeQuery = true)
     List<Map<String, Object>> fetchDailyRevenue(@Param("startDate") LocalDate startDate,
                                                 @Param("endDate") LocalDate endDate);
 
     // ✅ Lượt swap theo giờ
-    @Query(value = """
-        SELECT 
-            DATE(sw.completedtime) AS "date",
-            EXTRACT(HOUR FROM sw.completedtime) AS "hour",
-            COUNT(sw.swapid) AS "swapCount"
-        FROM swap sw
-        WHERE sw.completedtime BETWEEN :startDate AND :endDate
-        GROUP BY DATE(sw.completedtime), EXTRACT(HOUR FROM sw.completedtime)
-        ORDER BY DATE(sw.completedtime), "hour"
-    """, nativeQuery = true)
+    @Query(value = HOURLY_SWAP_SQL, nativeQuery = true)
     List<Map<String, Object>> fetchHourlySwap(@Param("startDate") LocalDate startDate,
                                               @Param("endDate") LocalDate endDate);
 
     // ✅ Lượt swap theo ngày
+    @Query(value = DAILY_SWAP_SQL, nativeQuery = true)
+    List<Map<String, Object>> fetchDailySwap(@Param("startDate") LocalDate startDate,
+                                             @Param("endDate") LocalDate endDate);
+
+    // Cùng các query trên nhưng đọc dần theo con trỏ (500 dòng / lần) cho file xuất – chỉ dùng trong transaction,
+    // Stream phải được đóng sau khi đọc xong.
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query(value = HOURLY_REVENUE_SQL, nativeQuery = true)
+    Stream<Map<String, Object>> streamHourlyRevenue(@Param("startDate") LocalDate startDate,
+                                                    @Param("endDate") LocalDate endDate);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query(value = DAILY_REVENUE_SQL, nativeQuery = true)
+    Stream<Map<String, Object>> streamDailyRevenue(@Param("startDate") LocalDate startDate,
+                                                   @Param("endDate") LocalDate endDate);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query(value = HOURLY_SWAP_SQL, nativeQuery = true)
+    Stream<Map<String, Object>> streamHourlySwap(@Param("startDate") LocalDate startDate,
+                                                 @Param("endDate") LocalDate endDate);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query(value = DAILY_SWAP_SQL, nativeQuery = true)
+    Stream<Map<String, Object>> streamDailySwap(@Param("startDate") LocalDate startDate,
+                                                @Param("endDate") LocalDate endDate);
+
+    // Tổng doanh thu + lượt swap của 1 ngày (mọi trạm) – dashboard admin; luôn đúng 1 dòng
     @Query(value = """
-        SELECT 
-            DATE(sw.completedtime) AS "date",
-            COUNT(sw.swapid) AS "swapCount"
+        SELECT
+            COALESCE(SUM(r.revenue), 0) AS "totalRevenue",
+            COALESCE(SUM(r.swapcount), 0) AS "swapCount"
+        FROM reportdailyrollup r
+        WHERE r.bucketdate = :date
+    """, nativeQuery = true)
+    List<Map<String, Object>> fetchDayTotals(@Param("date") LocalDate date);
+
+    // ==================== BÁO CÁO THEO TRẠM ====================
+
+    // Doanh thu + lượt swap theo (trạm, ngày) cho mọi trạm trong khoảng – 1 lượt quét bucket
+    @Query(value = """
+        SELECT
+            r.stationid AS "stationId",
+            r.bucketdate AS "date",
+            r.revenue AS "totalRevenue",
+            r.swapcount AS "swapCount"
+        FROM reportdailyrollup r
+        WHERE r.bucketdate BETWEEN :startDate AND :endDate
+        ORDER BY r.stationid, r.bucketdate
+    """, nativeQuery = true)
+    List<Map<String, Object>> fetchDailyByAllStations(@Param("startDate") LocalDate startDate,
+                                                      @Param("endDate") LocalDate endDate);
+
+    @Query(value = """
+        SELECT
+            r.bucketdate AS "date",
+            r.revenue AS "totalRevenue",
+            r.swapcount AS "swapCount"
+        FROM reportdailyrollup r
+        WHERE r.stationid = :stationId
+          AND r.bucketdate BETWEEN :startDate AND :endDate
+        ORDER BY r.bucketdate
+    """, nativeQuery = true)
+    List<Map<String, Object>> fetchDailyByStation(@Param("stationId") Integer stationId,
+                                                  @Param("startDate") LocalDate startDate,
+                                                  @Param("endDate") LocalDate endDate);
+
+    // Mỗi booking có swap tại trạm trong khoảng: 1 dòng kèm khách, xe, hóa đơn, danh sách pin giao ra
+    @Query(value = """
+        SELECT
+            b.bookingid AS "bookingId",
+            u.fullname AS "customerName",
+            v.vehicletype AS "vehicleType",
+            b.batterytype AS "batteryType",
+            b.bookingstatus AS "bookingStatus",
+            b.amount AS "bookingAmount",
+            b.totalprice AS "totalPrice",
+            i.totalamount AS "invoiceAmount",
+            COUNT(sw.swapid) AS "swapCount",
+            MIN(sw.completedtime) AS "completedTime",
+            string_agg(DISTINCT sw.batteryoutid, ', ') AS "batteryIds"
         FROM swap sw
-        WHERE sw.completedtime BETWEEN :startDate AND :endDate
-        GROUP BY DATE(sw.completedtime)
-        ORDER BY DATE(sw.completedtime)
+        JOIN booking b ON b.bookingid = sw.bookingid
+        JOIN users u ON u.userid = b.userid
+        LEFT JOIN vehicle v ON v.vehicleid = b.vehicleid
+        LEFT JOIN invoice i ON i.invoiceid = b.invoiceid
+        WHERE b.stationid = :stationId
+          AND sw.completedtime >= :startDate AND sw.completedtime < CAST(:endDate AS date) + 1
+        GROUP BY b.bookingid, u.fullname, v.vehicletype, b.batterytype, b.bookingstatus,
+                 b.amount, b.totalprice, i.totalamount
+        ORDER BY MIN(sw.completedtime) DESC
     """, nativeQuery = true)
-    List<Map<String, Object>> fetchDailySwap(@Param("startDate") LocalDate startDate,
-                                             @Param("endDate") LocalDate endDate);
+    List<Map<String, Object>> fetchStationBookingSwaps(@Param("stationId") Integer stationId,
+                                                       @Param("startDate") LocalDate startDate,
+                                                       @Param("endDate") LocalDate endDate);
 
     // Optimized station performance: use pre-aggregated subqueries to avoid large intermediate joins
+    // (doanh thu + số giao dịch lấy từ ReportDailyRollup)
     @Query(value = """
         SELECT
             s.stationid AS "stationId",
             s.stationname AS "stationName",
             s.address AS "address",
             COALESCE(ir.totalrevenue, 0) AS "totalRevenue",
-            COALESCE(sw.total_transactions, 0) AS "totalTransactions",
+            COALESCE(ir.total_transactions, 0) AS "totalTransactions",
             COALESCE(bc.managed_batteries, 0) AS "managedBatteries",
             CASE WHEN COALESCE(sl.total_slots, 0) = 0 THEN 0
                  ELSE ROUND( (sl.occupied_slots::numeric * 100.0) / sl.total_slots, 2)
             END AS "efficiencyRate"
         FROM station s
         LEFT JOIN (
-            SELECT b.stationid, SUM(i.totalamount) AS totalrevenue
-            FROM invoice i
-            JOIN booking b ON b.invoiceid = i.invoiceid
-            GROUP BY b.stationid
+            SELECT r.stationid, SUM(r.revenue) AS totalrevenue, SUM(r.swapcount) AS total_transactions
+            FROM reportdailyrollup r
+            GROUP BY r.stationid
         ) ir ON ir.stationid = s.stationid
-        LEFT JOIN (
-            SELECT d.stationid, COUNT(sw.swapid) AS total_transactions
-            FROM swap sw
-            JOIN dock d ON sw.dockid = d.dockid
-            GROUP BY d.stationid
-        ) sw ON sw.stationid = s.stationid
         LEFT JOIN (
             SELECT stationid, COUNT(batteryid) AS managed_batteries
             FROM battery
@@ -0,0 +1,84 @@
+package BatterySwapStation.repository;
+
+import BatterySwapStation.entity.ReportHourlyRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Tính lại bucket ReportHourlyRollup / ReportDailyRollup từ bảng gốc.
+ * Các câu ghi chạy trong transaction của ReportRollupService (xóa + chèn lại 1 khoảng → idempotent).
+ */
+@Repository
+public interface ReportRollupRepository extends JpaRepository<ReportHourlyRollup, Long> {
+
+    @Modifying
+    @Query(value = "DELETE FROM reporthourlyrollup WHERE buckethour >= :from AND buckethour < :to", nativeQuery = true)
+    int deleteHourly(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+    // Hóa đơn đã thanh toán (EXISTS → không đếm trùng khi có nhiều payment SUCCESS) + swap, gộp theo (trạm, giờ).
+    // Tiền hóa đơn chia cho từng trạm theo tỷ lệ tiền booking của trạm đó trong hóa đơn
+    // (hóa đơn chỉ có booking 0 đồng: chia theo số booking); hóa đơn không gắn booking trạm nào thì không vào rollup
+    @Modifying
+    @Query(value = """
+        INSERT INTO reporthourlyrollup (stationid, buckethour, revenue, revenuetransactions, swapcount, updatedat)
+        SELECT t.stationid, t.buckethour, SUM(t.revenue), SUM(t.transactions), SUM(t.swaps), now()
+        FROM (
+            SELECT s.stationid,
+                   date_trunc('hour', i.createddate) AS buckethour,
+                   COALESCE(i.totalamount, 0) * COALESCE(s.amountshare, s.countshare) AS revenue,
+                   1 AS transactions,
+                   0 AS swaps
+            FROM invoice i
+            CROSS JOIN LATERAL (
+                SELECT b.stationid,
+                       SUM(COALESCE(b.amount, 0)) / NULLIF(SUM(SUM(COALESCE(b.amount, 0))) OVER (), 0) AS amountshare,
+                       CAST(COUNT(*) AS double precision) / SUM(COUNT(*)) OVER () AS countshare
+                FROM booking b
+                WHERE b.invoiceid = i.invoiceid AND b.stationid IS NOT NULL
+                GROUP BY b.stationid
+            ) s
+            WHERE i.createddate >= :from AND i.createddate < :to
+              AND EXISTS (SELECT 1 FROM payment p WHERE p.invoiceid = i.invoiceid AND p.paymentstatus = 'SUCCESS')
+            UNION ALL
+            SELECT d.stationid, date_trunc('hour', sw.completedtime), 0, 0, 1
+            FROM swap sw
+            JOIN dock d ON d.dockid = sw.dockid
+            WHERE sw.completedtime >= :from AND sw.completedtime < :to
+        ) t
+        GROUP BY t.stationid, t.buckethour
+    """, nativeQuery = true)
+    int insertHourly(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+    @Modifying
+    @Query(value = "DELETE FROM reportdailyrollup WHERE bucketdate BETWEEN :fromDate AND :toDate", nativeQuery = true)
+    int deleteDaily(@Param("fromDate") LocalDate fromDate, @Param("toDate") LocalDate toDate);
+
+    // Ngày = tổng 24 bucket giờ của ngày đó
+    @Modifying
+    @Query(value = """
+        INSERT INTO reportdailyrollup (stationid, bucketdate, revenue, revenuetransactions, swapcount, updatedat)
+        SELECT h.stationid, CAST(h.buckethour AS date), SUM(h.revenue), SUM(h.revenuetransactions), SUM(h.swapcount), now()
+        FROM reporthourlyrollup h
+        WHERE h.buckethour >= :fromDate AND h.buckethour < CAST(:toDate AS date) + 1
+        GROUP BY h.stationid, CAST(h.buckethour AS date)
+    """, nativeQuery = true)
+    int insertDaily(@Param("fromDate") LocalDate fromDate, @Param("toDate") LocalDate toDate);
+
+    // Payment đổi trạng thái → bucket bị ảnh hưởng là giờ tạo hóa đơn
+    @Query("SELECT i.createdDate FROM Invoice i WHERE i.invoiceId IN :invoiceIds AND i.createdDate IS NOT NULL")
+    List<LocalDateTime> findInvoiceCreatedDates(@Param("invoiceIds") Collection<Long> invoiceIds);
+
+    @Query("SELECT MIN(i.createdDate) FROM Invoice i")
+    LocalDateTime findEarliestInvoiceDate();
+
+    @Query("SELECT MIN(s.completedTime) FROM Swap s")
+    LocalDateTime findEarliestSwapTime();
+}
@@ -47,6 +47,25 @@ public interface StationRepository extends JpaRepository<Station, Integer> {
         """)
     List<Object[]> getStationBatteryTypes();
 
+    // Thông tin hiển thị của các trạm đang hoạt động (dùng cho StationAvailabilityCache)
+    @Query("""
+        SELECT s.stationId, s.stationName, s.address, s.latitude, s.longitude, s.isActive
+        FROM Station s
+        WHERE s.isActive = TRUE
+        """)
+    List<Object[]> findActiveStationInfo();
+
+    // Trạng thái từng slot đang hoạt động: (stationId, dockSlotId, batteryType, batteryStatus)
+    @Query("""
+        SELECT s.stationId, ds.dockSlotId, b.batteryType, b.batteryStatus
+        FROM Station s
+        JOIN s.docks d ON d.isActive = TRUE
+        JOIN d.dockSlots ds ON ds.isActive = TRUE
+        LEFT JOIN ds.battery b
+        WHERE s.isActive = TRUE
+        """)
+    List<Object[]> findActiveSlotStates();
+
     // Load trạm kèm docks (tránh Lazy exception)
     @Query("""
         SELECT s
@@ -64,6 +83,13 @@ public interface StationRepository extends JpaRepository<Station, Integer> {
     """)
     long countBatteriesAtStation(Integer stationId);
 
+    // Công suất trạm = số dock (dùng cho BookingCapacityLedger)
+    @Query("SELECT COUNT(d) FROM Dock d WHERE d.station.stationId = :stationId")
+    int countDocksByStationId(@Param("stationId") Integer stationId);
+
+    @Query("SELECT d.station.stationId, COUNT(d) FROM Dock d GROUP BY d.station.stationId")
+    List<Object[]> countDocksForAllStations();
+
     @Query("SELECT COUNT(s) FROM Station s")
     int countAllStations();
 }
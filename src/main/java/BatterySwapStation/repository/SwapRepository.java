@@ -9,6 +9,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -74,6 +75,18 @@ public interface SwapRepository extends JpaRepository<Swap, Long> {
             @Param("end") LocalDate end
     );
 
+    // Số swap thành công theo (trạm, loại pin giao ra, giờ trong ngày) từ thời điểm chỉ định
+    @Query("""
+        SELECT b.station.stationId, bo.batteryType, HOUR(s.completedTime), COUNT(s)
+        FROM Swap s
+        JOIN s.booking b
+        JOIN Battery bo ON bo.batteryId = s.batteryOutId
+        WHERE s.completedTime >= :since
+          AND s.status = BatterySwapStation.entity.Swap.SwapStatus.SUCCESS
+        GROUP BY b.station.stationId, bo.batteryType, HOUR(s.completedTime)
+    """)
+    List<Object[]> countSwapsByStationTypeAndHour(@Param("since") LocalDateTime since);
+
     @Query("SELECT COUNT(s) FROM Swap s WHERE s.batteryOutId = :batteryId OR s.batteryInId = :batteryId")
     long countSwapsByBattery(@Param("batteryId") String batteryId);
 
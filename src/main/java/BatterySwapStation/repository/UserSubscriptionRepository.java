@@ -47,6 +47,13 @@ public interface UserSubscriptionRepository extends JpaRepository<UserSubscripti
      */
     List<UserSubscription> findByUser_UserIdOrderByStartDateDesc(String userId);
 
+    // Gói ACTIVE của user kèm plan trong 1 query (không lazy load plan từng gói)
+    @Query("SELECT us FROM UserSubscription us JOIN FETCH us.plan " +
+            "WHERE us.user.userId = :userId " +
+            "AND us.status = BatterySwapStation.entity.UserSubscription.SubscriptionStatus.ACTIVE " +
+            "ORDER BY us.startDate DESC")
+    List<UserSubscription> findActiveWithPlanByUserId(@Param("userId") String userId);
+
     UserSubscription findFirstByUser_UserIdAndStatusAndEndDateAfter(
             String userId, UserSubscription.SubscriptionStatus status, LocalDateTime now);
 
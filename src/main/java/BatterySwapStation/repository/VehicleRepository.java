@@ -10,6 +10,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -35,6 +36,13 @@ public interface VehicleRepository extends JpaRepository<Vehicle, Integer> {
     @Query("SELECT v FROM Vehicle v WHERE v.VIN IN :vins")
     List<Vehicle> findAllByVINs(@Param("vins") List<String> vins);
 
+    // Import theo lô: VIN / biển số nào trong danh sách đã có trong DB
+    @Query("SELECT v.VIN FROM Vehicle v WHERE v.VIN IN :vins")
+    List<String> findExistingVINs(@Param("vins") Collection<String> vins);
+
+    @Query("SELECT v.licensePlate FROM Vehicle v WHERE v.licensePlate IN :plates")
+    List<String> findExistingLicensePlates(@Param("plates") Collection<String> plates);
+
     List<Vehicle> findByUserIsNullAndIsActiveTrue();
 
 
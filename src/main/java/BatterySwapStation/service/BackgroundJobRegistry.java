@@ -0,0 +1,77 @@
+package BatterySwapStation.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Sổ job chạy nền dùng chung (import xe, xuất báo cáo).
+ *
+ * - Pool cố định {@code workers} thread tên {@code <name>-N}, hàng đợi tối đa {@code queueCapacity} job;
+ *   đầy → từ chối ngay thay vì xếp hàng vô hạn.
+ * - Job giữ trong bộ nhớ của instance nhận yêu cầu; job đã xong bị xóa sau {@code retention}
+ *   (service gọi {@link #evictFinished()} từ lịch dọn của mình).
+ */
+final class BackgroundJobRegistry<J extends BackgroundJobRegistry.TrackedJob> {
+
+    /** Job được theo dõi: id để client hỏi trạng thái, finishedAt != null khi đã xong (thành công hoặc lỗi). */
+    interface TrackedJob {
+        String id();
+
+        LocalDateTime finishedAt();
+    }
+
+    private final Duration retention;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, J> jobs = new ConcurrentHashMap<>();
+
+    BackgroundJobRegistry(String name, int workers, int queueCapacity, Duration retention) {
+        this.retention = retention;
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name(name + "-", 0).factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Ghi nhận job và xếp {@code task} vào hàng đợi.
+     *
+     * @throws RejectedExecutionException hàng đợi đầy (job không được ghi nhận), kèm {@code rejectedMessage}
+     */
+    void submit(J job, Runnable task, String rejectedMessage) {
+        jobs.put(job.id(), job);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id());
+            throw new RejectedExecutionException(rejectedMessage);
+        }
+    }
+
+    /** Ghi nhận job không cần chạy (vd. đã xong ngay từ cache). */
+    void register(J job) {
+        jobs.put(job.id(), job);
+    }
+
+    /**
+     * @return null nếu không có job (sai id hoặc đã quá hạn lưu)
+     */
+    J get(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    boolean contains(String jobId) {
+        return jobs.containsKey(jobId);
+    }
+
+    void evictFinished() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(retention);
+        jobs.values().removeIf(job -> job.finishedAt() != null && job.finishedAt().isBefore(cutoff));
+    }
+
+    void shutdown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
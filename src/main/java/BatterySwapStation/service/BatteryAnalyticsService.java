@@ -0,0 +1,134 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.entity.Battery;
+import BatterySwapStation.repository.BatteryRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+
+/**
+ * Thống kê pin toàn hệ thống bằng GROUP BY trên DB (không load entity Battery).
+ *
+ * - Số pin theo loại / trạm / chưa gán trạm, SoH và số chu kỳ trung bình theo loại.
+ * - Histogram SoH ({@code battery-analytics.soh-bucket-size}) và số chu kỳ
+ *   ({@code battery-analytics.cycle-bucket-size} × {@code battery-analytics.cycle-bucket-count})
+ *   theo từng loại pin và từng trạm.
+ *
+ * Kết quả chỉ phụ thuộc số loại × trạm × bucket, không phụ thuộc số pin.
+ */
+@Service
+@RequiredArgsConstructor
+public class BatteryAnalyticsService {
+
+    private static final String UNASSIGNED = "unassigned";
+
+    private final BatteryRepository batteryRepository;
+
+    @Value("${battery-analytics.soh-bucket-size:10}")
+    private int sohBucketSize;
+
+    @Value("${battery-analytics.cycle-bucket-size:100}")
+    private int cycleBucketSize;
+
+    @Value("${battery-analytics.cycle-bucket-count:20}")
+    private int cycleBucketCount;
+
+    // Cấu hình sai thì dừng lúc khởi động thay vì chia cho 0 / histogram rỗng ở request đầu tiên
+    @PostConstruct
+    void validateConfig() {
+        if (sohBucketSize < 1 || sohBucketSize > 100) {
+            throw new IllegalStateException("battery-analytics.soh-bucket-size phải trong khoảng 1..100: " + sohBucketSize);
+        }
+        if (cycleBucketSize < 1) {
+            throw new IllegalStateException("battery-analytics.cycle-bucket-size phải >= 1: " + cycleBucketSize);
+        }
+        if (cycleBucketCount < 1) {
+            throw new IllegalStateException("battery-analytics.cycle-bucket-count phải >= 1: " + cycleBucketCount);
+        }
+    }
+
+    @Transactional(readOnly = true)
+    public Map<String, Object> getBatteryStatistics() {
+        long total = 0;
+        long unassigned = 0;
+        Map<String, Long> byType = new TreeMap<>();
+        Map<Integer, Long> byStation = new TreeMap<>();
+        // loại → [tổng SoH, số pin có SoH, tổng chu kỳ, số pin có chu kỳ]
+        Map<String, double[]> typeAverages = new TreeMap<>();
+
+        for (Object[] r : batteryRepository.aggregateByTypeAndStation()) {
+            String type = ((Battery.BatteryType) r[0]).name();
+            Integer stationId = (Integer) r[1];
+            long count = ((Number) r[2]).longValue();
+
+            total += count;
+            byType.merge(type, count, Long::sum);
+            if (stationId == null) {
+                unassigned += count;
+            } else {
+                byStation.merge(stationId, count, Long::sum);
+            }
+
+            // Cộng tổng / số pin có giá trị của từng nhóm (loại, trạm) → trung bình theo loại
+            double[] acc = typeAverages.computeIfAbsent(type, k -> new double[4]);
+            if (r[3] != null) acc[0] += ((Number) r[3]).doubleValue();
+            acc[1] += ((Number) r[4]).longValue();
+            if (r[5] != null) acc[2] += ((Number) r[5]).doubleValue();
+            acc[3] += ((Number) r[6]).longValue();
+        }
+
+        Map<String, Object> averagesByType = new LinkedHashMap<>();
+        typeAverages.forEach((type, acc) -> {
+            Map<String, Object> avg = new LinkedHashMap<>();
+            avg.put("avgStateOfHealth", acc[1] > 0 ? round2(acc[0] / acc[1]) : null);
+            avg.put("avgCycleCount", acc[3] > 0 ? round2(acc[2] / acc[3]) : null);
+            averagesByType.put(type, avg);
+        });
+
+        int cycleMaxBucket = (cycleBucketCount - 1) * cycleBucketSize;
+        Map<String, Object> histograms = new LinkedHashMap<>();
+        histograms.put("stateOfHealth", histogram(batteryRepository.histogramStateOfHealth(sohBucketSize), sohBucketSize));
+        histograms.put("cycleCount", histogram(batteryRepository.histogramCycleCount(cycleBucketSize, cycleMaxBucket), cycleBucketSize));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("totalBatteries", total);
+        result.put("byType", byType);
+        result.put("byStation", byStation);
+        result.put("unassigned", unassigned);
+        result.put("averagesByType", averagesByType);
+        result.put("histograms", histograms);
+        return result;
+    }
+
+    /**
+     * Dòng (loại, trạm, cận dưới bucket, số pin) → {bucketSize, byType: {loại: {bucket: n}}, byStation: {trạm: {bucket: n}}}.
+     */
+    private Map<String, Object> histogram(List<Object[]> rows, int bucketSize) {
+        Map<String, Map<Integer, Long>> byType = new TreeMap<>();
+        Map<String, Map<Integer, Long>> byStation = new LinkedHashMap<>();
+
+        for (Object[] r : rows) {
+            String type = String.valueOf(r[0]);
+            String station = r[1] == null ? UNASSIGNED : String.valueOf(r[1]);
+            int bucket = ((Number) r[2]).intValue();
+            long count = ((Number) r[3]).longValue();
+
+            byType.computeIfAbsent(type, k -> new TreeMap<>()).merge(bucket, count, Long::sum);
+            byStation.computeIfAbsent(station, k -> new TreeMap<>()).merge(bucket, count, Long::sum);
+        }
+
+        Map<String, Object> histogram = new LinkedHashMap<>();
+        histogram.put("bucketSize", bucketSize);
+        histogram.put("byType", byType);
+        histogram.put("byStation", byStation);
+        return histogram;
+    }
+
+    private static double round2(double value) {
+        return Math.round(value * 100) / 100d;
+    }
+}
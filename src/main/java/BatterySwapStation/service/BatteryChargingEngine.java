@@ -0,0 +1,334 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.dto.BatteryRealtimeEvent;
+import BatterySwapStation.entity.Battery;
+import BatterySwapStation.repository.BatteryRepository;
+import BatterySwapStation.websocket.BatterySocketController;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Mô phỏng sạc pin (thay cho BatteryService.autoChargeBatteries).
+ *
+ * Trạng thái sạc nằm trong các mảng nguyên thủy, đánh chỉ số theo ordinal của pin,
+ * nên mỗi tick chỉ là một vòng lặp trên mảng, không load entity và không cấp phát.
+ * Chỉ các chuyển trạng thái (CHARGING → AVAILABLE, tăng CycleCount) được ghi DB ngay
+ * bằng JDBC batch; dung lượng đang sạc được flush theo lô mỗi lần đồng bộ.
+ *
+ * Toàn bộ trạng thái chỉ được ghi bởi luồng scheduler (single writer). Các luồng khác
+ * chỉ bật cờ {@link #requestResync()}, không cần khóa.
+ *
+ * Pin đổi trạng thái ngoài engine (rút/cắm, đổi status) được báo qua {@link #requestResync(String)}:
+ * entry của nó bị bỏ trước lần flush kế tiếp, nên dung lượng cũ không ghi đè lên pin vừa cắm lại.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BatteryChargingEngine {
+
+    private static final double CHARGE_STEP = 10.0;
+    private static final double FULL_CAPACITY = 100.0;
+    // Đồng bộ lại với DB mỗi 10 tick (~60 giây)
+    private static final int RESYNC_EVERY_TICKS = 10;
+
+    // Trạng thái của từng ordinal
+    private static final byte IDLE = 0;          // đã đầy từ tick trước, chờ đồng bộ để loại khỏi mảng
+    private static final byte CHARGING = 1;
+    private static final byte JUST_COMPLETED = 2; // vừa đầy trong tick này
+
+    private static final String SQL_COMPLETE = """
+            UPDATE Battery SET BatteryStatus = 'AVAILABLE', CurrentCapacity = ?, CycleCount = ?
+            WHERE BatteryId = ? AND BatteryStatus = 'CHARGING'
+            """;
+    private static final String SQL_FLUSH_PROGRESS = """
+            UPDATE Battery SET CurrentCapacity = ?
+            WHERE BatteryId = ? AND BatteryStatus = 'CHARGING'
+            """;
+
+    private final BatteryRepository batteryRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final BatterySocketController batterySocketController;
+
+    private final AtomicBoolean resyncRequested = new AtomicBoolean(true);
+    // Pin đã đổi trạng thái từ bên ngoài, chờ luồng tick bỏ entry
+    private final Set<String> invalidated = ConcurrentHashMap.newKeySet();
+    private int ticksSinceSync;
+
+    // ===== Trạng thái theo ordinal pin =====
+    private int size;
+    private Map<String, Integer> ordinalById = Map.of();
+    private String[] batteryIds = new String[0];
+    private double[] capacity = new double[0];
+    private int[] cycleCount = new int[0];
+    private byte[] state = new byte[0];
+    private int[] stationOrdinal = new int[0];   // -1 nếu pin không nằm trong dock
+    private int[] dockSlotId = new int[0];
+    private int[] slotNumber = new int[0];
+    private String[] dockName = new String[0];
+    private String[] batteryType = new String[0];
+    private Double[] stateOfHealth = new Double[0];
+
+    // ===== Trạng thái theo ordinal trạm =====
+    private int[] stationIds = new int[0];
+
+    // Buffer tái sử dụng cho các pin vừa sạc đầy trong tick
+    private int[] completedBuffer = new int[0];
+
+    /**
+     * Báo cho engine biết có pin vừa vào/ra trạng thái CHARGING.
+     * Nếu đang trong transaction, chỉ có hiệu lực sau khi commit.
+     */
+    public void requestResync() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    resyncRequested.set(true);
+                }
+            });
+        } else {
+            resyncRequested.set(true);
+        }
+    }
+
+    /**
+     * Như {@link #requestResync()}, đồng thời bỏ dung lượng engine đang giữ cho pin này:
+     * gọi khi pin rời/vào trạng thái CHARGING (rút khỏi dock, cắm lại, đổi status).
+     */
+    public void requestResync(String batteryId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidated.add(batteryId);
+                    resyncRequested.set(true);
+                }
+            });
+        } else {
+            invalidated.add(batteryId);
+            resyncRequested.set(true);
+        }
+    }
+
+    // ==================== TICK ====================
+    @Scheduled(fixedRate = 6000) // mỗi 6 giây
+    public void tick() {
+        try {
+            dropInvalidated();
+            if (resyncRequested.getAndSet(false) || ++ticksSinceSync >= RESYNC_EVERY_TICKS) {
+                resync();
+            }
+            if (size == 0) return;
+
+            long start = System.nanoTime();
+            int completed = advance();
+            long advanceNanos = System.nanoTime() - start;
+
+            if (completed > 0) {
+                persistCompleted(completed);
+            }
+            publishStationEvents();
+
+            log.debug("BatteryChargingEngine: tick {} pin ({} đầy) – advance {} µs",
+                    size, completed, advanceNanos / 1_000);
+        } catch (Exception e) {
+            log.error("BatteryChargingEngine: tick thất bại: {}", e.getMessage(), e);
+            resyncRequested.set(true);
+        }
+    }
+
+    /**
+     * Tăng dung lượng cho mọi pin đang sạc. Không cấp phát bộ nhớ.
+     *
+     * @return số pin vừa sạc đầy, ordinal nằm trong completedBuffer[0..n)
+     */
+    int advance() {
+        int completed = 0;
+        for (int i = 0; i < size; i++) {
+            if (state[i] != CHARGING) {
+                state[i] = IDLE;
+                continue;
+            }
+
+            double c = capacity[i] + CHARGE_STEP;
+            if (c >= FULL_CAPACITY) {
+                c = FULL_CAPACITY;
+                state[i] = JUST_COMPLETED;
+                cycleCount[i]++;
+                completedBuffer[completed++] = i;
+            }
+            capacity[i] = c;
+        }
+        return completed;
+    }
+
+    /**
+     * Đánh dấu IDLE các pin đã đổi trạng thái bên ngoài: không còn được tăng, flush hay publish.
+     * Lần resync tiếp theo nạp lại giá trị từ DB.
+     */
+    private void dropInvalidated() {
+        for (Iterator<String> it = invalidated.iterator(); it.hasNext(); ) {
+            Integer ord = ordinalById.get(it.next());
+            it.remove();
+            if (ord != null) state[ord] = IDLE;
+        }
+    }
+
+    // ==================== GHI DB ====================
+    private void persistCompleted(int completed) {
+        final int[] ordinals = completedBuffer;
+        jdbcTemplate.batchUpdate(SQL_COMPLETE, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                int ord = ordinals[i];
+                ps.setDouble(1, capacity[ord]);
+                ps.setInt(2, cycleCount[ord]);
+                ps.setString(3, batteryIds[ord]);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return completed;
+            }
+        });
+    }
+
+    private void flushProgress() {
+        List<Object[]> args = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (state[i] == CHARGING) args.add(new Object[]{capacity[i], batteryIds[i]});
+        }
+        if (!args.isEmpty()) {
+            jdbcTemplate.batchUpdate(SQL_FLUSH_PROGRESS, args);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        try {
+            flushProgress();
+        } catch (Exception e) {
+            log.warn("BatteryChargingEngine: không flush được dung lượng khi tắt: {}", e.getMessage());
+        }
+    }
+
+    // ==================== ĐỒNG BỘ VỚI DB ====================
+    /**
+     * Flush dung lượng hiện tại rồi nạp lại danh sách pin CHARGING bằng 1 native query
+     * (không load entity, không chạm lazy DockSlot).
+     */
+    private void resync() {
+        ticksSinceSync = 0;
+        flushProgress();
+
+        List<Object[]> rows = batteryRepository.findChargingBatteryStates();
+        int n = rows.size();
+
+        String[] ids = new String[n];
+        double[] cap = new double[n];
+        int[] cycles = new int[n];
+        byte[] states = new byte[n];
+        int[] stOrd = new int[n];
+        int[] slotIds = new int[n];
+        int[] slotNums = new int[n];
+        String[] docks = new String[n];
+        String[] types = new String[n];
+        Double[] soh = new Double[n];
+
+        Map<String, Integer> ordinals = new HashMap<>(n * 2);
+        Map<Integer, Integer> stationIndex = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            Object[] r = rows.get(i);
+            ids[i] = (String) r[0];
+            ordinals.put(ids[i], i);
+            cap[i] = r[1] != null ? ((Number) r[1]).doubleValue() : 0.0;
+            cycles[i] = r[2] != null ? ((Number) r[2]).intValue() : 0;
+            types[i] = r[3] != null ? String.valueOf(r[3]) : null;
+            soh[i] = r[4] != null ? ((Number) r[4]).doubleValue() : null;
+            states[i] = CHARGING;
+
+            if (r[5] != null && r[8] != null) {
+                slotIds[i] = ((Number) r[5]).intValue();
+                slotNums[i] = r[6] != null ? ((Number) r[6]).intValue() : 0;
+                docks[i] = (String) r[7];
+                Integer stationId = ((Number) r[8]).intValue();
+                stOrd[i] = stationIndex.computeIfAbsent(stationId, k -> stationIndex.size());
+            } else {
+                stOrd[i] = -1;
+            }
+        }
+
+        int[] stIds = new int[stationIndex.size()];
+        stationIndex.forEach((id, ord) -> stIds[ord] = id);
+
+        this.size = n;
+        this.ordinalById = ordinals;
+        this.batteryIds = ids;
+        this.capacity = cap;
+        this.cycleCount = cycles;
+        this.state = states;
+        this.stationOrdinal = stOrd;
+        this.dockSlotId = slotIds;
+        this.slotNumber = slotNums;
+        this.dockName = docks;
+        this.batteryType = types;
+        this.stateOfHealth = soh;
+        this.stationIds = stIds;
+        this.completedBuffer = new int[n];
+
+        log.debug("BatteryChargingEngine: đồng bộ {} pin đang sạc tại {} trạm", n, stIds.length);
+    }
+
+    // ==================== REALTIME ====================
+    /**
+     * Đẩy tiến độ sạc của các pin trong dock. RealtimeEventAggregator gom chúng
+     * (cùng các sự kiện swap/inspection trong cửa sổ) thành 1 frame / trạm.
+     */
+    private void publishStationEvents() {
+        String now = LocalDateTime.now().toString();
+
+        for (int i = 0; i < size; i++) {
+            int st = stationOrdinal[i];
+            if (st < 0 || state[i] == IDLE) continue;
+            boolean justCompleted = state[i] == JUST_COMPLETED;
+
+            try {
+                batterySocketController.publishBatteryEvent(BatteryRealtimeEvent.builder()
+                        .stationId(stationIds[st])
+                        .dockId(dockSlotId[i])
+                        .dockName(dockName[i])
+                        .slotNumber(slotNumber[i])
+                        .batteryId(batteryIds[i])
+                        .batteryStatus(justCompleted ? Battery.BatteryStatus.AVAILABLE.name() : Battery.BatteryStatus.CHARGING.name())
+                        .batteryType(batteryType[i])
+                        .stateOfHealth(stateOfHealth[i])
+                        .currentCapacity(capacity[i])
+                        .cycleCount(cycleCount[i])
+                        .action(justCompleted ? "CHARGING_COMPLETE" : "CHARGING_PROGRESS")
+                        .timestamp(now)
+                        .build());
+            } catch (Exception e) {
+                log.warn("BatteryChargingEngine: gửi realtime pin {} thất bại: {}", batteryIds[i], e.getMessage());
+            }
+        }
+    }
+}
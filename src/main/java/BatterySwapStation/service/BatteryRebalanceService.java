@@ -9,23 +9,32 @@ import BatterySwapStation.repository.BatteryRebalanceRepository;
 import BatterySwapStation.repository.BatteryRepository;
 import BatterySwapStation.repository.StationRepository;
 import lombok.RequiredArgsConstructor;
-import org.ojalgo.optimisation.Expression;
-import org.ojalgo.optimisation.ExpressionsBasedModel;
-import org.ojalgo.optimisation.Optimisation;
-import org.ojalgo.optimisation.Variable;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class BatteryRebalanceService {
 
+    // Số trạm láng giềng gần nhất được nối cạnh khi điều phối
+    private static final int K_NEAREST = 8;
+    // ~5 độ trong mô hình Euclid cũ
+    private static final double FAR_DISTANCE_KM = 500.0;
+    // Tồn kho tối thiểu mỗi loại pin tại trạm có phục vụ loại đó
+    private static final int MIN_STOCK_PER_TYPE = 2;
+    // Hệ số an toàn trên nhu cầu dự báo
+    private static final double SAFETY_FACTOR = 1.2;
+
     private final StationRepository stationRepository;
     private final BatteryRepository batteryRepository;
     private final BatteryRebalanceRepository rebalanceRepository;
+    private final RebalanceDemandForecaster demandForecaster;
 
     // ===================== CRUD LỆNH ĐIỀU PHỐI =====================
 
@@ -59,217 +68,159 @@ public class BatteryRebalanceService {
         return rebalanceRepository.findAll();
     }
 
-    // ===================== AI GỢI Ý ĐIỀU PHỐI (LINEAR PROGRAMMING) =====================
+    // ===================== AI GỢI Ý ĐIỀU PHỐI (MIN-COST FLOW) =====================
     // Ý tưởng:
-    //  - x[i][j]: số pin chuyển từ station i -> j (biến nguyên, >=0)
-    //  - shortage[i]: thiếu hụt còn lại tại station i (>=0, phạt lớn trong objective)
-    //  - Mục tiêu: Min( sum(cost[i][j] * x[i][j]) + SHORTAGE_PENALTY * sum(shortage[i]) )
-    //  - Ràng buộc:
-    //      + Không gửi quá số pin hiện có ở mỗi trạm
-    //      + current - outbound + inbound + shortage >= target (cân bằng tồn kho tối thiểu)
+    //  - Mỗi loại pin được điều phối riêng (pin khác loại không thay thế được cho nhau).
+    //  - Target của (trạm, loại) lấy từ dự báo nhu cầu trong khung giờ tới (lịch sử swap theo giờ
+    //    + booking đang mở, xem RebalanceDemandForecaster), nhân hệ số an toàn, tối thiểu MIN_STOCK_PER_TYPE.
+    //  - Trạm dư (current > target) là nguồn, trạm thiếu là đích; chỉ xét cạnh tới k trạm gần nhất
+    //    (+ k trạm thiếu gần nhất), chi phí = khoảng cách haversine (xem RebalancePlanner).
+    //  - Trạm dư chỉ chuyển đi đúng phần trạm khác cần, không san đều tồn kho → ít chuyến xe hơn.
     public List<RebalanceSuggestion> getAiSuggestions() {
-
-        // 1. Lấy station đang active
-        List<Station> stations = stationRepository.findAll().stream()
-                .filter(Station::isActive)
-                .collect(Collectors.toList());
-
-        int n = stations.size();
-        if (n <= 1) return Collections.emptyList();
-
-        // 2. Đếm số pin active tại mỗi trạm
-        Map<Integer, Long> currentMap = batteryRepository.findAll().stream()
-                .filter(Battery::isActive)
-                .filter(b -> b.getStationId() != null)
-                .collect(Collectors.groupingBy(Battery::getStationId, Collectors.counting()));
-
-        long total = currentMap.values().stream()
-                .mapToLong(Long::longValue)
-                .sum();
-
-        if (total == 0) return Collections.emptyList();
-
-        // 3. Target tồn kho mỗi trạm
-        final int MIN_STOCK = 20; // tối thiểu mỗi trạm nên có (note VN)
-        int avg = (int) (total / n);
-
-        Map<Integer, Integer> targetMap = new HashMap<>();
-        for (Station s : stations) {
-            int target = Math.max(MIN_STOCK, avg);
-            targetMap.put(s.getStationId(), target);
+        List<RebalanceSuggestion> suggestions = new ArrayList<>();
+        for (PlannedTransfer t : planTransfers()) {
+            suggestions.add(toSuggestion(t));
         }
+        return suggestions;
+    }
 
-        // 4. Chi phí vận chuyển: khoảng cách Euclid đơn giản
-        double[][] cost = new double[n][n];
-        for (int i = 0; i < n; i++) {
-            Station si = stations.get(i);
-            for (int j = 0; j < n; j++) {
-                if (i == j) {
-                    cost[i][j] = 0.0;
-                } else {
-                    Station sj = stations.get(j);
-                    double dx = si.getLatitude().doubleValue() - sj.getLatitude().doubleValue();
-                    double dy = si.getLongitude().doubleValue() - sj.getLongitude().doubleValue();
-                    double dist = Math.sqrt(dx * dx + dy * dy);
-                    cost[i][j] = dist == 0.0 ? 1.0 : dist; // tránh 0
-                }
-            }
+    /**
+     * Chạy dự báo + điều phối và ghi kết quả thành các lệnh điều phối PENDING theo từng loại pin.
+     */
+    @Transactional
+    public List<BatteryRebalance> createForecastOrders() {
+        List<BatteryRebalance> orders = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (PlannedTransfer t : planTransfers()) {
+            orders.add(BatteryRebalance.builder()
+                    .fromStation(stationRepository.getReferenceById(t.fromStationId()))
+                    .toStation(stationRepository.getReferenceById(t.toStationId()))
+                    .batteryType(t.batteryType())
+                    .quantity(t.quantity())
+                    .note("Tự động từ dự báo nhu cầu: " + reasonFor(t))
+                    .status(BatteryRebalance.RebalanceStatus.PENDING)
+                    .createdAt(now)
+                    .build());
         }
+        return rebalanceRepository.saveAll(orders);
+    }
 
-        // 5. Xây model ojAlgo
-        ExpressionsBasedModel model = new ExpressionsBasedModel();
-
-        Variable[][] x = new Variable[n][n];
-        Variable[] shortage = new Variable[n];
-        final double SHORTAGE_PENALTY = 1000.0;
-
-        // 5.1. Tạo biến & constraint "send_limit"
-        for (int i = 0; i < n; i++) {
-            Station station = stations.get(i);
-            int stationId = station.getStationId();
-            long current = currentMap.getOrDefault(stationId, 0L);
-
-            // shortage_i >= 0, weight lớn trong objective
-            shortage[i] = model.addVariable("shortage_" + stationId)
-                    .lower(0)
-                    .weight(SHORTAGE_PENALTY);
+    // Một chặng điều phối của 1 loại pin, kèm số dư/thiếu (so với target) của hai đầu
+    private record PlannedTransfer(Integer fromStationId, String fromName,
+                                   Integer toStationId, String toName,
+                                   Battery.BatteryType batteryType, int quantity, double distanceKm,
+                                   int fromSurplus, int toDeficit) {}
 
-            // x[i][j] >= 0, integer, weight = cost
-            for (int j = 0; j < n; j++) {
-                if (i == j) continue;
+    private List<PlannedTransfer> planTransfers() {
 
-                int toId = stations.get(j).getStationId();
-                x[i][j] = model.addVariable("x_" + stationId + "_to_" + toId)
-                        .lower(0)
-                        .integer(true)
-                        .weight(cost[i][j]);
-            }
+        // 1. Lấy station đang active (chỉ các cột cần thiết)
+        List<Object[]> stationRows = stationRepository.findActiveStationInfo().stream()
+                .filter(r -> r[3] != null && r[4] != null)
+                .toList();
 
-            // ∑_j x[i][j] <= current(i)
-            Expression sendLimit = model.addExpression("send_limit_" + stationId);
-            for (int j = 0; j < n; j++) {
-                if (i != j && x[i][j] != null) {
-                    sendLimit.set(x[i][j], 1);
-                }
-            }
-            sendLimit.upper(current);
-        }
+        int n = stationRows.size();
+        if (n <= 1) return Collections.emptyList();
 
-        // 5.2. Cân bằng tồn kho: current - out + in + shortage >= target
+        Map<Integer, Integer> ordinal = new HashMap<>();
+        Integer[] ids = new Integer[n];
+        String[] names = new String[n];
+        double[] lat = new double[n];
+        double[] lng = new double[n];
         for (int i = 0; i < n; i++) {
-            Station station = stations.get(i);
-            int stationId = station.getStationId();
-            long current = currentMap.getOrDefault(stationId, 0L);
-            int target = targetMap.get(stationId);
+            Object[] r = stationRows.get(i);
+            ids[i] = (Integer) r[0];
+            names[i] = (String) r[1];
+            lat[i] = ((BigDecimal) r[3]).doubleValue();
+            lng[i] = ((BigDecimal) r[4]).doubleValue();
+            ordinal.put(ids[i], i);
+        }
 
-            Expression balance = model.addExpression("balance_" + stationId);
+        // 2. Tồn kho theo (trạm, loại) – 1 query GROUP BY
+        Map<Battery.BatteryType, int[]> current = new EnumMap<>(Battery.BatteryType.class);
+        for (Object[] row : batteryRepository.countActiveBatteriesByStationAndType()) {
+            Integer i = ordinal.get((Integer) row[0]);
+            if (i == null) continue;
+            current.computeIfAbsent((Battery.BatteryType) row[1], t -> new int[n])[i] += ((Number) row[2]).intValue();
+        }
 
-            // - outbound
-            for (int j = 0; j < n; j++) {
-                if (i != j && x[i][j] != null) {
-                    balance.set(x[i][j], -1);
-                }
+        // 3. Nhu cầu dự báo theo (trạm, loại)
+        Map<Battery.BatteryType, double[]> demand = new EnumMap<>(Battery.BatteryType.class);
+        demandForecaster.forecast(LocalDateTime.now()).forEach((key, value) -> {
+            Integer i = ordinal.get(key.stationId());
+            if (i != null) demand.computeIfAbsent(key.batteryType(), t -> new double[n])[i] = value;
+        });
+
+        // 4. Giải luồng chi phí nhỏ nhất cho từng loại pin
+        List<PlannedTransfer> transfers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (Battery.BatteryType type : Battery.BatteryType.values()) {
+            int[] stock = current.getOrDefault(type, new int[n]);
+            double[] need = demand.getOrDefault(type, new double[n]);
+
+            int[] targets = new int[n];
+            for (int i = 0; i < n; i++) {
+                // Trạm không có pin và không có nhu cầu loại này thì bỏ qua (target 0)
+                if (stock[i] == 0 && need[i] == 0) continue;
+                targets[i] = Math.max(MIN_STOCK_PER_TYPE, (int) Math.ceil(need[i] * SAFETY_FACTOR));
             }
 
-            // + inbound
-            for (int k = 0; k < n; k++) {
-                if (k != i && x[k][i] != null) {
-                    balance.set(x[k][i], 1);
-                }
+            for (RebalancePlanner.Move move : RebalancePlanner.plan(lat, lng, stock, targets, K_NEAREST)) {
+                int i = move.from();
+                int j = move.to();
+                transfers.add(new PlannedTransfer(ids[i], names[i], ids[j], names[j], type,
+                        move.quantity(), move.distanceKm(),
+                        stock[i] - targets[i], targets[j] - stock[j]));
             }
-
-            // + shortage_i
-            balance.set(shortage[i], 1);
-
-            // current + (-out + in + shortage) >= target
-            balance.lower(target - current);
-        }
-
-        // 6. Giải bài toán
-        Optimisation.Result result = model.minimise();
-        if (result.getState().isFailure()) {
-            return Collections.emptyList();
         }
-// 7. Đọc nghiệm → build danh sách gợi ý (kèm lý do cụ thể tiếng Việt)
-        List<RebalanceSuggestion> suggestions = new ArrayList<>();
-
-        for (int i = 0; i < n; i++) {
-            Station from = stations.get(i);
-            int fromId = from.getStationId();
-            long fromCurrent = currentMap.getOrDefault(fromId, 0L);
-            int fromTarget = targetMap.get(fromId);
-
-            for (int j = 0; j < n; j++) {
-                if (i == j || x[i][j] == null) continue;
-
-                int varIndex = model.indexOf(x[i][j]);
-                if (varIndex < 0) continue;
-
-                Number val = result.get(varIndex);
-                if (val == null) continue;
+        log.info("Rebalance: {} trạm → {} chặng điều phối, giải trong {} ms",
+                n, transfers.size(), (System.nanoTime() - start) / 1_000_000);
 
-                double raw = val.doubleValue();
-                if (raw < 1.0) continue; // bỏ gợi ý < 1 pin
-
-                int quantity = (int) Math.round(raw);
-
-                // Trạm nhận
-                Station to = stations.get(j);
-                int toId = to.getStationId();
-                long toCurrent = currentMap.getOrDefault(toId, 0L);
-                int toTarget = targetMap.get(toId);
-
-                // ① Xác định mức độ thiếu/dư pin
-                long fromSurplus = fromCurrent - fromTarget;
-                long toDeficit = toTarget - toCurrent;
-
-                // ② Sinh lý do tiếng Việt dựa vào chênh lệch thực tế
-                String reason;
-                if (fromSurplus > 15 && toDeficit > 15) {
-                    reason = "Trạm " + from.getStationName() + " đang dư nhiều pin, cần chuyển gấp sang "
-                            + to.getStationName() + " để bù thiếu hụt nghiêm trọng.";
-                } else if (fromSurplus > 10 && toDeficit > 5) {
-                    reason = "Trạm " + from.getStationName() + " đang dư pin, đề xuất điều phối sang "
-                            + to.getStationName() + " để cân bằng tồn kho.";
-                } else if (fromSurplus > 0 && toDeficit > 0) {
-                    reason = "Cân nhắc điều phối nhẹ từ " + from.getStationName()
-                            + " sang " + to.getStationName() + " để giảm chênh lệch nhỏ về tồn kho.";
-                } else if (cost[i][j] > 5.0) {
-                    reason = "Khoảng cách xa, chỉ nên điều phối khi thực sự cần thiết.";
-                } else {
-                    reason = "Điều phối nội vùng để cân bằng lượng pin giữa hai trạm lân cận.";
-                }
-
-                // ③ Gán priority + confidence (tự động theo mức chênh lệch)
-                String priority;
-                int confidence;
-                double imbalanceRatio = Math.min(1.0, (Math.abs(fromSurplus) + Math.abs(toDeficit)) / 40.0);
+        return transfers;
+    }
 
-                if (imbalanceRatio >= 0.8) {
-                    priority = "High";
-                    confidence = 95;
-                } else if (imbalanceRatio >= 0.5) {
-                    priority = "Medium";
-                    confidence = 88;
-                } else {
-                    priority = "Low";
-                    confidence = 78;
-                }
+    // Sinh lý do tiếng Việt dựa vào chênh lệch thực tế so với nhu cầu dự báo
+    private String reasonFor(PlannedTransfer t) {
+        String type = t.batteryType().getDisplayName();
+        if (t.fromSurplus() > 15 && t.toDeficit() > 15) {
+            return "Trạm " + t.fromName() + " đang dư nhiều " + type + ", cần chuyển gấp sang "
+                    + t.toName() + " để bù thiếu hụt nghiêm trọng.";
+        } else if (t.fromSurplus() > 10 && t.toDeficit() > 5) {
+            return "Trạm " + t.fromName() + " đang dư " + type + ", đề xuất điều phối sang "
+                    + t.toName() + " để đáp ứng nhu cầu dự báo.";
+        } else if (t.fromSurplus() > 0 && t.toDeficit() > 0) {
+            return "Cân nhắc điều phối nhẹ " + type + " từ " + t.fromName()
+                    + " sang " + t.toName() + " để giảm chênh lệch nhỏ về tồn kho.";
+        } else if (t.distanceKm() > FAR_DISTANCE_KM) {
+            return "Khoảng cách xa, chỉ nên điều phối khi thực sự cần thiết.";
+        }
+        return "Điều phối nội vùng để cân bằng lượng pin giữa hai trạm lân cận.";
+    }
 
-                // ④ Build đối tượng RebalanceSuggestion
-                suggestions.add(
-                        RebalanceSuggestion.builder()
-                                .from(from.getStationName())
-                                .to(to.getStationName())
-                                .quantity(quantity)
-                                .reason(reason)
-                                .priority(priority)
-                                .confidence(confidence)
-                                .build()
-                );
-            }
+    private RebalanceSuggestion toSuggestion(PlannedTransfer t) {
+        // Gán priority + confidence (tự động theo mức chênh lệch)
+        String priority;
+        int confidence;
+        double imbalanceRatio = Math.min(1.0, (Math.abs(t.fromSurplus()) + Math.abs(t.toDeficit())) / 40.0);
+
+        if (imbalanceRatio >= 0.8) {
+            priority = "High";
+            confidence = 95;
+        } else if (imbalanceRatio >= 0.5) {
+            priority = "Medium";
+            confidence = 88;
+        } else {
+            priority = "Low";
+            confidence = 78;
         }
 
-        return suggestions;
+        return RebalanceSuggestion.builder()
+                .from(t.fromName())
+                .to(t.toName())
+                .quantity(t.quantity())
+                .reason(reasonFor(t))
+                .priority(priority)
+                .confidence(confidence)
+                .batteryType(t.batteryType().name())
+                .build();
     }
 }
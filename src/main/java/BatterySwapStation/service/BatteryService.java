@@ -12,7 +12,6 @@ import BatterySwapStation.repository.DockSlotRepository;
 import BatterySwapStation.repository.SwapRepository;
 import BatterySwapStation.repository.VehicleRepository;
 import BatterySwapStation.websocket.BatterySocketController;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
@@ -22,7 +21,6 @@ import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
@@ -31,55 +29,9 @@ public class BatteryService {
     private final BatteryRepository batteryRepository;
     private final DockSlotRepository dockSlotRepository;
     private final BatterySocketController batterySocketController;
-    private final ObjectMapper objectMapper = new ObjectMapper();
     private final SwapRepository swapRepository;
     private final VehicleRepository vehicleRepository;
-    // ==================== TỰ ĐỘNG SẠC ====================
-    @Scheduled(fixedRate = 6000) // mỗi 6 giây
-    @Transactional
-    public void autoChargeBatteries() {
-        List<Battery> chargingBatteries = batteryRepository.findByBatteryStatus(Battery.BatteryStatus.CHARGING);
-        if (chargingBatteries.isEmpty()) return;
-
-        List<Battery> updated = new ArrayList<>();
-
-        for (Battery battery : chargingBatteries) {
-            double current = Optional.ofNullable(battery.getCurrentCapacity()).orElse(0.0);
-            current += 10.0;
-            if (current > 100.0) current = 100.0;
-
-            boolean fullyCharged = current >= 100.0;
-
-            // Cập nhật capacity
-            battery.setCurrentCapacity(current);
-
-          // Tăng chu kỳ sạc nếu vừa đầy
-            if (fullyCharged && battery.getBatteryStatus() == Battery.BatteryStatus.CHARGING) {
-                Integer oldCycle = battery.getCycleCount();
-                if (oldCycle == null) oldCycle = 0;
-                battery.setCycleCount(oldCycle + 1);
-            }
-
-            // Nếu đầy thì chuyển sang AVAILABLE
-            if (fullyCharged) {
-                battery.setBatteryStatus(Battery.BatteryStatus.AVAILABLE);
-            }
-
-            updated.add(battery);
-
-
-            if (battery.getDockSlot() != null) {
-                DockSlot slot = battery.getDockSlot();
-
-                String action = fullyCharged ? "CHARGING_COMPLETE" : "CHARGING_PROGRESS";
-
-                sendRealtimeUpdate(slot, action, battery.getBatteryStatus().name(), battery);
-            }
-        }
-
-        batteryRepository.saveAll(updated);
-    }
-
+    private final BatteryChargingEngine chargingEngine;
 
     // ==================== RÚT PIN ====================
     @Transactional
@@ -98,10 +50,12 @@ public class BatteryService {
         slot.setSlotStatus(DockSlot.SlotStatus.EMPTY);
         dockSlotRepository.save(slot);
 
+        boolean wasCharging = battery.getBatteryStatus() == Battery.BatteryStatus.CHARGING;
         battery.setBatteryStatus(Battery.BatteryStatus.IN_USE);
         battery.setDockSlot(null);
         battery.setStationId(null);
         batteryRepository.save(battery);
+        if (wasCharging) chargingEngine.requestResync(batteryId);
 
         sendRealtimeUpdate(slot, "EJECTED", "EMPTY", battery);
 
@@ -134,10 +88,12 @@ public class BatteryService {
         slot.setSlotStatus(DockSlot.SlotStatus.OCCUPIED);
         dockSlotRepository.save(slot);
 
+        boolean wasCharging = battery.getBatteryStatus() == Battery.BatteryStatus.CHARGING;
         battery.setBatteryStatus(Battery.BatteryStatus.WAITING);
         battery.setStationId(station.getStationId());
         battery.setDockSlot(slot);
         batteryRepository.save(battery);
+        if (wasCharging) chargingEngine.requestResync(batteryId);
 
         sendRealtimeUpdate(slot, "INSERTED", "WAITING", battery);
         return Map.of(
@@ -153,9 +109,14 @@ public class BatteryService {
         Battery battery = batteryRepository.findById(req.getBatteryId())
                 .orElseThrow(() -> new EntityNotFoundException("Không tìm thấy pin " + req.getBatteryId()));
 
+        Battery.BatteryStatus oldStatus = battery.getBatteryStatus();
         battery.setBatteryStatus(req.getNewStatus());
         batteryRepository.save(battery);
 
+        if (oldStatus == Battery.BatteryStatus.CHARGING || req.getNewStatus() == Battery.BatteryStatus.CHARGING) {
+            chargingEngine.requestResync(battery.getBatteryId());
+        }
+
         if (battery.getDockSlot() != null) {
             DockSlot slot = battery.getDockSlot();
             sendRealtimeUpdate(slot, "STATUS_CHANGED", req.getNewStatus().name(), battery);
@@ -185,8 +146,7 @@ public class BatteryService {
                     .timestamp(LocalDateTime.now().toString())
                     .build();
 
-            String json = objectMapper.writeValueAsString(event);
-            batterySocketController.broadcastToStation(event.getStationId(), json);
+            batterySocketController.publishBatteryEvent(event);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -278,37 +238,6 @@ public class BatteryService {
                 .swapCount(swapCount)
                 .build();
     }
-    @Transactional
-    public Map<String, Object> getBatteryStatistics() {
-        List<Battery> all = batteryRepository.findAll();
-
-        long total = all.size();
-
-        // ✅ Thống kê theo loại pin
-        Map<String, Long> byType = all.stream()
-                .collect(Collectors.groupingBy(
-                        b -> b.getBatteryType().name(),
-                        Collectors.counting()
-                ));
-
-        // ✅ Thống kê theo station
-        Map<Integer, Long> byStation = all.stream()
-                .filter(b -> b.getStationId() != null)
-                .collect(Collectors.groupingBy(Battery::getStationId, Collectors.counting()));
-
-        // ✅ Pin không thuộc trạm nào
-        long unassigned = all.stream()
-                .filter(b -> b.getStationId() == null)
-                .count();
-
-        return Map.of(
-                "totalBatteries", total,
-                "byType", byType,
-                "byStation", byStation,
-                "unassigned", unassigned
-        );
-    }
-
     @Transactional()
     public Map<Integer, List<Map<String, Object>>> getAllLooseBatteriesGroupedByStation() {
         List<Object[]> rows = batteryRepository.findLooseBatteriesWithStationFast();
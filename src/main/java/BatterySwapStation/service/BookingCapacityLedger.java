@@ -0,0 +1,317 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.entity.Booking;
+import BatterySwapStation.repository.BookingRepository;
+import BatterySwapStation.repository.StationRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Sổ cái công suất trạm trong bộ nhớ, key = (stationId, ngày, khung giờ).
+ *
+ * - committed: số pin của các booking chưa hoàn thành đã nằm trong DB.
+ * - pending: số pin đã giữ chỗ nhưng transaction tạo booking chưa commit.
+ *
+ * Mỗi slot tự khóa riêng (lock striping theo key) nên hai request cùng khung giờ
+ * không thể cùng vượt quá công suất. Dữ liệu được nạp khi khởi động và đối soát
+ * định kỳ với DB để sửa sai lệch từ các luồng không đi qua ledger.
+ *
+ * Mọi thay đổi bộ đếm đi qua {@code slots.compute} nên không xen giữa được với việc đối soát gỡ slot rỗng.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BookingCapacityLedger {
+
+    // Các trạng thái còn giữ chỗ tại trạm (giống getBookedBatteryCountAtTimeSlot)
+    private static final Set<Booking.BookingStatus> HOLDING_STATUSES =
+            EnumSet.of(Booking.BookingStatus.PENDINGPAYMENT, Booking.BookingStatus.PENDINGSWAPPING);
+
+    private final BookingRepository bookingRepository;
+    private final StationRepository stationRepository;
+
+    private final Map<SlotKey, SlotCounter> slots = new ConcurrentHashMap<>();
+    private final Map<Integer, Integer> dockCapacity = new ConcurrentHashMap<>();
+
+    public record SlotKey(Integer stationId, LocalDate date, LocalTime timeSlot) {}
+
+    /**
+     * Kết quả giữ chỗ: reserved = false nghĩa là vượt công suất.
+     */
+    public record Reservation(boolean reserved, int alreadyBooked, int capacity) {}
+
+    /**
+     * Kết quả giữ chỗ cả lô: rejected = khung giờ vượt công suất (null nếu giữ được tất cả).
+     */
+    public record BatchReservation(SlotKey rejected, int alreadyBooked, int capacity) {
+        public boolean reserved() {
+            return rejected == null;
+        }
+    }
+
+    /**
+     * Bộ đếm của một khung giờ. Mọi thao tác đều synchronized trên chính slot đó.
+     */
+    static final class SlotCounter {
+        private int committed;
+        private int pending;
+        // Thay đổi committed kể từ lần mark() gần nhất – đối soát cộng phần này lên số liệu DB
+        private int sinceMark;
+
+        synchronized boolean tryReserve(int count, int capacity) {
+            if (committed + pending + count > capacity) return false;
+            pending += count;
+            return true;
+        }
+
+        synchronized int booked() {
+            return committed + pending;
+        }
+
+        synchronized void commitPending(int count) {
+            pending = Math.max(0, pending - count);
+            committed += count;
+            sinceMark += count;
+        }
+
+        synchronized void rollbackPending(int count) {
+            pending = Math.max(0, pending - count);
+        }
+
+        synchronized void addCommitted(int delta) {
+            committed = Math.max(0, committed + delta);
+            sinceMark += delta;
+        }
+
+        synchronized void mark() {
+            sinceMark = 0;
+        }
+
+        // committed = số liệu DB (đọc sau mark) + thay đổi đã áp từ lúc mark.
+        // Commit rơi vào khoảng giữa mark và lúc DB chụp snapshot bị đếm 2 lần → lệch về phía thừa (không bán quá),
+        // lần đối soát sau sửa lại.
+        synchronized void reconcile(int dbValue) {
+            committed = Math.max(0, dbValue + sinceMark);
+            sinceMark = 0;
+        }
+
+        synchronized boolean isEmpty() {
+            return committed == 0 && pending == 0;
+        }
+    }
+
+    // ==================== NẠP & ĐỐI SOÁT ====================
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        reconcile();
+    }
+
+    /**
+     * Đối soát với DB: đặt committed theo số liệu thật (cộng các commit xảy ra trong lúc query),
+     * giữ nguyên pending của các transaction đang chạy, dọn các khung giờ đã qua.
+     * Chạy mỗi 5 phút.
+     */
+    @Scheduled(fixedDelay = 300000, initialDelay = 300000)
+    public void reconcile() {
+        try {
+            LocalDate today = LocalDate.now();
+
+            Map<Integer, Integer> capacities = new HashMap<>();
+            for (Object[] row : stationRepository.countDocksForAllStations()) {
+                capacities.put((Integer) row[0], ((Number) row[1]).intValue());
+            }
+            dockCapacity.putAll(capacities);
+            dockCapacity.keySet().retainAll(capacities.keySet());
+
+            // Đánh dấu trước khi query: commit từ đây về sau được cộng thêm, không bị snapshot DB ghi đè
+            slots.values().forEach(SlotCounter::mark);
+
+            Map<SlotKey, Integer> booked = new HashMap<>();
+            for (Object[] row : bookingRepository.sumBookedBatteriesFromDate(today)) {
+                SlotKey key = new SlotKey((Integer) row[0], (LocalDate) row[1], (LocalTime) row[2]);
+                booked.put(key, row[3] != null ? ((Number) row[3]).intValue() : 0);
+            }
+
+            booked.forEach((key, value) -> slots.putIfAbsent(key, new SlotCounter()));
+            for (SlotKey key : slots.keySet()) {
+                // Đối soát + gỡ slot rỗng/đã qua trong cùng 1 compute → không mất giữ chỗ chen vào giữa
+                slots.computeIfPresent(key, (k, counter) -> {
+                    counter.reconcile(booked.getOrDefault(k, 0));
+                    return k.date().isBefore(today) || counter.isEmpty() ? null : counter;
+                });
+            }
+
+            log.info("BookingCapacityLedger: đối soát xong {} khung giờ, {} trạm", slots.size(), dockCapacity.size());
+        } catch (Exception e) {
+            log.error("BookingCapacityLedger: đối soát thất bại: {}", e.getMessage(), e);
+        }
+    }
+
+    // ==================== GIỮ CHỖ ====================
+
+    /**
+     * Giữ chỗ {@code count} pin tại khung giờ. Nếu đang trong transaction, phần giữ chỗ
+     * sẽ được xác nhận khi commit và tự trả lại khi rollback.
+     */
+    public Reservation reserve(Integer stationId, LocalDate date, LocalTime timeSlot, int count) {
+        int capacity = capacityOf(stationId);
+        boolean[] reserved = new boolean[1];
+        // Counter đang giữ pending nên không bị đối soát gỡ đi – giữ tham chiếu để commit/rollback được
+        SlotCounter counter = withSlot(new SlotKey(stationId, date, timeSlot),
+                c -> reserved[0] = c.tryReserve(count, capacity));
+
+        if (!reserved[0]) {
+            return new Reservation(false, counter.booked(), capacity);
+        }
+
+        settleOnCompletion(Map.of(counter, count));
+        return new Reservation(true, counter.booked() - count, capacity);
+    }
+
+    /**
+     * Giữ chỗ cho cả 1 lô (số pin theo từng khung giờ, đã cộng dồn): hoặc giữ được tất cả,
+     * hoặc không giữ gì – phần đã giữ được trả lại ngay khi gặp khung giờ vượt công suất.
+     */
+    public BatchReservation reserveAll(Map<SlotKey, Integer> requested) {
+        Map<SlotCounter, Integer> held = new HashMap<>();
+        for (Map.Entry<SlotKey, Integer> e : requested.entrySet()) {
+            SlotKey key = e.getKey();
+            int capacity = capacityOf(key.stationId());
+            boolean[] reserved = new boolean[1];
+            SlotCounter counter = withSlot(key, c -> reserved[0] = c.tryReserve(e.getValue(), capacity));
+
+            if (!reserved[0]) {
+                held.forEach(SlotCounter::rollbackPending);
+                return new BatchReservation(key, counter.booked(), capacity);
+            }
+            held.put(counter, e.getValue());
+        }
+
+        settleOnCompletion(held);
+        return new BatchReservation(null, 0, 0);
+    }
+
+    // Phần pending được xác nhận khi transaction commit, trả lại khi rollback (không có transaction → xác nhận ngay)
+    private void settleOnCompletion(Map<SlotCounter, Integer> held) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        held.forEach(SlotCounter::commitPending);
+                    } else {
+                        held.forEach(SlotCounter::rollbackPending);
+                    }
+                }
+            });
+        } else {
+            held.forEach(SlotCounter::commitPending);
+        }
+    }
+
+    /**
+     * Booking đổi trạng thái (gọi từ BookingCapacityListener khi flush). Nếu booking thôi giữ chỗ
+     * (hủy, hoàn thành, thất bại) thì trả lại pin; nếu được mở lại thì cộng thêm. Chỉ áp dụng sau khi transaction commit.
+     */
+    public void onStatusChange(Booking booking, Booking.BookingStatus previousStatus) {
+        boolean wasHolding = previousStatus != null && HOLDING_STATUSES.contains(previousStatus);
+        boolean isHolding = HOLDING_STATUSES.contains(booking.getBookingStatus());
+        if (wasHolding == isHolding) return;
+        adjust(booking, isHolding ? 1 : -1);
+    }
+
+    /**
+     * Booking bị xóa khỏi DB; {@code persistedStatus} là trạng thái đang nằm trong DB trước khi xóa.
+     */
+    public void onDeleted(Booking booking, Booking.BookingStatus persistedStatus) {
+        if (persistedStatus != null && HOLDING_STATUSES.contains(persistedStatus)) {
+            adjust(booking, -1);
+        }
+    }
+
+    /**
+     * Trả lại chỗ cho 1 loạt booking vừa thôi giữ chỗ bằng UPDATE hàng loạt (vd. quét hết hạn).
+     * Mỗi dòng: stationId, bookingDate, timeSlot, batteryCount. Áp 1 lần sau khi commit.
+     */
+    public void onBulkReleased(List<Object[]> rows) {
+        Map<SlotKey, Integer> released = new HashMap<>();
+        for (Object[] r : rows) {
+            if (r[0] == null || r[1] == null || r[2] == null || r[3] == null) continue;
+            int count = ((Number) r[3]).intValue();
+            if (count <= 0) continue;
+            released.merge(new SlotKey(((Number) r[0]).intValue(), toLocalDate(r[1]), toLocalTime(r[2])), count, Integer::sum);
+        }
+        if (released.isEmpty()) return;
+
+        Runnable apply = () -> released.forEach((key, count) -> withSlot(key, c -> c.addCommitted(-count)));
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply.run();
+                }
+            });
+        } else {
+            apply.run();
+        }
+    }
+
+    public int capacityOf(Integer stationId) {
+        return dockCapacity.computeIfAbsent(stationId, stationRepository::countDocksByStationId);
+    }
+
+    private void adjust(Booking booking, int sign) {
+        if (booking.getStation() == null || booking.getBookingDate() == null || booking.getTimeSlot() == null) return;
+        int count = booking.getBatteryCount() != null ? booking.getBatteryCount() : 0;
+        if (count <= 0) return;
+
+        SlotKey key = new SlotKey(booking.getStation().getStationId(), booking.getBookingDate(), booking.getTimeSlot());
+        int delta = sign * count;
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    withSlot(key, c -> c.addCommitted(delta));
+                }
+            });
+        } else {
+            withSlot(key, c -> c.addCommitted(delta));
+        }
+    }
+
+    // Native query có thể trả java.sql.Date/Time tùy driver
+    private static LocalDate toLocalDate(Object value) {
+        return value instanceof java.sql.Date d ? d.toLocalDate() : (LocalDate) value;
+    }
+
+    private static LocalTime toLocalTime(Object value) {
+        return value instanceof java.sql.Time t ? t.toLocalTime() : (LocalTime) value;
+    }
+
+    // Thao tác trên counter của slot (tạo nếu chưa có) nguyên tử với việc đối soát gỡ slot
+    private SlotCounter withSlot(SlotKey key, Consumer<SlotCounter> action) {
+        return slots.compute(key, (k, counter) -> {
+            SlotCounter c = counter != null ? counter : new SlotCounter();
+            action.accept(c);
+            return c;
+        });
+    }
+}
@@ -9,65 +9,41 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Quét booking hết hạn.
+ *
+ * Mỗi lần quét là 1 câu SELECT … FOR UPDATE SKIP LOCKED trên index (bookingstatus, bookingdate, timeslot)
+ * và 1 câu UPDATE theo id: chi phí tỉ lệ với số booking vừa hết hạn, không phải tổng số booking đang mở.
+ * Các dòng đã đổi được trả lại BookingCapacityLedger trong 1 lần sau khi commit.
+ * Booking PENDINGPAYMENT đã có thanh toán SUCCESS (chưa kịp kích hoạt) không bị hủy.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class BookingScheduledService {
 
     private final BookingRepository bookingRepository;
+    private final BookingCapacityLedger capacityLedger;
 
     /**
-     * Tự động hủy các booking PENDINGPAYMENT đã quá hạn 30 phút
-     * Chạy mỗi 10 phút
+     * Tự động hủy các booking PENDINGPAYMENT khi còn dưới 30 phút tới giờ đặt (hoặc đã qua giờ đặt)
+     * Chạy mỗi phút
      */
-    @Scheduled(fixedDelay = 600000) // 10 phút = 600,000 ms
+    @Scheduled(fixedDelay = 60000)
     @Transactional
     public void autoCancelExpiredPendingPaymentBookings() {
-        log.info("🔍 Bắt đầu kiểm tra và hủy booking PENDINGPAYMENT quá hạn...");
-
         try {
-            // Lấy tất cả booking PENDINGPAYMENT
-            List<Booking> pendingBookings = bookingRepository.findByBookingStatus(Booking.BookingStatus.PENDINGPAYMENT);
-
-            if (pendingBookings.isEmpty()) {
-                log.info("Không có booking PENDINGPAYMENT nào cần kiểm tra.");
-                return;
-            }
-
-            LocalDateTime now = LocalDateTime.now();
-            int cancelledCount = 0;
-
-            for (Booking booking : pendingBookings) {
-                // Tính thời gian đã tạo booking (giả sử booking được tạo vào ngày bookingDate)
-                // Nếu có field createdAt thì dùng createdAt, không thì dùng bookingDate + timeSlot
-                LocalDateTime bookingDateTime = LocalDateTime.of(booking.getBookingDate(), booking.getTimeSlot());
-
-                // Nếu booking được tạo cách đây hơn 30 phút và vẫn chưa thanh toán -> Hủy
-                // Hoặc nếu booking đã qua thời gian đặt -> Hủy
-                LocalDateTime expiryTime = bookingDateTime.minusMinutes(30);
-
-                if (now.isAfter(bookingDateTime) || now.isAfter(expiryTime)) {
-                    booking.setBookingStatus(Booking.BookingStatus.CANCELLED);
-                    booking.setCancellationReason("Tự động hủy: Không thanh toán trong thời gian quy định");
-                    bookingRepository.save(booking);
-                    cancelledCount++;
-
-                    log.info("Đã hủy booking #{} - User: {} - Ngày: {} - Giờ: {}",
-                            booking.getBookingId(),
-                            booking.getUser().getUserId(),
-                            booking.getBookingDate(),
-                            booking.getTimeSlot());
-                }
-            }
+            // Hết hạn khi now > giờ đặt - 30 phút  ⇔  giờ đặt < now + 30 phút
+            int cancelledCount = expire(Booking.BookingStatus.PENDINGPAYMENT, Booking.BookingStatus.CANCELLED,
+                    "Tự động hủy: Không thanh toán trong thời gian quy định",
+                    LocalDateTime.now().plusMinutes(30));
 
             if (cancelledCount > 0) {
                 log.info("Đã hủy {} booking PENDINGPAYMENT quá hạn.", cancelledCount);
-            } else {
-                log.info("Không có booking PENDINGPAYMENT nào quá hạn.");
             }
-
         } catch (Exception e) {
             log.error("Lỗi khi tự động hủy booking: {}", e.getMessage(), e);
         }
@@ -75,51 +51,39 @@ public class BookingScheduledService {
 
     /**
      * Tự động chuyển booking PENDINGSWAPPING sang FAILED nếu quá thời gian đặt 2 tiếng
-     * Chạy mỗi 30 phút
+     * Chạy mỗi phút
      */
-    @Scheduled(fixedDelay = 1800000) // 30 phút = 1,800,000 ms
+    @Scheduled(fixedDelay = 60000)
     @Transactional
     public void autoMarkExpiredSwappingBookingsAsFailed() {
-        log.info("🔍 Bắt đầu kiểm tra booking PENDINGSWAPPING quá hạn...");
-
         try {
-            List<Booking> swappingBookings = bookingRepository.findByBookingStatus(Booking.BookingStatus.PENDINGSWAPPING);
-
-            if (swappingBookings.isEmpty()) {
-                log.info("Không có booking PENDINGSWAPPING nào cần kiểm tra.");
-                return;
-            }
-
-            LocalDateTime now = LocalDateTime.now();
-            int failedCount = 0;
-
-            for (Booking booking : swappingBookings) {
-                LocalDateTime bookingDateTime = LocalDateTime.of(booking.getBookingDate(), booking.getTimeSlot());
-                LocalDateTime expiryTime = bookingDateTime.plusHours(2); // Quá 2 tiếng sau giờ đặt
-
-                if (now.isAfter(expiryTime)) {
-                    booking.setBookingStatus(Booking.BookingStatus.FAILED);
-                    booking.setCancellationReason("Tự động đánh dấu thất bại: Không đến đổi pin trong thời gian quy định");
-                    bookingRepository.save(booking);
-                    failedCount++;
-
-                    log.warn("Đã đánh dấu FAILED cho booking #{} - User: {} - Ngày: {} - Giờ: {}",
-                            booking.getBookingId(),
-                            booking.getUser().getUserId(),
-                            booking.getBookingDate(),
-                            booking.getTimeSlot());
-                }
-            }
+            // Hết hạn khi now > giờ đặt + 2 tiếng  ⇔  giờ đặt < now - 2 tiếng
+            int failedCount = expire(Booking.BookingStatus.PENDINGSWAPPING, Booking.BookingStatus.FAILED,
+                    "Tự động đánh dấu thất bại: Không đến đổi pin trong thời gian quy định",
+                    LocalDateTime.now().minusHours(2));
 
             if (failedCount > 0) {
-                log.info("Đã đánh dấu FAILED cho {} booking PENDINGSWAPPING quá hạn.", failedCount);
-            } else {
-                log.info("Không có booking PENDINGSWAPPING nào quá hạn.");
+                log.warn("Đã đánh dấu FAILED cho {} booking PENDINGSWAPPING quá hạn.", failedCount);
             }
-
         } catch (Exception e) {
             log.error("Lỗi khi tự động đánh dấu booking FAILED: {}", e.getMessage(), e);
         }
     }
-}
 
+    // Đổi trạng thái mọi booking có giờ đặt trước cutoff; trả về số booking đã đổi
+    private int expire(Booking.BookingStatus from, Booking.BookingStatus to, String reason, LocalDateTime cutoff) {
+        List<Object[]> rows = bookingRepository.lockExpiredBookings(
+                from.name(), cutoff.toLocalDate(), cutoff.toLocalTime());
+        if (rows.isEmpty()) return 0;
+
+        // Các dòng đã bị khóa trong transaction này nên UPDATE đổi đúng các booking vừa đọc
+        List<Long> ids = rows.stream().map(r -> ((Number) r[0]).longValue()).toList();
+        bookingRepository.expireBookings(ids, from.name(), to.name(), reason);
+
+        // bookingId, stationId, bookingDate, timeSlot, batteryCount → (stationId, date, slot, count)
+        capacityLedger.onBulkReleased(rows.stream().map(r -> Arrays.copyOfRange(r, 1, 5)).toList());
+
+        log.debug("Booking {} → {}: {}", from, to, rows.stream().map(r -> r[0]).toList());
+        return rows.size();
+    }
+}
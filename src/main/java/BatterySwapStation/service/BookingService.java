@@ -17,7 +17,6 @@ import BatterySwapStation.entity.SubscriptionPlan;
 import BatterySwapStation.entity.Invoice;
 import BatterySwapStation.service.InvoiceService;
 import BatterySwapStation.entity.User;
-import org.springframework.context.event.EventListener;
 
 import lombok.extern.slf4j.Slf4j;
 import java.util.Optional;
@@ -26,8 +25,10 @@ import org.springframework.web.bind.annotation.PostMapping;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.nio.charset.StandardCharsets;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 
@@ -37,6 +38,10 @@ import java.util.stream.Collectors;
 @Slf4j
 public class BookingService {
 
+    // Danh sách booking: kích thước trang tối đa / số dòng mỗi lượt đọc khi export
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int EXPORT_BATCH_SIZE = 500;
+
     private final BookingRepository bookingRepository;
     private final UserRepository userRepository;
     private final StationRepository stationRepository;
@@ -48,6 +53,7 @@ public class BookingService {
     private final UserSubscriptionRepository userSubscriptionRepository;
     private final PaymentService paymentService;
     private final PaymentRepository paymentRepository;
+    private final BookingCapacityLedger capacityLedger;
 
     /**
      * Tạo đặt chỗ mới (giới hạn tối đa 1 xe, chỉ 1 trạm, ngày trong 2 ngày, khung giờ hợp lệ)
@@ -71,26 +77,19 @@ public class BookingService {
         User user = vehicle.getUser();
 
         // ================== KIỂM TRA BOOKING CHƯA HOÀN THÀNH ==================
-        if (bookingRepository.hasIncompleteBookingForVehicle(vehicleId)) {
-            List<Booking> incompleteBookings = bookingRepository.findIncompleteBookingsByVehicle(vehicleId);
-            if (!incompleteBookings.isEmpty()) {
-                Booking firstIncomplete = incompleteBookings.get(0);
-                throw new IllegalStateException(String.format(
-                        "Xe %s đang có booking #%d chưa hoàn thành (Trạng thái: %s, Ngày: %s, Giờ: %s). " +
-                                "Vui lòng hoàn thành hoặc hủy booking này trước khi đặt mới.",
-                        vehicle.getVIN(),
-                        firstIncomplete.getBookingId(),
-                        firstIncomplete.getBookingStatus(),
-                        firstIncomplete.getBookingDate(),
-                        firstIncomplete.getTimeSlot()
-                ));
-            } else {
-                throw new IllegalStateException(String.format(
-                        "Xe %s đang có booking chưa hoàn thành. " +
-                                "Vui lòng hoàn thành hoặc hủy booking hiện tại trước khi đặt mới.",
-                        vehicle.getVIN()
-                ));
-            }
+        // 1 query duy nhất (thay cho hasIncompleteBookingForVehicle + findIncompleteBookingsByVehicle)
+        List<Booking> incompleteBookings = bookingRepository.findIncompleteBookingsByVehicle(vehicleId);
+        if (!incompleteBookings.isEmpty()) {
+            Booking firstIncomplete = incompleteBookings.get(0);
+            throw new IllegalStateException(String.format(
+                    "Xe %s đang có booking #%d chưa hoàn thành (Trạng thái: %s, Ngày: %s, Giờ: %s). " +
+                            "Vui lòng hoàn thành hoặc hủy booking này trước khi đặt mới.",
+                    vehicle.getVIN(),
+                    firstIncomplete.getBookingId(),
+                    firstIncomplete.getBookingStatus(),
+                    firstIncomplete.getBookingDate(),
+                    firstIncomplete.getTimeSlot()
+            ));
         }
 
         // ================== XÁC THỰC TRẠM ==================
@@ -109,10 +108,7 @@ public class BookingService {
 
         LocalTime timeSlot = LocalTime.parse(request.getTimeSlot(), DateTimeFormatter.ofPattern("HH:mm"));
 
-        // ================== KIỂM TRA TRÙNG BOOKING ==================
-        if (bookingRepository.existsDuplicateBooking(user, vehicle, station, request.getBookingDate(), timeSlot)) {
-            throw new IllegalStateException("Bạn không thể đặt cùng một xe tại cùng một trạm và khung giờ.");
-        }
+        // (Trùng booking cùng xe/trạm/khung giờ đã bị chặn bởi kiểm tra booking chưa hoàn thành ở trên)
 
         // ================== XÁC ĐỊNH SỐ PIN MUỐN ĐỔI ==================
         Integer requestedBatteryCount = request.getBatteryCount();
@@ -134,14 +130,13 @@ public class BookingService {
         }
 
         // ================== KIỂM TRA CÔNG SUẤT TRẠM ==================
-        Integer alreadyBookedCount = bookingRepository.getBookedBatteryCountAtTimeSlot(station, request.getBookingDate(), timeSlot);
-        if (alreadyBookedCount == null) alreadyBookedCount = 0;
-
-        Integer stationCapacity = station.getDocks().size();
-        if ((alreadyBookedCount + requestedBatteryCount) > stationCapacity) {
+        // Giữ chỗ nguyên tử trên ledger; tự trả lại nếu transaction rollback
+        BookingCapacityLedger.Reservation reservation = capacityLedger.reserve(
+                station.getStationId(), request.getBookingDate(), timeSlot, requestedBatteryCount);
+        if (!reservation.reserved()) {
             throw new IllegalStateException(String.format(
                     "Trạm không đủ pin cho khung giờ này. Đã có %d pin được đặt, yêu cầu %d pin, vượt quá công suất (%d).",
-                    alreadyBookedCount, requestedBatteryCount, stationCapacity
+                    reservation.alreadyBooked(), requestedBatteryCount, reservation.capacity()
             ));
         }
 
@@ -315,82 +310,33 @@ public class BookingService {
      */
     @Transactional(readOnly = true)
     public List<BookingResponse> getUserBookings(String userId) {
+        if (!userRepository.existsById(userId)) {
+            throw new EntityNotFoundException("User không tồn tại: " + userId);
+        }
 
-        // 🔹 1. Lấy danh sách booking nhẹ
-        List<BookingSimpleDto> bookings = bookingRepository.findSimpleBookingsByUserId(userId);
-
-        // 🔹 2. Preload toàn bộ subscription (1 query duy nhất)
-        List<UserSubscription> subscriptions = userSubscriptionRepository.findByUser_UserIdOrderByStartDateDesc(userId);
+        // 1 query cho toàn bộ booking (kèm trạm, xe, hóa đơn, payment) + 1 query cho gói cước kèm plan
+        List<BookingRowDto> rows = bookingRepository.findRowsByUserId(userId);
+        List<UserSubscription> activeSubscriptions = userSubscriptionRepository.findActiveWithPlanByUserId(userId);
 
-        // 🔹 3. Lấy user info (1 query)
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new EntityNotFoundException("User không tồn tại: " + userId));
-
-        // 🔹 4. Map sang BookingResponse
-        return bookings.stream().map(b -> {
-            BookingResponse res = new BookingResponse();
-
-            // Thông tin booking
-            res.setBookingId(b.getBookingId());
-            res.setBookingDate(b.getBookingDate());
-            res.setTimeSlot(b.getTimeSlot());
-            res.setBookingStatus(b.getBookingStatus().name());
-            res.setAmount(b.getAmount());
-            res.setNotes(b.getNotes());
-            res.setCancellationReason(b.getCancellationReason());
-            res.setCompletedTime(b.getCompletedTime());
-
-            // ✅ Thông tin user
-            res.setUserId(user.getUserId());
-            res.setUserName(user.getFullName());
-
-            // Thông tin trạm
-            res.setStationId(b.getStationId());
-            res.setStationName(b.getStationName());
-            res.setStationAddress(b.getStationAddress());
-
-            // Thông tin xe
-            res.setVehicleId(b.getVehicleId());
-            res.setVehicleVin(b.getVehicleVin());
-            res.setVehicleType(b.getVehicleType() != null ? b.getVehicleType().name() : null);
-
-            // ✅ Thông tin pin - FIX: lấy từ BookingSimpleDto
-            res.setBatteryCount(b.getBatteryCount());
-            res.setBatteryType(b.getBatteryType());
-
-            // Thông tin hóa đơn
-            res.setInvoiceId(b.getInvoiceId() != null ? String.valueOf(b.getInvoiceId()) : null);
-
-            // 🔸 Logic Free Swap - tìm subscription phù hợp
-            UserSubscription matchedSub = null;
-            if (b.getTotalPrice() != null && b.getTotalPrice() == 0.0 && b.getInvoiceCreatedDate() != null) {
-                LocalDateTime createdAt = b.getInvoiceCreatedDate();
-                matchedSub = subscriptions.stream()
-                        .filter(sub ->
-                                sub.getStatus() == UserSubscription.SubscriptionStatus.ACTIVE &&
-                                        !sub.getStartDate().isAfter(createdAt) &&
-                                        !sub.getEndDate().isBefore(createdAt))
-                        .findFirst().orElse(null);
-            }
+        List<BookingResponse> responses = new ArrayList<>(rows.size());
+        for (BookingRowDto row : rows) {
+            responses.add(toResponse(row, matchFreeSwapSubscription(row, activeSubscriptions)));
+        }
+        return responses;
+    }
 
-            if (matchedSub != null) {
-                SubscriptionPlan plan = matchedSub.getPlan();
-                res.setIsFreeSwap(true);
-                res.setSubscriptionPlanName(plan.getPlanName());
-                res.setUsedSwaps(matchedSub.getUsedSwaps());
-                res.setTotalSwapLimit(plan.getSwapLimit());
-            } else {
-                res.setIsFreeSwap(false);
-                res.setSubscriptionPlanName(null);
-                res.setUsedSwaps(null);
-                res.setTotalSwapLimit(null);
+    // Booking miễn phí (giá 0) được tính vào gói ACTIVE bao trùm thời điểm tạo hóa đơn
+    private static UserSubscription matchFreeSwapSubscription(BookingRowDto row, List<UserSubscription> activeSubscriptions) {
+        if (row.getTotalPrice() == null || row.getTotalPrice() != 0.0 || row.getInvoiceCreatedDate() == null) {
+            return null;
+        }
+        LocalDateTime createdAt = row.getInvoiceCreatedDate();
+        for (UserSubscription sub : activeSubscriptions) {
+            if (!sub.getStartDate().isAfter(createdAt) && !sub.getEndDate().isBefore(createdAt)) {
+                return sub;
             }
-
-            // 🔹 Payment info - không cần thiết cho booking history
-            res.setPayment(null);
-
-            return res;
-        }).collect(Collectors.toList());
+        }
+        return null;
     }
 
 
@@ -720,13 +666,13 @@ public class BookingService {
      */
     @Transactional(readOnly = true)
     public List<BookingResponse> getStationBookings(Integer stationId) {
-        Station station = stationRepository.findById(stationId)
-                .orElseThrow(() -> new EntityNotFoundException("Không tìm thấy trạm với mã: " + stationId));
+        if (!stationRepository.existsById(stationId)) {
+            throw new EntityNotFoundException("Không tìm thấy trạm với mã: " + stationId);
+        }
 
-        List<Booking> bookings = bookingRepository.findByStation(station);
-        return bookings.stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+        List<BookingResponse> bookings = new ArrayList<>();
+        exportBookings(null, stationId, null, bookings::add);
+        return bookings;
     }
 
     /**
@@ -754,10 +700,84 @@ public class BookingService {
      */
     @Transactional(readOnly = true)
     public List<BookingResponse> getAllBookings() {
-        List<Booking> bookings = bookingRepository.findAll();
-        return bookings.stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+        List<BookingResponse> bookings = new ArrayList<>();
+        exportBookings(null, null, null, bookings::add);
+        return bookings;
+    }
+
+    // ==================== DANH SÁCH BOOKING (KEYSET) ====================
+
+    /**
+     * Lấy 1 trang booking, mới nhất trước (bookingId giảm dần).
+     * Cursor là vị trí (bookingId) chứ không phải offset nên trang không bị lệch khi có booking mới chen vào,
+     * và chi phí mỗi trang không phụ thuộc trang đó nằm sâu bao nhiêu.
+     *
+     * @param status    lọc theo trạng thái (null = tất cả)
+     * @param stationId lọc theo trạm (null = tất cả)
+     * @param date      lọc theo ngày đặt (null = tất cả)
+     * @param cursor    nextCursor của trang trước (null = trang đầu)
+     * @param limit     số booking mỗi trang (1..MAX_PAGE_SIZE)
+     */
+    @Transactional(readOnly = true)
+    public BookingPage getBookingPage(String status, Integer stationId, LocalDate date, String cursor, int limit) {
+        int size = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+
+        // Lấy dư 1 dòng để biết còn trang sau hay không
+        List<BookingRowDto> rows = bookingRepository.findRowsPage(null, parseStatusFilter(status), stationId, date,
+                decodeCursor(cursor), size + 1);
+        boolean hasMore = rows.size() > size;
+        if (hasMore) rows = rows.subList(0, size);
+
+        String nextCursor = hasMore ? encodeCursor(rows.get(rows.size() - 1).getBookingId()) : null;
+        return new BookingPage(rows.stream().map(r -> toResponse(r, null)).toList(), nextCursor);
+    }
+
+    /**
+     * Đọc lần lượt toàn bộ booking khớp bộ lọc (mới nhất trước) và đẩy từng dòng cho {@code sink}.
+     * Mỗi lượt đọc EXPORT_BATCH_SIZE dòng read model (không phải entity được quản lý),
+     * nên bộ nhớ không tăng theo số booking.
+     */
+    @Transactional(readOnly = true)
+    public void exportBookings(String status, Integer stationId, LocalDate date, Consumer<BookingResponse> sink) {
+        forEachRow(null, parseStatusFilter(status), stationId, date, sink);
+    }
+
+    private void forEachRow(String userId, Booking.BookingStatus status, Integer stationId, LocalDate date,
+                            Consumer<BookingResponse> sink) {
+        Long beforeId = null;
+        while (true) {
+            List<BookingRowDto> rows = bookingRepository.findRowsPage(userId, status, stationId, date, beforeId,
+                    EXPORT_BATCH_SIZE);
+            for (BookingRowDto row : rows) {
+                sink.accept(toResponse(row, null));
+            }
+            if (rows.size() < EXPORT_BATCH_SIZE) return;
+            beforeId = rows.get(rows.size() - 1).getBookingId();
+        }
+    }
+
+    private Booking.BookingStatus parseStatusFilter(String status) {
+        if (status == null || status.isBlank()) return null;
+        try {
+            return Booking.BookingStatus.valueOf(status.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Trạng thái không hợp lệ: " + status + ". Các trạng thái hợp lệ: PENDINGPAYMENT, PENDINGSWAPPING, CANCELLED, COMPLETED, FAILED");
+        }
+    }
+
+    // Cursor dạng chuỗi mờ (base64 của bookingId) để client không tự suy ra/ghép tay
+    private static String encodeCursor(Long bookingId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(String.valueOf(bookingId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Long decodeCursor(String cursor) {
+        if (cursor == null || cursor.isBlank()) return null;
+        try {
+            return Long.valueOf(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cursor không hợp lệ: " + cursor);
+        }
     }
 
     /**
@@ -899,13 +919,13 @@ public class BookingService {
      */
     @Transactional(readOnly = true)
     public List<BookingResponse> getUserBookingsByDate(String userId, LocalDate date) {
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new EntityNotFoundException("Không tìm thấy người dùng với mã: " + userId));
+        if (!userRepository.existsById(userId)) {
+            throw new EntityNotFoundException("Không tìm thấy người dùng với mã: " + userId);
+        }
 
-        List<Booking> bookings = bookingRepository.findByUserAndBookingDate(user, date);
-        return bookings.stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+        List<BookingResponse> bookings = new ArrayList<>();
+        forEachRow(userId, null, null, date, bookings::add);
+        return bookings;
     }
 
     /**
@@ -914,15 +934,9 @@ public class BookingService {
     @Transactional(readOnly = true)
     public List<BookingResponse> getBookingsByStatusAndDate(String status, LocalDate date) {
         // Chuyển đổi String sang enum
-        try {
-            Booking.BookingStatus bookingStatus = Booking.BookingStatus.valueOf(status.toUpperCase());
-            List<Booking> bookings = bookingRepository.findByBookingStatusAndBookingDate(bookingStatus, date);
-            return bookings.stream()
-                    .map(this::convertToResponse)
-                    .collect(Collectors.toList());
-        } catch (IllegalArgumentException e) {
-            throw new IllegalArgumentException("Trạng thái không hợp lệ: " + status + ". Các trạng thái hợp lệ: PENDINGPAYMENT, PENDINGSWAPPING, CANCELLED, COMPLETED");
-        }
+        List<BookingResponse> bookings = new ArrayList<>();
+        exportBookings(status, null, date, bookings::add);
+        return bookings;
     }
 
     /**
@@ -930,13 +944,13 @@ public class BookingService {
      */
     @Transactional(readOnly = true)
     public List<BookingResponse> getStationBookingsByDate(Integer stationId, LocalDate date) {
-        Station station = stationRepository.findById(stationId)
-                .orElseThrow(() -> new EntityNotFoundException("Không tìm thấy trạm với mã: " + stationId));
+        if (!stationRepository.existsById(stationId)) {
+            throw new EntityNotFoundException("Không tìm thấy trạm với mã: " + stationId);
+        }
 
-        List<Booking> bookings = bookingRepository.findByStationAndBookingDate(station, date);
-        return bookings.stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+        List<BookingResponse> bookings = new ArrayList<>();
+        forEachRow(null, null, stationId, date, bookings::add);
+        return bookings;
     }
 
     /**
@@ -1176,6 +1190,15 @@ public class BookingService {
                 throw new IllegalArgumentException("Số tiền thanh toán không đúng. Mong đợi: " + expectedAmount + ", Nhận được: " + request.getPaidAmount());
             }
 
+            // Giữ chỗ trên ledger: commit khi transaction commit, tự trả lại nếu rollback
+            BookingCapacityLedger.Reservation reservation = capacityLedger.reserve(
+                    station.getStationId(), bookingDate, timeSlot, request.getQuantity());
+            if (!reservation.reserved()) {
+                throw new IllegalStateException(String.format(
+                        "Trạm không đủ pin cho khung giờ này. Đã có %d pin được đặt, yêu cầu %d pin, vượt quá công suất (%d).",
+                        reservation.alreadyBooked(), request.getQuantity(), reservation.capacity()));
+            }
+
             // Tạo booking với trạng thái đã thanh toán
             Booking booking = Booking.builder()
                     .user(user)
@@ -1338,113 +1361,82 @@ public class BookingService {
     }
 
     /**
-     * Convert Booking entity sang BookingResponse DTO (với thông tin subscription)
+     * Convert Booking entity sang BookingResponse DTO (với thông tin subscription).
+     * Đi qua cùng mapper với read model để mọi đường trả về cùng một dạng response.
      */
     private BookingResponse convertToResponse(Booking booking, UserSubscription subscription) {
-        BookingResponse response = new BookingResponse();
+        return toResponse(BookingRowDto.of(booking, paymentToShow(booking.getInvoice())), subscription);
+    }
 
-        // Thông tin booking cơ bản
-        response.setBookingId(booking.getBookingId());
-        response.setBookingStatus(booking.getBookingStatus().name());
-        response.setAmount(booking.getAmount());
-        response.setBookingDate(booking.getBookingDate());
+    private BookingResponse convertToResponse(Booking booking) {
+        return convertToResponse(booking, null);
+    }
 
-        // Chuyển đổi LocalTime
-        if (booking.getTimeSlot() != null) {
-            response.setTimeSlot(LocalTime.parse(booking.getTimeSlot().format(DateTimeFormatter.ofPattern("HH:mm"))));
-        }
+    // Payment hiển thị: payment SUCCESS đầu tiên của hóa đơn, nếu không có thì payment mới nhất (giống BOOKING_ROW_SELECT)
+    private static Payment paymentToShow(Invoice invoice) {
+        if (invoice == null || invoice.getPayments() == null) return null;
+        return invoice.getPayments().stream()
+                .filter(p -> p.getPaymentStatus() == Payment.PaymentStatus.SUCCESS)
+                .findFirst()
+                .orElseGet(() -> invoice.getPayments().stream()
+                        .max(Comparator.comparing(Payment::getCreatedAt))
+                        .orElse(null));
+    }
 
-        // Thông tin user
-        if (booking.getUser() != null) {
-            response.setUserId(booking.getUser().getUserId());
-            response.setUserName(booking.getUser().getFullName());
-        }
+    /**
+     * Read model (BookingRowDto) sang BookingResponse – mapper duy nhất của service, không chạm entity
+     * nên không phát sinh lazy load
+     */
+    private static BookingResponse toResponse(BookingRowDto row, UserSubscription subscription) {
+        BookingResponse response = new BookingResponse();
 
-        // Thông tin trạm
-        if (booking.getStation() != null) {
-            response.setStationId(booking.getStation().getStationId());
-            response.setStationName(booking.getStation().getStationName());
-            response.setStationAddress(booking.getStation().getAddress());
+        response.setBookingId(row.getBookingId());
+        response.setBookingStatus(row.getBookingStatus().name());
+        response.setAmount(row.getAmount());
+        response.setBookingDate(row.getBookingDate());
+        if (row.getTimeSlot() != null) {
+            response.setTimeSlot(row.getTimeSlot().withSecond(0).withNano(0));
         }
 
-        // Thông tin xe
-        if (booking.getVehicle() != null) {
-            response.setVehicleId(booking.getVehicle().getVehicleId());
-            response.setVehicleVin(booking.getVehicle().getVIN());
-            response.setVehicleType(booking.getVehicle().getVehicleType().name());
-        }
+        response.setUserId(row.getUserId());
+        response.setUserName(row.getUserName());
 
-        // Thông tin pin
-        response.setBatteryCount(booking.getBatteryCount());
-        response.setBatteryType(booking.getBatteryType());
+        response.setStationId(row.getStationId());
+        response.setStationName(row.getStationName());
+        response.setStationAddress(row.getStationAddress());
 
-        // Thông tin bổ sung
-        response.setNotes(booking.getNotes());
-        response.setCancellationReason(booking.getCancellationReason());
-        response.setCompletedTime(booking.getCompletedTime());
+        response.setVehicleId(row.getVehicleId());
+        response.setVehicleVin(row.getVehicleVin());
+        response.setVehicleType(row.getVehicleType() != null ? row.getVehicleType().name() : null);
 
-        // Thông tin hóa đơn
-        if (booking.getInvoice() != null) {
-            response.setInvoiceId(String.valueOf(booking.getInvoice().getInvoiceId()));
-        }
+        response.setBatteryCount(row.getBatteryCount());
+        response.setBatteryType(row.getBatteryType());
+        response.setNotes(row.getNotes());
+        response.setCancellationReason(row.getCancellationReason());
+        response.setCompletedTime(row.getCompletedTime());
+        response.setInvoiceId(row.getInvoiceId() != null ? String.valueOf(row.getInvoiceId()) : null);
 
-       // ✅ THÔNG TIN GÓI CƯỚC (sử dụng subscription đã truyền vào)
         if (subscription != null) {
             SubscriptionPlan plan = subscription.getPlan();
-
-            int limit = (plan.getSwapLimit() == null || plan.getSwapLimit() < 0) ? -1 : plan.getSwapLimit();
-
             response.setIsFreeSwap(true);
             response.setSubscriptionPlanName(plan.getPlanName());
-            response.setUsedSwaps(subscription.getUsedSwaps()); // ✅ Lấy số lượt đã dùng
-            response.setTotalSwapLimit(limit);
+            response.setUsedSwaps(subscription.getUsedSwaps());
+            response.setTotalSwapLimit((plan.getSwapLimit() == null || plan.getSwapLimit() < 0) ? -1 : plan.getSwapLimit());
         } else {
             response.setIsFreeSwap(false);
-            response.setSubscriptionPlanName(null);
-            response.setUsedSwaps(null); // ✅ Đổi tên
-            response.setTotalSwapLimit(null);
         }
 
-        // Thông tin thanh toán
-        if (booking.getInvoice() != null && booking.getInvoice().getPayments() != null) {
-            Payment paymentToShow = booking.getInvoice().getPayments().stream()
-                    .filter(p -> p.getPaymentStatus() == Payment.PaymentStatus.SUCCESS)
-                    .findFirst()
-                    .orElse(
-                            booking.getInvoice().getPayments().stream()
-                                    .max(Comparator.comparing(Payment::getCreatedAt))
-                                    .orElse(null)
-                    );
-
-            if (paymentToShow != null) {
-                BookingResponse.PaymentInfo paymentInfoDTO = new BookingResponse.PaymentInfo();
-                paymentInfoDTO.setPaymentId(paymentToShow.getPaymentId());
-                paymentInfoDTO.setPaymentMethod(paymentToShow.getPaymentMethod().name());
-                paymentInfoDTO.setAmount(paymentToShow.getAmount());
-                paymentInfoDTO.setPaymentStatus(paymentToShow.getPaymentStatus().name());
-
-                if (paymentToShow.getCreatedAt() != null) {
-                    paymentInfoDTO.setPaymentDate(paymentToShow.getCreatedAt());
-                }
-
-                response.setPayment(paymentInfoDTO);
-            } else {
-                response.setPayment(null);
-            }
-        } else {
-            response.setPayment(null);
+        if (row.getPaymentId() != null) {
+            response.setPayment(new BookingResponse.PaymentInfo(
+                    row.getPaymentId(),
+                    row.getPaymentMethod() != null ? row.getPaymentMethod().name() : null,
+                    row.getPaymentAmount(),
+                    row.getPaymentStatus() != null ? row.getPaymentStatus().name() : null,
+                    row.getPaymentCreatedAt()));
         }
-
         return response;
     }
 
-    /**
-     * Overload method cũ để backward compatibility
-     */
-    private BookingResponse convertToResponse(Booking booking) {
-        return convertToResponse(booking, null);
-    }
-
 
     /**
      * Tính toán giá tiền đặt chỗ dựa trên SystemPrice - THỐNG NHẤT CHO TẤT CẢ
@@ -1530,19 +1522,48 @@ public class BookingService {
                 log.warn("UserSubscription #{} không có 'plan' (plan=null). Coi như không có gói.", sub.getId());
             }
         }
+        List<BookingRequest> requests = request.getBookings();
+        if (requests == null || requests.isEmpty()) {
+            throw new IllegalArgumentException("Danh sách booking trống.");
+        }
+
+        // Nạp trước trạm, xe và xe đang có booking dở dang bằng query IN – số round-trip không phụ thuộc số xe
+        Set<Integer> stationIds = new HashSet<>();
+        Set<Integer> vehicleIds = new HashSet<>();
+        for (BookingRequest req : requests) {
+            if (req.getStationId() != null) stationIds.add(req.getStationId());
+            if (req.getVehicleId() != null) vehicleIds.add(req.getVehicleId());
+        }
+        Map<Integer, Station> stations = stationRepository.findAllById(stationIds).stream()
+                .collect(Collectors.toMap(Station::getStationId, s -> s));
+        Map<Integer, Vehicle> vehicles = vehicleRepository.findAllById(vehicleIds).stream()
+                .collect(Collectors.toMap(Vehicle::getVehicleId, v -> v));
+        Set<Integer> vehiclesWithIncompleteBooking = vehicleIds.isEmpty()
+                ? Set.of()
+                : new HashSet<>(bookingRepository.findVehicleIdsWithIncompleteBooking(vehicleIds));
+
         List<BookingDataHelper> validatedBookings = new ArrayList<>();
-        for (BookingRequest req : request.getBookings()) {
-            Station station = stationRepository.findById(req.getStationId())
-                    .orElseThrow(() -> new EntityNotFoundException("Trạm không tồn tại: " + req.getStationId()));
-            Vehicle vehicle = vehicleRepository.findById(req.getVehicleId())
-                    .orElseThrow(() -> new EntityNotFoundException("Xe không tồn tại: " + req.getVehicleId()));
+        Map<BookingCapacityLedger.SlotKey, Integer> slotDemand = new HashMap<>();
+        Set<Integer> seenVehicles = new HashSet<>();
+        for (BookingRequest req : requests) {
+            Station station = stations.get(req.getStationId());
+            if (station == null) {
+                throw new EntityNotFoundException("Trạm không tồn tại: " + req.getStationId());
+            }
+            Vehicle vehicle = vehicles.get(req.getVehicleId());
+            if (vehicle == null) {
+                throw new EntityNotFoundException("Xe không tồn tại: " + req.getVehicleId());
+            }
             if (!vehicle.getUser().getUserId().equals(user.getUserId())) {
                 throw new IllegalStateException("Xe " + vehicle.getVIN() + " không thuộc về user " + user.getUserId());
             }
             LocalTime timeSlot = LocalTime.parse(req.getTimeSlot(), DateTimeFormatter.ofPattern("HH:mm"));
-            if (bookingRepository.hasIncompleteBookingForVehicle(vehicle.getVehicleId())) {
+            if (vehiclesWithIncompleteBooking.contains(vehicle.getVehicleId())) {
                 throw new IllegalStateException("Xe " + vehicle.getVIN() + " đang có booking chưa hoàn thành.");
             }
+            if (!seenVehicles.add(vehicle.getVehicleId())) {
+                throw new IllegalStateException("Xe " + vehicle.getVIN() + " xuất hiện nhiều lần trong cùng 1 batch.");
+            }
             // ✅ Validate batteryCount bắt buộc
             Integer reqCount = req.getBatteryCount();
             if (reqCount == null || reqCount <= 0) {
@@ -1562,11 +1583,9 @@ public class BookingService {
                 ));
             }
 
-            Integer alreadyBooked = bookingRepository.getBookedBatteryCountAtTimeSlot(station, req.getBookingDate(), timeSlot);
-            if (alreadyBooked == null) alreadyBooked = 0;
-            if ((alreadyBooked + reqCount) > station.getDocks().size()) {
-                throw new IllegalStateException("Trạm " + station.getStationName() + " đã hết chỗ vào " + timeSlot);
-            }
+            slotDemand.merge(new BookingCapacityLedger.SlotKey(station.getStationId(), req.getBookingDate(), timeSlot),
+                    reqCount, Integer::sum);
+
             boolean isFree = false;
             String batteryTypeStr = (req.getBatteryType() != null && !req.getBatteryType().isBlank())
                     ? req.getBatteryType()
@@ -1586,6 +1605,14 @@ public class BookingService {
             ));
         }
 
+        // Giữ chỗ cả lô trong 1 bước: thiếu chỗ ở bất kỳ khung giờ nào thì không giữ chỗ nào
+        BookingCapacityLedger.BatchReservation reservation = capacityLedger.reserveAll(slotDemand);
+        if (!reservation.reserved()) {
+            BookingCapacityLedger.SlotKey rejected = reservation.rejected();
+            throw new IllegalStateException("Trạm " + stations.get(rejected.stationId()).getStationName()
+                    + " đã hết chỗ vào " + rejected.timeSlot());
+        }
+
 
         // ========== [LƯỢT 2: SỬA LỖI LOGIC GỘP INVOICE] ==========
 
@@ -1663,9 +1690,10 @@ public class BookingService {
         Invoice savedMasterInvoice = invoiceRepository.save(masterInvoice);
 
         // 4. TẠO 1 PAYMENT CHUNG (kể cả khi là gói Subscription)
+        Payment masterPayment = null;
         if (totalCost > 0 && paymentMethodEnum != null) {
             // Có phí (WALLET hoặc VNPAY)
-            Payment masterPayment = Payment.builder()
+            masterPayment = Payment.builder()
                     .invoice(savedMasterInvoice)
                     .amount(totalCost)
                     .paymentMethod(paymentMethodEnum)
@@ -1674,12 +1702,12 @@ public class BookingService {
                     .createdAt(LocalDateTime.now())
                     .gateway(paymentMethodEnum == Payment.PaymentMethod.WALLET ? "WALLET" : "VNPAY")
                     .build();
-            paymentRepository.save(masterPayment);
+            masterPayment = paymentRepository.save(masterPayment);
 
         } else if (totalCost == 0 && activeSubOpt.isPresent()) {
             // 🔹 Trường hợp MIỄN PHÍ bằng gói Subscription
             UserSubscription sub = activeSubOpt.get();
-            Payment subscriptionPayment = Payment.builder()
+            masterPayment = Payment.builder()
                     .invoice(savedMasterInvoice)
                     .amount(0.0)
                     .paymentMethod(Payment.PaymentMethod.SUBSCRIPTION)
@@ -1689,14 +1717,16 @@ public class BookingService {
                     .message("Thanh toán bằng gói cước " + sub.getPlan().getPlanName())
                     .createdAt(LocalDateTime.now())
                     .build();
-            paymentRepository.save(subscriptionPayment);
+            masterPayment = paymentRepository.save(masterPayment);
         }
 
 
-        // 5. LƯU TẤT CẢ BOOKING
-        List<BookingResponse> successBookings = new ArrayList<>();
+        // 5. LƯU TẤT CẢ BOOKING – id lấy từ sequence pooled nên saveAll được gộp thành JDBC batch khi flush
+        Booking.BookingStatus paidStatus = invoiceStatusEnum == Invoice.InvoiceStatus.PAID
+                ? Booking.BookingStatus.PENDINGSWAPPING : Booking.BookingStatus.PENDINGPAYMENT;
+        List<Booking> newBookings = new ArrayList<>(validatedBookings.size());
         for (BookingDataHelper helper : validatedBookings) {
-            Booking booking = Booking.builder()
+            newBookings.add(Booking.builder()
                     .user(user)
                     .station(helper.station)
                     .vehicle(helper.vehicle)
@@ -1707,13 +1737,19 @@ public class BookingService {
                     .batteryCount(helper.batteryCount)
                     .batteryType(helper.batteryType)
                     .vehicleType(helper.vehicleType)
-                    .bookingStatus(helper.isFree ? Booking.BookingStatus.PENDINGSWAPPING :
-                            (invoiceStatusEnum == Invoice.InvoiceStatus.PAID ? Booking.BookingStatus.PENDINGSWAPPING : Booking.BookingStatus.PENDINGPAYMENT))
+                    .bookingStatus(helper.isFree ? Booking.BookingStatus.PENDINGSWAPPING : paidStatus)
                     .invoice(savedMasterInvoice) // <-- Liên kết tới Invoice chung
                     .notes(helper.request.getNotes() != null ? helper.request.getNotes() : "Batch booking")
-                    .build();
-            Booking savedBooking = bookingRepository.save(booking);
-            successBookings.add(convertToResponse(savedBooking, (helper.isFree ? activeSubOpt.orElse(null) : null)));
+                    .build());
+        }
+        List<Booking> savedBookings = bookingRepository.saveAll(newBookings);
+
+        List<BookingResponse> successBookings = new ArrayList<>();
+        for (int i = 0; i < savedBookings.size(); i++) {
+            BookingDataHelper helper = validatedBookings.get(i);
+            // Trạm/xe/user/hóa đơn của booking vừa lưu là object đã có trong bộ nhớ → không chạm quan hệ lazy
+            successBookings.add(toResponse(BookingRowDto.of(savedBookings.get(i), masterPayment),
+                    helper.isFree ? activeSubOpt.orElse(null) : null));
         }
 
         // 6. Trả về Response
@@ -1851,44 +1887,9 @@ public class BookingService {
     @Transactional(readOnly = true)
     public List<BookingResponse> getBookingsByStatus(String status) {
         // Chuyển đổi String sang enum
-        try {
-            Booking.BookingStatus bookingStatus = Booking.BookingStatus.valueOf(status.toUpperCase());
-            List<Booking> bookings = bookingRepository.findByBookingStatus(bookingStatus);
-            return bookings.stream()
-                    .map(this::convertToResponse)
-                    .collect(Collectors.toList());
-        } catch (IllegalArgumentException e) {
-            throw new IllegalArgumentException("Trạng thái không hợp lệ: " + status + ". Các trạng thái hợp lệ: PENDINGPAYMENT, PENDINGSWAPPING, CANCELLED, COMPLETED");
-        }
-    }
-
-    /**
-     * [SỬA LỖI VÒNG LẶP]
-     * Hàm này LẮNG NGHE sự kiện 'InvoicePaidEvent' (được bắn ra từ SubscriptionService HOẶC PaymentService).
-     * Khi nó nghe thấy, nó sẽ tự động kích hoạt Booking.
-     */
-    @EventListener
-    public void handleInvoicePaidEvent(InvoicePaidEvent event) {
-            Invoice invoice = event.getInvoice();
-            log.info("BookingService đã nhận được InvoicePaidEvent cho Invoice #{}", invoice.getInvoiceId());
-
-        // Tìm các booking liên quan đến hóa đơn này
-        List<Booking> bookings = bookingRepository.findByInvoice(invoice);
-        if (bookings.isEmpty()) {
-            // (Nếu đây là Invoice Gói tháng, nó sẽ không có booking nào, đây là việc bình thường)
-            log.info("Sự kiện Invoice PAID, không tìm thấy Booking nào liên kết (có thể là HĐ Gói tháng). Bỏ qua.");
-            return;
-        }
-
-        for (Booking booking : bookings) {
-            // Chỉ kích hoạt các booking đang chờ thanh toán
-            if (booking.getBookingStatus() == Booking.BookingStatus.PENDINGPAYMENT) {
-                log.info("Kích hoạt Booking #{} (từ sự kiện) sang PENDINGSWAPPING", booking.getBookingId());
-
-                // Gọi hàm confirmPayment (Dòng 307 trong file này)
-                confirmPayment(booking.getBookingId());
-            }
-        }
+        List<BookingResponse> bookings = new ArrayList<>();
+        exportBookings(status, null, null, bookings::add);
+        return bookings;
     }
 
     /**
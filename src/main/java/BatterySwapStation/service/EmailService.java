@@ -1,93 +1,350 @@
 package BatterySwapStation.service;
 
+import BatterySwapStation.utils.TokenBucket;
 import com.sendgrid.*;
 import com.sendgrid.helpers.mail.Mail;
 import com.sendgrid.helpers.mail.objects.Content;
 import com.sendgrid.helpers.mail.objects.Email;
+import com.sendgrid.helpers.mail.objects.Personalization;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.text.StringEscapeUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Gửi email qua hàng đợi.
+ *
+ * - Mọi email được đưa vào hàng đợi có giới hạn và trả về ngay (CompletableFuture báo kết quả gửi).
+ * - 1 thread riêng gom email trong {@code mail.batch-window-ms}; các email cùng subject + nội dung mẫu được gộp
+ *   thành 1 request SendGrid, mỗi người nhận là 1 personalization (giá trị riêng qua substitution).
+ * - 1 client SendGrid dùng chung; số request/giây giới hạn bằng token bucket ({@code mail.rate-per-second}).
+ * - 429 / 5xx / lỗi mạng: retry với backoff lũy thừa, tối đa {@code mail.max-attempts} lần; lần retry được hẹn
+ *   trên thread "mail-retry", thread gửi không ngủ chờ.
+ * - 4xx khác (vd. 400 vì 1 địa chỉ sai): tách đôi request cho tới khi cô lập được người nhận bị từ chối,
+ *   chỉ những email đó thất bại.
+ * - {@code mail.sink=file}: ghi JSON request vào {@code mail.file-sink-dir} thay vì gọi SendGrid (load test offline).
+ *
+ * Metric: mail.queue.depth, mail.delivery.latency, mail.messages{result=sent|failed|rejected}, mail.request.recipients.
+ */
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class EmailService {
 
+    // Giới hạn personalization mỗi request của SendGrid
+    private static final int MAX_PERSONALIZATIONS = 1000;
+    private static final long BASE_BACKOFF_MS = 500;
+
+    private static final String VERIFY_SUBJECT = "Xác minh tài khoản Battery Swap Station";
+    private static final String VERIFY_TEMPLATE = """
+                <div style="font-family:Arial,sans-serif;line-height:1.6">
+                    <h2 style="color:#007bff;">Xin chào, -fullName- 👋</h2>
+                    <p>Cảm ơn bạn đã đăng ký tài khoản tại <b>Battery Swap Station</b>.</p>
+                    <p>Vui lòng nhấp vào nút bên dưới để xác minh email của bạn:</p>
+                    <p>
+                        <a href="-verifyUrl-" style="background-color:#28a745;color:white;
+                            padding:10px 20px;text-decoration:none;border-radius:5px;">
+                            Xác minh ngay
+                        </a>
+                    </p>
+                    <p>Nếu bạn không đăng ký tài khoản này, vui lòng bỏ qua email này.</p>
+                    <hr>
+                    <p style="font-size:12px;color:gray;">
+                        © 2025 Battery Swap Station Team
+                    </p>
+                </div>
+            """;
+
+    private final MeterRegistry meterRegistry;
+
     @Value("${SENDGRID_API_KEY}")
     private String sendGridApiKey;
 
     @Value("${SPRING_MAIL_FROM}")
     private String fromEmail;
 
+    @Value("${mail.sink:sendgrid}")
+    private String sink;
+
+    @Value("${mail.file-sink-dir:${java.io.tmpdir}/mail-sink}")
+    private String fileSinkDir;
+
+    @Value("${mail.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${mail.batch-size:500}")
+    private int batchSize;
+
+    @Value("${mail.batch-window-ms:100}")
+    private long batchWindowMs;
+
+    @Value("${mail.rate-per-second:10}")
+    private double ratePerSecond;
+
+    @Value("${mail.max-attempts:5}")
+    private int maxAttempts;
+
+    private record QueuedMail(String to, String subject, String html, Map<String, String> substitutions,
+                              long enqueuedAt, CompletableFuture<Void> result) {}
+
+    private BlockingQueue<QueuedMail> queue;
+    private SendGrid sendGrid;
+    private TokenBucket rateLimiter;
+    private Thread sender;
+    private ScheduledExecutorService retryScheduler;
+    private volatile boolean running;
+    private final AtomicLong fileSeq = new AtomicLong();
+
+    private Timer latency;
+    private Counter sent;
+    private Counter failed;
+    private Counter rejected;
+    private DistributionSummary recipientsPerRequest;
 
-    //
-    public void sendVerificationEmail(String fullName, String email, String verifyUrl) {
-        String htmlContent = getHtmlTemplate(fullName, verifyUrl);
+    @PostConstruct
+    void start() {
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        sendGrid = new SendGrid(sendGridApiKey);
+        rateLimiter = new TokenBucket(ratePerSecond, (int) Math.ceil(ratePerSecond));
 
-        Email from = new Email(fromEmail);
-        Email recipient = new Email(email);
-        Content content = new Content("text/html", htmlContent);
-        Mail mail = new Mail(from, "Xác minh tài khoản Battery Swap Station", recipient, content);
+        Gauge.builder("mail.queue.depth", queue, BlockingQueue::size).register(meterRegistry);
+        latency = Timer.builder("mail.delivery.latency").register(meterRegistry);
+        sent = Counter.builder("mail.messages").tag("result", "sent").register(meterRegistry);
+        failed = Counter.builder("mail.messages").tag("result", "failed").register(meterRegistry);
+        rejected = Counter.builder("mail.messages").tag("result", "rejected").register(meterRegistry);
+        recipientsPerRequest = DistributionSummary.builder("mail.request.recipients").register(meterRegistry);
 
-        sendMail(mail);
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mail-retry");
+            t.setDaemon(true);
+            return t;
+        });
+
+        running = true;
+        sender = new Thread(this::runSender, "mail-sender");
+        sender.setDaemon(true);
+        sender.start();
+        log.info("EmailService: sink={}, rate={}/s, batch={} / {} ms", sink, ratePerSecond, batchSize, batchWindowMs);
     }
 
-    // email qua SendGrid
-    private void sendMail(Mail mail) {
-        SendGrid sg = new SendGrid(sendGridApiKey);
-        Request request = new Request();
-        try {
-            request.setMethod(Method.POST);
-            request.setEndpoint("mail/send");
-            request.setBody(mail.build());
-            Response response = sg.api(request);
+    @PreDestroy
+    void stop() throws InterruptedException {
+        // Ngừng nhận, gửi nốt phần còn trong hàng đợi
+        running = false;
+        sender.join(TimeUnit.SECONDS.toMillis(10));
+        // Lần retry đã hẹn vẫn chạy nốt (mặc định của ScheduledThreadPoolExecutor), chờ có giới hạn
+        retryScheduler.shutdown();
+        retryScheduler.awaitTermination(10, TimeUnit.SECONDS);
+    }
 
-            int statusCode = response.getStatusCode();
-            System.out.println("📧 SendGrid Response Code: " + statusCode);
-            System.out.println("📧 SendGrid Response Body: " + response.getBody());
-            System.out.println("📧 SendGrid Response Headers: " + response.getHeaders());
+    // ==================== API ====================
 
-        } catch (IOException e) {
-            throw new RuntimeException("Lỗi khi gửi email qua SendGrid: " + e.getMessage(), e);
+    public CompletableFuture<Void> sendVerificationEmail(String fullName, String email, String verifyUrl) {
+        return sendTemplatedEmail(email, VERIFY_SUBJECT, VERIFY_TEMPLATE,
+                Map.of("-fullName-", fullName, "-verifyUrl-", verifyUrl));
+    }
+
+    /**
+     * Gửi email từ mẫu dùng chung; {@code values} (đã escape HTML tại đây) thay cho các tag trong mẫu.
+     * Email cùng mẫu được gộp chung 1 request.
+     */
+    public CompletableFuture<Void> sendTemplatedEmail(String to, String subject, String template,
+                                                      Map<String, String> values) {
+        Map<String, String> substitutions = new LinkedHashMap<>();
+        values.forEach((tag, value) -> substitutions.put(tag, StringEscapeUtils.escapeHtml4(value)));
+        return enqueue(to, subject, template, substitutions);
+    }
+
+    public CompletableFuture<Void> sendEmail(String to, String subject, String htmlContent) {
+        return enqueue(to, subject, htmlContent, Map.of());
+    }
+
+    private CompletableFuture<Void> enqueue(String to, String subject, String html, Map<String, String> substitutions) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (!running || !queue.offer(new QueuedMail(to, subject, html, substitutions, System.nanoTime(), result))) {
+            failed.increment();
+            log.warn("📧 Hàng đợi email đầy/đã dừng, bỏ email tới {}", to);
+            result.completeExceptionally(new IllegalStateException("Hàng đợi email đầy"));
         }
+        return result;
     }
 
+    // ==================== SENDER ====================
 
-    // HTML Template
-    private String getHtmlTemplate(String fullName, String verifyUrl) {
-        String safeFullName = StringEscapeUtils.escapeHtml4(fullName);
-        String safeUrl = StringEscapeUtils.escapeHtml4(verifyUrl);
-
-        String htmlContent = """
-                    <div style="font-family:Arial,sans-serif;line-height:1.6">
-                        <h2 style="color:#007bff;">Xin chào, %s 👋</h2>
-                        <p>Cảm ơn bạn đã đăng ký tài khoản tại <b>Battery Swap Station</b>.</p>
-                        <p>Vui lòng nhấp vào nút bên dưới để xác minh email của bạn:</p>
-                        <p>
-                            <a href="%s" style="background-color:#28a745;color:white;
-                                padding:10px 20px;text-decoration:none;border-radius:5px;">
-                                Xác minh ngay
-                            </a>
-                        </p>
-                        <p>Nếu bạn không đăng ký tài khoản này, vui lòng bỏ qua email này.</p>
-                        <hr>
-                        <p style="font-size:12px;color:gray;">
-                            © 2025 Battery Swap Station Team
-                        </p>
-                    </div>
-                """.formatted(safeFullName, safeUrl);
-        return htmlContent;
+    private void runSender() {
+        while (running || !queue.isEmpty()) {
+            try {
+                QueuedMail first = queue.poll(500, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
 
+                // Gom thêm trong cửa sổ ngắn
+                List<QueuedMail> batch = new ArrayList<>();
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchWindowMs);
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    QueuedMail next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+
+                // Cùng subject + nội dung → 1 request
+                Map<String, List<QueuedMail>> groups = new LinkedHashMap<>();
+                for (QueuedMail m : batch) {
+                    // Người gọi đã thôi chờ (timeout/hủy) → không gửi nữa, tránh trùng khi họ retry
+                    if (m.result().isDone()) continue;
+                    groups.computeIfAbsent(m.subject() + '\u0000' + m.html(), k -> new ArrayList<>()).add(m);
+                }
+                for (List<QueuedMail> group : groups.values()) {
+                    for (int i = 0; i < group.size(); i += MAX_PERSONALIZATIONS) {
+                        deliver(group.subList(i, Math.min(group.size(), i + MAX_PERSONALIZATIONS)), 1);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("📧 mail-sender lỗi: {}", e.getMessage(), e);
+            }
+        }
     }
 
-    public void sendEmail(String to, String subject, String htmlContent) {
-        Email from = new Email(fromEmail);
-        Email recipient = new Email(to);
-        Content content = new Content("text/html", htmlContent);
-        Mail mail = new Mail(from, subject, recipient, content);
-        sendMail(mail);
+    /**
+     * Gửi 1 nhóm email trong 1 request. Chạy trên thread gửi hoặc thread mail-retry.
+     */
+    private void deliver(List<QueuedMail> group, int attempt) {
+        // Người gọi đã thôi chờ (timeout/hủy) trong lúc chờ retry → bỏ
+        group = group.stream().filter(m -> !m.result().isDone()).toList();
+        if (group.isEmpty()) return;
+
+        String error;
+        boolean retryable;
+        try {
+            rateLimiter.acquire();
+            Response response = transport(buildMail(group));
+            int status = response.getStatusCode();
+            if (status < 300) {
+                complete(group, null);
+                return;
+            }
+            error = "SendGrid " + status + ": " + response.getBody();
+            retryable = status == 429 || status >= 500;
+        } catch (IOException e) {
+            error = e.getMessage();
+            retryable = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            complete(group, new RuntimeException("Dừng gửi email (bị ngắt)"));
+            return;
+        }
+
+        if (!retryable) {
+            // Lỗi phía client (trừ 429): thử lại vô ích, nhưng có thể chỉ do vài người nhận → tách đôi
+            if (group.size() > 1) {
+                int mid = group.size() / 2;
+                deliver(group.subList(0, mid), attempt);
+                deliver(group.subList(mid, group.size()), attempt);
+                return;
+            }
+            rejected.increment();
+            log.error("📧 SendGrid từ chối email tới {} (subject: {}): {}", group.get(0).to(), group.get(0).subject(), error);
+            complete(group, new RuntimeException("SendGrid từ chối email: " + error));
+            return;
+        }
+
+        if (attempt >= maxAttempts) {
+            log.error("📧 Bỏ {} email (subject: {}) sau {} lần: {}", group.size(), group.get(0).subject(), attempt, error);
+            complete(group, new RuntimeException("Lỗi khi gửi email qua SendGrid: " + error));
+            return;
+        }
+
+        long backoff = BASE_BACKOFF_MS << Math.min(attempt - 1, 10);
+        log.warn("📧 Gửi {} email thất bại (lần {}), thử lại sau {} ms: {}", group.size(), attempt, backoff, error);
+        List<QueuedMail> retry = group;
+        try {
+            retryScheduler.schedule(() -> {
+                try {
+                    deliver(retry, attempt + 1);
+                } catch (RuntimeException e) {
+                    log.error("📧 mail-retry lỗi: {}", e.getMessage(), e);
+                    complete(retry, e);
+                }
+            }, backoff, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            complete(group, new RuntimeException("Lỗi khi gửi email qua SendGrid (đang dừng): " + error));
+        }
+    }
+
+    private Mail buildMail(List<QueuedMail> group) {
+        QueuedMail first = group.get(0);
+        Mail mail = new Mail();
+        mail.setFrom(new Email(fromEmail));
+        mail.setSubject(first.subject());
+        mail.addContent(new Content("text/html", first.html()));
+        for (QueuedMail m : group) {
+            Personalization p = new Personalization();
+            p.addTo(new Email(m.to()));
+            m.substitutions().forEach(p::addSubstitution);
+            mail.addPersonalization(p);
+        }
+        recipientsPerRequest.record(group.size());
+        return mail;
     }
 
+    private Response transport(Mail mail) throws IOException {
+        if ("file".equalsIgnoreCase(sink)) {
+            Path dir = Path.of(fileSinkDir);
+            Files.createDirectories(dir);
+            Files.writeString(dir.resolve("mail-" + fileSeq.incrementAndGet() + ".json"),
+                    mail.build(), StandardCharsets.UTF_8);
+            return new Response(202, "", Map.of());
+        }
+
+        Request request = new Request();
+        request.setMethod(Method.POST);
+        request.setEndpoint("mail/send");
+        request.setBody(mail.build());
+        Response response = sendGrid.api(request);
+        log.debug("📧 SendGrid {} ({} người nhận)", response.getStatusCode(), mail.getPersonalization().size());
+        return response;
+    }
+
+    private void complete(List<QueuedMail> group, Exception error) {
+        long now = System.nanoTime();
+        for (QueuedMail m : group) {
+            latency.record(now - m.enqueuedAt(), TimeUnit.NANOSECONDS);
+            if (error == null) {
+                sent.increment();
+                m.result().complete(null);
+            } else {
+                failed.increment();
+                m.result().completeExceptionally(error);
+            }
+        }
+    }
 }
@@ -5,11 +5,11 @@ import BatterySwapStation.entity.User;
 import BatterySwapStation.repository.EmailVerificationTokenRepository;
 import BatterySwapStation.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
-import org.apache.commons.text.StringEscapeUtils;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.Map;
 import java.util.UUID;
 
 @Service
@@ -23,6 +23,26 @@ public class ForgotPasswordService {
 
     private static final String RESET_URL = "http://localhost:5173/reset-password?token=";
 
+    // Giao diện HTML đồng nhất style verify mail; -fullName- / -resetUrl- được thay theo từng người nhận
+    private static final String RESET_PASSWORD_TEMPLATE = """
+            <div style="font-family:Arial,sans-serif;line-height:1.6">
+                <h2 style="color:#007bff;">Xin chào, -fullName- 👋</h2>
+                <p>Bạn vừa yêu cầu đặt lại mật khẩu tại <b>Battery Swap Station</b>.</p>
+                <p>Nhấn vào nút bên dưới để thay đổi mật khẩu (liên kết có hiệu lực trong 30 phút):</p>
+                <p>
+                    <a href="-resetUrl-" style="background-color:#007bff;color:white;
+                        padding:10px 20px;text-decoration:none;border-radius:5px;">
+                        Đặt lại mật khẩu
+                    </a>
+                </p>
+                <p>Nếu bạn không yêu cầu thao tác này, vui lòng bỏ qua email này.</p>
+                <hr>
+                <p style="font-size:12px;color:gray;">
+                    © 2025 Battery Swap Station Team
+                </p>
+            </div>
+            """;
+
     /**
      * Gửi email đặt lại mật khẩu và trả về link FE
      */
@@ -50,46 +70,18 @@ public class ForgotPasswordService {
 
         // 4️⃣ Gửi email có cùng style
         String resetUrl = RESET_URL + token;
-        String html = getResetPasswordTemplate(user.getFullName(), resetUrl);
 
-        emailService.sendEmail(
+        emailService.sendTemplatedEmail(
                 user.getEmail(),
                 "Yêu cầu đặt lại mật khẩu - Battery Swap Station",
-                html
+                RESET_PASSWORD_TEMPLATE,
+                Map.of("-fullName-", user.getFullName(), "-resetUrl-", resetUrl)
         );
 
         // Trả về link FE cho controller (để phản hồi cho FE)
         return resetUrl;
     }
 
-    /**
-     * Giao diện HTML đồng nhất style verify mail
-     */
-    private String getResetPasswordTemplate(String fullName, String resetUrl) {
-        String safeName = StringEscapeUtils.escapeHtml4(fullName);
-        String safeUrl = StringEscapeUtils.escapeHtml4(resetUrl);
-
-        return """
-            <div style="font-family:Arial,sans-serif;line-height:1.6">
-                <h2 style="color:#007bff;">Xin chào, %s 👋</h2>
-                <p>Bạn vừa yêu cầu đặt lại mật khẩu tại <b>Battery Swap Station</b>.</p>
-                <p>Nhấn vào nút bên dưới để thay đổi mật khẩu (liên kết có hiệu lực trong 30 phút):</p>
-                <p>
-                    <a href="%s" style="background-color:#007bff;color:white;
-                        padding:10px 20px;text-decoration:none;border-radius:5px;">
-                        Đặt lại mật khẩu
-                    </a>
-                </p>
-                <p>Nếu bạn không yêu cầu thao tác này, vui lòng bỏ qua email này.</p>
-                <hr>
-                <p style="font-size:12px;color:gray;">
-                    © 2025 Battery Swap Station Team
-                </p>
-            </div>
-            """.formatted(safeName, safeUrl);
-    }
-
-
     /**
      * Đặt lại mật khẩu bằng token
      */
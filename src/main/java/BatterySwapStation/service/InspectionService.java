@@ -7,7 +7,6 @@ import BatterySwapStation.dto.InspectionUpdateRequest;
 import BatterySwapStation.entity.*;
 import BatterySwapStation.repository.*;
 import BatterySwapStation.websocket.BatterySocketController;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.persistence.EntityNotFoundException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -30,7 +29,7 @@ public class InspectionService { // ✅ Đổi tên lớp
     private final UserRepository userRepository;
     private final DockSlotRepository dockSlotRepository;
     private final BatterySocketController batterySocketController;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BatteryChargingEngine chargingEngine;
 
 
     // ----------------------------------------------------
@@ -185,6 +184,7 @@ public class InspectionService { // ✅ Đổi tên lớp
         } else if (inspectionStatus == BatteryInspection.InspectionStatus.PASS) {
             // Pin vượt qua kiểm tra -> chuyển về AVAILABLE (sẵn sàng sử dụng)
             battery.setBatteryStatus(Battery.BatteryStatus.CHARGING);
+            chargingEngine.requestResync(battery.getBatteryId());
         }
 
 //        // Tăng số lượng chu kỳ sử dụng
@@ -249,8 +249,7 @@ public class InspectionService { // ✅ Đổi tên lớp
                     .timestamp(LocalDateTime.now().toString())
                     .build();
 
-            String json = objectMapper.writeValueAsString(event);
-            batterySocketController.broadcastToStation(event.getStationId(), json);
+            batterySocketController.publishBatteryEvent(event);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -1,15 +1,22 @@
 package BatterySwapStation.service;
 
+import BatterySwapStation.config.CacheConfig;
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
 import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
+import java.util.HexFormat;
 
 @Service
 public class JwtService {
@@ -20,12 +27,19 @@ public class JwtService {
     private final Key resendKey;
     private final long resendExpirationMillis;
 
+    private final Cache claimsCache;
+
+    // Claims cần cho xác thực request, cache theo SHA-256 của token
+    public record TokenPrincipal(String userId, long expiresAtMillis) {}
+
     public JwtService(
             @Value("${jwt.secret}") String secret,
             @Value("${jwt.expiration}") long expirationMillis,
             @Value("${jwt.resend.secret}") String resendSecret,
-            @Value("${jwt.resend.expiration}") long resendExpirationMillis
+            @Value("${jwt.resend.expiration}") long resendExpirationMillis,
+            CacheManager cacheManager
     ) {
+        this.claimsCache = cacheManager.getCache(CacheConfig.JWT_CLAIMS);
         this.key = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
         this.expirationMillis = expirationMillis;
         this.resendKey = Keys.hmacShaKeyFor(resendSecret.getBytes(StandardCharsets.UTF_8));
@@ -66,6 +80,38 @@ public class JwtService {
                 .getSubject();
     }
 
+    /**
+     * userId của token đăng nhập. Token đã gặp thì lấy từ cache (không verify chữ ký lại),
+     * token mới thì parse + verify 1 lần rồi lưu kèm hạn dùng. Token hết hạn / sai chữ ký
+     * ném exception như extractUserId.
+     */
+    public String resolveUserId(String token) {
+        String hash = sha256(token);
+        TokenPrincipal cached = claimsCache.get(hash, TokenPrincipal.class);
+        if (cached != null) {
+            if (cached.expiresAtMillis() > System.currentTimeMillis()) return cached.userId();
+            claimsCache.evict(hash);
+        }
+
+        Claims claims = Jwts.parserBuilder()
+                .setSigningKey(key)
+                .build()
+                .parseClaimsJws(token)
+                .getBody();
+        long expiresAt = claims.getExpiration() != null ? claims.getExpiration().getTime() : Long.MAX_VALUE;
+        claimsCache.put(hash, new TokenPrincipal(claims.getSubject(), expiresAt));
+        return claims.getSubject();
+    }
+
+    private static String sha256(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     public boolean isTokenValid(String jwt, UserDetails userDetails) {
         final String userId = extractUserId(jwt);
         return (userId.equals(userDetails.getUsername())) && !isTokenExpired(jwt);
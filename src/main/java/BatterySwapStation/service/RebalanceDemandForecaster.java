@@ -0,0 +1,87 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.entity.Battery;
+import BatterySwapStation.repository.BookingRepository;
+import BatterySwapStation.repository.SwapRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dự báo nhu cầu pin theo (trạm, loại pin) cho {@code rebalance.horizon-hours} giờ tới.
+ *
+ * - Lịch sử: trung bình số swap thành công theo giờ trong ngày, trong {@code rebalance.history-days} ngày gần nhất
+ *   (loại pin = loại của pin giao ra cho khách).
+ * - Booking đang mở (chờ thanh toán / chờ đổi pin) trong khung dự báo là nhu cầu chắc chắn.
+ * - Nhu cầu = max(dự báo lịch sử, số pin đã đặt) – lịch sử đã bao gồm cả khách đặt trước.
+ */
+@Component
+@RequiredArgsConstructor
+public class RebalanceDemandForecaster {
+
+    public record Key(Integer stationId, Battery.BatteryType batteryType) {}
+
+    private final SwapRepository swapRepository;
+    private final BookingRepository bookingRepository;
+
+    @Value("${rebalance.history-days:28}")
+    private int historyDays;
+
+    @Value("${rebalance.horizon-hours:6}")
+    private int horizonHours;
+
+    /**
+     * @return số pin dự kiến cần trong khung dự báo bắt đầu từ {@code now}
+     */
+    public Map<Key, Double> forecast(LocalDateTime now) {
+        // ===== Lịch sử theo giờ =====
+        // (trạm, loại) → số swap theo giờ 0..23 trong cả giai đoạn lịch sử
+        Map<Key, long[]> hourly = new HashMap<>();
+        for (Object[] r : swapRepository.countSwapsByStationTypeAndHour(now.minusDays(historyDays))) {
+            Key key = new Key((Integer) r[0], (Battery.BatteryType) r[1]);
+            int hour = ((Number) r[2]).intValue();
+            hourly.computeIfAbsent(key, k -> new long[24])[hour] += ((Number) r[3]).longValue();
+        }
+
+        Map<Key, Double> demand = new HashMap<>();
+        hourly.forEach((key, counts) -> {
+            double expected = 0;
+            for (int h = 0; h < horizonHours; h++) {
+                expected += counts[(now.getHour() + h) % 24];
+            }
+            demand.put(key, expected / historyDays);
+        });
+
+        // ===== Booking đang mở trong khung dự báo =====
+        LocalDateTime end = now.plusHours(horizonHours);
+        Map<Key, Double> booked = new HashMap<>();
+        for (Object[] r : bookingRepository.sumOpenBookedBatteriesByType(now.toLocalDate(), end.toLocalDate())) {
+            Battery.BatteryType type = parseType((String) r[1]);
+            if (type == null || r[4] == null) continue;
+
+            LocalDateTime slot = LocalDateTime.of((LocalDate) r[2], (LocalTime) r[3]);
+            if (slot.isBefore(now) || !slot.isBefore(end)) continue;
+
+            booked.merge(new Key((Integer) r[0], type), ((Number) r[4]).doubleValue(), Double::sum);
+        }
+        booked.forEach((key, count) -> demand.merge(key, count, Math::max));
+
+        return demand;
+    }
+
+    // Booking lưu loại pin dạng chuỗi (có thể là "UNKNOWN")
+    private static Battery.BatteryType parseType(String value) {
+        if (value == null) return null;
+        try {
+            return Battery.BatteryType.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
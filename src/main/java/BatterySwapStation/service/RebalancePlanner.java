@@ -0,0 +1,103 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.utils.GeoUtils;
+import BatterySwapStation.utils.MinCostFlow;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lập kế hoạch điều phối pin bằng luồng chi phí nhỏ nhất trên đồ thị thưa.
+ *
+ * - source → trạm dư (dung lượng = số pin dư), trạm thiếu → sink (dung lượng = số pin thiếu).
+ * - Cạnh giữa các trạm chỉ nối k trạm gần nhất (hai chiều), cộng thêm k trạm thiếu gần nhất
+ *   của mỗi trạm dư để hai cụm trạm xa nhau vẫn thông nhau. Chi phí = khoảng cách haversine (m).
+ * - Luồng lớn nhất với chi phí nhỏ nhất tương đương mô hình cũ (thiếu hụt bị phạt nặng hơn mọi
+ *   quãng đường), nhưng nghiệm nguyên và thời gian đa thức thay vì MIP n² biến.
+ *
+ * Luồng có thể đi qua trạm trung gian (A → B → C); khi đó gợi ý là 2 chặng A → B và B → C.
+ */
+final class RebalancePlanner {
+
+    record Move(int from, int to, int quantity, double distanceKm) {}
+
+    private RebalancePlanner() {
+    }
+
+    /**
+     * @param lat     vĩ độ theo ordinal trạm
+     * @param lng     kinh độ theo ordinal trạm
+     * @param current số pin hiện có
+     * @param target  số pin mong muốn
+     * @param k       số láng giềng gần nhất mỗi trạm
+     */
+    static List<Move> plan(double[] lat, double[] lng, int[] current, int[] target, int k) {
+        int n = lat.length;
+        List<Move> moves = new ArrayList<>();
+        if (n <= 1) return moves;
+
+        long totalSurplus = 0;
+        List<StationSpatialIndex.Point> all = new ArrayList<>(n);
+        List<StationSpatialIndex.Point> deficits = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            all.add(new StationSpatialIndex.Point(i, lat[i], lng[i]));
+            if (current[i] > target[i]) totalSurplus += current[i] - target[i];
+            if (current[i] < target[i]) deficits.add(new StationSpatialIndex.Point(i, lat[i], lng[i]));
+        }
+        if (totalSurplus == 0 || deficits.isEmpty()) return moves;
+
+        StationSpatialIndex allIndex = new StationSpatialIndex();
+        allIndex.rebuildIfChanged(all);
+        StationSpatialIndex deficitIndex = new StationSpatialIndex();
+        deficitIndex.rebuildIfChanged(deficits);
+
+        // ===== Cạnh ứng viên (đã loại trùng) =====
+        Set<Long> pairs = new HashSet<>();
+        List<int[]> edges = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            for (StationSpatialIndex.Hit hit : allIndex.nearest(lat[i], lng[i], k + 1, Double.MAX_VALUE)) {
+                int j = hit.stationId();
+                if (j == i) continue;
+                addPair(pairs, edges, i, j);
+                addPair(pairs, edges, j, i);
+            }
+            if (current[i] > target[i]) {
+                for (StationSpatialIndex.Hit hit : deficitIndex.nearest(lat[i], lng[i], k, Double.MAX_VALUE)) {
+                    addPair(pairs, edges, i, hit.stationId());
+                }
+            }
+        }
+
+        // ===== Mạng luồng =====
+        int source = n, sink = n + 1;
+        MinCostFlow flow = new MinCostFlow(n + 2, edges.size() + n);
+        for (int i = 0; i < n; i++) {
+            if (current[i] > target[i]) flow.addEdge(source, i, current[i] - target[i], 0);
+            if (current[i] < target[i]) flow.addEdge(i, sink, target[i] - current[i], 0);
+        }
+
+        int[] edgeIds = new int[edges.size()];
+        double[] distances = new double[edges.size()];
+        for (int e = 0; e < edges.size(); e++) {
+            int i = edges.get(e)[0], j = edges.get(e)[1];
+            distances[e] = GeoUtils.haversineKm(lat[i], lng[i], lat[j], lng[j]);
+            edgeIds[e] = flow.addEdge(i, j, totalSurplus, Math.round(distances[e] * 1000));
+        }
+
+        flow.run(source, sink);
+
+        for (int e = 0; e < edges.size(); e++) {
+            long qty = flow.flow(edgeIds[e]);
+            if (qty <= 0) continue;
+            moves.add(new Move(edges.get(e)[0], edges.get(e)[1], (int) qty, distances[e]));
+        }
+        return moves;
+    }
+
+    private static void addPair(Set<Long> pairs, List<int[]> edges, int from, int to) {
+        if (from == to) return;
+        if (pairs.add(((long) from << 32) | to)) edges.add(new int[]{from, to});
+    }
+}
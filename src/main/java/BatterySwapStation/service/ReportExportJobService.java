@@ -0,0 +1,343 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.dto.ReportExportJobDTO;
+import BatterySwapStation.service.ReportExportService.ExportFormat;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Xuất báo cáo tổng hợp (7 sheet) chạy nền, kết quả giữ trong cache trên đĩa.
+ *
+ * - Khóa cache = (khoảng ngày, định dạng) của bộ báo cáo tổng hợp; cùng khóa đang chạy → dùng chung job,
+ *   đã có file còn hạn → trả ngay, không tạo lại.
+ * - File đặt tên theo SHA-256 nội dung (content-addressed) → hash cũng là ETag khi tải.
+ * - File hết hạn sau {@code report-export.cache-ttl-minutes} phút (số liệu khoảng ngày gần đây còn thay đổi).
+ * - Job chạy qua {@link BackgroundJobRegistry}: {@code report-export.workers} thread,
+ *   hàng đợi {@code report-export.queue-capacity} job; đầy → từ chối.
+ * - Cùng khóa đã có file còn hạn → mọi lần submit trả cùng 1 job, không sinh job mới cho mỗi lần hỏi.
+ * - File hết hạn bị xóa ở lần dọn kế tiếp; request đang đọc dở vẫn đọc tiếp được (file đã mở không mất khi bị xóa).
+ * - Index cache nằm trong bộ nhớ: khởi động lại thì xóa các file do service này tạo trong thư mục cache
+ *   ({@code <sha256>.<ext>} và {@code export-*.part}), file khác trong thư mục được giữ nguyên.
+ */
+@Service
+@Slf4j
+public class ReportExportJobService {
+
+    /** File đã tạo trong cache */
+    public record Artifact(Path file, String etag, long size, ExportFormat format, String fileName,
+                           LocalDateTime createdAt, LocalDateTime expiresAt) {
+        boolean isValid() {
+            return LocalDateTime.now().isBefore(expiresAt) && Files.exists(file);
+        }
+    }
+
+    // Tên file do service tạo: <sha256 hex>.<đuôi định dạng> hoặc file tạm export-*.part
+    private static final Pattern CACHE_FILE = Pattern.compile("[0-9a-f]{64}\\.(xlsx|csv|ndjson)|export-.*\\.part");
+
+    private final ReportExportService reportExportService;
+    private final Path cacheDir;
+    private final Duration ttl;
+    private final BackgroundJobRegistry<Job> jobs;
+
+    // khóa cache → file
+    private final Map<String, Artifact> artifacts = new ConcurrentHashMap<>();
+    // khóa cache → job đang chờ / đang chạy
+    private final Map<String, Job> inFlight = new ConcurrentHashMap<>();
+    // khóa cache → job trả về khi trúng cache (job đã tạo file, hoặc job cache-hit đầu tiên)
+    private final Map<String, Job> completed = new ConcurrentHashMap<>();
+
+    public ReportExportJobService(ReportExportService reportExportService,
+                                  @Value("${report-export.cache-dir:}") String cacheDir,
+                                  @Value("${report-export.workers:2}") int workers,
+                                  @Value("${report-export.queue-capacity:10}") int queueCapacity,
+                                  @Value("${report-export.cache-ttl-minutes:30}") long ttlMinutes,
+                                  @Value("${report-export.job-retention-minutes:60}") long retentionMinutes) {
+        this.reportExportService = reportExportService;
+        this.cacheDir = resolveCacheDir(cacheDir);
+        this.ttl = Duration.ofMinutes(ttlMinutes);
+        this.jobs = new BackgroundJobRegistry<>("report-export", workers, queueCapacity,
+                Duration.ofMinutes(retentionMinutes));
+    }
+
+    // report-export.cache-dir > EXPORT_BASE_DIR/cache > thư mục tạm hệ thống
+    private static Path resolveCacheDir(String configured) {
+        if (configured != null && !configured.isBlank()) return Paths.get(configured);
+        String env = System.getenv("EXPORT_BASE_DIR");
+        if (env != null && !env.isBlank()) return Paths.get(env, "cache");
+        return Paths.get(System.getProperty("java.io.tmpdir"), "batteryswap-report-cache");
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(cacheDir);
+        // File của lần chạy trước không còn trong index → xóa (chỉ file đúng mẫu tên cache)
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            files.filter(f -> CACHE_FILE.matcher(f.getFileName().toString()).matches())
+                    .filter(Files::isRegularFile)
+                    .forEach(this::deleteQuietly);
+        }
+        log.info("Xuất báo cáo: cache tại {}", cacheDir.toAbsolutePath());
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        jobs.shutdown();
+    }
+
+    // ==================== API ====================
+
+    /**
+     * Trả job cho (khoảng ngày, định dạng): file có sẵn → job COMPLETED ngay; đang chạy → job đó; còn lại → job mới.
+     *
+     * @throws IllegalArgumentException khoảng ngày không hợp lệ
+     * @throws RejectedExecutionException hàng đợi xuất báo cáo đang đầy
+     */
+    public ReportExportJobDTO submit(LocalDate startDate, LocalDate endDate, ExportFormat format) {
+        return submitJob(startDate, endDate, format).snapshot();
+    }
+
+    /**
+     * @return null nếu không có job (sai id hoặc đã quá hạn lưu)
+     */
+    public ReportExportJobDTO getJob(String jobId) {
+        Job job = jobs.get(jobId);
+        return job == null ? null : job.snapshot();
+    }
+
+    /**
+     * @return file của job đã xong và còn trong cache, null nếu chưa có
+     */
+    public Artifact getArtifact(String jobId) {
+        Job job = jobs.get(jobId);
+        if (job == null || !job.result.isDone() || job.result.isCompletedExceptionally()) return null;
+        Artifact artifact = job.result.join();
+        return artifact.isValid() ? artifact : null;
+    }
+
+    /**
+     * Chờ job tạo xong file, tối đa {@code timeout}.
+     *
+     * @return null nếu hết thời gian chờ (job vẫn chạy tiếp, client hỏi trạng thái theo jobId) hoặc không có job
+     * @throws ExecutionException job thất bại
+     */
+    public Artifact awaitArtifact(String jobId, Duration timeout) throws InterruptedException, ExecutionException {
+        Job job = jobs.get(jobId);
+        if (job == null) return null;
+        try {
+            Artifact artifact = job.result.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            return artifact.isValid() ? artifact : null;
+        } catch (TimeoutException e) {
+            return null;
+        }
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void evictExpired() {
+        LocalDateTime now = LocalDateTime.now();
+        for (Map.Entry<String, Artifact> entry : artifacts.entrySet()) {
+            if (now.isBefore(entry.getValue().expiresAt())) continue;
+            completed.remove(entry.getKey());
+            removeArtifact(entry.getKey(), entry.getValue());
+        }
+        jobs.evictFinished();
+    }
+
+    // ==================== JOB ====================
+
+    private Job submitJob(LocalDate startDate, LocalDate endDate, ExportFormat format) {
+        if (startDate == null || endDate == null || startDate.isAfter(endDate)) {
+            throw new IllegalArgumentException("Khoảng ngày không hợp lệ: " + startDate + " ~ " + endDate);
+        }
+        String key = cacheKey(startDate, endDate, format);
+
+        Artifact cached = artifacts.get(key);
+        if (cached != null && cached.isValid()) {
+            return completed.compute(key, (k, done) -> {
+                if (done != null && done.result.getNow(null) == cached && jobs.contains(done.id)) return done;
+                Job job = new Job(startDate, endDate, format);
+                job.completeFromCache(cached);
+                jobs.register(job);
+                return job;
+            });
+        }
+
+        Job job = new Job(startDate, endDate, format);
+        Job running = inFlight.putIfAbsent(key, job);
+        if (running != null) return running;
+
+        try {
+            jobs.submit(job, () -> run(job, key), "Đang có quá nhiều báo cáo chờ xuất, vui lòng thử lại sau");
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, job);
+            throw e;
+        }
+        return job;
+    }
+
+    private static String cacheKey(LocalDate startDate, LocalDate endDate, ExportFormat format) {
+        return startDate + "|" + endDate + "|" + format;
+    }
+
+    private void run(Job job, String key) {
+        job.start();
+        Path part = null;
+        try {
+            part = Files.createTempFile(cacheDir, "export-", ".part");
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (OutputStream out = new DigestOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(part)), digest)) {
+                reportExportService.writeAllReports(job.startDate, job.endDate, job.format, out);
+            }
+
+            String hash = HexFormat.of().formatHex(digest.digest());
+            Path target = cacheDir.resolve(hash + "." + job.format.extension());
+            LocalDateTime now = LocalDateTime.now();
+            String fileName = String.format("reports_%s_to_%s.%s", job.startDate, job.endDate, job.format.extension());
+            Artifact artifact = publish(key, part, target, hash, job.format, fileName, now);
+            part = null;
+
+            completed.put(key, job);
+            job.finish(artifact);
+            log.info("Xuất báo cáo: job {} xong – {} ({} bytes)", job.id, fileName, artifact.size());
+        } catch (Exception e) {
+            log.error("Xuất báo cáo: job {} thất bại: {}", job.id, e.getMessage(), e);
+            job.fail(e);
+        } finally {
+            inFlight.remove(key, job);
+            if (part != null) deleteQuietly(part);
+        }
+    }
+
+    /**
+     * Đưa file vào cache và index. Đồng bộ với {@link #removeArtifact} → không xóa nhầm file vừa được dùng lại
+     * (nội dung trùng với file đã có, vd. khoảng ngày cũ số liệu không đổi).
+     */
+    private synchronized Artifact publish(String key, Path part, Path target, String hash, ExportFormat format,
+                                          String fileName, LocalDateTime now) throws IOException {
+        if (Files.exists(target)) {
+            Files.delete(part);
+        } else {
+            Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Artifact artifact = new Artifact(target, hash, Files.size(target), format, fileName, now, now.plus(ttl));
+        Artifact previous = artifacts.put(key, artifact);
+        if (previous != null && !previous.file().equals(target)) {
+            deleteIfUnreferenced(previous.file());
+        }
+        return artifact;
+    }
+
+    private synchronized void removeArtifact(String key, Artifact artifact) {
+        if (artifacts.remove(key, artifact)) deleteIfUnreferenced(artifact.file());
+    }
+
+    // Nhiều khóa có thể trỏ cùng 1 file (nội dung trùng) – chỉ xóa khi không khóa nào còn dùng
+    private void deleteIfUnreferenced(Path file) {
+        boolean referenced = artifacts.values().stream().anyMatch(a -> a.file().equals(file));
+        if (!referenced) deleteQuietly(file);
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Xuất báo cáo: không xóa được {}: {}", file, e.getMessage());
+        }
+    }
+
+    // Trạng thái 1 job; thread xuất ghi, thread HTTP đọc qua snapshot() hoặc chờ result
+    private static final class Job implements BackgroundJobRegistry.TrackedJob {
+        final String id = UUID.randomUUID().toString();
+        final LocalDate startDate;
+        final LocalDate endDate;
+        final ExportFormat format;
+        final LocalDateTime createdAt = LocalDateTime.now();
+        final CompletableFuture<Artifact> result = new CompletableFuture<>();
+
+        private ReportExportJobDTO.Status status = ReportExportJobDTO.Status.QUEUED;
+        private boolean cacheHit;
+        private LocalDateTime startedAt;
+        private volatile LocalDateTime finishedAt;
+        private String message;
+
+        Job(LocalDate startDate, LocalDate endDate, ExportFormat format) {
+            this.startDate = startDate;
+            this.endDate = endDate;
+            this.format = format;
+        }
+
+        @Override
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public LocalDateTime finishedAt() {
+            return finishedAt;
+        }
+
+        synchronized void start() {
+            status = ReportExportJobDTO.Status.RUNNING;
+            startedAt = LocalDateTime.now();
+        }
+
+        synchronized void completeFromCache(Artifact artifact) {
+            cacheHit = true;
+            startedAt = createdAt;
+            finish(artifact);
+        }
+
+        synchronized void finish(Artifact artifact) {
+            status = ReportExportJobDTO.Status.COMPLETED;
+            finishedAt = LocalDateTime.now();
+            result.complete(artifact);
+        }
+
+        synchronized void fail(Exception e) {
+            status = ReportExportJobDTO.Status.FAILED;
+            message = e.getMessage();
+            finishedAt = LocalDateTime.now();
+            result.completeExceptionally(e);
+        }
+
+        synchronized ReportExportJobDTO snapshot() {
+            Artifact artifact = result.isDone() && !result.isCompletedExceptionally() ? result.join() : null;
+            return ReportExportJobDTO.builder()
+                    .jobId(id)
+                    .status(status)
+                    .startDate(startDate)
+                    .endDate(endDate)
+                    .format(format.name().toLowerCase())
+                    .cacheHit(cacheHit)
+                    .etag(artifact != null ? artifact.etag() : null)
+                    .sizeBytes(artifact != null ? artifact.size() : null)
+                    .fileName(artifact != null ? artifact.fileName() : null)
+                    .message(message)
+                    .createdAt(createdAt)
+                    .startedAt(startedAt)
+                    .finishedAt(finishedAt)
+                    .expiresAt(artifact != null ? artifact.expiresAt() : null)
+                    .build();
+        }
+    }
+}
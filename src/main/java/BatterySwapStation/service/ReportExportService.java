@@ -4,35 +4,111 @@ import BatterySwapStation.entity.Report;
 import BatterySwapStation.repository.ReportRepository;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.io.*;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Xuất báo cáo ra Excel / CSV / NDJSON, ghi thẳng vào OutputStream.
+ *
+ * Excel dùng SXSSF: chỉ {@link #ROW_WINDOW} dòng gần nhất nằm trong heap, phần còn lại được đẩy ra file tạm (nén).
+ * Độ rộng cột ước lượng từ tiêu đề và {@link #WIDTH_SAMPLE_ROWS} dòng đầu thay vì autoSizeColumn
+ * (autoSize đo lại toàn bộ cell và không dùng được khi dòng cũ đã bị đẩy ra đĩa).
+ *
+ * File tổng hợp: 4 sheet doanh thu / swap (lớn dần theo khoảng ngày) đọc bằng Stream trên con trỏ DB
+ * và ghi ngay từng dòng, nên không giữ cả danh sách dòng của sheet. Các sheet còn lại nhỏ (theo số trạm)
+ * vẫn lấy qua ReportService. Xuất file không lưu snapshot Report cho 4 sheet stream.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ReportExportService {
 
+    private static final int ROW_WINDOW = 100;
+    private static final int WIDTH_SAMPLE_ROWS = 100;
+    private static final int MIN_COLUMN_CHARS = 8;
+    private static final int MAX_COLUMN_CHARS = 100;
+    // Báo cáo "Tất cả trạm" trong file tổng hợp luôn lấy 7 ngày gần nhất
+    private static final int ALL_STATIONS_DAYS = 7;
+
     private final ReportService reportService;
     private final ReportRepository reportRepository;
+    private final ReportWriteService reportWriteService;
+    private final PlatformTransactionManager transactionManager;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public byte[] exportReportToExcel(Long reportId) throws Exception {
-        Report report = reportRepository.findById(reportId)
+    private TransactionTemplate readOnlyTx;
+
+    @PostConstruct
+    void initTransactionTemplate() {
+        readOnlyTx = new TransactionTemplate(transactionManager);
+        readOnlyTx.setReadOnly(true);
+    }
+
+    public enum ExportFormat {
+        XLSX("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "xlsx"),
+        CSV("text/csv; charset=UTF-8", "csv"),
+        NDJSON("application/x-ndjson", "ndjson");
+
+        private final String contentType;
+        private final String extension;
+
+        ExportFormat(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+
+        public String extension() {
+            return extension;
+        }
+
+        // null / rỗng → XLSX
+        public static ExportFormat from(String value) {
+            if (value == null || value.isBlank()) return XLSX;
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Định dạng xuất không hợp lệ: " + value + " (xlsx | csv | ndjson)");
+            }
+        }
+    }
+
+    // ==================== 1 REPORT ĐÃ LƯU ====================
+
+    public Report getReport(Long reportId) {
+        return reportRepository.findById(reportId)
                 .orElseThrow(() -> new IllegalArgumentException("Report not found: " + reportId));
+    }
 
+    public byte[] exportReportToExcel(Long reportId) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeReport(getReport(reportId), ExportFormat.XLSX, out);
+        return out.toByteArray();
+    }
+
+    public void writeReport(Report report, ExportFormat format, OutputStream out) throws IOException {
         // detailedData có dạng {"summary": {...}, "rows": [...]}
         Map<String, Object> data = objectMapper.readValue(
-                report.getDetailedData(), new TypeReference<Map<String, Object>>() {}
+                reportWriteService.readDetailedData(report), new TypeReference<Map<String, Object>>() {}
         );
 
         // parse rows -> giữ LinkedHashMap để không mất thứ tự khi cần
@@ -40,8 +116,38 @@ public class ReportExportService {
         List<LinkedHashMap<String, Object>> rows =
                 (List<LinkedHashMap<String, Object>>) data.getOrDefault("rows", List.of());
 
-        try (Workbook wb = new XSSFWorkbook()) {
-            Sheet sheet = wb.createSheet("Report Data");
+        // ====== Header theo loại report ======
+        List<String> headers = headersFor(report.getReportType(), rows);
+
+        switch (format) {
+            case CSV -> {
+                Writer w = csvWriter(out);
+                writeCsvLine(w, headers);
+                for (Map<String, Object> row : rows) {
+                    List<Object> values = new ArrayList<>(headers.size());
+                    for (String key : headers) values.add(row.get(key));
+                    writeCsvLine(w, values);
+                }
+                w.flush();
+            }
+            case NDJSON -> {
+                for (Map<String, Object> row : rows) {
+                    Map<String, Object> line = new LinkedHashMap<>();
+                    for (String key : headers) line.put(key, row.get(key));
+                    writeNdjsonLine(out, line);
+                }
+                out.flush();
+            }
+            default -> writeReportXlsx(report, headers, rows, out);
+        }
+    }
+
+    private void writeReportXlsx(Report report, List<String> headers, List<LinkedHashMap<String, Object>> rows,
+                                 OutputStream out) throws IOException {
+        SXSSFWorkbook wb = new SXSSFWorkbook(ROW_WINDOW);
+        wb.setCompressTempFiles(true);
+        try {
+            SXSSFSheet sheet = wb.createSheet("Report Data");
 
             // ====== Styles ======
             DataFormat df = wb.createDataFormat();
@@ -62,9 +168,6 @@ public class ReportExportService {
             CellStyle percentStyle = wb.createCellStyle();
             percentStyle.setDataFormat(df.getFormat("0.00%"));
 
-            // ====== Header theo loại report ======
-            List<String> headers = headersFor(report.getReportType(), rows);
-
             // Thông tin meta trên 2 dòng đầu (tuỳ chọn)
             int r = 0;
             Row meta1 = sheet.createRow(r++);
@@ -88,6 +191,8 @@ public class ReportExportService {
             // Dòng trống
             r++;
 
+            setColumnWidths(sheet, headers, headers, rows);
+
             // ====== Header row ======
             Row headerRow = sheet.createRow(r++);
             for (int c = 0; c < headers.size(); c++) {
@@ -107,18 +212,10 @@ public class ReportExportService {
                 }
             }
 
-            // autosize
-            for (int c = 0; c < headers.size(); c++) {
-                sheet.autoSizeColumn(c);
-                // giới hạn width để tránh quá to
-                int max = 100 * 256;
-                if (sheet.getColumnWidth(c) > max) sheet.setColumnWidth(c, max);
-            }
-
-            try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-                wb.write(out);
-                return out.toByteArray();
-            }
+            wb.write(out);
+        } finally {
+            wb.dispose();
+            wb.close();
         }
     }
 
@@ -184,241 +281,331 @@ public class ReportExportService {
         cell.setCellValue(String.valueOf(v));
     }
 
+    // ==================== FILE TỔNG HỢP NHIỀU SHEET ====================
 
-    public byte[] exportAllReportsToExcel(LocalDate startDate, LocalDate endDate) throws IOException {
-        Workbook workbook = new XSSFWorkbook();
-
-        try {
-            // Sheet 1: Báo cáo hiệu suất trạm hôm nay
-            createStationPerformanceSheet(workbook);
-
-            // Sheet 2: Báo cáo doanh thu hàng giờ
-            createRevenueHourlySheet(workbook, startDate, endDate);
+    private enum Kind { TEXT, INT, MONEY, PERCENT, AUTO }
 
-            // Sheet 3: Báo cáo doanh thu hàng ngày
-            createRevenueDailySheet(workbook, startDate, endDate);
+    private record Column(String key, String header, Kind kind) {}
 
-            // Sheet 4: Báo cáo đổi pin hàng giờ
-            createSwapHourlySheet(workbook, startDate, endDate);
+    // rows được mở lúc ghi tới sheet đó, trong 1 transaction chỉ đọc riêng cho sheet (xem forEachRow)
+    private record SheetSpec(String id, String name, List<Column> columns, Supplier<Stream<Map<String, Object>>> rows) {}
 
-            // Sheet 5: Báo cáo đổi pin hàng ngày
-            createSwapDailySheet(workbook, startDate, endDate);
+    @FunctionalInterface
+    private interface RowWriter {
+        void write(Map<String, Object> row) throws IOException;
+    }
 
-            // Sheet 6: Báo cáo tổng hợp
-            createSummarySheet(workbook);
+    public byte[] exportAllReportsToExcel(LocalDate startDate, LocalDate endDate) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeAllReports(startDate, endDate, ExportFormat.XLSX, out);
+        return out.toByteArray();
+    }
 
-            // Sheet 7: Báo cáo tất cả trạm
-            createAllStationsSheet(workbook, 7);
+    /**
+     * XLSX: mỗi báo cáo 1 sheet. CSV: các khối "sheet,&lt;cột&gt;" cách nhau 1 dòng trống.
+     * NDJSON: mỗi dòng dữ liệu 1 JSON có thêm trường "sheet".
+     */
+    public void writeAllReports(LocalDate startDate, LocalDate endDate, ExportFormat format, OutputStream out) throws IOException {
+        List<SheetSpec> sheets = allReportSheets(startDate, endDate);
+        switch (format) {
+            case CSV -> writeSheetsCsv(sheets, out);
+            case NDJSON -> writeSheetsNdjson(sheets, out);
+            default -> writeSheetsXlsx(sheets, out);
+        }
+    }
 
-            // Write to byte array
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            workbook.write(outputStream);
-            return outputStream.toByteArray();
+    private List<SheetSpec> allReportSheets(LocalDate startDate, LocalDate endDate) {
+        return List.of(
+                // Sheet 1: Báo cáo hiệu suất trạm hôm nay
+                new SheetSpec("stationPerformance", "Hiệu suất trạm hôm nay", List.of(
+                        new Column("stationId", "ID Trạm", Kind.TEXT),
+                        new Column("stationName", "Tên trạm", Kind.TEXT),
+                        new Column("address", "Địa chỉ", Kind.TEXT),
+                        new Column("managedBatteries", "Số pin quản lý", Kind.INT),
+                        new Column("totalTransactions", "Số giao dịch", Kind.INT),
+                        new Column("totalRevenue", "Doanh thu", Kind.MONEY),
+                        new Column("efficiencyRate", "Tỷ lệ sử dụng (%)", Kind.PERCENT)),
+                        () -> reportService.getStationPerformanceReport().stream()),
+
+                // Sheet 2: Báo cáo doanh thu hàng giờ
+                new SheetSpec("revenue_hourly", "Doanh thu theo giờ", List.of(
+                        new Column("date", "Ngày", Kind.TEXT),
+                        new Column("hour", "Giờ", Kind.TEXT),
+                        new Column("totalRevenue", "Doanh thu", Kind.MONEY),
+                        new Column("transactions", "Số giao dịch", Kind.INT)),
+                        () -> reportRepository.streamHourlyRevenue(startDate, endDate)),
+
+                // Sheet 3: Báo cáo doanh thu hàng ngày
+                new SheetSpec("revenue_daily", "Doanh thu theo ngày", List.of(
+                        new Column("date", "Ngày", Kind.TEXT),
+                        new Column("totalRevenue", "Doanh thu", Kind.MONEY),
+                        new Column("transactions", "Số giao dịch", Kind.INT)),
+                        () -> reportRepository.streamDailyRevenue(startDate, endDate)),
+
+                // Sheet 4: Báo cáo đổi pin hàng giờ
+                new SheetSpec("swap_hourly", "Đổi pin theo giờ", List.of(
+                        new Column("date", "Ngày", Kind.TEXT),
+                        new Column("hour", "Giờ", Kind.TEXT),
+                        new Column("swapCount", "Số lần đổi pin", Kind.INT),
+                        new Column("stationId", "Trạm", Kind.TEXT)),
+                        () -> reportRepository.streamHourlySwap(startDate, endDate)),
+
+                // Sheet 5: Báo cáo đổi pin hàng ngày
+                new SheetSpec("swap_daily", "Đổi pin theo ngày", List.of(
+                        new Column("date", "Ngày", Kind.TEXT),
+                        new Column("swapCount", "Số lần đổi pin", Kind.INT),
+                        new Column("stationId", "Trạm", Kind.TEXT)),
+                        () -> reportRepository.streamDailySwap(startDate, endDate)),
+
+                // Sheet 6: Báo cáo tổng hợp
+                new SheetSpec("summary", "Tổng hợp", List.of(
+                        new Column("metric", "Chỉ số", Kind.TEXT),
+                        new Column("value", "Giá trị", Kind.AUTO)),
+                        () -> summaryRows().stream()),
+
+                // Sheet 7: Báo cáo tất cả trạm
+                new SheetSpec("stations", "Tất cả trạm", List.of(
+                        new Column("stationId", "ID Trạm", Kind.TEXT),
+                        new Column("stationName", "Tên trạm", Kind.TEXT),
+                        new Column("rangeStart", "Range Start", Kind.TEXT),
+                        new Column("rangeEnd", "Range End", Kind.TEXT),
+                        new Column("totalSwaps", "Số lần đổi pin", Kind.INT),
+                        new Column("totalRevenue", "Doanh thu", Kind.MONEY)),
+                        () -> allStationRows().stream())
+        );
+    }
 
-        } finally {
-            workbook.close();
+    private List<Map<String, Object>> summaryRows() {
+        Map<String, Object> data = reportService.getSummary();
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (String metric : List.of("totalReports", "lastGenerated")) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("metric", metric);
+            row.put("value", data.get(metric));
+            rows.add(row);
         }
+        return rows;
     }
 
-    private void createStationPerformanceSheet(Workbook workbook) {
-        Sheet sheet = workbook.createSheet("Hiệu suất trạm hôm nay");
-        var data = reportService.getStationPerformanceReport();
-
-        // Header
-        Row headerRow = sheet.createRow(0);
-        headerRow.createCell(0).setCellValue("ID Trạm");
-        headerRow.createCell(1).setCellValue("Tên trạm");
-        headerRow.createCell(2).setCellValue("Địa chỉ");
-        headerRow.createCell(3).setCellValue("Số pin quản lý");
-        headerRow.createCell(4).setCellValue("Số giao dịch");
-        headerRow.createCell(5).setCellValue("Doanh thu");
-        headerRow.createCell(6).setCellValue("Tỷ lệ sử dụng (%)");
-
-        // create percent style
-        CellStyle percentStyle = workbook.createCellStyle();
-        DataFormat df = workbook.createDataFormat();
-        percentStyle.setDataFormat(df.getFormat("0.00%"));
-
-        if (data instanceof List) {
-            @SuppressWarnings("unchecked")
-            List<Map<String, Object>> stations = (List<Map<String, Object>>) data;
-            int rowNum = 1;
-            for (Map<String, Object> st : stations) {
-                Row row = sheet.createRow(rowNum++);
-                row.createCell(0).setCellValue(st.getOrDefault("stationId", "").toString());
-                row.createCell(1).setCellValue(st.getOrDefault("stationName", "").toString());
-                row.createCell(2).setCellValue(st.getOrDefault("address", "").toString());
-                row.createCell(3).setCellValue(((Number) st.getOrDefault("managedBatteries", 0)).longValue());
-                row.createCell(4).setCellValue(((Number) st.getOrDefault("totalTransactions", 0)).longValue());
-                Object rev = st.getOrDefault("totalRevenue", 0);
-                row.createCell(5).setCellValue(((Number) rev).doubleValue());
-
-                // efficiencyRate is stored as 0..100 in DB/sql — convert to 0..1 for Excel percent format
-                Object effObj = st.getOrDefault("efficiencyRate", 0);
-                double effVal = 0.0;
-                try {
-                    effVal = (effObj instanceof Number) ? ((Number) effObj).doubleValue() : Double.parseDouble(String.valueOf(effObj));
-                } catch (Exception ex) {
-                    effVal = 0.0;
-                }
-                Cell effCell = row.createCell(6);
-                effCell.setCellValue(effVal / 100.0);
-                effCell.setCellStyle(percentStyle);
+    // Phẳng hóa range {start, end} thành 2 cột
+    private List<Map<String, Object>> allStationRows() {
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> stations = (List<Map<String, Object>>) reportService.getStationReport(ALL_STATIONS_DAYS)
+                .getOrDefault("stations", List.of());
+        List<Map<String, Object>> rows = new ArrayList<>(stations.size());
+        for (Map<String, Object> st : stations) {
+            Map<String, Object> row = new LinkedHashMap<>(st);
+            if (st.get("range") instanceof Map<?, ?> rg) {
+                row.put("rangeStart", rg.get("start"));
+                row.put("rangeEnd", rg.get("end"));
             }
+            rows.add(row);
         }
-
-        // Auto-size columns
-        for (int i = 0; i <= 6; i++) sheet.autoSizeColumn(i);
+        return rows;
     }
 
-    private void createRevenueHourlySheet(Workbook workbook, LocalDate startDate, LocalDate endDate) {
-        Sheet sheet = workbook.createSheet("Doanh thu theo giờ");
-        var data = reportService.getRevenueReport(startDate, endDate, true);
+    private void writeSheetsXlsx(List<SheetSpec> sheets, OutputStream out) throws IOException {
+        SXSSFWorkbook wb = new SXSSFWorkbook(ROW_WINDOW);
+        wb.setCompressTempFiles(true);
+        try {
+            CellStyle headerStyle = createHeaderStyle(wb);
+            DataFormat df = wb.createDataFormat();
+            Map<Kind, CellStyle> styles = new EnumMap<>(Kind.class);
+            CellStyle intStyle = wb.createCellStyle();
+            intStyle.setDataFormat(df.getFormat("0"));
+            styles.put(Kind.INT, intStyle);
+            CellStyle moneyStyle = wb.createCellStyle();
+            moneyStyle.setDataFormat(df.getFormat("#,##0"));
+            styles.put(Kind.MONEY, moneyStyle);
+            CellStyle percentStyle = wb.createCellStyle();
+            percentStyle.setDataFormat(df.getFormat("0.00%"));
+            styles.put(Kind.PERCENT, percentStyle);
+
+            for (SheetSpec spec : sheets) {
+                SXSSFSheet sheet = wb.createSheet(spec.name());
+                List<Column> columns = spec.columns();
+
+                // Độ rộng cột: tiêu đề + WIDTH_SAMPLE_ROWS dòng đầu, đặt khi đủ mẫu hoặc hết dữ liệu
+                int[] widthChars = new int[columns.size()];
+                Row headerRow = sheet.createRow(0);
+                for (int c = 0; c < columns.size(); c++) {
+                    Cell cell = headerRow.createCell(c);
+                    cell.setCellValue(columns.get(c).header());
+                    cell.setCellStyle(headerStyle);
+                    widthChars[c] = columns.get(c).header().length();
+                }
 
-        Row headerRow = sheet.createRow(0);
-        headerRow.createCell(0).setCellValue("Ngày");
-        headerRow.createCell(1).setCellValue("Giờ");
-        headerRow.createCell(2).setCellValue("Doanh thu");
-        headerRow.createCell(3).setCellValue("Số giao dịch");
+                int[] r = {1};
+                forEachRow(spec, rec -> {
+                    Row row = sheet.createRow(r[0]);
+                    for (int c = 0; c < columns.size(); c++) {
+                        Column col = columns.get(c);
+                        Object v = rec.get(col.key());
+                        setTypedCellValue(row.createCell(c), v, col.kind(), styles);
+                        if (r[0] <= WIDTH_SAMPLE_ROWS && v != null) {
+                            widthChars[c] = Math.max(widthChars[c], String.valueOf(v).length());
+                        }
+                    }
+                    if (r[0]++ == WIDTH_SAMPLE_ROWS) applyColumnWidths(sheet, widthChars);
+                });
+                if (r[0] <= WIDTH_SAMPLE_ROWS) applyColumnWidths(sheet, widthChars);
+            }
 
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> rows = (List<Map<String, Object>>) ((Map<String, Object>) data).getOrDefault("rows", List.of());
-        int r = 1;
-        for (Map<String, Object> rec : rows) {
-            Row row = sheet.createRow(r++);
-            row.createCell(0).setCellValue(String.valueOf(rec.getOrDefault("date", "")));
-            row.createCell(1).setCellValue(String.valueOf(rec.getOrDefault("hour", "")));
-            Object rev = rec.getOrDefault("totalRevenue", 0);
-            row.createCell(2).setCellValue(((Number) rev).doubleValue());
-            row.createCell(3).setCellValue(((Number) rec.getOrDefault("transactions", 0)).longValue());
+            wb.write(out);
+        } finally {
+            wb.dispose();
+            wb.close();
         }
-
-        for (int i = 0; i < 4; i++) sheet.autoSizeColumn(i);
     }
 
-    private void createRevenueDailySheet(Workbook workbook, LocalDate startDate, LocalDate endDate) {
-        Sheet sheet = workbook.createSheet("Doanh thu theo ngày");
-        var data = reportService.getRevenueReport(startDate, endDate, false);
-
-        Row headerRow = sheet.createRow(0);
-        headerRow.createCell(0).setCellValue("Ngày");
-        headerRow.createCell(1).setCellValue("Doanh thu");
-        headerRow.createCell(2).setCellValue("Số giao dịch");
-
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> rows = (List<Map<String, Object>>) ((Map<String, Object>) data).getOrDefault("rows", List.of());
-        int r = 1;
-        for (Map<String, Object> rec : rows) {
-            Row row = sheet.createRow(r++);
-            row.createCell(0).setCellValue(String.valueOf(rec.getOrDefault("date", "")));
-            Object rev = rec.getOrDefault("totalRevenue", 0);
-            row.createCell(1).setCellValue(((Number) rev).doubleValue());
-            row.createCell(2).setCellValue(((Number) rec.getOrDefault("transactions", 0)).longValue());
+    private void setTypedCellValue(Cell cell, Object v, Kind kind, Map<Kind, CellStyle> styles) {
+        if (v == null) {
+            cell.setCellValue("");
+            return;
+        }
+        Double number = toNumber(v);
+        switch (kind) {
+            case INT, MONEY -> {
+                if (number == null) {
+                    cell.setCellValue(String.valueOf(v));
+                    return;
+                }
+                cell.setCellValue(number);
+                cell.setCellStyle(styles.get(kind));
+            }
+            case PERCENT -> {
+                // efficiencyRate lưu dạng 0..100 → 0..1 cho định dạng % của Excel
+                cell.setCellValue(number == null ? 0.0 : number / 100.0);
+                cell.setCellStyle(styles.get(kind));
+            }
+            case AUTO -> {
+                if (v instanceof Number n) cell.setCellValue(n.doubleValue());
+                else cell.setCellValue(String.valueOf(v));
+            }
+            default -> cell.setCellValue(String.valueOf(v));
         }
-
-        for (int i = 0; i < 3; i++) sheet.autoSizeColumn(i);
     }
 
-    private void createSwapHourlySheet(Workbook workbook, LocalDate startDate, LocalDate endDate) {
-        Sheet sheet = workbook.createSheet("Đổi pin theo giờ");
-        var data = reportService.getSwapReport(startDate, endDate, true);
-
-        Row headerRow = sheet.createRow(0);
-        headerRow.createCell(0).setCellValue("Ngày");
-        headerRow.createCell(1).setCellValue("Giờ");
-        headerRow.createCell(2).setCellValue("Số lần đổi pin");
-        headerRow.createCell(3).setCellValue("Trạm");
-
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> rows = (List<Map<String, Object>>) ((Map<String, Object>) data).getOrDefault("rows", List.of());
-        int r = 1;
-        for (Map<String, Object> rec : rows) {
-            Row row = sheet.createRow(r++);
-            row.createCell(0).setCellValue(String.valueOf(rec.getOrDefault("date", "")));
-            row.createCell(1).setCellValue(String.valueOf(rec.getOrDefault("hour", "")));
-            row.createCell(2).setCellValue(((Number) rec.getOrDefault("swapCount", 0)).longValue());
-            row.createCell(3).setCellValue(String.valueOf(rec.getOrDefault("stationId", "")));
+    private static Double toNumber(Object v) {
+        if (v instanceof Number n) return n.doubleValue();
+        try {
+            return Double.parseDouble(String.valueOf(v));
+        } catch (NumberFormatException e) {
+            return null;
         }
-
-        for (int i = 0; i < 4; i++) sheet.autoSizeColumn(i);
     }
 
-    private void createSwapDailySheet(Workbook workbook, LocalDate startDate, LocalDate endDate) {
-        Sheet sheet = workbook.createSheet("Đổi pin theo ngày");
-        var data = reportService.getSwapReport(startDate, endDate, false);
-
-        Row headerRow = sheet.createRow(0);
-        headerRow.createCell(0).setCellValue("Ngày");
-        headerRow.createCell(1).setCellValue("Số lần đổi pin");
-        headerRow.createCell(2).setCellValue("Trạm");
-
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> rows = (List<Map<String, Object>>) ((Map<String, Object>) data).getOrDefault("rows", List.of());
-        int r = 1;
-        for (Map<String, Object> rec : rows) {
-            Row row = sheet.createRow(r++);
-            row.createCell(0).setCellValue(String.valueOf(rec.getOrDefault("date", "")));
-            row.createCell(1).setCellValue(((Number) rec.getOrDefault("swapCount", 0)).longValue());
-            row.createCell(2).setCellValue(String.valueOf(rec.getOrDefault("stationId", "")));
+    private void writeSheetsCsv(List<SheetSpec> sheets, OutputStream out) throws IOException {
+        Writer w = csvWriter(out);
+        boolean first = true;
+        for (SheetSpec spec : sheets) {
+            if (!first) w.write("\r\n");
+            first = false;
+
+            List<Object> header = new ArrayList<>();
+            header.add("sheet");
+            for (Column col : spec.columns()) header.add(col.key());
+            writeCsvLine(w, header);
+
+            forEachRow(spec, rec -> {
+                List<Object> values = new ArrayList<>();
+                values.add(spec.id());
+                for (Column col : spec.columns()) values.add(rec.get(col.key()));
+                writeCsvLine(w, values);
+            });
+            // Đẩy từng sheet ra client ngay, không chờ hết file
+            w.flush();
         }
-
-        for (int i = 0; i < 3; i++) sheet.autoSizeColumn(i);
     }
 
-    private void createSummarySheet(Workbook workbook) {
-        Sheet sheet = workbook.createSheet("Tổng hợp");
-        var data = reportService.getSummary();
-
-        Row headerRow = sheet.createRow(0);
-        headerRow.createCell(0).setCellValue("Chỉ số");
-        headerRow.createCell(1).setCellValue("Giá trị");
-
-        int r = 1;
-        sheet.createRow(r++).createCell(0).setCellValue("totalReports");
-        sheet.getRow(r-1).createCell(1).setCellValue(((Number) data.getOrDefault("totalReports", 0)).longValue());
+    private void writeSheetsNdjson(List<SheetSpec> sheets, OutputStream out) throws IOException {
+        for (SheetSpec spec : sheets) {
+            forEachRow(spec, rec -> {
+                Map<String, Object> line = new LinkedHashMap<>();
+                line.put("sheet", spec.id());
+                for (Column col : spec.columns()) {
+                    Object v = rec.get(col.key());
+                    line.put(col.key(), v == null || v instanceof Number ? v : String.valueOf(v));
+                }
+                writeNdjsonLine(out, line);
+            });
+            out.flush();
+        }
+    }
 
-        sheet.createRow(r++).createCell(0).setCellValue("lastGenerated");
-        sheet.getRow(r-1).createCell(1).setCellValue(String.valueOf(data.getOrDefault("lastGenerated", "")));
+    /**
+     * Ghi từng dòng của sheet ngay khi đọc được từ con trỏ DB; Stream chỉ sống trong transaction chỉ đọc
+     * của sheet đó nên heap không giữ toàn bộ dòng của sheet.
+     */
+    private void forEachRow(SheetSpec spec, RowWriter writer) throws IOException {
+        try {
+            readOnlyTx.executeWithoutResult(status -> {
+                try (Stream<Map<String, Object>> rows = spec.rows().get()) {
+                    rows.forEach(row -> {
+                        try {
+                            writer.write(row);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
 
-        for (int i = 0; i < 2; i++) sheet.autoSizeColumn(i);
+    // ==================== TIỆN ÍCH ====================
+
+    // Ước lượng độ rộng theo tiêu đề + vài dòng đầu (đơn vị 1/256 ký tự)
+    private void setColumnWidths(Sheet sheet, List<String> headers, List<String> keys,
+                                 List<? extends Map<String, Object>> rows) {
+        int sample = Math.min(rows.size(), WIDTH_SAMPLE_ROWS);
+        for (int c = 0; c < headers.size(); c++) {
+            int chars = headers.get(c).length();
+            for (int i = 0; i < sample; i++) {
+                Object v = rows.get(i).get(keys.get(c));
+                if (v != null) chars = Math.max(chars, String.valueOf(v).length());
+            }
+            chars = Math.max(MIN_COLUMN_CHARS, Math.min(MAX_COLUMN_CHARS, chars + 2));
+            sheet.setColumnWidth(c, chars * 256);
+        }
     }
 
-    private void createAllStationsSheet(Workbook workbook, int days) {
-        Sheet sheet = workbook.createSheet("Tất cả trạm");
-        Map<String, Object> data = reportService.getStationReport(days);
+    private static void applyColumnWidths(Sheet sheet, int[] widthChars) {
+        for (int c = 0; c < widthChars.length; c++) {
+            int chars = Math.max(MIN_COLUMN_CHARS, Math.min(MAX_COLUMN_CHARS, widthChars[c] + 2));
+            sheet.setColumnWidth(c, chars * 256);
+        }
+    }
 
-        Row headerRow = sheet.createRow(0);
-        headerRow.createCell(0).setCellValue("ID Trạm");
-        headerRow.createCell(1).setCellValue("Tên trạm");
-        headerRow.createCell(2).setCellValue("Range Start");
-        headerRow.createCell(3).setCellValue("Range End");
-        headerRow.createCell(4).setCellValue("Số lần đổi pin");
-        headerRow.createCell(5).setCellValue("Doanh thu");
+    // BOM để Excel mở CSV UTF-8 không lỗi font tiếng Việt
+    private static Writer csvWriter(OutputStream out) throws IOException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        w.write('\uFEFF');
+        return w;
+    }
 
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> stations = (List<Map<String, Object>>) data.getOrDefault("stations", List.of());
-        int r = 1;
-        for (Map<String, Object> st : stations) {
-            Row row = sheet.createRow(r++);
-            row.createCell(0).setCellValue(String.valueOf(st.getOrDefault("stationId", "")));
-            row.createCell(1).setCellValue(String.valueOf(st.getOrDefault("stationName", "")));
-
-            Object range = st.getOrDefault("range", Map.of());
-            if (range instanceof Map) {
-                @SuppressWarnings("unchecked")
-                Map<String, Object> rg = (Map<String, Object>) range;
-                row.createCell(2).setCellValue(String.valueOf(rg.getOrDefault("start", "")));
-                row.createCell(3).setCellValue(String.valueOf(rg.getOrDefault("end", "")));
+    private static void writeCsvLine(Writer w, List<?> values) throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) w.write(',');
+            Object v = values.get(i);
+            if (v == null) continue;
+            String s = String.valueOf(v);
+            if (s.indexOf(',') >= 0 || s.indexOf('"') >= 0 || s.indexOf('\n') >= 0 || s.indexOf('\r') >= 0) {
+                w.write('"');
+                w.write(s.replace("\"", "\"\""));
+                w.write('"');
             } else {
-                row.createCell(2).setCellValue("");
-                row.createCell(3).setCellValue("");
+                w.write(s);
             }
-
-            row.createCell(4).setCellValue(((Number) st.getOrDefault("totalSwaps", 0)).longValue());
-            row.createCell(5).setCellValue(((Number) st.getOrDefault("totalRevenue", 0)).doubleValue());
         }
+        w.write("\r\n");
+    }
 
-        for (int i = 0; i <= 5; i++) sheet.autoSizeColumn(i);
+    private void writeNdjsonLine(OutputStream out, Map<String, Object> line) throws IOException {
+        out.write(objectMapper.writeValueAsBytes(line));
+        out.write('\n');
     }
 
     // Style helper method
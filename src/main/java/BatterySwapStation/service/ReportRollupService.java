@@ -0,0 +1,165 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.repository.ReportRollupRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Duy trì bảng ReportHourlyRollup / ReportDailyRollup để báo cáo đọc bucket thay vì GROUP BY trên bảng gốc.
+ *
+ * - ReportRollupListener đánh dấu giờ bị ảnh hưởng sau mỗi commit có swap / payment / hóa đơn thay đổi;
+ *   mỗi {@code report-rollup.flush-interval-ms} các giờ đó được tính lại (xóa + chèn từ bảng gốc),
+ *   rồi cộng lại ngày tương ứng.
+ * - Mỗi đêm tính lại {@code report-rollup.correction-days} ngày gần nhất: bắt dữ liệu đến trễ / sửa tay trong DB
+ *   và các đánh dấu bị mất khi instance restart.
+ * - Lần khởi động đầu (bảng rỗng) tự backfill toàn bộ lịch sử trên thread nền.
+ */
+@Service
+@Slf4j
+public class ReportRollupService {
+
+    private final ReportRollupRepository rollupRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int correctionDays;
+
+    private final Set<LocalDateTime> dirtyHours = ConcurrentHashMap.newKeySet();
+    private final Set<Long> dirtyInvoices = ConcurrentHashMap.newKeySet();
+    // Flush, sửa đêm và backfill không ghi chồng cùng 1 khoảng trong instance này
+    private final ReentrantLock recomputeLock = new ReentrantLock();
+
+    public ReportRollupService(ReportRollupRepository rollupRepository,
+                               TransactionTemplate transactionTemplate,
+                               @Value("${report-rollup.correction-days:3}") int correctionDays) {
+        this.rollupRepository = rollupRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.correctionDays = correctionDays;
+    }
+
+    // ==================== ĐÁNH DẤU ====================
+
+    public void markHour(LocalDateTime time) {
+        if (time != null) dirtyHours.add(time.truncatedTo(ChronoUnit.HOURS));
+    }
+
+    public void markInvoice(Long invoiceId) {
+        if (invoiceId != null) dirtyInvoices.add(invoiceId);
+    }
+
+    @Scheduled(fixedDelayString = "${report-rollup.flush-interval-ms:5000}")
+    public void flushDirty() {
+        if (dirtyHours.isEmpty() && dirtyInvoices.isEmpty()) return;
+
+        Set<LocalDateTime> hours = drain(dirtyHours);
+        Set<Long> invoices = drain(dirtyInvoices);
+        try {
+            if (!invoices.isEmpty()) {
+                for (LocalDateTime created : rollupRepository.findInvoiceCreatedDates(invoices)) {
+                    hours.add(created.truncatedTo(ChronoUnit.HOURS));
+                }
+            }
+
+            recomputeLock.lock();
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    SortedSet<LocalDate> days = new TreeSet<>();
+                    for (LocalDateTime hour : hours) {
+                        rollupRepository.deleteHourly(hour, hour.plusHours(1));
+                        rollupRepository.insertHourly(hour, hour.plusHours(1));
+                        days.add(hour.toLocalDate());
+                    }
+                    for (LocalDate day : days) {
+                        rollupRepository.deleteDaily(day, day);
+                        rollupRepository.insertDaily(day, day);
+                    }
+                });
+            } finally {
+                recomputeLock.unlock();
+            }
+        } catch (Exception e) {
+            // Trả lại đánh dấu để lần sau tính lại
+            dirtyHours.addAll(hours);
+            dirtyInvoices.addAll(invoices);
+            log.warn("[ROLLUP] Tính lại {} giờ thất bại, thử lại lần sau: {}", hours.size(), e.getMessage());
+        }
+    }
+
+    private static <T> Set<T> drain(Set<T> source) {
+        Set<T> drained = new HashSet<>();
+        for (Iterator<T> it = source.iterator(); it.hasNext(); ) {
+            drained.add(it.next());
+            it.remove();
+        }
+        return drained;
+    }
+
+    // ==================== BACKFILL ====================
+
+    @Scheduled(cron = "${report-rollup.correction-cron:0 30 2 * * *}")
+    public void correctRecentDays() {
+        LocalDate today = LocalDate.now();
+        int days = backfill(today.minusDays(correctionDays), today);
+        log.info("[ROLLUP] Đã tính lại {} ngày gần nhất", days);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillIfEmpty() {
+        if (rollupRepository.count() > 0) return;
+
+        LocalDateTime invoiceStart = rollupRepository.findEarliestInvoiceDate();
+        LocalDateTime swapStart = rollupRepository.findEarliestSwapTime();
+        LocalDateTime earliest = invoiceStart == null ? swapStart
+                : swapStart == null ? invoiceStart
+                : invoiceStart.isBefore(swapStart) ? invoiceStart : swapStart;
+        if (earliest == null) return;
+
+        LocalDate from = earliest.toLocalDate();
+        Thread.ofVirtual().name("report-rollup-backfill").start(() -> {
+            try {
+                int days = backfill(from, LocalDate.now());
+                log.info("[ROLLUP] Backfill lần đầu xong: {} ngày từ {}", days, from);
+            } catch (Exception e) {
+                log.error("[ROLLUP] Backfill lần đầu thất bại: {}", e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Tính lại bucket cho [from, to] (cả 2 đầu), mỗi ngày 1 transaction để không khóa lâu.
+     *
+     * @return số ngày đã tính
+     */
+    public int backfill(LocalDate from, LocalDate to) {
+        if (from == null || to == null || from.isAfter(to)) {
+            throw new IllegalArgumentException("Khoảng ngày không hợp lệ: " + from + " ~ " + to);
+        }
+        int days = 0;
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            LocalDate d = day;
+            recomputeLock.lock();
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    rollupRepository.deleteHourly(d.atStartOfDay(), d.plusDays(1).atStartOfDay());
+                    rollupRepository.insertHourly(d.atStartOfDay(), d.plusDays(1).atStartOfDay());
+                    rollupRepository.deleteDaily(d, d);
+                    rollupRepository.insertDaily(d, d);
+                });
+            } finally {
+                recomputeLock.unlock();
+            }
+            days++;
+        }
+        return days;
+    }
+}
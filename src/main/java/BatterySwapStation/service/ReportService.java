@@ -1,25 +1,22 @@
 package BatterySwapStation.service;
 
 import BatterySwapStation.entity.Booking;
-import BatterySwapStation.entity.Invoice;
 import BatterySwapStation.entity.Report;
-import BatterySwapStation.entity.Swap;
-import BatterySwapStation.repository.InvoiceRepository;
 import BatterySwapStation.repository.ReportRepository;
 import BatterySwapStation.repository.StationRepository;
-import BatterySwapStation.repository.SwapRepository;
 import jakarta.persistence.EntityNotFoundException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
@@ -29,8 +26,6 @@ public class ReportService {
 
     private final ReportRepository reportRepository;
     private final ReportWriteService reportWriteService;
-    private final SwapRepository swapRepository;
-    private final InvoiceRepository invoiceRepository;
     private final StationRepository stationRepository;
 
     public List<Map<String, Object>> getStationPerformanceReport() {
@@ -101,67 +96,62 @@ public class ReportService {
     public Map<String, Object> getStationDailyReport(Integer stationId, LocalDate date) {
         log.info("📊 Generating daily report for stationId={} on date={}", stationId, date);
 
-        // 1️⃣ Lấy danh sách swap trong ngày
-        List<Swap> swaps = swapRepository.findByStationAndDate(stationId, date);
+        // 1️⃣ Swap trong ngày, đã gom theo booking kèm số tiền hóa đơn (1 query)
+        List<Map<String, Object>> bookingSwaps = reportRepository.fetchStationBookingSwaps(stationId, date, date);
 
-        if (swaps.isEmpty()) {
+        if (bookingSwaps.isEmpty()) {
             log.warn("⚠️ Không có giao dịch swap nào tại stationId={} trong ngày {}", stationId, date);
         }
 
-        // 2️⃣ Gom nhóm theo booking
-        Map<Long, List<Swap>> swapsByBooking = swaps.stream()
-                .collect(Collectors.groupingBy(s -> s.getBooking().getBookingId()));
-
-        List<Map<String, Object>> rows = new ArrayList<>();
+        List<Map<String, Object>> rows = new ArrayList<>(bookingSwaps.size());
         double totalRevenue = 0;
+        int totalSwaps = 0;
 
-        for (Map.Entry<Long, List<Swap>> entry : swapsByBooking.entrySet()) {
-            Long bookingId = entry.getKey();
-            List<Swap> swapList = entry.getValue();
-
-            // 3️⃣ Tìm invoice tương ứng
-            Invoice invoice = invoiceRepository.findByBookingId(bookingId).orElse(null);
-            double amount = (invoice != null) ? invoice.getTotalAmount() : 0;
+        for (Map<String, Object> bs : bookingSwaps) {
+            double amount = toDouble(bs.get("invoiceAmount"));
+            int swapCount = ((Number) bs.get("swapCount")).intValue();
             totalRevenue += amount;
+            totalSwaps += swapCount;
 
             rows.add(Map.of(
-                    "bookingId", bookingId,
-                    "swapCount", swapList.size(),
+                    "bookingId", ((Number) bs.get("bookingId")).longValue(),
+                    "swapCount", swapCount,
                     "amount", amount
             ));
         }
 
-        // 4️⃣ Lấy thông tin trạm
+        // 2️⃣ Lấy thông tin trạm
         var station = stationRepository.findById(stationId)
                 .orElseThrow(() -> new EntityNotFoundException("Station not found"));
 
-        // 5️⃣ Tạo summary giống format Excel (giữ lại định dạng cũ: hardcoded 100%)
+        // 3️⃣ Tạo summary giống format Excel (giữ lại định dạng cũ: hardcoded 100%)
         Map<String, Object> summary = Map.of(
                 "stationId", station.getStationId(),
                 "stationName", station.getStationName(),
                 "address", station.getAddress(),
                 "reportDate", date,
                 "totalBookings", rows.size(),
-                "totalSwaps", swaps.size(),
+                "totalSwaps", totalSwaps,
                 "totalRevenue", totalRevenue,
                 "efficiencyRate", "100%"
         );
 
-        // 6️⃣ Tổng hợp dữ liệu báo cáo
+        // 4️⃣ Tổng hợp dữ liệu báo cáo
         Map<String, Object> data = Map.of(
                 "summary", summary,
                 "rows", rows
         );
 
-        // 7️⃣ Ghi log & lưu report
+        // 5️⃣ Ghi log & lưu report
         reportWriteService.saveReport(
                 Report.ReportType.STATION_DETAIL,
+                station.getStationId(),
                 date, date,
                 data
         );
 
         log.info("✅ Station daily report generated successfully for station={} ({} bookings, {} swaps)",
-                station.getStationName(), rows.size(), swaps.size());
+                station.getStationName(), rows.size(), totalSwaps);
 
         return data;
     }
@@ -171,16 +161,23 @@ public class ReportService {
         LocalDate end = LocalDate.now();
         LocalDate start = end.minusDays(days);
 
-        var swapRows = swapRepository.fetchDailySwapByStation(stationId, start, end);
-        var revenueRows = invoiceRepository.fetchDailyRevenueByStation(stationId, start, end);
-
-        int totalSwaps = swapRows.stream()
-                .mapToInt(r -> ((Number) r.get("swapCount")).intValue())
-                .sum();
+        List<Map<String, Object>> swapRows = new ArrayList<>();
+        List<Map<String, Object>> revenueRows = new ArrayList<>();
+        int totalSwaps = 0;
+        double totalRevenue = 0;
 
-        double totalRevenue = revenueRows.stream()
-                .mapToDouble(r -> ((Number) r.get("totalRevenue")).doubleValue())
-                .sum();
+        for (Map<String, Object> day : reportRepository.fetchDailyByStation(stationId, start, end)) {
+            int swapCount = ((Number) day.get("swapCount")).intValue();
+            double revenue = toDouble(day.get("totalRevenue"));
+            if (swapCount > 0) {
+                swapRows.add(Map.of("date", day.get("date"), "swapCount", swapCount));
+                totalSwaps += swapCount;
+            }
+            if (revenue > 0) {
+                revenueRows.add(Map.of("date", day.get("date"), "totalRevenue", revenue));
+                totalRevenue += revenue;
+            }
+        }
 
         var station = stationRepository.findById(stationId)
                 .orElseThrow(() -> new EntityNotFoundException("Station not found"));
@@ -201,47 +198,27 @@ public class ReportService {
         );
     }
 
-    // 📋 Lấy chi tiết các giao dịch của trạm
+    // 📋 Lấy chi tiết các giao dịch của trạm (mỗi booking 1 dòng, mới nhất trước)
     private List<Map<String, Object>> getStationTransactionDetails(Integer stationId, LocalDate start, LocalDate end) {
-        // Lấy tất cả swap trong khoảng thời gian
-        List<Swap> swaps = swapRepository.findAllByStationIdAndDateRange(stationId, start, end);
-
-        // Gom nhóm theo booking
-        Map<Long, List<Swap>> swapsByBooking = swaps.stream()
-                .collect(Collectors.groupingBy(s -> s.getBooking().getBookingId()));
+        List<Map<String, Object>> bookingSwaps = reportRepository.fetchStationBookingSwaps(stationId, start, end);
 
-        List<Map<String, Object>> transactions = new ArrayList<>();
+        List<Map<String, Object>> transactions = new ArrayList<>(bookingSwaps.size());
         java.time.format.DateTimeFormatter timeFormatter = java.time.format.DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
 
-        for (Map.Entry<Long, List<Swap>> entry : swapsByBooking.entrySet()) {
-            Long bookingId = entry.getKey();
-            List<Swap> swapList = entry.getValue();
-
-            if (swapList.isEmpty()) continue;
-
-            Swap firstSwap = swapList.getFirst();
-            Booking booking = firstSwap.getBooking();
-
-            // Lấy invoice
-            Invoice invoice = invoiceRepository.findByBookingId(bookingId).orElse(null);
-
-            // Lấy thời gian hoàn thành
-            LocalDateTime completedDateTime = firstSwap.getCompletedTime();
+        for (Map<String, Object> bs : bookingSwaps) {
+            long bookingId = ((Number) bs.get("bookingId")).longValue();
 
             // Lấy thông tin xe & pin
-            String vehicleModel = booking.getVehicle() != null
-                    ? booking.getVehicle().getVehicleType().toString().replace("_", " ")
+            Object vehicleType = bs.get("vehicleType");
+            String vehicleModel = vehicleType != null
+                    ? vehicleType.toString().replace("_", " ")
                     : "N/A";
-            String batteryType = booking.getBatteryType() != null
-                    ? booking.getBatteryType()
+            String batteryType = bs.get("batteryType") != null
+                    ? bs.get("batteryType").toString()
                     : "";
 
-            // Lấy danh sách pin đã đổi
-            String batteryIds = swapList.stream()
-                    .map(s -> s.getBatteryOutId() != null ? s.getBatteryOutId() : "")
-                    .filter(id -> !id.isEmpty())
-                    .distinct()
-                    .collect(Collectors.joining(", "));
+            // Danh sách pin đã đổi
+            String batteryIds = bs.get("batteryIds") != null ? bs.get("batteryIds").toString() : "";
 
             String vehicleAndBattery = String.format("%s %s", vehicleModel, batteryType).trim();
             if (!batteryIds.isEmpty()) {
@@ -249,17 +226,20 @@ public class ReportService {
             }
 
             // Xác định phương thức thanh toán
+            Number invoiceAmount = (Number) bs.get("invoiceAmount");
+            Number totalPrice = (Number) bs.get("totalPrice");
+            Number bookingAmount = (Number) bs.get("bookingAmount");
             String paymentMethod = "Chuyển khoản";
-            if (invoice != null) {
-                if (booking.getTotalPrice() != null && booking.getTotalPrice() == 0) {
+            if (invoiceAmount != null) {
+                if (totalPrice != null && totalPrice.doubleValue() == 0) {
                     paymentMethod = "Thẻ tín dụng";
-                } else if (invoice.getTotalAmount() <= booking.getAmount()) {
+                } else if (bookingAmount != null && invoiceAmount.doubleValue() <= bookingAmount.doubleValue()) {
                     paymentMethod = "Ví điện tử";
                 }
             }
 
             // Chuyển trạng thái sang tiếng Việt
-            String statusVN = switch (booking.getBookingStatus()) {
+            String statusVN = switch (Booking.BookingStatus.valueOf(bs.get("bookingStatus").toString())) {
                 case COMPLETED -> "Hoàn thành";
                 case PENDINGSWAPPING -> "Đang xử lý";
                 case CANCELLED -> "Đã hủy";
@@ -268,28 +248,21 @@ public class ReportService {
             };
 
             // Format số tiền
-            String amountStr = invoice != null
-                    ? String.format("%d VNĐ", invoice.getTotalAmount().intValue())
+            String amountStr = invoiceAmount != null
+                    ? String.format("%d VNĐ", invoiceAmount.intValue())
                     : "0 VNĐ";
 
             transactions.add(Map.of(
                     "transactionId", "TXN" + String.format("%04d", bookingId),
-                    "customerName", booking.getUser().getFullName(),
+                    "customerName", bs.get("customerName"),
                     "vehicleAndBattery", vehicleAndBattery,
-                    "time", completedDateTime.format(timeFormatter),
+                    "time", toLocalDateTime(bs.get("completedTime")).format(timeFormatter),
                     "amount", amountStr,
                     "paymentMethod", paymentMethod,
                     "status", statusVN
             ));
         }
 
-        // Sắp xếp theo thời gian giảm dần
-        transactions.sort((a, b) -> {
-            String timeA = (String) a.get("time");
-            String timeB = (String) b.get("time");
-            return timeB.compareTo(timeA);
-        });
-
         return transactions;
     }
 
@@ -298,30 +271,37 @@ public class ReportService {
         LocalDate end = LocalDate.now();
         LocalDate start = end.minusDays(days);
 
-        var stations = stationRepository.findAll();
-        var swapData = swapRepository.fetchDailySwapByAllStations(start, end);
-        var revenueData = invoiceRepository.fetchDailyRevenueByAllStations(start, end);
+        // 1 query cho mọi trạm, gom theo trạm trong 1 lượt (thay vì lọc lại toàn bộ danh sách cho từng trạm)
+        Map<Integer, List<Map<String, Object>>> revenueByStation = new HashMap<>();
+        Map<Integer, List<Map<String, Object>>> swapByStation = new HashMap<>();
+        for (Map<String, Object> r : reportRepository.fetchDailyByAllStations(start, end)) {
+            Integer stationId = ((Number) r.get("stationId")).intValue();
+            double revenue = toDouble(r.get("totalRevenue"));
+            int swapCount = ((Number) r.get("swapCount")).intValue();
+            if (revenue > 0) {
+                revenueByStation.computeIfAbsent(stationId, k -> new ArrayList<>())
+                        .add(Map.of("stationId", stationId, "date", r.get("date"), "totalRevenue", revenue));
+            }
+            if (swapCount > 0) {
+                swapByStation.computeIfAbsent(stationId, k -> new ArrayList<>())
+                        .add(Map.of("stationId", stationId, "date", r.get("date"), "swapCount", swapCount));
+            }
+        }
 
-        List<Map<String, Object>> result = new ArrayList<>();
+        var stations = stationRepository.findAll();
+        List<Map<String, Object>> result = new ArrayList<>(stations.size());
 
         for (var st : stations) {
             int id = st.getStationId();
 
-            var revenueChart = revenueData.stream()
-                    .filter(r -> ((Integer) r.get("stationId")) == id)
-                    .toList();
+            var revenueChart = revenueByStation.getOrDefault(id, List.of());
+            var swapChart = swapByStation.getOrDefault(id, List.of());
 
-            var swapChart = swapData.stream()
-                    .filter(r -> ((Integer) r.get("stationId")) == id)
-                    .toList();
+            double totalRevenue = 0;
+            for (Map<String, Object> r : revenueChart) totalRevenue += (Double) r.get("totalRevenue");
 
-            double totalRevenue = revenueChart.stream()
-                    .mapToDouble(r -> ((Number) r.get("totalRevenue")).doubleValue())
-                    .sum();
-
-            int totalSwaps = swapChart.stream()
-                    .mapToInt(r -> ((Number) r.get("swapCount")).intValue())
-                    .sum();
+            int totalSwaps = 0;
+            for (Map<String, Object> r : swapChart) totalSwaps += (Integer) r.get("swapCount");
 
             result.add(Map.of(
                     "stationId", id,
@@ -338,4 +318,14 @@ public class ReportService {
         return Map.of("stations", result);
     }
 
+    private static double toDouble(Object value) {
+        return value == null ? 0 : ((Number) value).doubleValue();
+    }
+
+    // Cột timestamp của native query có thể về dạng Timestamp hoặc LocalDateTime tùy driver/Hibernate
+    private static LocalDateTime toLocalDateTime(Object value) {
+        if (value instanceof Timestamp ts) return ts.toLocalDateTime();
+        return (LocalDateTime) value;
+    }
+
 }
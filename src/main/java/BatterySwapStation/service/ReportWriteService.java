@@ -5,29 +5,89 @@ import BatterySwapStation.repository.ReportRepository;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
-import org.springframework.transaction.annotation.Transactional;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * Lưu snapshot báo cáo (bảng Report) ở nền, không chặn request đọc báo cáo.
+ *
+ * - saveReport chỉ đưa snapshot vào hàng đợi có giới hạn ({@code report-snapshot.queue-capacity}) rồi trả về;
+ *   hàng đợi đầy → bỏ snapshot (đây là bản lưu tham khảo, không phải dữ liệu nghiệp vụ).
+ * - Cùng (loại, trạm, khoảng ngày) trong {@code report-snapshot.dedup-window-seconds} giây chỉ lưu lần đầu
+ *   (dashboard refresh liên tục không ghi lặp).
+ * - Thread "report-snapshot-writer" serialize JSON, nén gzip ({@code report-snapshot.compress}) và ghi theo lô.
+ * - {@code report-snapshot.enabled=false}: không lưu gì.
+ *
+ * Metric: report.snapshot.queue.depth, report.snapshots{result}.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ReportWriteService {
 
+    private static final int WRITE_BATCH_SIZE = 50;
+
     private final ReportRepository reportRepository;
     // Use the ObjectMapper provided by Spring (it has JavaTimeModule registered by default)
     private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${report-snapshot.enabled:true}")
+    private boolean enabled;
+
+    @Value("${report-snapshot.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${report-snapshot.dedup-window-seconds:300}")
+    private long dedupWindowSeconds;
+
+    @Value("${report-snapshot.compress:true}")
+    private boolean compress;
 
     // A dedicated mapper for report serialization to guarantee JavaTime handling
     private ObjectMapper reportMapper;
 
+    private record Snapshot(Report.ReportType type, LocalDate start, LocalDate end, Map<String, Object> data,
+                            LocalDateTime requestedAt) {}
+
+    private BlockingQueue<Snapshot> queue;
+    // (loại|trạm|start|end) → thời điểm (nanoTime) nhận snapshot gần nhất
+    private final Map<String, Long> lastAccepted = new ConcurrentHashMap<>();
+    private Thread writer;
+    private volatile boolean running;
+
+    private Counter written;
+    private Counter deduplicated;
+    private Counter dropped;
+    private Counter failed;
+
     // Ensure ObjectMapper can handle Java 8 date/time types in case app's mapper isn't pre-configured
     @PostConstruct
     public void initMapper() {
@@ -43,32 +103,161 @@ public class ReportWriteService {
             // fallback to injected mapper if copy fails
             reportMapper = objectMapper;
         }
+
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        Gauge.builder("report.snapshot.queue.depth", queue, BlockingQueue::size).register(meterRegistry);
+        written = Counter.builder("report.snapshots").tag("result", "written").register(meterRegistry);
+        deduplicated = Counter.builder("report.snapshots").tag("result", "deduplicated").register(meterRegistry);
+        dropped = Counter.builder("report.snapshots").tag("result", "dropped").register(meterRegistry);
+        failed = Counter.builder("report.snapshots").tag("result", "failed").register(meterRegistry);
+
+        if (!enabled) {
+            log.info("ReportWriteService: snapshot báo cáo đang tắt (report-snapshot.enabled=false)");
+            return;
+        }
+        running = true;
+        writer = new Thread(this::runWriter, "report-snapshot-writer");
+        writer.setDaemon(true);
+        writer.start();
     }
 
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @PreDestroy
+    void stop() throws InterruptedException {
+        // Ngừng nhận, ghi nốt phần còn trong hàng đợi
+        running = false;
+        if (writer != null) writer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    // ==================== API ====================
+
+    /**
+     * Xếp snapshot vào hàng đợi và trả về ngay; không ném lỗi cho luồng đọc báo cáo.
+     */
     public void saveReport(Report.ReportType type, LocalDate start, LocalDate end, Map<String, Object> data) {
-        try {
-            // use dedicated reportMapper to serialize (guaranteed to handle LocalDate/LocalDateTime)
-            String json = reportMapper.writeValueAsString(data);
-            String summaryJson = data.containsKey("summary")
-                    ? reportMapper.writeValueAsString(data.get("summary"))
-                    : null;
-
-            Report report = Report.builder()
-                    .reportType(type)
-                    .startDate(start != null ? start.atStartOfDay() : null)
-                    .endDate(end != null ? end.atStartOfDay() : null)
-                    .summaryData(summaryJson)
-                    .detailedData(json)
-                    .generatedAt(LocalDateTime.now())
-                    .generatedBy("system")
-                    .build();
-
-            reportRepository.save(report);
-            log.info("Report [{}] saved successfully at {}", type, report.getGeneratedAt());
+        saveReport(type, null, start, end, data);
+    }
 
-        } catch (Exception e) {
-            log.error("Failed to save report [{}]: {}", type, e.getMessage(), e);
+    /**
+     * Như {@link #saveReport(Report.ReportType, LocalDate, LocalDate, Map)} cho báo cáo của 1 trạm:
+     * {@code stationId} nằm trong khóa chống trùng để báo cáo cùng ngày của các trạm khác nhau đều được lưu.
+     */
+    public void saveReport(Report.ReportType type, Integer stationId, LocalDate start, LocalDate end,
+                           Map<String, Object> data) {
+        if (!running) return;
+
+        long now = System.nanoTime();
+        long window = TimeUnit.SECONDS.toNanos(dedupWindowSeconds);
+        String key = type + "|" + stationId + "|" + start + "|" + end;
+        boolean[] accepted = {false};
+        lastAccepted.compute(key, (k, last) -> {
+            if (last != null && now - last < window) return last;
+            accepted[0] = true;
+            return now;
+        });
+        if (!accepted[0]) {
+            deduplicated.increment();
+            return;
+        }
+
+        if (!queue.offer(new Snapshot(type, start, end, data, LocalDateTime.now()))) {
+            // Không giữ mốc dedup cho snapshot không được lưu
+            lastAccepted.remove(key, now);
+            dropped.increment();
+            log.debug("Report snapshot queue full, dropped [{}] {} ~ {}", type, start, end);
+        }
+
+        // Dọn key đã quá cửa sổ để map không lớn dần theo số khoảng ngày khác nhau
+        if (lastAccepted.size() > queueCapacity * 10) {
+            lastAccepted.values().removeIf(last -> now - last >= window);
+        }
+    }
+
+    /**
+     * JSON chi tiết của report, giải nén nếu được lưu dạng gzip.
+     */
+    public String readDetailedData(Report report) {
+        if (report.getDetailedDataGzip() == null) return report.getDetailedData();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(report.getDetailedDataGzip()))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Không giải nén được dữ liệu report " + report.getId(), e);
+        }
+    }
+
+    // ==================== WRITER ====================
+
+    private void runWriter() {
+        while (running || !queue.isEmpty()) {
+            try {
+                Snapshot first = queue.poll(500, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+
+                List<Snapshot> batch = new ArrayList<>();
+                batch.add(first);
+                queue.drainTo(batch, WRITE_BATCH_SIZE - 1);
+
+                List<Report> reports = new ArrayList<>(batch.size());
+                for (Snapshot snapshot : batch) {
+                    try {
+                        reports.add(toReport(snapshot));
+                    } catch (Exception e) {
+                        failed.increment();
+                        log.error("Failed to serialize report [{}]: {}", snapshot.type(), e.getMessage(), e);
+                    }
+                }
+                if (reports.isEmpty()) continue;
+
+                reportRepository.saveAll(reports);
+                written.increment(reports.size());
+                log.debug("Saved {} report snapshot(s)", reports.size());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                failed.increment();
+                log.error("report-snapshot-writer lỗi: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private Report toReport(Snapshot snapshot) throws IOException {
+        Map<String, Object> data = snapshot.data();
+        // use dedicated reportMapper to serialize (guaranteed to handle LocalDate/LocalDateTime)
+        byte[] json = reportMapper.writeValueAsBytes(data);
+        String summaryJson = data.containsKey("summary")
+                ? reportMapper.writeValueAsString(data.get("summary"))
+                : null;
+
+        Report.ReportBuilder builder = Report.builder()
+                .reportType(snapshot.type())
+                .startDate(snapshot.start() != null ? snapshot.start().atStartOfDay() : null)
+                .endDate(snapshot.end() != null ? snapshot.end().atStartOfDay() : null)
+                .summaryData(summaryJson)
+                .dataHash(sha256(json))
+                .generatedAt(snapshot.requestedAt())
+                .generatedBy("system");
+
+        if (compress) {
+            builder.detailedDataGzip(gzip(json));
+        } else {
+            builder.detailedData(new String(json, StandardCharsets.UTF_8));
+        }
+        return builder.build();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
 }
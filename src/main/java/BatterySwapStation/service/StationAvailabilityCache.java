@@ -0,0 +1,270 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.dto.BatteryRealtimeEvent;
+import BatterySwapStation.dto.StationResponseDTO;
+import BatterySwapStation.repository.StationRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * View vật chất hóa số pin theo trạm: available / charging / total, tách theo BatteryType.
+ *
+ * - Dựng đầy đủ khi khởi động và mỗi 5 phút từ 2 query phẳng (thông tin trạm + trạng thái slot).
+ * - Giữa hai lần dựng, view được cập nhật từng slot theo sự kiện realtime (swap, insert, eject,
+ *   sạc xong) sau khi transaction commit. Lần dựng kế tiếp sửa mọi sai lệch còn sót.
+ * - Đọc 1 trạm là tra map O(1); DTO của trạm được cache tới khi trạm đó thay đổi.
+ *
+ * Mỗi lần dựng cũng cập nhật StationSpatialIndex nếu tập trạm hoặc tọa độ thay đổi.
+ * Metric: station.availability.cache.requests{result=hit|miss}, station.availability.cache.size.
+ */
+@Component
+@Slf4j
+public class StationAvailabilityCache {
+
+    private static final String AVAILABLE = "AVAILABLE";
+    private static final String CHARGING = "CHARGING";
+    // Trạm lạ: tối đa 1 lần dựng lại mỗi 10 giây
+    private static final long MISS_REBUILD_INTERVAL_MS = 10_000;
+
+    private final StationRepository stationRepository;
+    private final StationSpatialIndex spatialIndex;
+    private final Counter hits;
+    private final Counter misses;
+
+    private volatile Map<Integer, StationView> stations;
+    private volatile long lastRebuildAt;
+
+    public StationAvailabilityCache(StationRepository stationRepository,
+                                    StationSpatialIndex spatialIndex,
+                                    MeterRegistry meterRegistry) {
+        this.stationRepository = stationRepository;
+        this.spatialIndex = spatialIndex;
+        this.hits = Counter.builder("station.availability.cache.requests")
+                .tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("station.availability.cache.requests")
+                .tag("result", "miss").register(meterRegistry);
+        Gauge.builder("station.availability.cache.size", this,
+                c -> c.stations == null ? 0 : c.stations.size()).register(meterRegistry);
+    }
+
+    // ==================== DỰNG LẠI ====================
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        refresh();
+    }
+
+    // Dựng lại toàn bộ mỗi 5 phút
+    @Scheduled(fixedDelay = 300000, initialDelay = 300000)
+    public void refresh() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.error("StationAvailabilityCache: dựng lại thất bại: {}", e.getMessage(), e);
+        }
+    }
+
+    public synchronized void rebuild() {
+        Map<Integer, StationView> views = new LinkedHashMap<>();
+        List<StationSpatialIndex.Point> points = new ArrayList<>();
+
+        for (Object[] r : stationRepository.findActiveStationInfo()) {
+            Integer id = (Integer) r[0];
+            var lat = (BigDecimal) r[3];
+            var lon = (BigDecimal) r[4];
+            views.put(id, new StationView(id, (String) r[1], (String) r[2], lat, lon, (boolean) r[5]));
+            if (lat != null && lon != null) {
+                points.add(new StationSpatialIndex.Point(id, lat.doubleValue(), lon.doubleValue()));
+            }
+        }
+
+        for (Object[] r : stationRepository.findActiveSlotStates()) {
+            StationView view = views.get((Integer) r[0]);
+            if (view == null) continue;
+            view.setSlot((Integer) r[1],
+                    r[2] != null ? String.valueOf(r[2]) : null,
+                    r[3] != null ? String.valueOf(r[3]) : null);
+        }
+
+        stations = views;
+        lastRebuildAt = System.currentTimeMillis();
+        spatialIndex.rebuildIfChanged(points);
+        log.debug("StationAvailabilityCache: dựng lại {} trạm", views.size());
+    }
+
+    // ==================== ĐỌC ====================
+
+    /**
+     * Tra 1 trạm. Trạm chưa có trong view (vd. vừa thêm) sẽ kích hoạt dựng lại, có giới hạn tần suất.
+     *
+     * @return null nếu trạm không tồn tại hoặc không hoạt động
+     */
+    public StationResponseDTO get(Integer stationId) {
+        StationView view = views().get(stationId);
+        if (view != null) {
+            hits.increment();
+            return view.toDto();
+        }
+
+        misses.increment();
+        if (System.currentTimeMillis() - lastRebuildAt > MISS_REBUILD_INTERVAL_MS) {
+            rebuild();
+            view = views().get(stationId);
+        }
+        return view != null ? view.toDto() : null;
+    }
+
+    public List<StationResponseDTO> getAll() {
+        Map<Integer, StationView> current = views();
+        List<StationResponseDTO> result = new ArrayList<>(current.size());
+        for (StationView view : current.values()) result.add(view.toDto());
+        return result;
+    }
+
+    private Map<Integer, StationView> views() {
+        Map<Integer, StationView> current = stations;
+        if (current == null) {
+            synchronized (this) {
+                if (stations == null) rebuild();
+                current = stations;
+            }
+        }
+        return current;
+    }
+
+    // ==================== CẬP NHẬT THEO SỰ KIỆN ====================
+
+    /**
+     * Áp trạng thái mới của một slot (từ BatteryRealtimeEvent). Nếu đang trong transaction
+     * thì chỉ áp sau khi commit.
+     */
+    public void onSlotEvent(BatteryRealtimeEvent event) {
+        if (event == null || event.getStationId() == null || event.getDockId() == null) return;
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    applySlotEvent(event);
+                }
+            });
+        } else {
+            applySlotEvent(event);
+        }
+    }
+
+    private void applySlotEvent(BatteryRealtimeEvent event) {
+        Map<Integer, StationView> current = stations;
+        if (current == null) return;
+        StationView view = current.get(event.getStationId());
+        if (view == null) return;
+
+        boolean hasBattery = event.getBatteryId() != null && !"EMPTY".equals(event.getBatteryStatus());
+        view.updateSlot(event.getDockId(),
+                hasBattery ? event.getBatteryType() : null,
+                hasBattery ? event.getBatteryStatus() : null);
+    }
+
+    // ==================== VIEW 1 TRẠM ====================
+
+    private record SlotState(String batteryType, String batteryStatus) {}
+
+    /**
+     * Trạng thái của 1 trạm. Mọi thao tác synchronized trên chính trạm đó.
+     */
+    private static final class StationView {
+        private final Integer stationId;
+        private final String stationName;
+        private final String address;
+        private final BigDecimal latitude;
+        private final BigDecimal longitude;
+        private final boolean isActive;
+
+        private final Map<Integer, SlotState> slots = new HashMap<>();
+        // batteryType → {available, charging}, sắp theo tên cho output ổn định
+        private final Map<String, int[]> counts = new TreeMap<>();
+        private StationResponseDTO cachedDto;
+
+        StationView(Integer stationId, String stationName, String address,
+                    BigDecimal latitude, BigDecimal longitude, boolean isActive) {
+            this.stationId = stationId;
+            this.stationName = stationName;
+            this.address = address;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.isActive = isActive;
+        }
+
+        // Nạp ban đầu
+        synchronized void setSlot(Integer slotId, String batteryType, String batteryStatus) {
+            apply(slotId, new SlotState(batteryType, batteryStatus));
+        }
+
+        /**
+         * Cập nhật slot đã biết. Slot không thuộc view (dock/slot không hoạt động) bị bỏ qua.
+         */
+        synchronized void updateSlot(Integer slotId, String batteryType, String batteryStatus) {
+            if (!slots.containsKey(slotId)) return;
+            apply(slotId, new SlotState(batteryType, batteryStatus));
+        }
+
+        private void apply(Integer slotId, SlotState next) {
+            SlotState prev = slots.put(slotId, next);
+            if (next.equals(prev)) return;
+
+            if (prev != null) count(prev, -1);
+            count(next, +1);
+            cachedDto = null;
+        }
+
+        private void count(SlotState s, int delta) {
+            if (s.batteryType() == null || s.batteryStatus() == null) return;
+            int idx = AVAILABLE.equals(s.batteryStatus()) ? 0 : CHARGING.equals(s.batteryStatus()) ? 1 : -1;
+            if (idx < 0) return;
+            counts.computeIfAbsent(s.batteryType(), t -> new int[2])[idx] += delta;
+        }
+
+        synchronized StationResponseDTO toDto() {
+            if (cachedDto != null) return cachedDto;
+
+            int available = 0, charging = 0;
+            List<StationResponseDTO.BatteryTypeRow> rows = new ArrayList<>();
+            for (Map.Entry<String, int[]> e : counts.entrySet()) {
+                int a = e.getValue()[0], c = e.getValue()[1];
+                available += a;
+                charging += c;
+                if (a + c > 0) rows.add(new StationResponseDTO.BatteryTypeRow(e.getKey(), a, c));
+            }
+
+            cachedDto = StationResponseDTO.builder()
+                    .stationId(stationId)
+                    .stationName(stationName)
+                    .address(address)
+                    .latitude(latitude)
+                    .longitude(longitude)
+                    .isActive(isActive)
+                    .availableCount(available)
+                    .chargingCount(charging)
+                    .totalBatteries(available + charging)
+                    .batteries(List.copyOf(rows))
+                    .build();
+            return cachedDto;
+        }
+    }
+}
@@ -10,7 +10,6 @@ import BatterySwapStation.repository.BatteryRepository;
 import BatterySwapStation.repository.DockSlotRepository;
 import BatterySwapStation.repository.StationRepository;
 import BatterySwapStation.repository.BookingRepository;
-import BatterySwapStation.utils.GeoUtils;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
@@ -26,75 +25,45 @@ public class StationService {
     private final BatteryRepository batteryRepository;
     private final DockSlotRepository DockSlotRepository;
     private final BookingRepository bookingRepository; // mới: dùng để đếm vehicle an toàn
-    // ⚡ Lấy toàn bộ trạm với tổng hợp nhanh
+    private final StationAvailabilityCache availabilityCache;
+    private final StationSpatialIndex stationSpatialIndex;
+    // ⚡ Lấy toàn bộ trạm từ view số pin (không chạy lại query tổng hợp)
     public List<StationResponseDTO> getAllStations() {
-        List<Object[]> main = stationRepository.getStationSummary();
-        Map<Integer, List<Object[]>> typeMap = stationRepository.getStationBatteryTypes()
-                .stream()
-                .collect(Collectors.groupingBy(o -> (Integer) o[0]));
-
-        List<StationResponseDTO> result = new ArrayList<>();
-
-        for (Object[] row : main) {
-            Integer id = (Integer) row[0];
-            String name = (String) row[1];
-            String address = (String) row[2];
-            var lat = (java.math.BigDecimal) row[3];
-            var lon = (java.math.BigDecimal) row[4];
-            boolean isActive = (boolean) row[5];
-            int available = ((Number) Optional.ofNullable(row[6]).orElse(0)).intValue();
-            int charging = ((Number) Optional.ofNullable(row[7]).orElse(0)).intValue();
-            int total = ((Number) Optional.ofNullable(row[8]).orElse(0)).intValue();
-
-            // nhóm theo loại pin
-            List<StationResponseDTO.BatteryTypeRow> batteryRows =
-                    typeMap.getOrDefault(id, List.of()).stream()
-                            .filter(o -> o[1] != null)
-                            .map(o -> new StationResponseDTO.BatteryTypeRow(
-                                    String.valueOf(o[1]),
-                                    ((Number) Optional.ofNullable(o[2]).orElse(0)).intValue(),
-                                    ((Number) Optional.ofNullable(o[3]).orElse(0)).intValue()
-                            ))
-                            .filter(bt -> bt.getTotal() > 0)
-                            .toList();
-
-            result.add(StationResponseDTO.builder()
-                    .stationId(id)
-                    .stationName(name)
-                    .address(address)
-                    .latitude(lat)
-                    .longitude(lon)
-                    .isActive(isActive)
-                    .availableCount(available)
-                    .chargingCount(charging)
-                    .totalBatteries(total)
-                    .batteries(batteryRows)
-                    .build());
-        }
-        return result;
+        return availabilityCache.getAll();
     }
 
-    // ⚡ Lấy chi tiết 1 trạm
+    // ⚡ Lấy chi tiết 1 trạm – tra view O(1)
     public StationResponseDTO getStationDetail(int id) {
-        return getAllStations().stream()
-                .filter(s -> Objects.equals(s.getStationId(), id))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("Không tìm thấy trạm với mã: " + id));
+        StationResponseDTO station = availabilityCache.get(id);
+        if (station == null) {
+            throw new RuntimeException("Không tìm thấy trạm với mã: " + id);
+        }
+        return station;
     }
 
-    // ⚡ API /nearby – lọc trong bán kính, không sort theo khoảng cách
+    // ⚡ API /nearby – lọc trong bán kính bằng chỉ mục tọa độ, sort theo khoảng cách
     public List<StationResponseDTO> getNearbyStations(double lat, double lng, double radiusKm) {
         final double radius = radiusKm <= 0 ? 50 : radiusKm;
-        return getAllStations().stream()
-                .filter(st -> {
-                    double distance = GeoUtils.haversineKm(
-                            lat, lng,
-                            st.getLatitude().doubleValue(),
-                            st.getLongitude().doubleValue()
-                    );
-                    return distance <= radius;
-                })
-                .toList();
+        return withAvailability(stationSpatialIndex.withinRadius(lat, lng, radius));
+    }
+
+    // ⚡ API /nearest – k trạm gần nhất
+    public List<StationResponseDTO> getNearestStations(double lat, double lng, int k, double maxRadiusKm) {
+        final double radius = maxRadiusKm <= 0 ? 50 : maxRadiusKm;
+        return withAvailability(stationSpatialIndex.nearest(lat, lng, Math.max(1, k), radius));
+    }
+
+    // Ghép số pin từ cache vào kết quả chỉ mục, giữ thứ tự khoảng cách
+    private List<StationResponseDTO> withAvailability(List<StationSpatialIndex.Hit> hits) {
+        List<StationResponseDTO> result = new ArrayList<>(hits.size());
+        for (StationSpatialIndex.Hit hit : hits) {
+            StationResponseDTO st = availabilityCache.get(hit.stationId());
+            if (st == null) continue;
+            result.add(st.toBuilder()
+                    .distanceKm(Math.round(hit.distanceKm() * 100) / 100.0)
+                    .build());
+        }
+        return result;
     }
 
     // ⚡ API /stations/user – Ưu tiên trạm có loại pin trùng với xe user
@@ -0,0 +1,227 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.utils.GeoUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Chỉ mục không gian tọa độ trạm: lưới ô vuông {@value #CELL_DEG}° (~11 km).
+ *
+ * Truy vấn bán kính chỉ tính haversine cho các trạm trong những ô giao với vùng tìm;
+ * truy vấn k trạm gần nhất mở rộng dần theo vòng ô và dừng khi chắc chắn không còn
+ * trạm nào gần hơn. Kết quả luôn sắp theo khoảng cách tăng dần.
+ *
+ * Lưới là bất biến, được thay nguyên khối khi danh sách trạm/tọa độ đổi
+ * (xem StationAvailabilityCache), nên đọc không cần khóa.
+ */
+@Component
+@Slf4j
+public class StationSpatialIndex {
+
+    static final double CELL_DEG = 0.1;
+    private static final double KM_PER_DEG = 111.19;
+
+    public record Hit(Integer stationId, double distanceKm) {}
+
+    /**
+     * Điểm đưa vào chỉ mục.
+     */
+    public record Point(Integer stationId, double latitude, double longitude) {}
+
+    private volatile Grid grid = Grid.EMPTY;
+
+    // ==================== BUILD ====================
+
+    /**
+     * Dựng lại lưới nếu tập trạm hoặc tọa độ thay đổi.
+     *
+     * @return true nếu lưới được dựng lại
+     */
+    public boolean rebuildIfChanged(Collection<Point> points) {
+        if (points.isEmpty() && grid.size() == 0) return false;
+        long fingerprint = fingerprint(points);
+        if (fingerprint == grid.fingerprint && points.size() == grid.size()) return false;
+
+        grid = Grid.build(points, fingerprint);
+        log.info("StationSpatialIndex: dựng lại lưới {} trạm / {} ô", grid.size(), grid.cells.size());
+        return true;
+    }
+
+    public int size() {
+        return grid.size();
+    }
+
+    // ==================== TRUY VẤN ====================
+
+    /**
+     * Các trạm trong bán kính, gần nhất trước.
+     */
+    public List<Hit> withinRadius(double lat, double lng, double radiusKm) {
+        Grid g = grid;
+        List<Hit> hits = new ArrayList<>();
+        if (g.size() == 0) return hits;
+
+        double dLat = radiusKm / KM_PER_DEG;
+        double dLng = radiusKm / kmPerDegLng(Math.abs(lat) + dLat);
+
+        if (dLng >= 180) {
+            for (int i = 0; i < g.size(); i++) collectIfWithin(g, i, lat, lng, radiusKm, hits);
+        } else {
+            int y0 = cell(lat - dLat), y1 = cell(lat + dLat);
+            int x0 = cell(lng - dLng), x1 = cell(lng + dLng);
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    int[] ordinals = g.cells.get(key(y, x));
+                    if (ordinals == null) continue;
+                    for (int i : ordinals) collectIfWithin(g, i, lat, lng, radiusKm, hits);
+                }
+            }
+        }
+
+        hits.sort(Comparator.comparingDouble(Hit::distanceKm));
+        return hits;
+    }
+
+    /**
+     * k trạm gần nhất trong phạm vi maxRadiusKm, gần nhất trước.
+     */
+    public List<Hit> nearest(double lat, double lng, int k, double maxRadiusKm) {
+        Grid g = grid;
+        if (k <= 0 || g.size() == 0) return new ArrayList<>();
+
+        int cy = cell(lat), cx = cell(lng);
+        int maxRing = Math.max(
+                Math.max(Math.abs(cy - g.minY), Math.abs(g.maxY - cy)),
+                Math.max(Math.abs(cx - g.minX), Math.abs(g.maxX - cx)));
+
+        // max-heap theo khoảng cách, giữ tối đa k phần tử
+        PriorityQueue<Hit> best = new PriorityQueue<>(k, Comparator.comparingDouble(Hit::distanceKm).reversed());
+
+        for (int r = 0; r <= maxRing; r++) {
+            for (int dy = -r; dy <= r; dy++) {
+                boolean edgeRow = Math.abs(dy) == r;
+                for (int dx = -r; dx <= r; dx += edgeRow ? 1 : Math.max(1, 2 * r)) {
+                    int[] ordinals = g.cells.get(key(cy + dy, cx + dx));
+                    if (ordinals == null) continue;
+                    for (int i : ordinals) {
+                        double d = GeoUtils.haversineKm(lat, lng, g.lat[i], g.lng[i]);
+                        if (d > maxRadiusKm) continue;
+                        if (best.size() < k) {
+                            best.add(new Hit(g.stationIds[i], d));
+                        } else if (d < best.peek().distanceKm()) {
+                            best.poll();
+                            best.add(new Hit(g.stationIds[i], d));
+                        }
+                    }
+                }
+            }
+
+            // Mọi trạm ngoài vòng r cách điểm truy vấn ít nhất "covered" km
+            double covered = r * CELL_DEG * kmPerDegLng(Math.abs(lat) + (r + 1) * CELL_DEG);
+            if (best.size() == k && best.peek().distanceKm() <= covered) break;
+            if (covered > maxRadiusKm) break;
+        }
+
+        List<Hit> result = new ArrayList<>(best);
+        result.sort(Comparator.comparingDouble(Hit::distanceKm));
+        return result;
+    }
+
+    // ==================== HELPER ====================
+
+    private static void collectIfWithin(Grid g, int i, double lat, double lng, double radiusKm, List<Hit> out) {
+        double d = GeoUtils.haversineKm(lat, lng, g.lat[i], g.lng[i]);
+        if (d <= radiusKm) out.add(new Hit(g.stationIds[i], d));
+    }
+
+    // km trên 1 độ kinh tuyến tại vĩ độ (độ); kẹp ở 89° để tránh chia cho 0
+    private static double kmPerDegLng(double absLatDeg) {
+        return KM_PER_DEG * Math.cos(Math.toRadians(Math.min(89.0, absLatDeg)));
+    }
+
+    private static int cell(double deg) {
+        return (int) Math.floor(deg / CELL_DEG);
+    }
+
+    private static long key(int y, int x) {
+        return ((long) y << 32) | (x & 0xffffffffL);
+    }
+
+    private static long fingerprint(Collection<Point> points) {
+        long h = 1;
+        for (Point p : points) {
+            h = 31 * h + p.stationId();
+            h = 31 * h + Double.hashCode(p.latitude());
+            h = 31 * h + Double.hashCode(p.longitude());
+        }
+        return h;
+    }
+
+    /**
+     * Lưới bất biến: mảng tọa độ theo ordinal + map ô → các ordinal trong ô.
+     */
+    private static final class Grid {
+        static final Grid EMPTY = new Grid(new Integer[0], new double[0], new double[0], Map.of(), 0, 0, 0, 0, 0);
+
+        final Integer[] stationIds;
+        final double[] lat;
+        final double[] lng;
+        final Map<Long, int[]> cells;
+        final int minY, maxY, minX, maxX;
+        final long fingerprint;
+
+        Grid(Integer[] stationIds, double[] lat, double[] lng, Map<Long, int[]> cells,
+             int minY, int maxY, int minX, int maxX, long fingerprint) {
+            this.stationIds = stationIds;
+            this.lat = lat;
+            this.lng = lng;
+            this.cells = cells;
+            this.minY = minY;
+            this.maxY = maxY;
+            this.minX = minX;
+            this.maxX = maxX;
+            this.fingerprint = fingerprint;
+        }
+
+        int size() {
+            return stationIds.length;
+        }
+
+        static Grid build(Collection<Point> points, long fingerprint) {
+            int n = points.size();
+            Integer[] ids = new Integer[n];
+            double[] lat = new double[n];
+            double[] lng = new double[n];
+            Map<Long, List<Integer>> buckets = new HashMap<>();
+            int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE, minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+
+            int i = 0;
+            for (Point p : points) {
+                ids[i] = p.stationId();
+                lat[i] = p.latitude();
+                lng[i] = p.longitude();
+                int y = cell(p.latitude()), x = cell(p.longitude());
+                minY = Math.min(minY, y);
+                maxY = Math.max(maxY, y);
+                minX = Math.min(minX, x);
+                maxX = Math.max(maxX, x);
+                buckets.computeIfAbsent(key(y, x), k -> new ArrayList<>()).add(i);
+                i++;
+            }
+
+            Map<Long, int[]> cells = new HashMap<>(buckets.size() * 2);
+            buckets.forEach((k, list) -> cells.put(k, list.stream().mapToInt(Integer::intValue).toArray()));
+
+            if (n == 0) return EMPTY;
+            return new Grid(ids, lat, lng, cells, minY, maxY, minX, maxX, fingerprint);
+        }
+    }
+}
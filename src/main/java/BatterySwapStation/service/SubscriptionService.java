@@ -1,10 +1,12 @@
 package BatterySwapStation.service;
 
+import BatterySwapStation.config.CacheConfig;
 import BatterySwapStation.dto.SubscriptionRequest;
 import BatterySwapStation.dto.UseSwapRequest;
 import BatterySwapStation.entity.*;
 import BatterySwapStation.repository.*;
 import lombok.RequiredArgsConstructor;
+import org.springframework.cache.CacheManager;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -15,6 +17,7 @@ import jakarta.persistence.EntityNotFoundException;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +38,7 @@ public class SubscriptionService {
     private final BookingRepository bookingRepository;
     private final ApplicationEventPublisher eventPublisher;
     private final PaymentRepository paymentRepository;
+    private final CacheManager cacheManager;
 
 
 
@@ -391,11 +395,14 @@ public class SubscriptionService {
 
     /**
      * Lấy tất cả các gói SubscriptionPlan có sẵn.
-     * (Giữ nguyên, phiên bản này đã đúng)
+     * Danh sách gói đọc từ cache "subscriptionPlans" (loader gọi findAllSimplePlans).
      */
     @Transactional(readOnly = true)
+    @SuppressWarnings("unchecked")
     public List<Map<String, Object>> getAllSubscriptionPlans() {
-        List<Map<String, Object>> rows = subscriptionPlanRepository.findAllSimplePlans();
+        List<Map<String, Object>> rows = cacheManager.getCache(CacheConfig.SUBSCRIPTION_PLANS)
+                .get(CacheConfig.ALL_PLANS_KEY, List.class);
+        if (rows == null) rows = List.of();
 
         return rows.stream().map(row -> {
             Map<String, Object> plan = new HashMap<>(row);
@@ -477,7 +484,18 @@ public class SubscriptionService {
         Invoice savedInvoice = invoiceRepository.save(invoice); // <-- Lấy Hóa đơn đã lưu
         log.info("Invoice #{} đã được chuyển sang PAID.", savedInvoice.getInvoiceId());
 
-        // c. Bắn (Publish) Sự kiện
+        // c. Kích hoạt booking ngay trong transaction này (giống IPN VNPay), không chờ outbox
+        List<Booking> activated = new ArrayList<>();
+        for (Booking booking : bookingRepository.findByInvoice(savedInvoice)) {
+            if (booking.getBookingStatus() == Booking.BookingStatus.PENDINGPAYMENT) {
+                booking.setBookingStatus(Booking.BookingStatus.PENDINGSWAPPING);
+                activated.add(booking);
+            }
+        }
+        bookingRepository.saveAll(activated);
+        log.info("Invoice #{}: kích hoạt {} booking sang PENDINGSWAPPING.", savedInvoice.getInvoiceId(), activated.size());
+
+        // d. Bắn (Publish) Sự kiện
         log.info("Phát sự kiện InvoicePaidEvent cho Invoice #{}", savedInvoice.getInvoiceId());
         eventPublisher.publishEvent(new InvoicePaidEvent(this, savedInvoice));
         // --- (Hết code mới) ---
@@ -4,7 +4,6 @@ import BatterySwapStation.dto.*;
 import BatterySwapStation.entity.*;
 import BatterySwapStation.repository.*;
 import BatterySwapStation.websocket.BatterySocketController;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
@@ -30,7 +29,6 @@ public class SwapService {
     private final DockSlotRepository dockSlotRepository;
     private final StaffAssignRepository staffAssignRepository;
     private final BatterySocketController batterySocketController;
-    private final ObjectMapper objectMapper = new ObjectMapper();
 
     // ====================== CANCEL SWAP ======================
     @Transactional
@@ -331,8 +329,7 @@ public class SwapService {
                     .timestamp(LocalDateTime.now().toString())
                     .build();
 
-            String json = objectMapper.writeValueAsString(event);
-            batterySocketController.broadcastToStation(event.getStationId(), json);
+            batterySocketController.publishBatteryEvent(event);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -1,9 +1,12 @@
 package BatterySwapStation.service;
 
+import BatterySwapStation.config.CacheConfig;
 import BatterySwapStation.entity.SystemPrice;
 import BatterySwapStation.repository.SystemPriceRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -11,8 +14,6 @@ import jakarta.annotation.PostConstruct;
 import jakarta.persistence.EntityNotFoundException; // Dùng jakarta
 import java.util.List;
 import java.util.Optional;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 @RequiredArgsConstructor
@@ -21,9 +22,12 @@ import java.util.concurrent.ConcurrentHashMap;
 public class SystemPriceService {
 
     private final SystemPriceRepository systemPriceRepository;
+    private final CacheManager cacheManager;
 
-    // 🚀 Cache SystemPrice để tránh query lặp lại
-    private final Map<SystemPrice.PriceType, Double> priceCache = new ConcurrentHashMap<>();
+    // 🚀 Cache SystemPrice (vùng "systemPrices" trong CacheConfig: TTL + refresh-ahead)
+    private Cache priceCache() {
+        return cacheManager.getCache(CacheConfig.SYSTEM_PRICES);
+    }
 
     // [ĐÃ XÓA] - Hằng số DEFAULT_PRICE = 15000.0 đã bị xóa.
     // Giá mặc định giờ sẽ được quản lý trong database.
@@ -34,24 +38,25 @@ public class SystemPriceService {
     @PostConstruct
     public void initPriceCache() {
         List<SystemPrice> allPrices = systemPriceRepository.findAll();
+        Cache cache = priceCache();
         for (SystemPrice price : allPrices) {
-            priceCache.put(price.getPriceType(), price.getPrice());
+            if (price.getPrice() != null) cache.put(price.getPriceType(), price.getPrice());
         }
-        log.info("✅ SystemPrice cache khởi tạo thành công với {} loại giá", priceCache.size());
+        log.info("✅ SystemPrice cache khởi tạo thành công với {} loại giá", allPrices.size());
     }
 
     /**
      * 🚀 Refresh cache (gọi sau khi update giá)
      */
     public void refreshCache() {
-        priceCache.clear();
+        priceCache().clear();
         initPriceCache();
     }
 
     /**
      * [THAY THẾ HÀM CŨ]
      * Lấy giá trị của một loại giá cụ thể bằng Enum.
-     * 🚀 TÍCH HỢP CACHE - Không query DB nữa, chỉ đọc từ Map
+     * 🚀 TÍCH HỢP CACHE - Đọc từ cache; miss sẽ do loader của cache nạp từ DB
      *
      * @param priceType Loại giá (ví dụ: SystemPrice.PriceType.BATTERY_SWAP)
      * @return Giá trị Double
@@ -59,14 +64,11 @@ public class SystemPriceService {
      */
     @Transactional(readOnly = true)
     public Double getPriceByType(SystemPrice.PriceType priceType) {
-        Double cachedPrice = priceCache.get(priceType);
-        if (cachedPrice != null) {
-            return cachedPrice;
+        Double price = priceCache().get(priceType, Double.class);
+        if (price == null) {
+            throw new EntityNotFoundException("Không tìm thấy cấu hình giá cho loại: " + priceType);
         }
-        // Fallback nếu cache chưa có (case edge)
-        log.warn("⚠️ Cache miss cho PriceType: {}. Đang query database...", priceType);
-        return systemPriceRepository.findPriceByPriceType(priceType)
-                .orElseThrow(() -> new EntityNotFoundException("Không tìm thấy cấu hình giá cho loại: " + priceType));
+        return price;
     }
 
     /**
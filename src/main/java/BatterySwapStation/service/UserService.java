@@ -1,5 +1,6 @@
 package BatterySwapStation.service;
 
+import BatterySwapStation.config.CacheConfig;
 import BatterySwapStation.dto.ChangePasswordRequest;
 import BatterySwapStation.dto.ChangePhoneRequest;
 import BatterySwapStation.dto.RegisterRequest;
@@ -14,6 +15,7 @@ import jakarta.persistence.EntityNotFoundException;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
@@ -75,6 +77,7 @@ public class UserService {
         return passwordEncoder.matches(rawPassword, encodedPassword);
     }
 
+    @Cacheable(cacheNames = CacheConfig.USERS, key = "#userId", unless = "#result == null")
     public User findById(String userId) {
         return userRepository.findById(userId).orElse(null);
     }
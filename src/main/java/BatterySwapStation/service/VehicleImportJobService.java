@@ -0,0 +1,214 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.dto.VehicleImportErrorDTO;
+import BatterySwapStation.dto.VehicleImportJobDTO;
+import BatterySwapStation.dto.VehicleImportResultDTO;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Import xe chạy nền: upload trả jobId ngay, client hỏi trạng thái theo jobId.
+ *
+ * - File upload được chép ra file tạm trước khi request kết thúc (multipart bị Tomcat xóa sau request).
+ * - Job chạy qua {@link BackgroundJobRegistry}: {@code vehicle-import.workers} thread, hàng đợi tối đa
+ *   {@code vehicle-import.queue-capacity} job; job đã xong bị xóa sau {@code vehicle-import.job-retention-minutes} phút.
+ */
+@Service
+@Slf4j
+public class VehicleImportJobService {
+
+    // Số lỗi từng dòng tối đa giữ trong 1 job (failureCount vẫn đếm đủ)
+    private static final int MAX_JOB_ERRORS = 1000;
+
+    private final VehicleImportService vehicleImportService;
+    private final BackgroundJobRegistry<Job> jobs;
+
+    public VehicleImportJobService(VehicleImportService vehicleImportService,
+                                   @Value("${vehicle-import.workers:2}") int workers,
+                                   @Value("${vehicle-import.queue-capacity:10}") int queueCapacity,
+                                   @Value("${vehicle-import.job-retention-minutes:60}") long retentionMinutes) {
+        this.vehicleImportService = vehicleImportService;
+        this.jobs = new BackgroundJobRegistry<>("vehicle-import", workers, queueCapacity,
+                Duration.ofMinutes(retentionMinutes));
+    }
+
+    /**
+     * Nhận file và xếp hàng job.
+     *
+     * @throws IllegalArgumentException file rỗng / không phải CSV
+     * @throws RejectedExecutionException hàng đợi import đang đầy
+     */
+    public VehicleImportJobDTO submit(MultipartFile file, int startRow) throws IOException {
+        vehicleImportService.validateFile(file);
+
+        Path tempFile = Files.createTempFile("vehicle-import-", ".csv");
+        try (InputStream in = file.getInputStream()) {
+            Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+
+        Job job = new Job(UUID.randomUUID().toString(), file.getOriginalFilename(), startRow);
+        try {
+            jobs.submit(job, () -> run(job, tempFile), "Đang có quá nhiều file chờ import, vui lòng thử lại sau");
+        } catch (RejectedExecutionException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        log.info("Import xe: nhận job {} ({})", job.id, job.fileName);
+        return job.snapshot();
+    }
+
+    /**
+     * @return null nếu không có job (sai id hoặc đã quá hạn lưu)
+     */
+    public VehicleImportJobDTO getJob(String jobId) {
+        Job job = jobs.get(jobId);
+        return job == null ? null : job.snapshot();
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void evictExpiredJobs() {
+        jobs.evictFinished();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        jobs.shutdown();
+    }
+
+    private void run(Job job, Path tempFile) {
+        job.start();
+        try (InputStream in = Files.newInputStream(tempFile)) {
+            VehicleImportResultDTO result = vehicleImportService.importVehicles(in, job.startRow, job::progress);
+            job.finish(result);
+            log.info("Import xe: job {} xong – {} dòng, {} thành công, {} lỗi",
+                    job.id, result.getTotalRows(), result.getSuccessCount(), result.getFailureCount());
+        } catch (Exception e) {
+            log.error("Import xe: job {} thất bại: {}", job.id, e.getMessage(), e);
+            job.fail(e.getMessage());
+        } finally {
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                log.warn("Import xe: không xóa được file tạm {}: {}", tempFile, e.getMessage());
+            }
+        }
+    }
+
+    // Trạng thái có thể thay đổi của 1 job; thread import ghi, thread HTTP đọc qua snapshot()
+    private static final class Job implements BackgroundJobRegistry.TrackedJob {
+        final String id;
+        final String fileName;
+        final int startRow;
+        final LocalDateTime createdAt = LocalDateTime.now();
+        private final List<VehicleImportErrorDTO> errors = new ArrayList<>();
+
+        private VehicleImportJobDTO.Status status = VehicleImportJobDTO.Status.QUEUED;
+        private long startedNanos;
+        private LocalDateTime startedAt;
+        private volatile LocalDateTime finishedAt;
+        private long elapsedNanos;
+        private int rowsParsed;
+        private int rowsInserted;
+        private int failureCount;
+        private Integer resumeFromRow;
+        private String message;
+
+        Job(String id, String fileName, int startRow) {
+            this.id = id;
+            this.fileName = fileName;
+            this.startRow = startRow;
+        }
+
+        @Override
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public LocalDateTime finishedAt() {
+            return finishedAt;
+        }
+
+        synchronized void start() {
+            status = VehicleImportJobDTO.Status.RUNNING;
+            startedAt = LocalDateTime.now();
+            startedNanos = System.nanoTime();
+        }
+
+        synchronized void progress(int processedRows, int successCount, int failures, List<VehicleImportErrorDTO> newErrors) {
+            rowsParsed = processedRows;
+            rowsInserted = successCount;
+            failureCount = failures;
+            for (VehicleImportErrorDTO error : newErrors) {
+                if (errors.size() >= MAX_JOB_ERRORS) break;
+                errors.add(error);
+            }
+        }
+
+        synchronized void finish(VehicleImportResultDTO result) {
+            rowsParsed = result.getTotalRows();
+            rowsInserted = result.getSuccessCount();
+            failureCount = result.getFailureCount();
+            resumeFromRow = result.getResumeFromRow();
+            if (resumeFromRow == null) {
+                status = VehicleImportJobDTO.Status.COMPLETED;
+            } else {
+                status = VehicleImportJobDTO.Status.FAILED;
+                message = "Import dừng tại dòng " + resumeFromRow + "; gửi lại file với startRow=" + resumeFromRow;
+            }
+            end();
+        }
+
+        synchronized void fail(String error) {
+            status = VehicleImportJobDTO.Status.FAILED;
+            message = error;
+            end();
+        }
+
+        private void end() {
+            elapsedNanos = System.nanoTime() - startedNanos;
+            finishedAt = LocalDateTime.now();
+        }
+
+        synchronized VehicleImportJobDTO snapshot() {
+            long nanos = finishedAt != null ? elapsedNanos
+                    : startedAt != null ? System.nanoTime() - startedNanos : 0;
+            double rate = nanos > 0 ? rowsParsed * 1_000_000_000d / nanos : 0;
+            return VehicleImportJobDTO.builder()
+                    .jobId(id)
+                    .status(status)
+                    .fileName(fileName)
+                    .startRow(startRow)
+                    .rowsParsed(rowsParsed)
+                    .rowsInserted(rowsInserted)
+                    .failureCount(failureCount)
+                    .rowsPerSecond(Math.round(rate * 10) / 10d)
+                    .errors(List.copyOf(errors))
+                    .resumeFromRow(resumeFromRow)
+                    .message(message)
+                    .createdAt(createdAt)
+                    .startedAt(startedAt)
+                    .finishedAt(finishedAt)
+                    .build();
+        }
+    }
+}
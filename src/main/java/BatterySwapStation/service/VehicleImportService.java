@@ -9,40 +9,83 @@ import BatterySwapStation.entity.VehicleBattery;
 import BatterySwapStation.repository.BatteryRepository;
 import BatterySwapStation.repository.VehicleBatteryRepository;
 import BatterySwapStation.repository.VehicleRepository;
+import BatterySwapStation.utils.CsvTokenizer;
+import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.regex.Pattern;
 
+/**
+ * Import xe từ CSV theo kiểu streaming.
+ *
+ * - File được đọc từng bản ghi (CsvTokenizer), gom thành chunk {@code vehicle-import.chunk-size} dòng;
+ *   không giữ cả file trong bộ nhớ.
+ * - Mỗi chunk: kiểm tra định dạng trong bộ nhớ, kiểm tra VIN / biển số / battery id đã tồn tại bằng vài query IN,
+ *   rồi ghi xe + liên kết pin trong 1 transaction riêng (INSERT/UPDATE được gộp JDBC batch).
+ * - Chunk ghi lỗi → dừng; kết quả có resumeFromRow, các chunk trước đó đã commit. Gửi lại file với
+ *   startRow = resumeFromRow để chạy tiếp.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class VehicleImportService {
 
-    private static final String CSV_SPLIT_REGEX = ",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)";
+    // Thứ tự cột khi file không có dòng tiêu đề
+    private static final String[] DEFAULT_HEADERS = {
+            "vin", "vehicletype", "batterytype", "ownername", "licenseplate", "color", "batterycount", "manufacturedate", "purchasedate", "battery_ids"
+    };
+
+    // Giữ tối đa chừng này lỗi chi tiết trong kết quả (vẫn đếm đủ failureCount)
+    private static final int MAX_REPORTED_ERRORS = 1000;
+
+    // VIN must be 17 chars: allowed A-Z (except I O Q) and 0-9
+    private static final Pattern VIN_PATTERN = Pattern.compile("^[A-HJ-NPR-Z0-9]{17}$");
 
     private final VehicleRepository vehicleRepository;
     private final BatteryRepository batteryRepository;
     private final VehicleBatteryRepository vehicleBatteryRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityManager entityManager;
 
-    // VIN must be 17 chars: allowed A-Z (except I O Q) and 0-9
-    private static final Pattern VIN_PATTERN = Pattern.compile("^[A-HJ-NPR-Z0-9]{17}$");
+    @Value("${vehicle-import.chunk-size:1000}")
+    private int chunkSize;
+
+    /**
+     * Nhận tiến độ sau mỗi chunk đã ghi xong; {@code newErrors} là lỗi từng dòng của riêng chunk đó.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        ProgressListener NONE = (processedRows, successCount, failureCount, newErrors) -> {};
+
+        void onProgress(int processedRows, int successCount, int failureCount, List<VehicleImportErrorDTO> newErrors);
+    }
 
-    @Transactional
     public VehicleImportResultDTO importVehiclesFromCSV(MultipartFile file) throws IOException {
+        return importVehiclesFromCSV(file, 0);
+    }
 
+    public VehicleImportResultDTO importVehiclesFromCSV(MultipartFile file, int startRow) throws IOException {
+        validateFile(file);
+        try (InputStream in = file.getInputStream()) {
+            return importVehicles(in, startRow, ProgressListener.NONE);
+        }
+    }
+
+    public void validateFile(MultipartFile file) {
         if (file.isEmpty()) {
             throw new IllegalArgumentException("File CSV không được để trống");
         }
@@ -50,174 +93,134 @@ public class VehicleImportService {
         if (!isCSVFile(file)) {
             throw new IllegalArgumentException("File phải có định dạng .csv");
         }
-
-        List<VehicleImportDTO> parsedVehicles = parseCSV(file);
-        return processImport(parsedVehicles);
     }
 
-    private List<VehicleImportDTO> parseCSV(MultipartFile file) throws IOException {
-        List<VehicleImportDTO> vehicles = new ArrayList<>();
-
-        // expected header order (fallback positions)
-        final String[] expectedHeaders = new String[]{
-                "vin", "vehicletype", "batterytype", "ownername", "licenseplate", "color", "batterycount", "manufacturedate", "purchasedate", "battery_ids"
-        };
-
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8))) {
+    /**
+     * @param startRow bỏ qua các bản ghi có số thứ tự nhỏ hơn giá trị này (dòng tiêu đề là dòng 1; 0 = từ đầu)
+     */
+    public VehicleImportResultDTO importVehicles(InputStream in, int startRow, ProgressListener listener) throws IOException {
+        CsvTokenizer csv = new CsvTokenizer(new InputStreamReader(in, StandardCharsets.UTF_8));
 
-            String headerLine = reader.readLine();
+        List<String> first = csv.next();
+        if (first == null) {
+            throw new IllegalArgumentException("File CSV rỗng");
+        }
 
-            if (headerLine == null) {
-                throw new IllegalArgumentException("File CSV rỗng");
-            }
+        ImportState state = new ImportState();
+        List<Row> chunk = new ArrayList<>(chunkSize);
 
-            // normalize header line (remove BOM if present) and split
-            headerLine = headerLine.replace("\uFEFF", "");
-            log.debug("CSV header raw: [{}]", headerLine);
-            String[] headers = headerLine.split(CSV_SPLIT_REGEX, -1);
-            Map<String, Integer> headerIndex = new HashMap<>();
-            for (int i = 0; i < headers.length; i++) {
-                String key = headers[i].trim().toLowerCase();
-                // remove surrounding quotes if any
-                if (key.startsWith("\"") && key.endsWith("\"")) key = key.substring(1, key.length() - 1).trim();
-                headerIndex.put(key, i);
-            }
+        Map<String, Integer> headerIndex = headerIndex(first);
+        if (headerIndex == null) {
+            // Dòng đầu không phải tiêu đề → dùng thứ tự cột mặc định và coi dòng đầu là dữ liệu
+            headerIndex = new HashMap<>();
+            for (int i = 0; i < DEFAULT_HEADERS.length; i++) headerIndex.put(DEFAULT_HEADERS[i], i);
+            if (startRow <= 1) chunk.add(parseRow(1, first, headerIndex));
+        }
 
-            log.debug("Detected CSV headers: {}", headerIndex.keySet());
+        List<String> record;
+        while ((record = csv.next()) != null) {
+            int rowNumber = (int) csv.recordNumber();
+            if (rowNumber < startRow || isBlank(record)) continue;
 
-            // If first line doesn't look like a header (no known column names),
-            // treat it as data and parse it as the first row.
-            boolean looksLikeHeader = false;
-            for (String h : headerIndex.keySet()) {
-                if (h.contains("vin") || h.contains("vehicletype") || h.contains("batterytype") || h.contains("licenseplate")) {
-                    looksLikeHeader = true;
-                    break;
-                }
+            chunk.add(parseRow(rowNumber, record, headerIndex));
+            if (chunk.size() >= chunkSize) {
+                if (!processChunk(chunk, state, listener)) return state.result();
+                chunk.clear();
             }
+        }
 
-            int rowNumber = 1;
+        if (!chunk.isEmpty()) {
+            if (!processChunk(chunk, state, listener)) return state.result();
+        }
 
-            if (!looksLikeHeader) {
-                // headerLine is actually data -> build a default headerIndex based on expected headers
-                headerIndex.clear();
-                for (int i = 0; i < expectedHeaders.length; i++) {
-                    headerIndex.put(expectedHeaders[i], i);
-                }
+        log.info("Import xe: {} dòng, {} thành công, {} lỗi", state.totalRows, state.successCount, state.failureCount);
+        return state.result();
+    }
 
-                try {
-                    VehicleImportDTO dto = parseCSVLine(headerLine, headerIndex);
-                    log.debug("Parsed row {} (treated as data): {}", rowNumber + 1, dto.getVIN());
-                    vehicles.add(dto);
-                } catch (Exception e) {
-                    log.error("Lỗi parse dòng {}: {}", rowNumber + 1, e.getMessage());
-                    VehicleImportDTO errorDto = VehicleImportDTO.builder()
-                            .errors(List.of("Lỗi parse dòng: " + e.getMessage()))
-                            .build();
-                    vehicles.add(errorDto);
-                }
-            }
+    // ==================== ĐỌC & KIỂM TRA DÒNG ====================
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                rowNumber++;
+    // 1 dòng dữ liệu đã parse; ngày được parse 1 lần ở bước kiểm tra và giữ lại để ghi
+    private static final class Row {
+        final int rowNumber;
+        final VehicleImportDTO dto;
+        LocalDate manufactureDate;
+        LocalDate purchaseDate;
 
-                if (line.trim().isEmpty()) {
-                    log.debug("Skipping empty CSV line {}", rowNumber);
-                    continue;
-                }
+        Row(int rowNumber, VehicleImportDTO dto) {
+            this.rowNumber = rowNumber;
+            this.dto = dto;
+        }
+    }
 
-                try {
-                    log.debug("Parsing CSV line {}: {}", rowNumber, line);
-                    VehicleImportDTO dto = parseCSVLine(line, headerIndex);
-                    log.debug("Parsed DTO VIN={} license={} errors={}", dto.getVIN(), dto.getLicensePlate(), dto.getErrors());
-                    vehicles.add(dto);
-                } catch (Exception e) {
-                    log.error("Lỗi parse dòng {}: {}", rowNumber, e.getMessage());
-                    VehicleImportDTO errorDto = VehicleImportDTO.builder()
-                            .errors(List.of("Lỗi parse dòng: " + e.getMessage()))
-                            .build();
-                    vehicles.add(errorDto);
-                }
+    // Trả null nếu dòng đầu không giống tiêu đề
+    private static Map<String, Integer> headerIndex(List<String> first) {
+        Map<String, Integer> index = new HashMap<>();
+        boolean looksLikeHeader = false;
+        for (int i = 0; i < first.size(); i++) {
+            String key = first.get(i).trim().toLowerCase();
+            index.put(key, i);
+            if (key.contains("vin") || key.contains("vehicletype") || key.contains("batterytype") || key.contains("licenseplate")) {
+                looksLikeHeader = true;
             }
         }
-
-        long validCount = vehicles.stream().filter(v -> v != null && v.isValid()).count();
-        log.info("Parsed {} rows from CSV (including header-treated-if-needed). Valid vehicles: {}", vehicles.size(), validCount);
-        // debug list of vins
-        vehicles.stream().filter(Objects::nonNull).forEach(v -> log.debug("Row VIN={} valid={} errors={}", v.getVIN(), v.isValid(), v.getErrors()));
-
-        return vehicles;
+        log.debug("Detected CSV headers: {}", index.keySet());
+        return looksLikeHeader ? index : null;
     }
 
-    private VehicleImportDTO parseCSVLine(String line, Map<String, Integer> headerIndex) {
-        // split preserving quoted commas
-        String[] columns = line.split(CSV_SPLIT_REGEX, -1);
-
-        // compatible with previous format: VIN,vehicleType,batteryType,ownerName,licensePlate,color,batteryCount,manufactureDate,purchaseDate, battery_ids(optional)
-        String vin = getColumn(columns, headerIndex, "vin", 0);
-        String vehicleType = getColumn(columns, headerIndex, "vehicletype", 1);
-        String batteryType = getColumn(columns, headerIndex, "batterytype", 2);
-        String ownerName = getColumn(columns, headerIndex, "ownername", 3);
-        String licensePlate = getColumn(columns, headerIndex, "licenseplate", 4);
-        String color = getColumn(columns, headerIndex, "color", 5);
-        String batteryCountStr = getColumn(columns, headerIndex, "batterycount", 6);
-        String manufactureDate = getColumn(columns, headerIndex, "manufacturedate", 7);
-        String purchaseDate = getColumn(columns, headerIndex, "purchasedate", 8);
-        String batteryIdsRaw = getColumn(columns, headerIndex, "battery_ids", 9);
-
-        VehicleImportDTO dto = VehicleImportDTO.builder()
-                .VIN(vin)
-                .vehicleType(vehicleType)
-                .batteryType(batteryType)
-                .ownerName(ownerName)
-                .licensePlate(licensePlate)
-                .color(color)
-                .batteryCount(parseSafeInteger(batteryCountStr))
-                .manufactureDate(manufactureDate)
-                .purchaseDate(purchaseDate)
-                .userId(null)
-                .isActive(false)
-                .build();
-
-        // ensure batteryIds list is initialized (defensive)
-        if (dto.getBatteryIds() == null) {
-            dto.setBatteryIds(new ArrayList<>());
-        }
+    private Row parseRow(int rowNumber, List<String> columns, Map<String, Integer> headerIndex) {
+        try {
+            VehicleImportDTO dto = VehicleImportDTO.builder()
+                    .VIN(getColumn(columns, headerIndex, "vin", 0))
+                    .vehicleType(getColumn(columns, headerIndex, "vehicletype", 1))
+                    .batteryType(getColumn(columns, headerIndex, "batterytype", 2))
+                    .ownerName(getColumn(columns, headerIndex, "ownername", 3))
+                    .licensePlate(getColumn(columns, headerIndex, "licenseplate", 4))
+                    .color(getColumn(columns, headerIndex, "color", 5))
+                    .batteryCount(parseSafeInteger(getColumn(columns, headerIndex, "batterycount", 6)))
+                    .manufactureDate(getColumn(columns, headerIndex, "manufacturedate", 7))
+                    .purchaseDate(getColumn(columns, headerIndex, "purchasedate", 8))
+                    .userId(null)
+                    .isActive(false)
+                    .build();
+
+            String batteryIdsRaw = getColumn(columns, headerIndex, "battery_ids", 9);
+            if (batteryIdsRaw != null && !batteryIdsRaw.isBlank()) {
+                for (String part : batteryIdsRaw.split("[,;]")) {
+                    String id = part.trim();
+                    if (!id.isEmpty()) dto.getBatteryIds().add(id);
+                }
+            }
 
-        // parse battery ids list
-        if (batteryIdsRaw != null && !batteryIdsRaw.isBlank()) {
-            String[] parts = batteryIdsRaw.split("[,;]");
-            List<String> ids = Arrays.stream(parts)
-                    .map(String::trim)
-                    .filter(s -> !s.isEmpty())
-                    .toList();
-            dto.getBatteryIds().addAll(ids);
+            Row row = new Row(rowNumber, dto);
+            validateFormat(row);
+            return row;
+        } catch (Exception e) {
+            log.error("Lỗi parse dòng {}: {}", rowNumber, e.getMessage());
+            VehicleImportDTO errorDto = VehicleImportDTO.builder()
+                    .errors(new ArrayList<>(List.of("Lỗi parse dòng: " + e.getMessage())))
+                    .build();
+            return new Row(rowNumber, errorDto);
         }
-
-        validateDTO(dto);
-        return dto;
     }
 
-    private String getColumn(String[] columns, Map<String, Integer> headerIndex, String name, int fallbackIdx) {
-        Integer idx = headerIndex.get(name.toLowerCase());
-        if (idx != null && idx < columns.length) return unquote(columns[idx]);
-        if (fallbackIdx >= 0 && fallbackIdx < columns.length) return unquote(columns[fallbackIdx]);
+    private static String getColumn(List<String> columns, Map<String, Integer> headerIndex, String name, int fallbackIdx) {
+        Integer idx = headerIndex.get(name);
+        if (idx != null && idx < columns.size()) return columns.get(idx).trim();
+        if (fallbackIdx >= 0 && fallbackIdx < columns.size()) return columns.get(fallbackIdx).trim();
         return null;
     }
 
-    // small helper unquote
-    private static String unquote(String s) {
-        if (s == null) return null;
-        s = s.trim();
-        if (s.startsWith("\"") && s.endsWith("\"") && s.length() >= 2) {
-            return s.substring(1, s.length() - 1);
+    private static boolean isBlank(List<String> record) {
+        for (String field : record) {
+            if (!field.isBlank()) return false;
         }
-        return s;
+        return true;
     }
 
-    private void validateDTO(VehicleImportDTO dto) {
-        List<String> errors = new ArrayList<>();
+    // Các kiểm tra không cần DB
+    private void validateFormat(Row row) {
+        VehicleImportDTO dto = row.dto;
+        List<String> errors = dto.getErrors();
 
         // normalize VIN: uppercase, remove non-alphanumeric characters
         String rawVin = dto.getVIN();
@@ -226,11 +229,8 @@ public class VehicleImportService {
         if (rawVin == null || rawVin.isEmpty()) {
             errors.add("VIN không được để trống");
         } else {
-            // enforce 17-char VIN format
             if (!VIN_PATTERN.matcher(rawVin).matches()) {
                 errors.add("VIN không hợp lệ: phải là 17 ký tự chữ in hoa và số (không chứa I,O,Q). Ví dụ: LFVTH1A10N0000337");
-            } else if (vehicleRepository.existsByVIN(rawVin)) {
-                errors.add("VIN đã tồn tại");
             }
             // set normalized VIN back to dto so saved entity uses canonical form
             dto.setVIN(rawVin);
@@ -248,19 +248,13 @@ public class VehicleImportService {
             errors.add("Loại pin không hợp lệ");
         }
 
-        if (dto.getLicensePlate() != null && !dto.getLicensePlate().isEmpty()) {
-            if (vehicleRepository.existsByLicensePlate(dto.getLicensePlate())) {
-                errors.add("Biển số xe đã tồn tại");
-            }
-        }
-
         if (dto.getBatteryCount() == null || dto.getBatteryCount() < 1) {
             errors.add("Số lượng pin phải >= 1");
         }
 
         if (dto.getManufactureDate() != null && !dto.getManufactureDate().isEmpty()) {
             try {
-                parseFlexibleDate(dto.getManufactureDate());
+                row.manufactureDate = parseFlexibleDate(dto.getManufactureDate());
             } catch (DateTimeParseException e) {
                 errors.add("Ngày sản xuất không hợp lệ. Chấp nhận: YYYY-MM-DD, DD/MM/YYYY, DD-MM-YYYY");
             }
@@ -268,173 +262,224 @@ public class VehicleImportService {
 
         if (dto.getPurchaseDate() != null && !dto.getPurchaseDate().isEmpty()) {
             try {
-                parseFlexibleDate(dto.getPurchaseDate());
+                row.purchaseDate = parseFlexibleDate(dto.getPurchaseDate());
             } catch (DateTimeParseException e) {
                 errors.add("Ngày mua không hợp lệ. Chấp nhận: YYYY-MM-DD, DD/MM/YYYY, DD-MM-YYYY");
             }
         }
 
-        // validate battery ids existence if provided
-        if (dto.getBatteryIds() != null && !dto.getBatteryIds().isEmpty()) {
-            for (String bid : dto.getBatteryIds()) {
-                if (batteryRepository.findById(bid).isEmpty()) {
-                    errors.add("BatteryId not found: " + bid);
-                }
-            }
-            // if battery count provided, ensure length matches
-            if (dto.getBatteryCount() != null && dto.getBatteryCount() != dto.getBatteryIds().size()) {
-                errors.add("batteryCount không khớp với số battery_ids cung cấp");
-            }
+        // if battery count provided, ensure length matches
+        if (!dto.getBatteryIds().isEmpty()
+                && dto.getBatteryCount() != null && dto.getBatteryCount() != dto.getBatteryIds().size()) {
+            errors.add("batteryCount không khớp với số battery_ids cung cấp");
         }
-
-        dto.setErrors(errors);
     }
 
-    private VehicleImportResultDTO processImport(List<VehicleImportDTO> dtos) {
-        int successCount = 0;
-        int failureCount = 0;
-        List<VehicleImportErrorDTO> errors = new ArrayList<>();
+    // ==================== XỬ LÝ CHUNK ====================
+
+    // Trạng thái xuyên suốt 1 lần import
+    private static final class ImportState {
+        int totalRows;
+        int successCount;
+        int failureCount;
+        Integer resumeFromRow;
+        final List<VehicleImportErrorDTO> errors = new ArrayList<>();
+        // Chống trùng trong chính file (giữa các chunk)
+        final Set<String> seenVins = new HashSet<>();
+        final Set<String> seenPlates = new HashSet<>();
+        final Set<String> seenBatteryIds = new HashSet<>();
+
+        void addError(VehicleImportErrorDTO error) {
+            if (errors.size() < MAX_REPORTED_ERRORS) errors.add(error);
+        }
 
-        List<Vehicle> vehiclesToSave = new ArrayList<>();
-        List<Runnable> postSaveActions = new ArrayList<>();
+        VehicleImportResultDTO result() {
+            return VehicleImportResultDTO.builder()
+                    .totalRows(totalRows)
+                    .successCount(successCount)
+                    .failureCount(failureCount)
+                    .errors(errors)
+                    .resumeFromRow(resumeFromRow)
+                    .build();
+        }
+    }
 
-        for (int i = 0; i < dtos.size(); i++) {
-            VehicleImportDTO dto = dtos.get(i);
-            int rowNumber = i + 2;
+    /**
+     * Kiểm tra + ghi 1 chunk trong 1 transaction, rồi báo tiến độ cho listener.
+     *
+     * @return false nếu ghi thất bại (import dừng, state.resumeFromRow = dòng đầu của chunk)
+     */
+    private boolean processChunk(List<Row> chunk, ImportState state, ProgressListener listener) {
+        // Trạng thái chống trùng chỉ được cập nhật khi chunk commit thành công
+        Set<String> chunkVins = new HashSet<>();
+        Set<String> chunkPlates = new HashSet<>();
+        Set<String> chunkBatteryIds = new HashSet<>();
 
-            if (dto == null) {
-                failureCount++;
-                errors.add(VehicleImportErrorDTO.builder().row(rowNumber).errors(List.of("Empty row parsed")).build());
-                continue;
+        try {
+            List<Row> accepted = transactionTemplate.execute(status -> {
+                checkAgainstDatabase(chunk, state, chunkVins, chunkPlates, chunkBatteryIds);
+                return saveChunk(chunk);
+            });
+
+            List<VehicleImportErrorDTO> chunkErrors = new ArrayList<>();
+            for (Row row : chunk) {
+                if (row.dto.isValid()) continue;
+                VehicleImportErrorDTO error = VehicleImportErrorDTO.builder()
+                        .row(row.rowNumber)
+                        .VIN(row.dto.getVIN())
+                        .licensePlate(row.dto.getLicensePlate())
+                        .errors(row.dto.getErrors())
+                        .build();
+                chunkErrors.add(error);
+                state.failureCount++;
+                state.addError(error);
             }
+            state.successCount += accepted.size();
+            state.totalRows += chunk.size();
+            state.seenVins.addAll(chunkVins);
+            state.seenPlates.addAll(chunkPlates);
+            state.seenBatteryIds.addAll(chunkBatteryIds);
+            listener.onProgress(state.totalRows, state.successCount, state.failureCount, chunkErrors);
+            return true;
+        } catch (Exception e) {
+            int from = chunk.get(0).rowNumber;
+            int to = chunk.get(chunk.size() - 1).rowNumber;
+            log.error("Import xe: ghi chunk dòng {}-{} thất bại: {}", from, to, e.getMessage(), e);
+
+            state.resumeFromRow = from;
+            VehicleImportErrorDTO error = VehicleImportErrorDTO.builder()
+                    .row(from)
+                    .errors(List.of("Lỗi ghi dữ liệu dòng " + from + "-" + to + ": " + e.getMessage()
+                            + ". Các dòng trước đã được lưu; import lại với startRow=" + from))
+                    .build();
+            state.addError(error);
+            listener.onProgress(state.totalRows, state.successCount, state.failureCount, List.of(error));
+            return false;
+        } finally {
+            // Dọn persistence context (nếu đang dùng chung theo request) để bộ nhớ không tăng theo số chunk
+            entityManager.clear();
+        }
+    }
+
+    // VIN / biển số / battery id: trùng DB (query IN) hoặc trùng dòng khác trong file
+    private void checkAgainstDatabase(List<Row> chunk, ImportState state,
+                                      Set<String> chunkVins, Set<String> chunkPlates, Set<String> chunkBatteryIds) {
+        Set<String> vins = new HashSet<>();
+        Set<String> plates = new HashSet<>();
+        Set<String> batteryIds = new HashSet<>();
+        for (Row row : chunk) {
+            VehicleImportDTO dto = row.dto;
+            if (dto.getVIN() != null && !dto.getVIN().isEmpty()) vins.add(dto.getVIN());
+            if (dto.getLicensePlate() != null && !dto.getLicensePlate().isEmpty()) plates.add(dto.getLicensePlate());
+            batteryIds.addAll(dto.getBatteryIds());
+        }
+
+        Set<String> existingVins = vins.isEmpty() ? Set.of() : new HashSet<>(vehicleRepository.findExistingVINs(vins));
+        Set<String> existingPlates = plates.isEmpty() ? Set.of() : new HashSet<>(vehicleRepository.findExistingLicensePlates(plates));
+        Set<String> knownBatteryIds = new HashSet<>();
+        if (!batteryIds.isEmpty()) {
+            for (Battery b : batteryRepository.findAllById(batteryIds)) knownBatteryIds.add(b.getBatteryId());
+        }
 
-            if (!dto.isValid()) {
-                failureCount++;
-                errors.add(VehicleImportErrorDTO.builder()
-                        .row(rowNumber)
-                        .VIN(dto.getVIN())
-                        .licensePlate(dto.getLicensePlate())
-                        .errors(dto.getErrors())
-                        .build());
-                continue;
+        for (Row row : chunk) {
+            VehicleImportDTO dto = row.dto;
+            List<String> errors = dto.getErrors();
+            String vin = dto.getVIN();
+            String plate = dto.getLicensePlate();
+
+            if (vin != null && !vin.isEmpty()) {
+                if (existingVins.contains(vin)) {
+                    errors.add("VIN đã tồn tại");
+                } else if (state.seenVins.contains(vin) || !chunkVins.add(vin)) {
+                    errors.add("VIN bị trùng với dòng khác trong file");
+                }
             }
 
-            try {
-                log.debug("Preparing to save vehicle from row {}: VIN={}, license={}, type={}, batteryCount={}", rowNumber, dto.getVIN(), dto.getLicensePlate(), dto.getVehicleType(), dto.getBatteryCount());
-                 Vehicle vehicle = new Vehicle();
-                 vehicle.setVIN(dto.getVIN());
-                 vehicle.setVehicleType(Vehicle.VehicleType.valueOf(dto.getVehicleType()));
-                 vehicle.setBatteryType(Vehicle.BatteryType.valueOf(dto.getBatteryType()));
-                 vehicle.setUser(null); // Xe chưa liên kết với user nào
-                 vehicle.setOwnerName(dto.getOwnerName());
-                 vehicle.setLicensePlate(dto.getLicensePlate());
-                 vehicle.setColor(dto.getColor());
-                 vehicle.setBatteryCount(dto.getBatteryCount());
-
-                 if (dto.getManufactureDate() != null && !dto.getManufactureDate().isEmpty()) {
-                     vehicle.setManufactureDate(parseFlexibleDate(dto.getManufactureDate()));
-                 }
-
-                 if (dto.getPurchaseDate() != null && !dto.getPurchaseDate().isEmpty()) {
-                     vehicle.setPurchaseDate(parseFlexibleDate(dto.getPurchaseDate()));
-                 }
-
-                 vehicle.setActive(false); // Mặc định false - xe chưa được kích hoạt
-
-                 vehiclesToSave.add(vehicle);
-
-                 // prepare post-save action to create VehicleBattery entries with saved vehicle id
-                 if (dto.getBatteryIds() != null && !dto.getBatteryIds().isEmpty()) {
-                     List<String> batteryIds = new ArrayList<>(dto.getBatteryIds());
-                     postSaveActions.add(() -> {
-                         // find saved vehicle by VIN (should exist now)
-                         vehicleRepository.findByVIN(dto.getVIN()).ifPresent(saved -> {
-                             // attach batteries
-                             for (int idx = 0; idx < batteryIds.size(); idx++) {
-                                 String bid = batteryIds.get(idx);
-                                 Optional<Battery> optB = batteryRepository.findById(bid);
-                                 if (optB.isPresent()) {
-                                     Battery b = optB.get();
-                                     VehicleBattery vb = new VehicleBattery();
-                                     vb.setVehicle(saved);
-                                     vb.setBattery(b);
-                                     vb.setAttachTime(LocalDateTime.now());
-                                     vb.setActive(true);
-                                     vb.setPrimary(idx == 0);
-                                     vehicleBatteryRepository.save(vb);
-
-                                     // also set battery.vehicle field for consistency
-                                     b.setVehicle(saved);
-                                     // According to requirement: when battery id is provided with vehicle import,
-                                    // set battery status to IN_USE and clear station/dockSlot to reflect it's attached to a vehicle
-                                    try {
-                                        b.setBatteryStatus(Battery.BatteryStatus.IN_USE);
-                                    } catch (Exception ex) {
-                                        // fallback: if enum not present or other issue, ignore to avoid breaking import
-                                        log.warn("Could not set battery status IN_USE for {}: {}", bid, ex.getMessage());
-                                    }
-                                    b.setStationId(null);
-                                    b.setDockSlot(null);
-                                    batteryRepository.save(b);
-                                 } else {
-                                     log.warn("Battery id {} not found when attaching to vehicle VIN={}", bid, dto.getVIN());
-                                 }
-                             }
-                         });
-                     });
-                 }
-
-                 successCount++;
-
-            } catch (Exception e) {
-                failureCount++;
-                errors.add(VehicleImportErrorDTO.builder()
-                        .row(rowNumber)
-                        .VIN(dto.getVIN())
-                        .licensePlate(dto.getLicensePlate())
-                        .errors(List.of(e.getMessage()))
-                        .build());
+            if (plate != null && !plate.isEmpty()) {
+                if (existingPlates.contains(plate)) {
+                    errors.add("Biển số xe đã tồn tại");
+                } else if (state.seenPlates.contains(plate) || !chunkPlates.add(plate)) {
+                    errors.add("Biển số xe bị trùng với dòng khác trong file");
+                }
             }
-        }
 
-        // save vehicles in batch
-        if (!vehiclesToSave.isEmpty()) {
-            log.info("Saving {} vehicles (VINs: {})", vehiclesToSave.size(), vehiclesToSave.stream().map(Vehicle::getVIN).toList());
-            try {
-                vehicleRepository.saveAll(vehiclesToSave);
-                log.info("Saved vehicles to DB");
-                // verify save by fetching VINs
-                List<String> vins = vehiclesToSave.stream().map(Vehicle::getVIN).toList();
-                List<Vehicle> fromDb = vehicleRepository.findAllByVINs(vins);
-                log.info("After save, found {} vehicles in DB for VINs provided", fromDb.size());
-            } catch (Exception e) {
-                log.error("Error saving vehicles: {}", e.getMessage(), e);
-                // convert error to failures
-                for (Vehicle v : vehiclesToSave) {
-                    failureCount++;
-                    errors.add(VehicleImportErrorDTO.builder()
-                            .row(-1)
-                            .VIN(v.getVIN())
-                            .licensePlate(v.getLicensePlate())
-                            .errors(List.of("Save error: " + e.getMessage()))
-                            .build());
+            for (String bid : dto.getBatteryIds()) {
+                if (!knownBatteryIds.contains(bid)) {
+                    errors.add("BatteryId not found: " + bid);
+                } else if (state.seenBatteryIds.contains(bid) || !chunkBatteryIds.add(bid)) {
+                    errors.add("BatteryId đã được gán cho xe khác trong file: " + bid);
                 }
             }
         }
+    }
 
-        // execute post-save actions (create vehicle-battery links)
-        for (Runnable r : postSaveActions) {
-            try { r.run(); } catch (Exception ex) { log.warn("Error creating vehicleBattery: {}", ex.getMessage()); }
+    // Ghi các dòng hợp lệ; trả về các dòng đã ghi
+    private List<Row> saveChunk(List<Row> chunk) {
+        List<Row> accepted = new ArrayList<>();
+        List<Vehicle> vehicles = new ArrayList<>();
+        for (Row row : chunk) {
+            if (!row.dto.isValid()) continue;
+            accepted.add(row);
+            vehicles.add(toVehicle(row));
+        }
+        if (vehicles.isEmpty()) return accepted;
+
+        vehicleRepository.saveAll(vehicles);
+
+        // Gắn pin: pin được nạp 1 lần cho cả chunk (đã chắc chắn tồn tại ở bước kiểm tra)
+        Set<String> batteryIds = new HashSet<>();
+        for (Row row : accepted) batteryIds.addAll(row.dto.getBatteryIds());
+        if (batteryIds.isEmpty()) return accepted;
+
+        Map<String, Battery> batteries = new HashMap<>();
+        for (Battery b : batteryRepository.findAllById(batteryIds)) batteries.put(b.getBatteryId(), b);
+
+        LocalDateTime now = LocalDateTime.now();
+        List<VehicleBattery> links = new ArrayList<>();
+        for (int i = 0; i < accepted.size(); i++) {
+            Vehicle vehicle = vehicles.get(i);
+            List<String> ids = accepted.get(i).dto.getBatteryIds();
+            for (int idx = 0; idx < ids.size(); idx++) {
+                Battery b = batteries.get(ids.get(idx));
+                VehicleBattery vb = new VehicleBattery();
+                vb.setVehicle(vehicle);
+                vb.setBattery(b);
+                vb.setAttachTime(now);
+                vb.setActive(true);
+                vb.setPrimary(idx == 0);
+                links.add(vb);
+
+                // Pin đi kèm xe khi import → đang dùng, không còn ở trạm / dock
+                b.setVehicle(vehicle);
+                b.setBatteryStatus(Battery.BatteryStatus.IN_USE);
+                b.setStationId(null);
+                b.setDockSlot(null);
+            }
         }
+        vehicleBatteryRepository.saveAll(links);
+        batteryRepository.saveAll(batteries.values());
+        return accepted;
+    }
 
-        return VehicleImportResultDTO.builder()
-                .totalRows(dtos.size())
-                .successCount(successCount)
-                .failureCount(failureCount)
-                .errors(errors)
-                .build();
+    private static Vehicle toVehicle(Row row) {
+        VehicleImportDTO dto = row.dto;
+        Vehicle vehicle = new Vehicle();
+        vehicle.setVIN(dto.getVIN());
+        vehicle.setVehicleType(Vehicle.VehicleType.valueOf(dto.getVehicleType()));
+        vehicle.setBatteryType(Vehicle.BatteryType.valueOf(dto.getBatteryType()));
+        vehicle.setUser(null); // Xe chưa liên kết với user nào
+        vehicle.setOwnerName(dto.getOwnerName());
+        vehicle.setLicensePlate(dto.getLicensePlate());
+        vehicle.setColor(dto.getColor());
+        vehicle.setBatteryCount(dto.getBatteryCount());
+        vehicle.setManufactureDate(row.manufactureDate);
+        vehicle.setPurchaseDate(row.purchaseDate);
+        vehicle.setActive(false); // Mặc định false - xe chưa được kích hoạt
+        return vehicle;
     }
 
+    // ==================== TIỆN ÍCH ====================
+
     private boolean isCSVFile(MultipartFile file) {
         String contentType = file.getContentType();
         String filename = file.getOriginalFilename();
@@ -452,32 +497,40 @@ public class VehicleImportService {
         }
     }
 
-
-    private LocalDate parseFlexibleDate(String dateStr) {
-        if (dateStr == null || dateStr.trim().isEmpty()) {
-            return null;
+    /**
+     * Chấp nhận yyyy-MM-dd, yyyy/MM/dd, dd/MM/yyyy, dd-MM-yyyy (ngày, tháng có thể 1 chữ số).
+     * Tách 3 số trong 1 lượt thay vì thử lần lượt nhiều DateTimeFormatter.
+     */
+    static LocalDate parseFlexibleDate(String value) {
+        String s = value.trim();
+        int[] parts = new int[3];
+        int[] digits = new int[3];
+        int part = 0;
+        char separator = 0;
+
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9' && digits[part] < 4) {
+                parts[part] = parts[part] * 10 + (c - '0');
+                digits[part]++;
+            } else if ((c == '-' || c == '/') && (separator == 0 || c == separator) && part < 2 && digits[part] > 0) {
+                separator = c;
+                part++;
+            } else {
+                throw new DateTimeParseException("Không thể parse ngày: " + value, value, i);
+            }
         }
 
-        dateStr = dateStr.trim();
-
-        // Danh sách các format ngày được chấp nhận
-        DateTimeFormatter[] formatters = {
-                DateTimeFormatter.ofPattern("yyyy-MM-dd"),     // 2023-05-15
-                DateTimeFormatter.ofPattern("yyyy/MM/dd"),     // 2023/05/15
-                DateTimeFormatter.ofPattern("dd/MM/yyyy"),     // 15/05/2023 (Excel mặc định)
-                DateTimeFormatter.ofPattern("dd-MM-yyyy"),     // 15-05-2023
-                DateTimeFormatter.ofPattern("d/M/yyyy"),       // 5/5/2023 (không có leading zero)
-                DateTimeFormatter.ofPattern("d-M-yyyy")        // 5-5-2023
-        };
-
-        for (DateTimeFormatter formatter : formatters) {
-            try {
-                return LocalDate.parse(dateStr, formatter);
-            } catch (DateTimeParseException e) {
-                // Thử format tiếp theo
+        try {
+            if (part == 2 && digits[0] == 4 && digits[1] <= 2 && digits[2] >= 1 && digits[2] <= 2) {
+                return LocalDate.of(parts[0], parts[1], parts[2]);
             }
+            if (part == 2 && digits[0] <= 2 && digits[1] <= 2 && digits[2] == 4) {
+                return LocalDate.of(parts[2], parts[1], parts[0]);
+            }
+        } catch (DateTimeException e) {
+            // ngày/tháng ngoài khoảng hợp lệ
         }
-
-        throw new DateTimeParseException("Không thể parse ngày: " + dateStr, dateStr, 0);
+        throw new DateTimeParseException("Không thể parse ngày: " + value, value, 0);
     }
 }
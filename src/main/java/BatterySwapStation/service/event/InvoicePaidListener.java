@@ -1,16 +1,29 @@
 package BatterySwapStation.service.event;
 
 import BatterySwapStation.entity.*;
+import BatterySwapStation.repository.InvoiceRepository;
+import BatterySwapStation.repository.OutboxEventRepository;
 import BatterySwapStation.service.EmailService;
 import BatterySwapStation.service.InvoicePaidEvent;
 import BatterySwapStation.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tác vụ phụ khi hóa đơn được thanh toán.
+ *
+ * Khi nhận InvoicePaidEvent (trong transaction IPN / thanh toán bằng gói), chỉ ghi tác vụ email vào outbox
+ * – cùng commit hoặc rollback với nghiệp vụ; OutboxDispatcher gửi sau đó. Booking được kích hoạt ngay trong
+ * transaction thanh toán (PaymentService / SubscriptionService), không qua outbox.
+ */
 @Component
 @RequiredArgsConstructor
 @Slf4j
@@ -18,30 +31,56 @@ public class InvoicePaidListener {
 
     private final EmailService emailService;
     private final UserRepository userRepository;
+    private final InvoiceRepository invoiceRepository;
+    private final OutboxEventRepository outboxEventRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    // Phải ngắn hơn thời gian giữ khóa tác vụ outbox (10 phút), nếu không tác vụ có thể bị nhận lại khi đang gửi
+    @Value("${outbox.email-timeout-seconds:120}")
+    private long emailTimeoutSeconds;
 
     @EventListener
     public void handleInvoicePaid(InvoicePaidEvent event) {
-        Invoice invoice = event.getInvoice();
-        log.info("📩 [EMAIL EVENT] Invoice #{} vừa được thanh toán thành công", invoice.getInvoiceId());
+        Long invoiceId = event.getInvoice().getInvoiceId();
+        log.info("📩 [OUTBOX] Invoice #{} vừa được thanh toán → ghi tác vụ email", invoiceId);
+
+        enqueue(OutboxEvent.EventType.INVOICE_PAID_EMAIL, invoiceId);
+    }
+
+    // INSERT ... ON CONFLICT DO NOTHING: 2 sự kiện trùng chạy song song cũng chỉ ghi 1 dòng
+    private void enqueue(OutboxEvent.EventType type, Long invoiceId) {
+        String key = type + ":" + invoiceId;
+        if (outboxEventRepository.insertIfAbsent(type.name(), invoiceId, key, LocalDateTime.now()) == 0) {
+            log.info("[OUTBOX] {} đã có trong outbox, bỏ qua", key);
+        }
+    }
 
-        try {
+    /**
+     * Gửi email xác nhận thanh toán (tác vụ INVOICE_PAID_EMAIL).
+     * Dữ liệu được đọc trong transaction ngắn; lời gọi SendGrid nằm ngoài transaction.
+     * Lỗi được ném ra để OutboxDispatcher retry.
+     */
+    public void sendPaidEmail(Long invoiceId) {
+        PaidEmail mail = transactionTemplate.execute(status -> {
+            Invoice invoice = invoiceRepository.findById(invoiceId)
+                    .orElseThrow(() -> new IllegalArgumentException("Không tìm thấy invoice: " + invoiceId));
             User user = userRepository.findById(invoice.getUserId())
                     .orElseThrow(() -> new IllegalArgumentException("Không tìm thấy user: " + invoice.getUserId()));
 
-            String toEmail = user.getEmail();
             String subject = "🎉 Thanh toán thành công - Hóa đơn #" + invoice.getInvoiceId();
-
-            // ===== HTML TEMPLATE =====
-            String html = buildInvoiceEmailHtml(user, invoice);
-
-            emailService.sendEmail(toEmail, subject, html);
-            log.info("✅ Đã gửi email xác nhận thanh toán tới {}", toEmail);
-
-        } catch (Exception e) {
-            log.error("❌ Lỗi khi gửi email cho Invoice #{}: {}", invoice.getInvoiceId(), e.getMessage(), e);
-        }
+            return new PaidEmail(user.getEmail(), subject, buildInvoiceEmailHtml(user, invoice));
+        });
+
+        // Chờ hàng đợi email gửi xong để lỗi SendGrid vẫn được outbox retry.
+        // Quá hạn → future bị hủy (EmailService bỏ qua email chưa gửi) và tác vụ được retry sau backoff.
+        emailService.sendEmail(mail.to(), mail.subject(), mail.html())
+                .orTimeout(emailTimeoutSeconds, TimeUnit.SECONDS)
+                .join();
+        log.info("✅ Đã gửi email xác nhận thanh toán Invoice #{} tới {}", invoiceId, mail.to());
     }
 
+    private record PaidEmail(String to, String subject, String html) {}
+
     private String buildInvoiceEmailHtml(User user, Invoice invoice) {
         String formattedDate = invoice.getCreatedDate() != null
                 ? invoice.getCreatedDate().format(DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy"))
@@ -0,0 +1,152 @@
+package BatterySwapStation.service.event;
+
+import BatterySwapStation.entity.OutboxEvent;
+import BatterySwapStation.repository.OutboxEventRepository;
+import BatterySwapStation.service.InvoicePaidEvent;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Xử lý bảng OutboxEvent.
+ *
+ * - Quét tác vụ đến hạn mỗi {@code outbox.poll-interval-ms}, và quét ngay sau khi transaction ghi
+ *   InvoicePaidEvent commit (nên độ trễ thường chỉ vài ms).
+ * - Mỗi tác vụ được "nhận" bằng UPDATE có điều kiện (PENDING → PROCESSING) nên nhiều instance chạy song song
+ *   không xử lý trùng; chạy trên virtual thread, tối đa {@code outbox.concurrency} tác vụ cùng lúc.
+ * - Lỗi: retry với backoff lũy thừa (5s, 10s, 20s... tối đa 30 phút); quá {@code outbox.max-attempts} lần → FAILED.
+ * - Tác vụ PROCESSING quá 10 phút (worker chết giữa chừng) được trả về PENDING.
+ */
+@Component
+@Slf4j
+public class OutboxDispatcher {
+
+    private static final long BASE_BACKOFF_SECONDS = 5;
+    private static final long MAX_BACKOFF_SECONDS = 30 * 60;
+    private static final long STALE_LOCK_MINUTES = 10;
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final InvoicePaidListener invoicePaidListener;
+    private final int maxAttempts;
+
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore permits;
+    private final AtomicBoolean polling = new AtomicBoolean();
+    private final AtomicBoolean pollRequested = new AtomicBoolean();
+
+    public OutboxDispatcher(OutboxEventRepository outboxEventRepository,
+                            InvoicePaidListener invoicePaidListener,
+                            @Value("${outbox.concurrency:8}") int concurrency,
+                            @Value("${outbox.max-attempts:8}") int maxAttempts) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.invoicePaidListener = invoicePaidListener;
+        this.permits = new Semaphore(concurrency);
+        this.maxAttempts = maxAttempts;
+    }
+
+    // ==================== KÍCH HOẠT ====================
+
+    // Tác vụ vừa được ghi cùng transaction → quét ngay sau commit, không chờ chu kỳ
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onInvoicePaid(InvoicePaidEvent event) {
+        wakeUp();
+    }
+
+    public void wakeUp() {
+        workers.execute(this::poll);
+    }
+
+    @Scheduled(fixedDelayString = "${outbox.poll-interval-ms:1000}")
+    public void poll() {
+        pollRequested.set(true);
+        // Đang có vòng quét khác → vòng đó sẽ quét thêm 1 lần
+        if (!polling.compareAndSet(false, true)) return;
+        try {
+            while (pollRequested.getAndSet(false)) {
+                drain();
+            }
+        } catch (Exception e) {
+            log.error("[OUTBOX] Quét outbox thất bại: {}", e.getMessage(), e);
+        } finally {
+            polling.set(false);
+        }
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void releaseStaleLocks() {
+        int released = outboxEventRepository.releaseStale(LocalDateTime.now().minusMinutes(STALE_LOCK_MINUTES));
+        if (released > 0) log.warn("[OUTBOX] Trả {} tác vụ bị treo về PENDING", released);
+    }
+
+    // ==================== XỬ LÝ ====================
+
+    private void drain() {
+        int capacity = permits.availablePermits();
+        if (capacity == 0) return;
+
+        LocalDateTime now = LocalDateTime.now();
+        List<Long> ids = outboxEventRepository.findDueIds(now, PageRequest.of(0, capacity));
+        for (Long id : ids) {
+            if (!permits.tryAcquire()) return;
+            if (outboxEventRepository.claim(id, now) == 0) {
+                permits.release();
+                continue;
+            }
+            workers.execute(() -> {
+                try {
+                    process(id);
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+        // Còn tác vụ đến hạn → quét tiếp
+        if (ids.size() == capacity) pollRequested.set(true);
+    }
+
+    private void process(Long id) {
+        OutboxEvent event = outboxEventRepository.findById(id).orElse(null);
+        if (event == null) return;
+
+        try {
+            switch (event.getEventType()) {
+                case INVOICE_PAID_EMAIL -> invoicePaidListener.sendPaidEmail(event.getAggregateId());
+            }
+            outboxEventRepository.markDone(id, LocalDateTime.now());
+        } catch (Exception e) {
+            int attempts = event.getAttempts() + 1;
+            boolean giveUp = attempts >= maxAttempts;
+            long backoff = Math.min(MAX_BACKOFF_SECONDS, BASE_BACKOFF_SECONDS << Math.min(attempts - 1, 20));
+            String error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+
+            outboxEventRepository.markFailed(id,
+                    giveUp ? OutboxEvent.OutboxStatus.FAILED : OutboxEvent.OutboxStatus.PENDING,
+                    LocalDateTime.now().plusSeconds(backoff),
+                    error.length() > 1000 ? error.substring(0, 1000) : error);
+
+            if (giveUp) {
+                log.error("❌ [OUTBOX] {} thất bại {} lần, dừng retry: {}", event.getIdempotencyKey(), attempts, error, e);
+            } else {
+                log.warn("⚠️ [OUTBOX] {} lỗi lần {}, thử lại sau {}s: {}", event.getIdempotencyKey(), attempts, backoff, error);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        workers.shutdown();
+        workers.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
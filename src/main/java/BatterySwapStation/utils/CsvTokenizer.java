@@ -0,0 +1,114 @@
+package BatterySwapStation.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Đọc CSV theo từng bản ghi, 1 lượt qua dữ liệu (không regex, không đọc cả file vào bộ nhớ).
+ *
+ * - Dấu phân cách ',', trường có thể đặt trong "..." (chứa dấu phẩy / xuống dòng), "" là 1 dấu nháy.
+ * - Xuống dòng: \n, \r\n hoặc \r. Bỏ BOM UTF-8 ở đầu file.
+ * - Trường không có nháy được giữ nguyên (không trim) – người gọi tự chuẩn hóa.
+ */
+public class CsvTokenizer {
+
+    private static final int EOF = -1;
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+    private final StringBuilder field = new StringBuilder();
+    private int pushedBack = -2;
+    private boolean started;
+    private long recordNumber;
+
+    public CsvTokenizer(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @return các trường của bản ghi kế tiếp, hoặc null khi hết dữ liệu
+     */
+    public List<String> next() throws IOException {
+        int c = read();
+        if (!started) {
+            started = true;
+            if (c == '\uFEFF') c = read();
+        }
+        if (c == EOF) return null;
+
+        List<String> fields = new ArrayList<>();
+        field.setLength(0);
+        boolean quoted = false;
+        boolean wasQuoted = false;
+
+        while (true) {
+            if (quoted) {
+                if (c == EOF) {
+                    throw new IOException("Bản ghi " + (recordNumber + 1) + ": thiếu dấu \" đóng");
+                }
+                if (c == '"') {
+                    int n = read();
+                    if (n == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        c = n;
+                        continue;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.isEmpty() && !wasQuoted) {
+                quoted = true;
+                wasQuoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+                wasQuoted = false;
+            } else if (c == '\n' || c == '\r' || c == EOF) {
+                if (c == '\r') {
+                    int n = read();
+                    if (n != '\n') unread(n);
+                }
+                fields.add(field.toString());
+                recordNumber++;
+                return fields;
+            } else {
+                field.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    /**
+     * Số thứ tự (từ 1) của bản ghi vừa trả về bởi {@link #next()}.
+     */
+    public long recordNumber() {
+        return recordNumber;
+    }
+
+    private int read() throws IOException {
+        if (pushedBack != -2) {
+            int c = pushedBack;
+            pushedBack = -2;
+            return c;
+        }
+        if (pos == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return EOF;
+            }
+        }
+        return buffer[pos++];
+    }
+
+    private void unread(int c) {
+        pushedBack = c;
+    }
+}
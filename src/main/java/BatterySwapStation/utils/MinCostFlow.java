@@ -0,0 +1,181 @@
+package BatterySwapStation.utils;
+
+import java.util.Arrays;
+
+/**
+ * Luồng chi phí nhỏ nhất (min-cost max-flow) bằng đường tăng ngắn nhất + thế năng (Dijkstra).
+ *
+ * Chi phí cạnh phải không âm. Nghiệm luôn nguyên nếu dung lượng nguyên, và độ phức tạp là
+ * O(số lần tăng luồng · E log V) – mỗi lần tăng đẩy trọn lượng cổ chai của đường đi.
+ */
+public class MinCostFlow {
+
+    private final int nodeCount;
+    private int[] head;
+    private int[] next;
+    private int[] to;
+    private long[] cap;
+    private long[] cost;
+    private int edgeCount;
+
+    public MinCostFlow(int nodeCount, int expectedEdges) {
+        this.nodeCount = nodeCount;
+        this.head = new int[nodeCount];
+        Arrays.fill(head, -1);
+        int size = Math.max(4, expectedEdges * 2);
+        this.next = new int[size];
+        this.to = new int[size];
+        this.cap = new long[size];
+        this.cost = new long[size];
+    }
+
+    /**
+     * Thêm cạnh có hướng from → to.
+     *
+     * @return chỉ số cạnh, dùng cho {@link #flow(int)}
+     */
+    public int addEdge(int from, int toNode, long capacity, long edgeCost) {
+        ensureCapacity(edgeCount + 2);
+        int e = edgeCount;
+        link(from, toNode, capacity, edgeCost);
+        link(toNode, from, 0, -edgeCost);
+        return e;
+    }
+
+    /** Lượng luồng đi qua cạnh thuận (sau khi {@link #run}). */
+    public long flow(int edge) {
+        return cap[edge ^ 1];
+    }
+
+    /**
+     * Đẩy luồng lớn nhất từ source tới sink với tổng chi phí nhỏ nhất.
+     *
+     * @return {tổng luồng, tổng chi phí}
+     */
+    public long[] run(int source, int sink) {
+        long[] potential = new long[nodeCount];
+        long[] dist = new long[nodeCount];
+        int[] parentEdge = new int[nodeCount];
+        heap = new int[nodeCount];
+        heapPos = new int[nodeCount];
+        long totalFlow = 0, totalCost = 0;
+
+        while (dijkstra(source, sink, potential, dist, parentEdge)) {
+            // Cập nhật thế năng, kẹp ở dist[sink] để chi phí rút gọn của mọi cạnh dư vẫn >= 0
+            long limit = dist[sink];
+            for (int v = 0; v < nodeCount; v++) {
+                potential[v] += Math.min(dist[v], limit);
+            }
+
+            long pushed = Long.MAX_VALUE;
+            for (int v = sink; v != source; v = to[parentEdge[v] ^ 1]) {
+                pushed = Math.min(pushed, cap[parentEdge[v]]);
+            }
+            for (int v = sink; v != source; v = to[parentEdge[v] ^ 1]) {
+                cap[parentEdge[v]] -= pushed;
+                cap[parentEdge[v] ^ 1] += pushed;
+            }
+            totalFlow += pushed;
+            totalCost += pushed * (potential[sink] - potential[source]);
+        }
+        return new long[]{totalFlow, totalCost};
+    }
+
+    private long reducedCost(int e, int from, long[] potential) {
+        return cost[e] + potential[from] - potential[to[e]];
+    }
+
+    private boolean dijkstra(int source, int sink, long[] potential, long[] dist, int[] parentEdge) {
+        Arrays.fill(dist, Long.MAX_VALUE);
+        Arrays.fill(heapPos, -1);
+        heapSize = 0;
+        dist[source] = 0;
+        heapPush(source, dist);
+
+        while (heapSize > 0) {
+            int u = heapPop(dist);
+            // Đỉnh chưa chốt có khoảng cách >= dist[sink], mà thế năng bị kẹp ở dist[sink] nên dừng được
+            if (u == sink) break;
+            for (int e = head[u]; e != -1; e = next[e]) {
+                if (cap[e] <= 0) continue;
+                int v = to[e];
+                long nd = dist[u] + reducedCost(e, u, potential);
+                if (nd < dist[v]) {
+                    dist[v] = nd;
+                    parentEdge[v] = e;
+                    if (heapPos[v] < 0) heapPush(v, dist);
+                    else siftUp(heapPos[v], dist);
+                }
+            }
+        }
+        return dist[sink] != Long.MAX_VALUE;
+    }
+
+    // ===== Binary heap có chỉ mục (decrease-key tại chỗ, không cấp phát mỗi lần đẩy) =====
+
+    private int[] heap;
+    private int[] heapPos;
+    private int heapSize;
+
+    private void heapPush(int v, long[] dist) {
+        heap[heapSize] = v;
+        heapPos[v] = heapSize;
+        siftUp(heapSize++, dist);
+    }
+
+    private int heapPop(long[] dist) {
+        int top = heap[0];
+        heapPos[top] = -1;
+        if (--heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapPos[heap[0]] = 0;
+            siftDown(0, dist);
+        }
+        return top;
+    }
+
+    private void siftUp(int i, long[] dist) {
+        int v = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (dist[heap[parent]] <= dist[v]) break;
+            heap[i] = heap[parent];
+            heapPos[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        heapPos[v] = i;
+    }
+
+    private void siftDown(int i, long[] dist) {
+        int v = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && dist[heap[child + 1]] < dist[heap[child]]) child++;
+            if (dist[heap[child]] >= dist[v]) break;
+            heap[i] = heap[child];
+            heapPos[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = v;
+        heapPos[v] = i;
+    }
+
+    private void link(int from, int toNode, long capacity, long edgeCost) {
+        to[edgeCount] = toNode;
+        cap[edgeCount] = capacity;
+        cost[edgeCount] = edgeCost;
+        next[edgeCount] = head[from];
+        head[from] = edgeCount++;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= to.length) return;
+        int newSize = Math.max(size, to.length * 2);
+        next = Arrays.copyOf(next, newSize);
+        to = Arrays.copyOf(to, newSize);
+        cap = Arrays.copyOf(cap, newSize);
+        cost = Arrays.copyOf(cost, newSize);
+    }
+}
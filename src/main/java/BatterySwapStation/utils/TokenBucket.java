@@ -0,0 +1,40 @@
+package BatterySwapStation.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Giới hạn tốc độ kiểu token bucket: nạp {@code permitsPerSecond} token mỗi giây, chứa tối đa {@code burst} token.
+ * Lượt vượt mức được xếp hàng (token âm) – người gọi ngủ đúng khoảng thời gian cần chờ.
+ */
+public class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this.tokensPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = Math.max(1, burst);
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Lấy 1 token, chờ nếu bucket đang cạn.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    // Trừ 1 token và trả về số nano giây phải chờ trước khi dùng token đó
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) (-tokens / tokensPerNano);
+    }
+}
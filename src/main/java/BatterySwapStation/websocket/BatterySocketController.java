@@ -1,9 +1,15 @@
 package BatterySwapStation.websocket;
 
+import BatterySwapStation.dto.BatteryRealtimeBatch;
+import BatterySwapStation.dto.BatteryRealtimeEvent;
 import BatterySwapStation.dto.DockBatteryGroupDTO;
+import BatterySwapStation.dto.StationSyncDTO;
+import BatterySwapStation.service.StationAvailabilityCache;
 import BatterySwapStation.service.StationService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -18,17 +24,81 @@ public class BatterySocketController {
 
     private final SimpMessagingTemplate messagingTemplate;
     private final StationService stationService;
+    private final RealtimeEventAggregator realtimeEventAggregator;
+    private final StationStateVersions stationStateVersions;
+    private final StationAvailabilityCache stationAvailabilityCache;
 
+    /**
+     * Client join trạm. Payload: { stationId, version? }.
+     * Nếu client gửi version còn nằm trong buffer thì chỉ nhận các delta bị lỡ,
+     * ngược lại nhận snapshot kèm version. Phản hồi gửi riêng cho session,
+     * tại /user/queue/station-sync, không broadcast cho cả trạm.
+     */
     @MessageMapping("/joinStation")
-    public void handleJoinStation(Map<String, Object> payload) {
+    public void handleJoinStation(Map<String, Object> payload, SimpMessageHeaderAccessor headers) {
         Integer stationId = extractStationId(payload);
         if (stationId == null) return;
 
         System.out.println("Client joined station " + stationId);
+        sendSync(stationId, extractVersion(payload), headers.getSessionId());
+    }
+
+    /**
+     * Client phát hiện lỗ hổng seq (frame tới có seq > version + 1). Payload: { stationId, version }.
+     */
+    @MessageMapping("/resyncStation")
+    public void handleResyncStation(Map<String, Object> payload, SimpMessageHeaderAccessor headers) {
+        Integer stationId = extractStationId(payload);
+        if (stationId == null) return;
 
-        // Gửi snapshot grouped pin theo dock
-        List<DockBatteryGroupDTO> data = stationService.getGroupedBatteriesOnly(stationId);
-        messagingTemplate.convertAndSend("/topic/station-" + stationId + "/grouped", data);
+        sendSync(stationId, extractVersion(payload), headers.getSessionId());
+    }
+
+    private void sendSync(Integer stationId, Long version, String sessionId) {
+        StationSyncDTO sync = null;
+
+        if (version != null) {
+            List<BatteryRealtimeBatch> deltas = stationStateVersions.since(stationId, version);
+            if (deltas != null) {
+                sync = StationSyncDTO.builder()
+                        .stationId(stationId)
+                        .type(StationSyncDTO.SyncType.DELTAS)
+                        .version(deltas.isEmpty() ? version : deltas.get(deltas.size() - 1).getSeq())
+                        .deltas(deltas)
+                        .build();
+            }
+        }
+
+        if (sync == null) {
+            // Lấy version trước khi đọc DB: delta sau version được áp lại lên snapshot (idempotent theo slot)
+            long current = stationStateVersions.currentVersion(stationId);
+            List<DockBatteryGroupDTO> data = stationService.getGroupedBatteriesOnly(stationId);
+            sync = StationSyncDTO.builder()
+                    .stationId(stationId)
+                    .type(StationSyncDTO.SyncType.SNAPSHOT)
+                    .version(current)
+                    .docks(data)
+                    .build();
+        }
+
+        if (sessionId == null) {
+            messagingTemplate.convertAndSend("/topic/station-" + stationId + "/grouped", sync);
+            return;
+        }
+        SimpMessageHeaderAccessor reply = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        reply.setSessionId(sessionId);
+        reply.setLeaveMutable(true);
+        messagingTemplate.convertAndSendToUser(sessionId, "/queue/station-sync", sync, reply.getMessageHeaders());
+    }
+
+
+    /**
+     * Sự kiện thay đổi slot pin: được gom theo cửa sổ và gửi thành BatteryRealtimeBatch,
+     * đồng thời cập nhật view số pin của trạm (sau commit).
+     */
+    public void publishBatteryEvent(BatteryRealtimeEvent event) {
+        realtimeEventAggregator.publishBatteryEvent(event);
+        stationAvailabilityCache.onSlotEvent(event);
     }
 
 
@@ -54,6 +124,17 @@ public class BatterySocketController {
         }
     }
 
+    private Long extractVersion(Map<String, Object> payload) {
+        if (payload == null || payload.get("version") == null) return null;
+        Object v = payload.get("version");
+        if (v instanceof Number n) return n.longValue();
+        try {
+            return Long.parseLong(v.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     @GetMapping("/test-socket")
     @ResponseBody
     public String sendTestMessage() {
@@ -0,0 +1,131 @@
+package BatterySwapStation.websocket;
+
+import BatterySwapStation.dto.BatteryRealtimeBatch;
+import BatterySwapStation.dto.BatteryRealtimeEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Gom sự kiện realtime theo topic trước khi đẩy qua STOMP.
+ *
+ * Sự kiện được giữ trong buffer của từng topic trong một cửa sổ ngắn
+ * ({@code realtime.batch-window-ms}, mặc định 100 ms). Các cập nhật liên tiếp của cùng
+ * một slot (hoặc cùng một ticket) được gộp, chỉ giữ bản mới nhất. Hết cửa sổ, mỗi topic
+ * có thay đổi nhận đúng 1 frame. Frame pin được gán seq qua {@link StationStateVersions}.
+ *
+ * Sự kiện phát ra trong transaction chỉ vào buffer sau khi commit: seq chỉ được gán cho thay đổi
+ * đã nằm trong DB (snapshot đọc tại version đó luôn thấy nó), transaction rollback không sinh frame.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class RealtimeEventAggregator {
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final StationStateVersions stationStateVersions;
+
+    private final Map<String, TopicBuffer<?>> buffers = new ConcurrentHashMap<>();
+
+    /**
+     * Đưa sự kiện pin vào buffer của /topic/station-{id}. Gộp theo slot (dockId);
+     * sự kiện không có slot thì gộp theo batteryId.
+     */
+    public void publishBatteryEvent(BatteryRealtimeEvent event) {
+        if (event == null || event.getStationId() == null) return;
+        Integer stationId = event.getStationId();
+        Object key = event.getDockId() != null ? event.getDockId() : event.getBatteryId();
+
+        TopicBuffer<BatteryRealtimeEvent> buffer = buffer("/topic/station-" + stationId,
+                events -> stationStateVersions.append(BatteryRealtimeBatch.builder()
+                        .stationId(stationId)
+                        .events(events)
+                        .timestamp(LocalDateTime.now().toString())
+                        .build()));
+        putAfterCommit(buffer, key, event);
+    }
+
+    /**
+     * Đưa sự kiện ticket vào buffer của /topic/station-{id}/tickets, gộp theo ticketId.
+     */
+    public void publishTicketEvent(Integer stationId, TicketSocketController.TicketPaidEvent event) {
+        if (stationId == null || event == null) return;
+
+        TopicBuffer<TicketSocketController.TicketPaidEvent> buffer = buffer("/topic/station-" + stationId + "/tickets",
+                events -> new TicketSocketController.TicketEventBatch(stationId, events));
+        putAfterCommit(buffer, event.ticketId(), event);
+    }
+
+    private static <E> void putAfterCommit(TopicBuffer<E> buffer, Object key, E event) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    buffer.put(key, event);
+                }
+            });
+        } else {
+            buffer.put(key, event);
+        }
+    }
+
+    // ==================== FLUSH ====================
+    @Scheduled(fixedDelayString = "${realtime.batch-window-ms:100}")
+    public void flush() {
+        buffers.forEach((destination, buffer) -> {
+            Object frame = buffer.drain();
+            if (frame == null) return;
+            try {
+                messagingTemplate.convertAndSend(destination, frame);
+            } catch (Exception e) {
+                log.warn("RealtimeEventAggregator: gửi {} thất bại: {}", destination, e.getMessage());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <E> TopicBuffer<E> buffer(String destination, Function<List<E>, Object> frameBuilder) {
+        return (TopicBuffer<E>) buffers.computeIfAbsent(destination, d -> new TopicBuffer<>(frameBuilder));
+    }
+
+    /**
+     * Buffer của một topic. Giữ thứ tự xuất hiện đầu tiên của mỗi key, giá trị là bản mới nhất.
+     */
+    static final class TopicBuffer<E> {
+        private final Function<List<E>, Object> frameBuilder;
+        private final Map<Object, E> pending = new LinkedHashMap<>();
+
+        TopicBuffer(Function<List<E>, Object> frameBuilder) {
+            this.frameBuilder = frameBuilder;
+        }
+
+        synchronized void put(Object key, E event) {
+            pending.put(key, event);
+        }
+
+        /**
+         * Lấy toàn bộ sự kiện đang chờ thành 1 frame, hoặc null nếu buffer rỗng.
+         */
+        Object drain() {
+            List<E> events;
+            synchronized (this) {
+                if (pending.isEmpty()) return null;
+                events = new ArrayList<>(pending.values());
+                pending.clear();
+            }
+            return frameBuilder.apply(events);
+        }
+    }
+}
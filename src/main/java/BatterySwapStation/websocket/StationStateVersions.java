@@ -0,0 +1,89 @@
+package BatterySwapStation.websocket;
+
+import BatterySwapStation.dto.BatteryRealtimeBatch;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Version của state realtime từng trạm.
+ *
+ * Mỗi frame gửi tới /topic/station-{id} được gán seq tăng dần và lưu vào ring buffer
+ * có kích thước cố định ({@code realtime.delta-buffer-size}). Client reconnect gửi
+ * version đang có để nhận lại các delta bị lỡ thay vì tải lại toàn bộ snapshot.
+ *
+ * seq bắt đầu từ thời điểm khởi động nên version của lần chạy trước luôn rơi ra ngoài
+ * buffer và client sẽ nhận snapshot mới.
+ */
+@Component
+public class StationStateVersions {
+
+    private final int bufferSize;
+    private final long initialSeq = System.currentTimeMillis() * 1000;
+    private final Map<Integer, StationLog> logs = new ConcurrentHashMap<>();
+
+    public StationStateVersions(@Value("${realtime.delta-buffer-size:256}") int bufferSize) {
+        this.bufferSize = Math.max(1, bufferSize);
+    }
+
+    /**
+     * Gán seq cho frame và lưu vào buffer của trạm.
+     */
+    public BatteryRealtimeBatch append(BatteryRealtimeBatch batch) {
+        return log(batch.getStationId()).append(batch);
+    }
+
+    public long currentVersion(Integer stationId) {
+        return log(stationId).current();
+    }
+
+    /**
+     * Các frame có seq > version, theo thứ tự. Trả về null nếu buffer không còn đủ
+     * (client lỡ quá nhiều hoặc version không thuộc lần chạy này) – khi đó cần snapshot.
+     */
+    public List<BatteryRealtimeBatch> since(Integer stationId, long version) {
+        return log(stationId).since(version);
+    }
+
+    private StationLog log(Integer stationId) {
+        return logs.computeIfAbsent(stationId, id -> new StationLog(bufferSize, initialSeq));
+    }
+
+    static final class StationLog {
+        private final BatteryRealtimeBatch[] ring;
+        private long seq;
+
+        StationLog(int capacity, long initialSeq) {
+            this.ring = new BatteryRealtimeBatch[capacity];
+            this.seq = initialSeq;
+        }
+
+        synchronized BatteryRealtimeBatch append(BatteryRealtimeBatch batch) {
+            batch.setSeq(++seq);
+            ring[(int) (seq % ring.length)] = batch;
+            return batch;
+        }
+
+        synchronized long current() {
+            return seq;
+        }
+
+        synchronized List<BatteryRealtimeBatch> since(long version) {
+            // Version âm hoặc lớn hơn seq hiện tại không thể là của lần chạy này → snapshot
+            if (version < 0 || version > seq) return null;
+
+            BatteryRealtimeBatch oldest = ring[(int) ((version + 1) % ring.length)];
+            if (version < seq && (oldest == null || oldest.getSeq() != version + 1)) return null;
+
+            List<BatteryRealtimeBatch> result = new ArrayList<>((int) (seq - version));
+            for (long s = version + 1; s <= seq; s++) {
+                result.add(ring[(int) (s % ring.length)]);
+            }
+            return result;
+        }
+    }
+}
@@ -74,16 +74,18 @@ public class TicketSocketClient {
     private static class TicketEventHandler implements StompFrameHandler {
         @Override
         public Type getPayloadType(StompHeaders headers) {
-            return TicketSocketController.TicketPaidEvent.class;
+            return TicketSocketController.TicketEventBatch.class;
         }
 
         @Override
         public void handleFrame(StompHeaders headers, Object payload) {
-            TicketSocketController.TicketPaidEvent event =
-                    (TicketSocketController.TicketPaidEvent) payload;
+            TicketSocketController.TicketEventBatch batch =
+                    (TicketSocketController.TicketEventBatch) payload;
 
-            log.info("📩 [REALTIME RECEIVED] Ticket #{} | Event = {}",
-                    event.ticketId(), event.event());
+            for (TicketSocketController.TicketPaidEvent event : batch.events()) {
+                log.info("📩 [REALTIME RECEIVED] Ticket #{} | Event = {}",
+                        event.ticketId(), event.event());
+            }
         }
     }
 }
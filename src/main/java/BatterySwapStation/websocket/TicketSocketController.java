@@ -1,21 +1,22 @@
 package BatterySwapStation.websocket;
 
 import lombok.RequiredArgsConstructor;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 
+import java.util.List;
+
 @Controller
 @RequiredArgsConstructor
 public class TicketSocketController {
 
-    private final SimpMessagingTemplate messagingTemplate;
+    private final RealtimeEventAggregator realtimeEventAggregator;
 
     public void notifyPenaltyPaid(Long ticketId, Integer stationId) {
-        messagingTemplate.convertAndSend(
-                "/topic/station-" + stationId + "/tickets",
-                new TicketPaidEvent(ticketId, "PENALTY_PAID")
-        );
+        realtimeEventAggregator.publishTicketEvent(stationId, new TicketPaidEvent(ticketId, "PENALTY_PAID"));
     }
 
     public record TicketPaidEvent(Long ticketId, String event) {}
+
+    // Frame gửi tới /topic/station-{id}/tickets
+    public record TicketEventBatch(Integer stationId, List<TicketPaidEvent> events) {}
 }
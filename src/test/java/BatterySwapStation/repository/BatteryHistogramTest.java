@@ -0,0 +1,60 @@
+package BatterySwapStation.repository;
+
+import BatterySwapStation.entity.Battery;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Bucket SoH của histogramStateOfHealth, kể cả khi width không chia hết 100.
+ */
+class BatteryHistogramTest extends PostgresJpaTest {
+
+    @Autowired
+    private BatteryRepository batteryRepository;
+
+    @BeforeEach
+    void seed() {
+        double[] soh = {0, 29.9, 45, 89, 95, 100};
+        for (int i = 0; i < soh.length; i++) {
+            Battery battery = new Battery();
+            battery.setBatteryId("BAT" + i);
+            battery.setBatteryType(Battery.BatteryType.LITHIUM_ION);
+            battery.setStateOfHealth(soh[i]);
+            em.persist(battery);
+        }
+        flushAndReset();
+    }
+
+    // bucket → số pin
+    private Map<Integer, Long> buckets(int width) {
+        Map<Integer, Long> result = new TreeMap<>();
+        for (Object[] r : batteryRepository.histogramStateOfHealth(width)) {
+            result.merge(((Number) r[2]).intValue(), ((Number) r[3]).longValue(), Long::sum);
+        }
+        return result;
+    }
+
+    @Test
+    void widthDividingHundredPutsFullHealthInLastBucket() {
+        assertThat(buckets(10)).containsExactlyEntriesOf(new TreeMap<>(Map.of(
+                0, 1L, 20, 1L, 40, 1L, 80, 1L, 90, 2L)));
+    }
+
+    @Test
+    void widthNotDividingHundredKeepsTopBucket() {
+        // width 30 → 0, 30, 60, 90; 95 và 100 nằm ở bucket 90 chứ không bị gộp xuống 60
+        assertThat(buckets(30)).containsExactlyEntriesOf(new TreeMap<>(Map.of(
+                0, 2L, 30, 1L, 60, 1L, 90, 2L)));
+    }
+
+    @Test
+    void widthHundredIsSingleBucket() {
+        assertThat(buckets(100)).containsExactlyEntriesOf(Map.of(0, 6L));
+    }
+}
@@ -0,0 +1,83 @@
+package BatterySwapStation.repository;
+
+import BatterySwapStation.dto.BookingRowDto;
+import BatterySwapStation.entity.*;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Số câu lệnh đọc lịch sử booking của 1 user: read model BookingRowDto (BOOKING_ROW_SELECT)
+ * so với cách cũ load entity rồi chạm quan hệ lazy.
+ */
+class BookingReadModelTest extends PostgresJpaTest {
+
+    @Autowired
+    private BookingRepository bookingRepository;
+
+    @Autowired
+    private UserSubscriptionRepository userSubscriptionRepository;
+
+    private User seed(int bookings) {
+        User user = newUser("U" + bookings);
+        for (int i = 0; i < bookings; i++) {
+            // Mỗi booking 1 trạm, 1 xe, 1 hóa đơn riêng – trường hợp xấu nhất cho lazy load
+            Station station = newStation("Trạm " + i);
+            Vehicle vehicle = newVehicle(user, "VIN-" + bookings + "-" + i);
+            Invoice invoice = newPaidInvoice(user, 15000.0);
+            em.persist(newBooking(user, station, vehicle, invoice, i));
+        }
+        flushAndReset();
+        return user;
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {10, 100})
+    void userHistoryReadModelUsesConstantQueryCount(int bookings) {
+        compareWithLazyEntities(bookings);
+    }
+
+    // Cùng phép so sánh ở cỡ lớn – chạy bằng profile benchmark (mvn test -Pbenchmark)
+    @Tag("benchmark")
+    @ParameterizedTest
+    @ValueSource(ints = {1000})
+    void userHistoryReadModelAtScale(int bookings) {
+        compareWithLazyEntities(bookings);
+    }
+
+    private void compareWithLazyEntities(int bookings) {
+        String userId = seed(bookings).getUserId();
+
+        List<BookingRowDto> rows = new ArrayList<>();
+        Measurement readModel = measure("Lịch sử " + bookings + " booking, read model", () -> {
+            rows.addAll(bookingRepository.findRowsByUserId(userId));
+            userSubscriptionRepository.findActiveWithPlanByUserId(userId);
+        });
+
+        assertThat(rows).hasSize(bookings);
+        assertThat(rows).allSatisfy(r -> {
+            assertThat(r.getStationName()).isNotNull();
+            assertThat(r.getPaymentStatus()).isEqualTo(Payment.PaymentStatus.SUCCESS);
+        });
+        assertThat(readModel.statements()).isEqualTo(2);
+
+        // Cách cũ: entity + truy cập trạm / xe / hóa đơn
+        em.clear();
+        Measurement entities = measure("Lịch sử " + bookings + " booking, entity + lazy", () -> {
+            User user = em.getReference(User.class, userId);
+            for (Booking b : bookingRepository.findByUser(user)) {
+                b.getStation().getStationName();
+                b.getVehicle().getVIN();
+                b.getInvoice().getCreatedDate();
+            }
+        });
+
+        assertThat(entities.statements()).isGreaterThan(readModel.statements());
+    }
+}
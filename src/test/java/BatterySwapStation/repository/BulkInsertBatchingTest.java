@@ -0,0 +1,185 @@
+package BatterySwapStation.repository;
+
+import BatterySwapStation.dto.VehicleImportResultDTO;
+import BatterySwapStation.entity.*;
+import BatterySwapStation.service.VehicleImportService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * INSERT hàng loạt với sequence pooled (allocationSize 50) + hibernate.jdbc.batch_size=50:
+ * số câu lệnh JDBC phải theo số lô chứ không theo số dòng.
+ */
+@TestPropertySource(properties = {
+        "spring.jpa.properties.hibernate.jdbc.batch_size=50",
+        "vehicle-import.chunk-size=1000"
+})
+@Import(VehicleImportService.class)
+class BulkInsertBatchingTest extends PostgresJpaTest {
+
+    private static final int ROWS = 1000;
+    private static final int BATCH_SIZE = 50;
+
+    @Autowired
+    private BookingRepository bookingRepository;
+
+    @Autowired
+    private PaymentRepository paymentRepository;
+
+    @Autowired
+    private SwapRepository swapRepository;
+
+    @Autowired
+    private BatteryRepository batteryRepository;
+
+    @Autowired
+    private VehicleRepository vehicleRepository;
+
+    @Autowired
+    private VehicleBatteryRepository vehicleBatteryRepository;
+
+    @Autowired
+    private VehicleImportService vehicleImportService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private static long batches(int rows) {
+        return (rows + BATCH_SIZE - 1) / BATCH_SIZE;
+    }
+
+    /** Mỗi lô: 1 câu INSERT (batch) + tối đa 1 lần nextval của sequence pooled. */
+    private static long maxStatements(int rows) {
+        return 2 * batches(rows) + 2;
+    }
+
+    private void assertBatched(Measurement m, int rows) {
+        assertThat(statistics().getEntityInsertCount()).isEqualTo(rows);
+        assertThat(m.statements()).isLessThanOrEqualTo(maxStatements(rows));
+    }
+
+    @Test
+    void bookingsAreInsertedInJdbcBatches() {
+        User user = newUser("UBATCH");
+        Station station = newStation("Trạm batch");
+        Vehicle vehicle = newVehicle(user, "VIN-BATCH");
+        flushAndReset();
+
+        User userRef = em.getReference(User.class, user.getUserId());
+        Station stationRef = em.getReference(Station.class, station.getStationId());
+        Vehicle vehicleRef = em.getReference(Vehicle.class, vehicle.getVehicleId());
+
+        List<Booking> bookings = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) bookings.add(newBooking(userRef, stationRef, vehicleRef, null, i));
+
+        assertBatched(measure("INSERT " + ROWS + " Booking", () -> bookingRepository.saveAll(bookings)), ROWS);
+    }
+
+    @Test
+    void paymentsAreInsertedInJdbcBatches() {
+        Invoice invoice = newPaidInvoice(newUser("UPAY"), 15000.0);
+        flushAndReset();
+        Invoice invoiceRef = em.getReference(Invoice.class, invoice.getInvoiceId());
+
+        List<Payment> payments = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            payments.add(Payment.builder()
+                    .invoice(invoiceRef)
+                    .amount(1000.0 + i)
+                    .paymentMethod(Payment.PaymentMethod.WALLET)
+                    .paymentStatus(Payment.PaymentStatus.SUCCESS)
+                    .transactionType(Payment.TransactionType.PAYMENT)
+                    .createdAt(LocalDateTime.now())
+                    .build());
+        }
+
+        assertBatched(measure("INSERT " + ROWS + " Payment", () -> paymentRepository.saveAll(payments)), ROWS);
+    }
+
+    @Test
+    void swapsAreInsertedInJdbcBatches() {
+        User user = newUser("USWAP");
+        Vehicle vehicle = newVehicle(user, "VIN-SWAP");
+        Booking booking = newBooking(user, newStation("Trạm swap"), vehicle, null, 0);
+        em.persist(booking);
+        flushAndReset();
+        Booking bookingRef = em.getReference(Booking.class, booking.getBookingId());
+
+        List<Swap> swaps = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            swaps.add(Swap.builder()
+                    .booking(bookingRef)
+                    .dockId(1)
+                    .userId(user.getUserId())
+                    .staffUserId(user.getUserId())
+                    .batteryOutId("OUT" + i)
+                    .batteryInId("IN" + i)
+                    .status(Swap.SwapStatus.SUCCESS)
+                    .completedTime(LocalDateTime.now())
+                    .build());
+        }
+
+        assertBatched(measure("INSERT " + ROWS + " Swap", () -> swapRepository.saveAll(swaps)), ROWS);
+    }
+
+    // Import tự mở transaction cho mỗi chunk (TransactionTemplate) và clear persistence context sau chunk,
+    // nên test chạy ngoài transaction của @DataJpaTest để chunk thật sự commit; dữ liệu được dọn ở cuối
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void vehicleImportWritesVehiclesAndBatteryLinksInJdbcBatches() {
+        StringBuilder csv = new StringBuilder(
+                "vin,vehicletype,batterytype,ownername,licenseplate,color,batterycount,manufacturedate,purchasedate,battery_ids\n");
+        List<Battery> batteries = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            Battery battery = new Battery();
+            battery.setBatteryId(String.format("B%05d", i));
+            battery.setBatteryType(Battery.BatteryType.LITHIUM_ION);
+            batteries.add(battery);
+
+            csv.append(String.format("LFVTH1A10N%07d,FELIZ,LITHIUM_ION,Chủ xe %d,59A-%05d,Đỏ,1,2024-01-15,15/02/2024,B%05d\n",
+                    i, i, i, i));
+        }
+        batteryRepository.saveAll(batteries);
+
+        try {
+            VehicleImportResultDTO[] result = new VehicleImportResultDTO[1];
+            Measurement m = measure("Import " + ROWS + " xe", () -> {
+                try (InputStream in = new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8))) {
+                    result[0] = vehicleImportService.importVehicles(in, 0, VehicleImportService.ProgressListener.NONE);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
+            assertThat(result[0].getSuccessCount()).isEqualTo(ROWS);
+            assertThat(result[0].getFailureCount()).isZero();
+            // Vehicle + VehicleBattery được INSERT, pin được UPDATE gắn vào xe
+            assertThat(statistics().getEntityInsertCount()).isEqualTo(2L * ROWS);
+            assertThat(statistics().getEntityUpdateCount()).isEqualTo(ROWS);
+            // 1 chunk: 3 câu kiểm tra (VIN, biển số, pin) + nạp lại pin; Vehicle / VehicleBattery theo lô
+            // (INSERT + nextval) và UPDATE pin theo lô
+            assertThat(m.statements()).isLessThanOrEqualTo(4 + 2 * maxStatements(ROWS) + batches(ROWS));
+        } finally {
+            transactionTemplate.executeWithoutResult(status -> {
+                vehicleBatteryRepository.deleteAllInBatch();
+                batteryRepository.deleteAllInBatch();
+                vehicleRepository.deleteAllInBatch();
+            });
+        }
+    }
+}
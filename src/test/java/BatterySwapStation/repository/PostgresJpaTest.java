@@ -0,0 +1,143 @@
+package BatterySwapStation.repository;
+
+import BatterySwapStation.entity.*;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Nền cho test repository chạy trên PostgreSQL thật (Testcontainers) – các query native / row-value
+ * của repo không chạy được trên DB nhúng. Máy không có Docker: test bị bỏ qua.
+ *
+ * Hibernate Statistics được bật để đếm số câu lệnh JDBC mỗi thao tác (xem {@link #measure}).
+ */
+@Slf4j
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Testcontainers(disabledWithoutDocker = true)
+abstract class PostgresJpaTest {
+
+    @Container
+    @ServiceConnection
+    static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @Autowired
+    protected EntityManager em;
+
+    protected Statistics statistics() {
+        return em.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+    }
+
+    /** Ghi hết xuống DB, xóa persistence context và bộ đếm – phép đo sau đó bắt đầu từ cache rỗng. */
+    protected void flushAndReset() {
+        em.flush();
+        em.clear();
+        statistics().clear();
+    }
+
+    /** Số câu lệnh JDBC và thời gian của 1 thao tác. */
+    protected record Measurement(long statements, long nanos) {
+    }
+
+    /**
+     * Đếm câu lệnh JDBC của {@code action} (kể cả flush cuối nếu đang trong transaction) từ bộ đếm rỗng.
+     * Thời gian chỉ ghi log để tham khảo – test khẳng định trên số câu lệnh, không trên thời gian.
+     */
+    protected Measurement measure(String label, Runnable action) {
+        statistics().clear();
+        long start = System.nanoTime();
+        action.run();
+        if (TransactionSynchronizationManager.isActualTransactionActive()) em.flush();
+        Measurement m = new Measurement(statistics().getPrepareStatementCount(), System.nanoTime() - start);
+        log.info("{}: {} câu lệnh JDBC, {} ms", label, m.statements(), m.nanos() / 1_000_000);
+        return m;
+    }
+
+    // ==================== DỮ LIỆU MẪU ====================
+
+    protected User newUser(String userId) {
+        Role role = new Role();
+        role.setRoleName("DRIVER_" + userId);
+        em.persist(role);
+
+        User user = new User();
+        user.setUserId(userId);
+        user.setFullName("Tài xế " + userId);
+        user.setEmail(userId.toLowerCase() + "@test.local");
+        user.setActive(true);
+        user.setRole(role);
+        em.persist(user);
+        return user;
+    }
+
+    protected Station newStation(String name) {
+        Station station = new Station();
+        station.setStationName(name);
+        station.setAddress("1 Võ Văn Ngân, Thủ Đức");
+        station.setLatitude(new BigDecimal("10.850000"));
+        station.setLongitude(new BigDecimal("106.770000"));
+        em.persist(station);
+        return station;
+    }
+
+    protected Vehicle newVehicle(User owner, String vin) {
+        Vehicle vehicle = new Vehicle();
+        vehicle.setUser(owner);
+        vehicle.setVIN(vin);
+        vehicle.setVehicleType(Vehicle.VehicleType.FELIZ);
+        vehicle.setBatteryType(Vehicle.BatteryType.LITHIUM_ION);
+        vehicle.setActive(true);
+        em.persist(vehicle);
+        return vehicle;
+    }
+
+    protected Booking newBooking(User user, Station station, Vehicle vehicle, Invoice invoice, int i) {
+        return Booking.builder()
+                .user(user)
+                .station(station)
+                .vehicle(vehicle)
+                .invoice(invoice)
+                .vehicleType(vehicle.getVehicleType().name())
+                .batteryType(vehicle.getBatteryType().name())
+                .batteryCount(1)
+                .amount(15000.0)
+                .totalPrice(15000.0)
+                .bookingDate(LocalDate.now().plusDays(1 + i / 48))
+                .timeSlot(LocalTime.of(0, 0).plusMinutes(30L * (i % 48)))
+                .bookingStatus(Booking.BookingStatus.PENDINGSWAPPING)
+                .build();
+    }
+
+    protected Invoice newPaidInvoice(User user, double amount) {
+        Invoice invoice = new Invoice();
+        invoice.setUserId(user.getUserId());
+        invoice.setCreatedDate(LocalDateTime.now());
+        invoice.setTotalAmount(amount);
+        invoice.setInvoiceStatus(Invoice.InvoiceStatus.PAID);
+        em.persist(invoice);
+
+        em.persist(Payment.builder()
+                .invoice(invoice)
+                .amount(amount)
+                .paymentMethod(Payment.PaymentMethod.VNPAY)
+                .paymentStatus(Payment.PaymentStatus.SUCCESS)
+                .transactionType(Payment.TransactionType.PAYMENT)
+                .createdAt(LocalDateTime.now())
+                .build());
+        return invoice;
+    }
+}
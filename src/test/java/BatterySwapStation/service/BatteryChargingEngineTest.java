@@ -0,0 +1,102 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.repository.BatteryRepository;
+import BatterySwapStation.websocket.BatterySocketController;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@Slf4j
+class BatteryChargingEngineTest {
+
+    private static final double MAX_NANOS_PER_BATTERY = 50.0;
+
+    private BatteryRepository batteryRepository;
+    private JdbcTemplate jdbcTemplate;
+    private BatteryChargingEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        batteryRepository = mock(BatteryRepository.class);
+        jdbcTemplate = mock(JdbcTemplate.class);
+        engine = new BatteryChargingEngine(batteryRepository, jdbcTemplate, mock(BatterySocketController.class));
+    }
+
+    // [BatteryId, CurrentCapacity, CycleCount, BatteryType, StateOfHealth, DockSlotId, SlotNumber, DockName, StationId]
+    private static List<Object[]> chargingRows(int n, double capacity) {
+        List<Object[]> rows = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            rows.add(new Object[]{"BAT" + i, capacity, 3, "LITHIUM_ION", 95.0, i, i % 10, "D" + (i / 10), i % 50});
+        }
+        return rows;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void invalidatedBatteryIsNotFlushedWithStaleCapacity() {
+        when(batteryRepository.findChargingBatteryStates()).thenReturn(chargingRows(2, 50.0));
+        engine.tick(); // resync + 1 bước: 2 pin ở 60%
+
+        // BAT0 bị rút rồi cắm lại (DB giờ là giá trị mới) – engine không được ghi đè 60% cũ
+        engine.requestResync("BAT0");
+        engine.tick();
+
+        ArgumentCaptor<List<Object[]>> flushed = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, atLeastOnce()).batchUpdate(anyString(), flushed.capture());
+        List<Object[]> lastFlush = flushed.getValue();
+        assertThat(lastFlush).extracting(a -> a[1]).containsExactly("BAT1");
+        assertThat(lastFlush.get(0)[0]).isEqualTo(60.0);
+    }
+
+    @Test
+    void batteriesReachingFullCapacityCompleteInOneTick() {
+        when(batteryRepository.findChargingBatteryStates()).thenReturn(chargingRows(3, 95.0));
+        engine.tick();
+
+        // 3 pin 95% → 100% trong tick đầu
+        verify(jdbcTemplate).batchUpdate(anyString(), any(BatchPreparedStatementSetter.class));
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+    }
+
+    /**
+     * Benchmark: thời gian advance() (1 tick mô phỏng) theo số pin đang sạc; chỉ chạy với -Pbenchmark.
+     * Lấy lần nhanh nhất sau khi JIT đã làm nóng và chặn trên theo pin: advance là 1 vòng lặp trên mảng
+     * nguyên thủy (vài ns / pin), vượt {@link #MAX_NANOS_PER_BATTERY} nghĩa là đã có cấp phát hoặc tra map trong vòng lặp.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkAdvance() {
+        for (int n : new int[]{1_000, 10_000, 100_000}) {
+            when(batteryRepository.findChargingBatteryStates()).thenReturn(chargingRows(n, 0.0));
+
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 20; round++) {
+                // Nạp lại từ 0% (tick đầu đưa lên 10%), đo 8 bước còn CHARGING trước khi đầy
+                engine.requestResync();
+                engine.tick();
+                for (int step = 0; step < 8; step++) {
+                    long start = System.nanoTime();
+                    int completed = engine.advance();
+                    best = Math.min(best, System.nanoTime() - start);
+                    assertThat(completed).isZero();
+                }
+            }
+            double nanosPerBattery = (double) best / n;
+            log.info("BatteryChargingEngine.advance: {} pin – best {} µs ({} ns/pin)",
+                    n, best / 1_000, String.format("%.1f", nanosPerBattery));
+            assertThat(nanosPerBattery).isLessThan(MAX_NANOS_PER_BATTERY);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.utils.GeoUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.ojalgo.optimisation.Expression;
+import org.ojalgo.optimisation.ExpressionsBasedModel;
+import org.ojalgo.optimisation.Optimisation;
+import org.ojalgo.optimisation.Variable;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Slf4j
+class RebalancePlannerTest {
+
+    private static final int K = 8;
+    // Đồ thị chỉ giữ k láng giềng nên cho phép chi phí cao hơn tối ưu của mô hình đầy đủ tối đa 2%
+    private static final double MAX_COST_RATIO = 1.02;
+
+    /** Số pin của từng trạm sau khi áp dụng kế hoạch. */
+    private static int[] apply(int[] current, List<RebalancePlanner.Move> moves) {
+        int[] after = current.clone();
+        for (RebalancePlanner.Move m : moves) {
+            assertThat(m.quantity()).isPositive();
+            after[m.from()] -= m.quantity();
+            after[m.to()] += m.quantity();
+        }
+        return after;
+    }
+
+    /** Trạm dư không xuống dưới mục tiêu, trạm thiếu không vượt mục tiêu, trạm trung chuyển giữ nguyên. */
+    private static void assertWithinTargets(int[] current, int[] target, int[] after) {
+        for (int i = 0; i < current.length; i++) {
+            assertThat(after[i]).isBetween(Math.min(current[i], target[i]), Math.max(current[i], target[i]));
+        }
+    }
+
+    private static int totalMoved(List<RebalancePlanner.Move> moves) {
+        return moves.stream().mapToInt(RebalancePlanner.Move::quantity).sum();
+    }
+
+    @Test
+    void surplusIsSentToNearestDeficit() {
+        // 0 dư 2; trạm 1 (gần, ~1.1 km) và 2 (xa, ~11 km) mỗi trạm thiếu 2
+        double[] lat = {10.00, 10.01, 10.10};
+        double[] lng = {106.00, 106.00, 106.00};
+        int[] current = {7, 3, 3};
+        int[] target = {5, 5, 5};
+
+        List<RebalancePlanner.Move> moves = RebalancePlanner.plan(lat, lng, current, target, K);
+
+        assertThat(moves).hasSize(1);
+        RebalancePlanner.Move move = moves.get(0);
+        assertThat(move.from()).isZero();
+        assertThat(move.to()).isEqualTo(1);
+        assertThat(move.quantity()).isEqualTo(2);
+        assertThat(move.distanceKm()).isBetween(1.0, 1.2);
+    }
+
+    @Test
+    void everyDeficitIsCoveredWhenSupplySuffices() {
+        double[] lat = {10.00, 10.02, 10.04, 10.06};
+        double[] lng = {106.00, 106.01, 106.02, 106.00};
+        int[] current = {9, 1, 4, 6};
+        int[] target = {4, 4, 4, 4};
+
+        List<RebalancePlanner.Move> moves = RebalancePlanner.plan(lat, lng, current, target, K);
+        int[] after = apply(current, moves);
+
+        assertWithinTargets(current, target, after);
+        assertThat(after[1]).isEqualTo(4);
+        assertThat(after[0] + after[3]).isEqualTo(12);
+    }
+
+    @Test
+    void infeasibleDemandMovesAllAvailableSurplus() {
+        // Dư tổng 2 nhưng thiếu tổng 6: chuyển hết 2, không trạm dư nào xuống dưới mục tiêu
+        double[] lat = {10.00, 10.01, 10.02};
+        double[] lng = {106.00, 106.00, 106.00};
+        int[] current = {6, 0, 1};
+        int[] target = {4, 4, 3};
+
+        List<RebalancePlanner.Move> moves = RebalancePlanner.plan(lat, lng, current, target, K);
+        int[] after = apply(current, moves);
+
+        assertWithinTargets(current, target, after);
+        assertThat(after[0]).isEqualTo(4);
+        assertThat(after[1] + after[2]).isEqualTo(3);
+    }
+
+    @Test
+    void zeroDemandProducesNoMoves() {
+        double[] lat = {10.00, 10.01, 10.02};
+        double[] lng = {106.00, 106.00, 106.00};
+
+        assertThat(RebalancePlanner.plan(lat, lng, new int[]{4, 4, 4}, new int[]{4, 4, 4}, K)).isEmpty();
+        assertThat(RebalancePlanner.plan(lat, lng, new int[]{9, 4, 6}, new int[]{4, 4, 4}, K)).isEmpty();
+    }
+
+    @Test
+    void noSurplusProducesNoMoves() {
+        double[] lat = {10.00, 10.01};
+        double[] lng = {106.00, 106.00};
+
+        assertThat(RebalancePlanner.plan(lat, lng, new int[]{1, 2}, new int[]{4, 4}, K)).isEmpty();
+    }
+
+    @Test
+    void singleStationProducesNoMoves() {
+        assertThat(RebalancePlanner.plan(new double[]{10.0}, new double[]{106.0}, new int[]{9}, new int[]{1}, K)).isEmpty();
+    }
+
+    // ===================== SO VỚI MÔ HÌNH MIP CŨ =====================
+
+    /** Trạm ngẫu nhiên quanh TP.HCM (seed cố định), mục tiêu 10 pin / trạm. */
+    private record Instance(double[] lat, double[] lng, int[] current, int[] target, int surplus, int deficit) {
+        static Instance random(int n, long seed) {
+            Random random = new Random(seed);
+            double[] lat = new double[n];
+            double[] lng = new double[n];
+            int[] current = new int[n];
+            int[] target = new int[n];
+            int surplus = 0, deficit = 0;
+            for (int i = 0; i < n; i++) {
+                lat[i] = 10.6 + random.nextDouble() * 0.4;
+                lng[i] = 106.5 + random.nextDouble() * 0.4;
+                current[i] = random.nextInt(20);
+                target[i] = 10;
+                surplus += Math.max(0, current[i] - target[i]);
+                deficit += Math.max(0, target[i] - current[i]);
+            }
+            return new Instance(lat, lng, current, target, surplus, deficit);
+        }
+
+        double distanceKm(int i, int j) {
+            return GeoUtils.haversineKm(lat[i], lng[i], lat[j], lng[j]);
+        }
+    }
+
+    /** Tổng pin và tổng pin × km của 1 nghiệm. */
+    private record PlanCost(long delivered, double cost) {}
+
+    private static PlanCost costOf(Instance inst, List<RebalancePlanner.Move> moves) {
+        int[] after = apply(inst.current(), moves);
+        assertWithinTargets(inst.current(), inst.target(), after);
+        long delivered = 0;
+        for (int i = 0; i < after.length; i++) delivered += Math.max(0, after[i] - inst.current()[i]);
+        double cost = 0;
+        for (RebalancePlanner.Move m : moves) cost += m.quantity() * m.distanceKm();
+        return new PlanCost(delivered, cost);
+    }
+
+    /**
+     * Mô hình cũ của getAiSuggestions (trước khi chuyển sang min-cost flow): x[i][j] nguyên cho mọi cặp trạm,
+     * thiếu hụt phạt SHORTAGE_PENALTY, không gửi quá số pin hiện có, current - out + in + shortage >= target.
+     * Chi phí dùng cùng khoảng cách haversine (km) với planner mới để so được tổng chi phí.
+     */
+    private static PlanCost denseMip(Instance inst) {
+        final double SHORTAGE_PENALTY = 1000.0;
+        int n = inst.current().length;
+        ExpressionsBasedModel model = new ExpressionsBasedModel();
+        Variable[][] x = new Variable[n][n];
+        Variable[] shortage = new Variable[n];
+
+        for (int i = 0; i < n; i++) {
+            shortage[i] = model.addVariable("shortage_" + i).lower(0).weight(SHORTAGE_PENALTY);
+            Expression sendLimit = model.addExpression("send_limit_" + i);
+            for (int j = 0; j < n; j++) {
+                if (i == j) continue;
+                x[i][j] = model.addVariable("x_" + i + "_to_" + j).lower(0).integer(true).weight(inst.distanceKm(i, j));
+                sendLimit.set(x[i][j], 1);
+            }
+            sendLimit.upper(inst.current()[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            Expression balance = model.addExpression("balance_" + i);
+            for (int j = 0; j < n; j++) {
+                if (i == j) continue;
+                balance.set(x[i][j], -1);
+                balance.set(x[j][i], 1);
+            }
+            balance.set(shortage[i], 1);
+            balance.lower(inst.target()[i] - inst.current()[i]);
+        }
+
+        Optimisation.Result result = model.minimise();
+        assertThat(result.getState().isFailure()).isFalse();
+
+        long[] net = new long[n];
+        double cost = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i == j) continue;
+                long qty = Math.round(result.get(model.indexOf(x[i][j])).doubleValue());
+                if (qty <= 0) continue;
+                net[i] -= qty;
+                net[j] += qty;
+                cost += qty * inst.distanceKm(i, j);
+            }
+        }
+        long delivered = 0;
+        for (long v : net) delivered += Math.max(0, v);
+        return new PlanCost(delivered, cost);
+    }
+
+    @Test
+    void planCostMatchesDenseMipOnSmallInstances() {
+        for (long seed = 1; seed <= 3; seed++) {
+            Instance inst = Instance.random(50, seed);
+
+            PlanCost planned = costOf(inst, RebalancePlanner.plan(inst.lat(), inst.lng(), inst.current(), inst.target(), K));
+            PlanCost baseline = denseMip(inst);
+
+            assertThat(planned.delivered()).isEqualTo(Math.min(inst.surplus(), inst.deficit()));
+            assertThat(planned.delivered()).isEqualTo(baseline.delivered());
+            assertThat(planned.cost()).isLessThanOrEqualTo(baseline.cost() * MAX_COST_RATIO);
+        }
+    }
+
+    /**
+     * Benchmark (chỉ chạy với -Pbenchmark): planner mới so với MIP cũ trên cùng bộ trạm 50 / 500.
+     * Mỗi cỡ: cùng lượng pin được chuyển, tổng pin × km không quá MAX_COST_RATIO lần nghiệm MIP.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkAgainstDenseMip() {
+        for (int n : new int[]{50, 500}) {
+            Instance inst = Instance.random(n, 42);
+
+            long start = System.nanoTime();
+            List<RebalancePlanner.Move> moves = RebalancePlanner.plan(inst.lat(), inst.lng(), inst.current(), inst.target(), K);
+            long plannerNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            PlanCost baseline = denseMip(inst);
+            long mipNanos = System.nanoTime() - start;
+
+            PlanCost planned = costOf(inst, moves);
+            log.info("Rebalance {} trạm: min-cost flow {} ms, {} pin, {} pin·km | MIP cũ {} ms, {} pin, {} pin·km",
+                    n, plannerNanos / 1_000_000, planned.delivered(), String.format("%.1f", planned.cost()),
+                    mipNanos / 1_000_000, baseline.delivered(), String.format("%.1f", baseline.cost()));
+
+            assertThat(planned.delivered()).isEqualTo(baseline.delivered());
+            assertThat(planned.cost()).isLessThanOrEqualTo(baseline.cost() * MAX_COST_RATIO);
+            assertThat(plannerNanos).isLessThan(mipNanos);
+        }
+    }
+
+    /**
+     * Benchmark (chỉ chạy với -Pbenchmark): planner mới tới 5000 trạm, nơi MIP cũ (25 triệu biến) không chạy nổi.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkPlan() {
+        for (int n : new int[]{50, 500, 5_000}) {
+            Instance inst = Instance.random(n, 42);
+
+            long best = Long.MAX_VALUE;
+            List<RebalancePlanner.Move> moves = List.of();
+            for (int run = 0; run < 3; run++) {
+                long start = System.nanoTime();
+                moves = RebalancePlanner.plan(inst.lat(), inst.lng(), inst.current(), inst.target(), K);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+
+            PlanCost planned = costOf(inst, moves);
+            assertThat(planned.delivered()).isEqualTo(Math.min(inst.surplus(), inst.deficit()));
+            log.info("RebalancePlanner.plan: {} trạm – {} chặng, {} pin – best {} ms",
+                    n, moves.size(), totalMoved(moves), best / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.dto.ReportExportJobDTO;
+import BatterySwapStation.service.ReportExportJobService.Artifact;
+import BatterySwapStation.service.ReportExportService.ExportFormat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ReportExportJobServiceTest {
+
+    private static final LocalDate START = LocalDate.of(2025, 1, 1);
+    private static final LocalDate END = LocalDate.of(2025, 1, 31);
+
+    @TempDir
+    Path cacheDir;
+
+    private ReportExportJobService service;
+    // Cổng đã mở: job xuất chạy ngay
+    private final CountDownLatch open = new CountDownLatch(0);
+
+    private ReportExportJobService newService(long ttlMinutes, CountDownLatch gate) throws Exception {
+        ReportExportService exportService = mock(ReportExportService.class);
+        doAnswer(inv -> {
+            gate.await(10, TimeUnit.SECONDS);
+            inv.getArgument(3, OutputStream.class).write("report".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(exportService).writeAllReports(any(), any(), any(), any());
+
+        service = new ReportExportJobService(exportService, cacheDir.toString(), 1, 10, ttlMinutes, 60);
+        service.init();
+        return service;
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (service != null) service.shutdown();
+    }
+
+    private long cacheFiles() throws Exception {
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            return files.filter(f -> f.getFileName().toString().matches("[0-9a-f]{64}\\.csv")).count();
+        }
+    }
+
+    @Test
+    void initPurgesOnlyCacheFiles() throws Exception {
+        Path artifact = Files.writeString(cacheDir.resolve("a".repeat(64) + ".xlsx"), "old");
+        Path part = Files.writeString(cacheDir.resolve("export-123.part"), "old");
+        Path foreign = Files.writeString(cacheDir.resolve("notes.txt"), "keep");
+        Path foreignXlsx = Files.writeString(cacheDir.resolve("monthly.xlsx"), "keep");
+
+        newService(30, open);
+
+        assertThat(artifact).doesNotExist();
+        assertThat(part).doesNotExist();
+        assertThat(foreign).exists();
+        assertThat(foreignXlsx).exists();
+    }
+
+    @Test
+    void cacheHitReusesCompletedJob() throws Exception {
+        newService(30, open);
+        ReportExportJobDTO built = service.submit(START, END, ExportFormat.CSV);
+        Artifact artifact = service.awaitArtifact(built.getJobId(), Duration.ofSeconds(10));
+        assertThat(artifact).isNotNull();
+
+        ReportExportJobDTO first = service.submit(START, END, ExportFormat.CSV);
+        ReportExportJobDTO second = service.submit(START, END, ExportFormat.CSV);
+
+        assertThat(first.getJobId()).isEqualTo(built.getJobId());
+        assertThat(second.getJobId()).isEqualTo(first.getJobId());
+        assertThat(first.getStatus()).isEqualTo(ReportExportJobDTO.Status.COMPLETED);
+        assertThat(first.getEtag()).isEqualTo(artifact.etag());
+    }
+
+    @Test
+    void awaitTimeoutKeepsTheSameRunningJob() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        newService(30, gate);
+        ReportExportJobDTO job = service.submit(START, END, ExportFormat.CSV);
+
+        // Hết thời gian chờ: không có file, job vẫn chạy và lần submit sau trả đúng job đó
+        assertThat(service.awaitArtifact(job.getJobId(), Duration.ofMillis(50))).isNull();
+        assertThat(service.submit(START, END, ExportFormat.CSV).getJobId()).isEqualTo(job.getJobId());
+
+        gate.countDown();
+        assertThat(service.awaitArtifact(job.getJobId(), Duration.ofSeconds(10))).isNotNull();
+    }
+
+    @Test
+    void expiredFileIsDeletedOnEvict() throws Exception {
+        // TTL 0: file hết hạn ngay khi tạo xong
+        newService(0, open);
+        ReportExportJobDTO job = service.submit(START, END, ExportFormat.CSV);
+        service.awaitArtifact(job.getJobId(), Duration.ofSeconds(10));
+        assertThat(service.getJob(job.getJobId()).getStatus()).isEqualTo(ReportExportJobDTO.Status.COMPLETED);
+        assertThat(cacheFiles()).isEqualTo(1);
+
+        service.evictExpired();
+
+        assertThat(cacheFiles()).isZero();
+        assertThat(service.getArtifact(job.getJobId())).isNull();
+    }
+}
@@ -0,0 +1,125 @@
+package BatterySwapStation.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CsvTokenizerTest {
+
+    private static List<List<String>> parse(Reader reader) throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(reader);
+        List<List<String>> records = new ArrayList<>();
+        for (List<String> r; (r = tokenizer.next()) != null; ) records.add(r);
+        return records;
+    }
+
+    private static List<List<String>> parse(String csv) throws IOException {
+        return parse(new StringReader(csv));
+    }
+
+    @Test
+    void splitsPlainFields() throws IOException {
+        assertThat(parse("vin,plate,type\nVIN1,59A-123,FELIZ\n"))
+                .containsExactly(List.of("vin", "plate", "type"), List.of("VIN1", "59A-123", "FELIZ"));
+    }
+
+    @Test
+    void quotedFieldMayContainCommas() throws IOException {
+        assertThat(parse("\"Nguyễn, Văn A\",\"1, Võ Văn Ngân\",x"))
+                .containsExactly(List.of("Nguyễn, Văn A", "1, Võ Văn Ngân", "x"));
+    }
+
+    @Test
+    void doubledQuoteIsEscapedQuote() throws IOException {
+        assertThat(parse("\"Xe \"\"Klara\"\" đỏ\",\"\"\"\",\"\""))
+                .containsExactly(List.of("Xe \"Klara\" đỏ", "\"", ""));
+    }
+
+    @Test
+    void quotedFieldMayContainLineBreaks() throws IOException {
+        assertThat(parse("\"dòng 1\r\ndòng 2\",b\nc,d"))
+                .containsExactly(List.of("dòng 1\r\ndòng 2", "b"), List.of("c", "d"));
+    }
+
+    @Test
+    void acceptsCrLfCrAndLfLineEndings() throws IOException {
+        assertThat(parse("a,b\r\nc,d\re,f\ng,h\r\n"))
+                .containsExactly(List.of("a", "b"), List.of("c", "d"), List.of("e", "f"), List.of("g", "h"));
+    }
+
+    @Test
+    void lastRecordWithoutTrailingNewline() throws IOException {
+        assertThat(parse("a,b\nc,")).containsExactly(List.of("a", "b"), List.of("c", ""));
+    }
+
+    @Test
+    void emptyFieldsAndUntrimmedValuesArePreserved() throws IOException {
+        assertThat(parse(",, x ,\n")).containsExactly(List.of("", "", " x ", ""));
+    }
+
+    @Test
+    void quoteInsideUnquotedFieldIsLiteral() throws IOException {
+        assertThat(parse("5\"5,a")).containsExactly(List.of("5\"5", "a"));
+    }
+
+    @Test
+    void skipsUtf8BomOnlyAtStart() throws IOException {
+        assertThat(parse("\uFEFFvin,type\n\uFEFFx,y"))
+                .containsExactly(List.of("vin", "type"), List.of("\uFEFFx", "y"));
+    }
+
+    @Test
+    void emptyInputHasNoRecords() throws IOException {
+        assertThat(parse("")).isEmpty();
+        assertThat(parse("\uFEFF")).isEmpty();
+    }
+
+    @Test
+    void unterminatedQuoteFails() {
+        assertThatThrownBy(() -> parse("a,b\n\"abc,d\n"))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Bản ghi 2");
+    }
+
+    @Test
+    void recordNumberCountsRecordsNotLines() throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(new StringReader("a\n\"b\nb\"\nc\n"));
+        tokenizer.next();
+        tokenizer.next();
+        tokenizer.next();
+        assertThat(tokenizer.recordNumber()).isEqualTo(3);
+        assertThat(tokenizer.next()).isNull();
+    }
+
+    @Test
+    void handlesTokensSplitAcrossReads() throws IOException {
+        // Reader trả về từng ký tự: \r\n, "" và dấu nháy đóng rơi vào các lần đọc khác nhau
+        String csv = "\"a,\"\"b\"\"\",c\r\nd,e\r\n";
+        Reader oneCharAtATime = new StringReader(csv) {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                return super.read(cbuf, off, Math.min(len, 1));
+            }
+        };
+
+        assertThat(parse(oneCharAtATime)).containsExactly(List.of("a,\"b\"", "c"), List.of("d", "e"));
+    }
+
+    @Test
+    void largeInputSpanningManyBuffers() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 5000; i++) csv.append("VIN").append(i).append(",\"Trạm, số ").append(i).append("\"\r\n");
+
+        List<List<String>> records = parse(csv.toString());
+
+        assertThat(records).hasSize(5000);
+        assertThat(records.get(4999)).containsExactly("VIN4999", "Trạm, số 4999");
+    }
+}
@@ -0,0 +1,89 @@
+package BatterySwapStation.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MinCostFlowTest {
+
+    @Test
+    void saturatedNetworkUsesCheapestRouting() {
+        // s=0, t=3
+        MinCostFlow flow = new MinCostFlow(4, 5);
+        int s1 = flow.addEdge(0, 1, 2, 1);
+        int s2 = flow.addEdge(0, 2, 1, 2);
+        int e12 = flow.addEdge(1, 2, 1, 1);
+        int e1t = flow.addEdge(1, 3, 1, 3);
+        int e2t = flow.addEdge(2, 3, 2, 1);
+
+        long[] result = flow.run(0, 3);
+
+        assertThat(result).containsExactly(3, 10);
+        assertThat(flow.flow(s1)).isEqualTo(2);
+        assertThat(flow.flow(s2)).isEqualTo(1);
+        assertThat(flow.flow(e12)).isEqualTo(1);
+        assertThat(flow.flow(e1t)).isEqualTo(1);
+        assertThat(flow.flow(e2t)).isEqualTo(2);
+    }
+
+    @Test
+    void laterAugmentationCancelsFlowOnEarlierPath() {
+        // s=0, a=1, b=2, t=3. Đường rẻ nhất đầu tiên s-a-b-t (3) phải bị hủy một phần:
+        // tối ưu là s-a-t (5) + s-b-t (6) = 11, cạnh a→b không mang luồng.
+        MinCostFlow flow = new MinCostFlow(4, 5);
+        flow.addEdge(0, 1, 1, 1);
+        flow.addEdge(0, 2, 1, 5);
+        int ab = flow.addEdge(1, 2, 1, 1);
+        int at = flow.addEdge(1, 3, 1, 4);
+        int bt = flow.addEdge(2, 3, 1, 1);
+
+        long[] result = flow.run(0, 3);
+
+        assertThat(result).containsExactly(2, 11);
+        assertThat(flow.flow(ab)).isZero();
+        assertThat(flow.flow(at)).isEqualTo(1);
+        assertThat(flow.flow(bt)).isEqualTo(1);
+    }
+
+    @Test
+    void supplyBeyondSinkCapacityIsLimitedToMaxFlow() {
+        // Nguồn cấp 5 nhưng sink chỉ nhận 2
+        MinCostFlow flow = new MinCostFlow(3, 2);
+        int in = flow.addEdge(0, 1, 5, 0);
+        int out = flow.addEdge(1, 2, 2, 7);
+
+        long[] result = flow.run(0, 2);
+
+        assertThat(result).containsExactly(2, 14);
+        assertThat(flow.flow(in)).isEqualTo(2);
+        assertThat(flow.flow(out)).isEqualTo(2);
+    }
+
+    @Test
+    void disconnectedSinkGetsNoFlow() {
+        MinCostFlow flow = new MinCostFlow(4, 2);
+        int e = flow.addEdge(0, 1, 3, 1);
+        flow.addEdge(2, 3, 3, 1);
+
+        assertThat(flow.run(0, 3)).containsExactly(0, 0);
+        assertThat(flow.flow(e)).isZero();
+    }
+
+    @Test
+    void zeroCapacityMeansZeroFlow() {
+        MinCostFlow flow = new MinCostFlow(2, 1);
+        flow.addEdge(0, 1, 0, 1);
+
+        assertThat(flow.run(0, 1)).containsExactly(0, 0);
+    }
+
+    @Test
+    void edgeArraysGrowBeyondExpectedSize() {
+        // expectedEdges = 1 nhưng thêm 50 cạnh song song, chi phí khác nhau
+        MinCostFlow flow = new MinCostFlow(2, 1);
+        for (int c = 50; c >= 1; c--) flow.addEdge(0, 1, 1, c);
+
+        // Mảng cạnh phải tự mở rộng; luồng lớn nhất 50, tổng chi phí 1 + 2 + ... + 50
+        assertThat(flow.run(0, 1)).containsExactly(50, 1275);
+    }
+}
@@ -0,0 +1,56 @@
+package BatterySwapStation.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TokenBucketTest {
+
+    @Test
+    void burstIsServedWithoutWaiting() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1, 5);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) bucket.acquire();
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(500);
+    }
+
+    @Test
+    void acquiresBeyondBurstAreSpacedByRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(50, 1); // 1 token / 20 ms
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; i++) bucket.acquire();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Token đầu có sẵn, 5 token sau mỗi cái chờ ~20 ms
+        assertThat(elapsedMs).isGreaterThanOrEqualTo(90);
+    }
+
+    @Test
+    void nonPositiveBurstStillAllowsOnePermit() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(0.001, 0);
+
+        long start = System.nanoTime();
+        bucket.acquire();
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(500);
+    }
+
+    @Test
+    void waitingIsInterruptible() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(0.001, 1);
+        bucket.acquire(); // token có sẵn
+
+        Thread.currentThread().interrupt();
+        try {
+            assertThatThrownBy(bucket::acquire).isInstanceOf(InterruptedException.class);
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
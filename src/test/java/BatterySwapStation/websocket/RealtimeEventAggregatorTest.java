@@ -0,0 +1,79 @@
+package BatterySwapStation.websocket;
+
+import BatterySwapStation.dto.BatteryRealtimeBatch;
+import BatterySwapStation.dto.BatteryRealtimeEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class RealtimeEventAggregatorTest {
+
+    private final SimpMessagingTemplate messagingTemplate = mock(SimpMessagingTemplate.class);
+    private final StationStateVersions versions = new StationStateVersions(16);
+    private final RealtimeEventAggregator aggregator = new RealtimeEventAggregator(messagingTemplate, versions);
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private static BatteryRealtimeEvent event(int dockId, String status) {
+        return BatteryRealtimeEvent.builder().stationId(7).dockId(dockId).batteryId("BAT" + dockId)
+                .batteryStatus(status).build();
+    }
+
+    @Test
+    void eventsInTransactionGetSeqOnlyAfterCommit() {
+        long before = versions.currentVersion(7);
+        TransactionSynchronizationManager.initSynchronization();
+
+        aggregator.publishBatteryEvent(event(1, "CHARGING"));
+        aggregator.flush();
+        verifyNoInteractions(messagingTemplate);
+        assertThat(versions.currentVersion(7)).isEqualTo(before);
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        aggregator.flush();
+
+        ArgumentCaptor<Object> frame = ArgumentCaptor.forClass(Object.class);
+        verify(messagingTemplate).convertAndSend(eq("/topic/station-7"), frame.capture());
+        assertThat(((BatteryRealtimeBatch) frame.getValue()).getSeq()).isEqualTo(before + 1);
+    }
+
+    @Test
+    void rolledBackEventsAreNeverSent() {
+        TransactionSynchronizationManager.initSynchronization();
+        aggregator.publishBatteryEvent(event(1, "CHARGING"));
+
+        // Rollback: không gọi afterCommit
+        TransactionSynchronizationManager.clearSynchronization();
+        aggregator.flush();
+
+        verifyNoInteractions(messagingTemplate);
+    }
+
+    @Test
+    void updatesOfSameSlotAreMergedIntoOneFrame() {
+        aggregator.publishBatteryEvent(event(1, "CHARGING"));
+        aggregator.publishBatteryEvent(event(2, "AVAILABLE"));
+        aggregator.publishBatteryEvent(event(1, "AVAILABLE"));
+        aggregator.flush();
+
+        ArgumentCaptor<Object> frame = ArgumentCaptor.forClass(Object.class);
+        verify(messagingTemplate, times(1)).convertAndSend(eq("/topic/station-7"), frame.capture());
+        assertThat(((BatteryRealtimeBatch) frame.getValue()).getEvents())
+                .extracting(BatteryRealtimeEvent::getDockId, BatteryRealtimeEvent::getBatteryStatus)
+                .containsExactly(tuple(1, "AVAILABLE"),
+                        tuple(2, "AVAILABLE"));
+    }
+}
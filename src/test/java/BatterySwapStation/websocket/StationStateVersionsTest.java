@@ -0,0 +1,68 @@
+package BatterySwapStation.websocket;
+
+import BatterySwapStation.dto.BatteryRealtimeBatch;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StationStateVersionsTest {
+
+    private static final int STATION = 1;
+
+    private final StationStateVersions versions = new StationStateVersions(4);
+
+    private BatteryRealtimeBatch append() {
+        return versions.append(BatteryRealtimeBatch.builder().stationId(STATION).events(List.of()).build());
+    }
+
+    @Test
+    void seqIncreasesPerStation() {
+        long start = versions.currentVersion(STATION);
+
+        assertThat(append().getSeq()).isEqualTo(start + 1);
+        assertThat(append().getSeq()).isEqualTo(start + 2);
+        assertThat(versions.currentVersion(STATION)).isEqualTo(start + 2);
+        assertThat(versions.currentVersion(2)).isEqualTo(start);
+    }
+
+    @Test
+    void sinceReturnsMissedDeltasInOrder() {
+        long start = versions.currentVersion(STATION);
+        append();
+        append();
+        append();
+
+        assertThat(versions.since(STATION, start + 1))
+                .extracting(BatteryRealtimeBatch::getSeq)
+                .containsExactly(start + 2, start + 3);
+    }
+
+    @Test
+    void sinceCurrentVersionIsEmpty() {
+        append();
+        assertThat(versions.since(STATION, versions.currentVersion(STATION))).isEmpty();
+    }
+
+    @Test
+    void versionOutsideBufferNeedsSnapshot() {
+        long start = versions.currentVersion(STATION);
+        for (int i = 0; i < 6; i++) append(); // buffer 4 → seq start+1, start+2 đã bị ghi đè
+
+        assertThat(versions.since(STATION, start)).isNull();
+        assertThat(versions.since(STATION, start + 1)).isNull();
+        assertThat(versions.since(STATION, start + 2)).hasSize(4);
+    }
+
+    @Test
+    void unknownVersionsNeedSnapshot() {
+        append();
+        long current = versions.currentVersion(STATION);
+
+        assertThat(versions.since(STATION, current + 1)).isNull();  // version tương lai
+        assertThat(versions.since(STATION, 0)).isNull();            // version của lần chạy trước
+        assertThat(versions.since(STATION, -1)).isNull();
+        assertThat(versions.since(STATION, Long.MIN_VALUE)).isNull();
+    }
+}